@@ -46,6 +46,7 @@ import java.util.Properties;
 
 import org.axiondb.event.DatabaseModificationListener;
 import org.axiondb.functions.ConcreteFunction;
+import org.axiondb.util.CommandCache;
 
 /**
  * An Axion database.
@@ -61,6 +62,61 @@ public interface Database {
 
     public static String COMMIT_SIZE = "COMMITSIZE";
 
+    /**
+     * How disk tables read their rows: <code>channel</code> (the default),
+     * <code>stream</code> or <code>mmap</code>, e.g. <code>database.readmode=mmap</code>.
+     * A single table can override it with <code>database.readmode.&lt;table&gt;</code>, e.g.
+     * <code>database.readmode.orders=mmap</code>.
+     */
+    public static String READ_MODE = "READMODE";
+
+    /**
+     * Whether a disk database logs committed transactions to a write-ahead log, e.g.
+     * <code>database.writeaheadlog=true</code>.
+     */
+    public static String WRITE_AHEAD_LOG = "WRITEAHEADLOG";
+
+    /**
+     * How often, in milliseconds, the write-ahead log is checkpointed in the background,
+     * e.g. <code>database.walcheckpointinterval=10000</code>.
+     */
+    public static String WAL_CHECKPOINT_INTERVAL = "WALCHECKPOINTINTERVAL";
+
+    /**
+     * How often, in milliseconds, a disk database reclaims dead space in the data files
+     * of its tables in the background, e.g. <code>database.compactioninterval=60000</code>.
+     * Unset or 0 leaves dead space until the table is defragmented.
+     */
+    public static String COMPACTION_INTERVAL = "COMPACTIONINTERVAL";
+
+    /**
+     * The percentage of a disk table's data file that must be dead space before it is
+     * compacted in the background, e.g. <code>database.compactionthreshold=25</code>.
+     */
+    public static String COMPACTION_THRESHOLD = "COMPACTIONTHRESHOLD";
+
+    /**
+     * The number of bytes of rows, as estimated, an <code>ORDER BY</code> sorts in memory
+     * before spilling sorted runs to temporary files in the database directory, e.g.
+     * <code>database.sortbuffersize=16777216</code>. Unset or 0 sorts entirely in memory.
+     * Rows spilled this way can only be read forwards.
+     */
+    public static String SORT_BUFFER_SIZE = "SORTBUFFERSIZE";
+
+    /**
+     * The number of parsed statements kept for reuse by all connections, e.g.
+     * <code>database.commandcachesize=256</code>. Unset or 0, the default, parses every
+     * statement.
+     */
+    public static String COMMAND_CACHE_SIZE = "COMMANDCACHESIZE";
+
+    /**
+     * The number of threads a query may use to scan and filter a large disk table, e.g.
+     * <code>database.parallelism=8</code>. Unset or 1 scans on the querying thread, 0 uses
+     * one thread per available processor.
+     */
+    public static String PARALLELISM = "PARALLELISM";
+
     /** Adds a listener to receive events on this database */
     void addDatabaseModificationListener(DatabaseModificationListener l);
 
@@ -95,6 +151,12 @@ public interface Database {
 
     void createDatabaseLink(DatabaseLink dblink) throws AxionException;
 
+    /**
+     * Register the given {@link MaterializedView}, whose table must already have been
+     * added.
+     */
+    void createMaterializedView(MaterializedView view) throws AxionException;
+
     /**
      * Create a numeric sequence
      */
@@ -112,6 +174,11 @@ public interface Database {
      * Drop the given {@link Index}from this database.
      */
     void dropIndex(String name) throws AxionException;
+
+    /**
+     * Drop the specified {@link MaterializedView}and its table from this database.
+     */
+    void dropMaterializedView(String name) throws AxionException;
     
     /**
      * Drop the specified {@link Sequence}from this database.
@@ -127,6 +194,12 @@ public interface Database {
      */
     void dropTable(String name) throws AxionException;
     
+    /**
+     * Returns the {@link CommandCache} shared by all connections to this database, or
+     * <code>null</code> if statements are not cached.
+     */
+    CommandCache getCommandCache();
+
     DatabaseLink getDatabaseLink(String name);
     /** Returns all listeners set to receive events on this database */
     List getDatabaseModificationListeners();
@@ -143,6 +216,9 @@ public interface Database {
 
     List getDependentExternalDBTable(String name);
 
+    /** Returns the {@link MaterializedView}s whose query reads the given table. */
+    List getDependentMaterializedViews(String tableName);
+
     List getDependentViews(String tableName);
 
     ConcreteFunction getFunction(String name);
@@ -160,6 +236,11 @@ public interface Database {
      */
     String getName();
 
+    /**
+     * Get the specified {@link MaterializedView}, or <tt>null</tt> if there is none.
+     */
+    MaterializedView getMaterializedView(String name);
+
     /**
      * Get the specified {@link Sequence}, or <tt>null</tt> if no such sequence can be
      * found.
@@ -68,6 +68,9 @@ import org.w3c.dom.NodeList;
  * <DB-specific URL, e.g., jdbc:oracle:thin:@db1:1521:db1>' USERNAME=' <username>'
  * PASSWORD=' <password>');
  * </code>
+ * <p>
+ * The optional FETCHSIZE and BATCHSIZE properties tune how many rows are fetched from,
+ * and how many modifications are batched to, the external database at a time.
  *
  * @version  
  * @author Ahimanikya Satapathy
@@ -91,6 +94,9 @@ public class DatabaseLink {
         _catalogName = spec.getProperty(ExternalConnectionProvider.PROP_CATALOG);
         _schemaName = spec.getProperty(ExternalConnectionProvider.PROP_SCHEMA);
 
+        _fetchSize = parseSize(spec, PROP_FETCHSIZE, DEFAULT_FETCH_SIZE);
+        _batchSize = parseSize(spec, PROP_BATCHSIZE, DEFAULT_BATCH_SIZE);
+
         if ((_connProvider == null) &&
                 (_driverClass == null || _driverClass.trim().length() == 0 ||
                 _jdbcUrl == null || _jdbcUrl.trim().length() == 0 ||
@@ -114,6 +120,22 @@ public class DatabaseLink {
         return (ExternalConnectionProvider) connectionProvider;
     }
 
+    private static int parseSize(Properties spec, String key, int defaultValue) {
+        String value = spec.getProperty(key);
+        if (value == null || value.trim().length() == 0) {
+            return defaultValue;
+        }
+        try {
+            int size = Integer.parseInt(value.trim());
+            if (size > 0) {
+                return size;
+            }
+        } catch (NumberFormatException e) {
+            // fall through
+        }
+        throw new IllegalArgumentException("Invalid value for " + key + ": " + value);
+    }
+
     public Connection getConnection() throws AxionException {
         Connection conn = null;
         try {
@@ -284,12 +306,35 @@ public class DatabaseLink {
         return _userName;
     }
 
+    /**
+     * @return number of rows to fetch from the associated server at a time
+     */
+    public int getFetchSize() {
+        return _fetchSize;
+    }
+
+    /**
+     * @return number of modifications to send to the associated server in one batch
+     */
+    public int getBatchSize() {
+        return _batchSize;
+    }
+
     /**
      * @return connection properties
      */
     public Properties getProperties() {
         return _connSpec;
     }
+
+    /** Property key name for the number of rows to fetch at a time */
+    public static final String PROP_FETCHSIZE = "FETCHSIZE";
+    /** Property key name for the number of modifications to batch */
+    public static final String PROP_BATCHSIZE = "BATCHSIZE";
+
+    public static final int DEFAULT_FETCH_SIZE = 100; // 100 seems to be the best choice
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+
     private String _name = null;
     private String _driverClass = null;
     private String _jdbcUrl;
@@ -298,5 +343,7 @@ public class DatabaseLink {
     private String _catalogName;
     private String _schemaName;
     private Properties _connSpec;
+    private int _fetchSize;
+    private int _batchSize;
     private ExternalConnectionProvider _connProvider;
 }
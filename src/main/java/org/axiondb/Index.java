@@ -41,15 +41,16 @@
 package org.axiondb;
 
 import java.io.File;
+import java.util.List;
 
 import org.axiondb.event.TableModificationListener;
 
 /**
- * A database index. (Right now, this class assumes an Index over a single column.
- * Multipart indices will come later.)
+ * A database index. Most indices cover a single column; a multi-column index reports
+ * its leading column from {@link #getIndexedColumn} and all of its columns, in key
+ * order, from {@link #getIndexedColumns}.
  * <p>
- * TODO: Support expression and/or function e.g UPPER(name) <br>
- * TODO: Support for Multi column index, very useful for composite keys
+ * TODO: Support expression and/or function e.g UPPER(name)
  * 
  * @version  
  * @author Morgan Delagrange
@@ -62,6 +63,7 @@ public interface Index extends TableModificationListener {
     public static final String ARRAY = "array";
     public static final String BTREE = "btree";
     public static final String DEFAULT = "default";
+    public static final String PAGED_BTREE = "pagedbtree";
     public static final String TTREE = "ttree";
 
     void changeRowId(Table table, Row row, int oldId, int newId) throws AxionException;
@@ -71,6 +73,11 @@ public interface Index extends TableModificationListener {
      */
     Column getIndexedColumn();
 
+    /**
+     * Returns the {@link Column}s I index, leading column first.
+     */
+    List getIndexedColumns();
+
     IndexLoader getIndexLoader();
 
     /**
@@ -106,6 +113,13 @@ public interface Index extends TableModificationListener {
      */
     boolean isUnique();
 
+    /**
+     * Adds the given rows of <i>table</i> to me, as if each had been
+     * {@link #rowInserted inserted}. When I am empty I may build myself from the rows
+     * in a single pass instead.
+     */
+    void populate(Table table, RowIterator rows) throws AxionException;
+
     void save(File dataDirectory) throws AxionException;
 
     void saveAfterTruncate(File dataDirectory) throws AxionException;
@@ -0,0 +1,79 @@
+/*
+ * 
+ * =======================================================================
+ * Copyright (c) 2002-2005 Axion Development Team.  All rights reserved.
+ *  
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions 
+ * are met:
+ * 
+ * 1. Redistributions of source code must retain the above 
+ *    copyright notice, this list of conditions and the following 
+ *    disclaimer. 
+ *   
+ * 2. Redistributions in binary form must reproduce the above copyright 
+ *    notice, this list of conditions and the following disclaimer in 
+ *    the documentation and/or other materials provided with the 
+ *    distribution. 
+ *   
+ * 3. The names "Tigris", "Axion", nor the names of its contributors may 
+ *    not be used to endorse or promote products derived from this 
+ *    software without specific prior written permission. 
+ *  
+ * 4. Products derived from this software may not be called "Axion", nor 
+ *    may "Tigris" or "Axion" appear in their names without specific prior
+ *    written permission.
+ *   
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT 
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, 
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT 
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * =======================================================================
+ */
+
+package org.axiondb;
+
+import java.util.List;
+
+import org.axiondb.event.RowEvent;
+
+/**
+ * A materialized view: the rows of a query, stored in a regular {@link Table} of the
+ * same name so that they are read like those of any other table.
+ * <p>
+ * An incremental view is kept current as the rows of the table it reads change, within
+ * the transaction that changes them. Any other view is only recomputed by
+ * {@link #refresh}.
+ * 
+ * @version  
+ */
+public interface MaterializedView {
+
+    /** Returns my name, which is also the name of the table holding my rows. */
+    String getName();
+
+    /** Returns the text of the query whose rows I hold. */
+    String getQuery();
+
+    /** Returns the names of the tables my query reads. */
+    List getTableNames();
+
+    /** Returns true if I am maintained as the table I read changes. */
+    boolean isIncremental();
+
+    /** Replaces my rows with those my query currently returns. */
+    void refresh(Database db) throws AxionException;
+
+    /**
+     * Applies a change to a row of the table I read to my rows. Only called on
+     * incremental views.
+     */
+    void rowChanged(Database db, RowEvent event) throws AxionException;
+}
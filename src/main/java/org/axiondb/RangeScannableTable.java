@@ -0,0 +1,63 @@
+/*
+ * 
+ * =======================================================================
+ * Copyright (c) 2002-2005 Axion Development Team.  All rights reserved.
+ *  
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions 
+ * are met:
+ * 
+ * 1. Redistributions of source code must retain the above 
+ *    copyright notice, this list of conditions and the following 
+ *    disclaimer. 
+ *   
+ * 2. Redistributions in binary form must reproduce the above copyright 
+ *    notice, this list of conditions and the following disclaimer in 
+ *    the documentation and/or other materials provided with the 
+ *    distribution. 
+ *   
+ * 3. The names "Tigris", "Axion", nor the names of its contributors may 
+ *    not be used to endorse or promote products derived from this 
+ *    software without specific prior written permission. 
+ *  
+ * 4. Products derived from this software may not be called "Axion", nor 
+ *    may "Tigris" or "Axion" appear in their names without specific prior
+ *    written permission.
+ *   
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT 
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, 
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT 
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * =======================================================================
+ */
+
+package org.axiondb;
+
+/**
+ * A {@link Table} whose rows can be read by ranges of row identifiers, so that separate
+ * ranges may be scanned at the same time by different threads.
+ * 
+ * @version  
+ */
+public interface RangeScannableTable extends Table {
+
+    /**
+     * Returns one more than the largest row identifier currently in use, or -1 if my
+     * rows can't be read by range right now.
+     */
+    int getRowIdLimit() throws AxionException;
+
+    /**
+     * Returns an unmodifiable {@link RowIterator} over my rows whose identifiers are at
+     * least <i>fromId </i> and less than <i>toId </i>, in identifier order. It is safe to
+     * use iterators over distinct ranges from different threads.
+     */
+    RowIterator getRowIterator(int fromId, int toId) throws AxionException;
+}
@@ -70,6 +70,15 @@ public class RowDecorator {
         return colid.getDataType().convert(obj);
     }
     
+    /**
+     * Returns the position of the specified column in the rows I decorate, or -1 if the
+     * column is not known to me.
+     */
+    public int getFieldIndex(ColumnIdentifier colid) {
+        Integer index = (Integer) (_fieldMap.get(getCanonicalForm(colid)));
+        return null == index ? -1 : index.intValue();
+    }
+
     /** Gets the {@link Row}I'm currently decorating. */
     public Row getRow() {
         return _row;
@@ -45,9 +45,10 @@ import java.io.DataOutput;
 import java.io.IOException;
 import java.io.Serializable;
 import java.math.BigInteger;
-import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.axiondb.event.DatabaseSequenceEvent;
 import org.axiondb.event.SequenceModificationListener;
@@ -61,6 +62,13 @@ import org.axiondb.types.IntegerType;
  * sequence generator; otherwise, it is an ascending sequence generator.
  * <p>
  * Note: The data type of a sequence generator must be exact numeric with scale 0.
+ * <p>
+ * Values are reserved in blocks of {@link #getCacheSize cache size} values. Values
+ * within a block are handed out without locking, and
+ * {@link SequenceModificationListener listeners} are told once per block, with the
+ * first value not yet reserved. That value is also what {@link #write} persists, so
+ * values cached but not used when the database is closed are skipped. The default
+ * cache size of 1 reserves each value as it is used.
  * 
  * @version  
  * @author Chuck Burdick
@@ -75,14 +83,22 @@ public class Sequence implements Serializable {
      * Create a sequence with all ANSI 2003 parameters.
      */
     public Sequence(String name, DataType type, BigInteger startVal, BigInteger incrementBy, BigInteger maxValue, BigInteger minValue, boolean isCycle) {
+        this(name, type, startVal, incrementBy, maxValue, minValue, isCycle, DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * Create a sequence with all ANSI 2003 parameters, reserving <i>cacheSize </i>
+     * values at a time.
+     */
+    public Sequence(String name, DataType type, BigInteger startVal, BigInteger incrementBy, BigInteger maxValue, BigInteger minValue, boolean isCycle, int cacheSize) {
         _type = type;
         _nextValue = startVal;
         _incrementBy = incrementBy;
         _name = name.toUpperCase();
-        _listeners = new ArrayList();
         _maxValue = maxValue;
         _minValue = minValue;
         _isCycle = isCycle;
+        _cacheSize = cacheSize;
         assertRules();
     }
 
@@ -93,7 +109,6 @@ public class Sequence implements Serializable {
         _type = new IntegerType();
         _name = name.toUpperCase();
         _nextValue = BigInteger.valueOf(startVal);
-        _listeners = new ArrayList();
     }
 
     @SuppressWarnings("unchecked")
@@ -118,28 +133,39 @@ public class Sequence implements Serializable {
      * Increment and return the next value in this sequence.
      */
     public Object evaluate() throws AxionException {
-        _currValue = _nextValue;
-        _nextValue = _nextValue.add(_incrementBy);
-        if (_nextValue.compareTo(_minValue) == -1 || _nextValue.compareTo(_maxValue) == 1) {
-            if (_isCycle) {
-                _nextValue = _incrementBy.signum() == 1 ? _minValue : _maxValue;
-            } else {
-                throw new IllegalStateException("No more value available for this sequence...");
+        Block block = _block;
+        for (int i;;) {
+            if ((i = block.take()) != -1) {
+                Object value = block.getValue(i, _incrementBy);
+                _currValue = value;
+                return getDataType().convert(value);
             }
+            block = reserve(block);
         }
-
-        Iterator it = _listeners.iterator();
-        while (it.hasNext()) {
-            SequenceModificationListener cur = (SequenceModificationListener) it.next();
-            cur.sequenceIncremented(new DatabaseSequenceEvent(this));
-        }
-        return getDataType().convert(_currValue);
     }
 
     public Object getCuurentValue() throws AxionException {
         return getDataType().convert(_currValue);
     }
 
+    /**
+     * Get the number of values reserved at a time.
+     */
+    public int getCacheSize() {
+        return _cacheSize;
+    }
+
+    /**
+     * Set the number of values reserved at a time, taking effect when the current block
+     * of values runs out.
+     */
+    public void setCacheSize(int cacheSize) {
+        if (cacheSize < 1) {
+            throw new IllegalArgumentException("CacheSize Should be positive");
+        }
+        _cacheSize = cacheSize;
+    }
+
     public DataType getDataType() {
         return _type;
     }
@@ -166,7 +192,13 @@ public class Sequence implements Serializable {
     /**
      * Get the current value of this sequence.
      */
-    public Object getValue() throws AxionException {
+    public synchronized Object getValue() throws AxionException {
+        Block block = _block;
+        int taken = block.getTaken();
+        if (taken < block.getSize()) {
+            Object value = block.getValue(taken, _incrementBy);
+            return (value instanceof BigInteger) ? (BigInteger) value : BigInteger.valueOf(((Long) value).longValue());
+        }
         return _nextValue;
     }
 
@@ -198,7 +230,6 @@ public class Sequence implements Serializable {
         _maxValue = new BigInteger(in.readUTF(), Sequence.RADIX);
         _minValue = new BigInteger(in.readUTF(), Sequence.RADIX);
         _isCycle = in.readBoolean();
-        _listeners = new ArrayList();
     }
 
     /**
@@ -207,15 +238,32 @@ public class Sequence implements Serializable {
      * @param value the value to write, which must be {@link Sequence}
      */
     public void write(DataOutput out) throws IOException {
+        BigInteger nextValue;
+        synchronized (this) {
+            nextValue = _nextValue;
+        }
         out.writeUTF(getName());
         out.writeUTF(getDataType().getClass().getName());
-        out.writeUTF(_nextValue.toString(Sequence.RADIX));
+        out.writeUTF(nextValue.toString(Sequence.RADIX));
         out.writeUTF(getIncrementBy().toString(Sequence.RADIX));
         out.writeUTF(getMaxValue().toString(Sequence.RADIX));
         out.writeUTF(getMinValue().toString(Sequence.RADIX));
         out.writeBoolean(isCycle());
     }
 
+    /**
+     * Makes sure no value before <i>nextValue </i> is handed out again, as when
+     * recovering values that were reserved before a crash. Values already reserved
+     * beyond it are kept, unless I cycle.
+     */
+    public synchronized void skipTo(BigInteger nextValue) {
+        int cmp = nextValue.compareTo(_nextValue);
+        if (_isCycle || (_incrementBy.signum() == 1 ? cmp > 0 : cmp < 0)) {
+            _nextValue = nextValue;
+            _block = EMPTY_BLOCK;
+        }
+    }
+
     private void assertRules() {
         if (_incrementBy.signum() == 0) {
             throw new IllegalArgumentException("IncrementBy Should be non-zero numeric literal");
@@ -228,18 +276,120 @@ public class Sequence implements Serializable {
         if (_nextValue.compareTo(_minValue) == -1 || _nextValue.compareTo(_maxValue) == 1) {
             throw new IllegalArgumentException("StartValue Should be within min and max Value");
         }
+
+        if (_cacheSize < 1) {
+            throw new IllegalArgumentException("CacheSize Should be positive");
+        }
+    }
+
+    /**
+     * Reserves the next block of values once <i>exhausted </i> has run out, unless
+     * another thread already has, and tells my listeners about it.
+     */
+    private synchronized Block reserve(Block exhausted) throws AxionException {
+        if (_block != exhausted) {
+            return _block;
+        }
+
+        BigInteger start = _nextValue;
+        if (start.compareTo(_minValue) == -1 || start.compareTo(_maxValue) == 1) {
+            if (_isCycle) {
+                start = _incrementBy.signum() == 1 ? _minValue : _maxValue;
+            } else {
+                throw new IllegalStateException("No more value available for this sequence...");
+            }
+        }
+
+        // the number of values left before the end of the range, at most the cache size
+        BigInteger left = (_incrementBy.signum() == 1 ? _maxValue.subtract(start) : start.subtract(_minValue));
+        left = left.divide(_incrementBy.abs()).add(BigInteger.ONE);
+        int size = left.compareTo(BigInteger.valueOf(_cacheSize)) < 0 ? left.intValue() : _cacheSize;
+
+        _nextValue = start.add(_incrementBy.multiply(BigInteger.valueOf(size)));
+        _block = new Block(start, size, isLongRange());
+
+        if (!_listeners.isEmpty()) {
+            DatabaseSequenceEvent e = new DatabaseSequenceEvent(getName(), _nextValue);
+            Iterator it = _listeners.iterator();
+            while (it.hasNext()) {
+                SequenceModificationListener cur = (SequenceModificationListener) it.next();
+                cur.sequenceIncremented(e);
+            }
+        }
+        return _block;
+    }
+
+    /** Whether every value in my range and every step between them fits a long. */
+    private boolean isLongRange() {
+        return _minValue.bitLength() < 62 && _maxValue.bitLength() < 62 && _incrementBy.bitLength() < 62;
+    }
+
+    /**
+     * A block of reserved values, handed out in order by {@link #take}.
+     */
+    private static final class Block implements Serializable {
+        Block(BigInteger start, int size, boolean longRange) {
+            _size = size;
+            if (longRange) {
+                _longStart = start.longValue();
+            } else {
+                _start = start;
+            }
+        }
+
+        int getSize() {
+            return _size;
+        }
+
+        int getTaken() {
+            return _taken.get();
+        }
+
+        /** Claims the next value in this block, returning its index or -1 if none left. */
+        int take() {
+            for (;;) {
+                int i = _taken.get();
+                if (i >= _size) {
+                    return -1;
+                }
+                if (_taken.compareAndSet(i, i + 1)) {
+                    return i;
+                }
+            }
+        }
+
+        /** Returns the value at index <i>i </i>, a Long where the range allows it. */
+        Object getValue(int i, BigInteger incrementBy) {
+            if (null == _start) {
+                return Long.valueOf(_longStart + i * incrementBy.longValue());
+            }
+            return _start.add(incrementBy.multiply(BigInteger.valueOf(i)));
+        }
+
+        private final int _size;
+        private final AtomicInteger _taken = new AtomicInteger();
+        private long _longStart;
+        private BigInteger _start;
+
+        private static final long serialVersionUID = 2911513932839385297L;
     }
 
     public static int RADIX = 10;
+    public static final int DEFAULT_CACHE_SIZE = 1;
+
+    private static final Block EMPTY_BLOCK = new Block(BigInteger.ZERO, 0, true);
 
-    private BigInteger _currValue;
+    private volatile Block _block = EMPTY_BLOCK;
+    private int _cacheSize = DEFAULT_CACHE_SIZE;
+    private volatile Object _currValue;
     private BigInteger _incrementBy = BigInteger.valueOf(1);
     private boolean _isCycle = false;
 
-    private List _listeners = null;
+    private List _listeners = new CopyOnWriteArrayList();
     private BigInteger _maxValue = BigInteger.valueOf(Integer.MAX_VALUE);
     private BigInteger _minValue = BigInteger.valueOf(0);
     private String _name = null;
+    /** The first value not yet reserved; guarded by this sequence. */
     private BigInteger _nextValue;
     private DataType _type = null;
 
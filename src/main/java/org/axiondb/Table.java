@@ -303,5 +303,11 @@ public interface Table extends RowSource {
     Sequence getSequence();
     
     void setDeferAllConstraints(boolean deferAll);
+
+    /**
+     * Returns true if my constraints are checked when my changes are committed rather
+     * than as each row changes; see {@link #setDeferAllConstraints}.
+     */
+    boolean isDeferAllConstraints();
     
 }
@@ -40,12 +40,20 @@
 
 package org.axiondb.constraints;
 
+import java.util.List;
+
 import org.axiondb.AxionException;
+import org.axiondb.Column;
+import org.axiondb.ColumnIdentifier;
 import org.axiondb.Constraint;
 import org.axiondb.Database;
+import org.axiondb.Selectable;
+import org.axiondb.Table;
 import org.axiondb.TableIdentifier;
+import org.axiondb.engine.tables.AbstractBaseTable;
 import org.axiondb.event.RowEvent;
 import org.axiondb.util.StringIdentifierGenerator;
+import org.axiondb.util.Utils;
 
 /**
  * Abstract base {@link Constraint} implementation.
@@ -117,6 +125,32 @@ public abstract class BaseConstraint implements Constraint {
         }
     }
 
+    /**
+     * Returns true if the values of all the given {@link Selectable}s can be matched by
+     * hashing, so that a whole set of rows can be checked in one pass; see
+     * {@link Utils#isHashable}.
+     */
+    protected static boolean isHashable(List selectables) {
+        for (int i = 0, I = selectables.size(); i < I; i++) {
+            if (!Utils.isHashable(((Selectable) selectables.get(i)).getDataType())) {
+                return false;
+            }
+        }
+        return !selectables.isEmpty();
+    }
+
+    /**
+     * Returns true if looking up <i>count </i> keys one at a time through an index on
+     * <i>sel </i> should be cheaper than reading all of <i>table </i> once.
+     */
+    protected static boolean isIndexLookupCheaper(Table table, Selectable sel, int count) {
+        if (!(sel instanceof ColumnIdentifier)) {
+            return false;
+        }
+        Column column = table.getColumn(((ColumnIdentifier) sel).getName());
+        return null != column && table.isColumnIndexed(column) && count <= AbstractBaseTable.getIndexLookupLimit(table, column);
+    }
+
     protected TableIdentifier[] toArray(TableIdentifier table) {
         TableIdentifier[] tables = null;
         if(null != table) {
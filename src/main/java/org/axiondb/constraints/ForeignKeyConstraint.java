@@ -41,11 +41,15 @@
 package org.axiondb.constraints;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 
 import org.axiondb.AxionException;
 import org.axiondb.ColumnIdentifier;
+import org.axiondb.DataType;
 import org.axiondb.Database;
 import org.axiondb.Row;
 import org.axiondb.RowDecorator;
@@ -58,6 +62,7 @@ import org.axiondb.engine.SnapshotIsolationTransaction;
 import org.axiondb.engine.visitors.ResolveSelectableVisitor;
 import org.axiondb.event.RowEvent;
 import org.axiondb.event.RowInsertedEvent;
+import org.axiondb.util.Utils;
 
 /**
  * A FOREIGN KEY constraint
@@ -197,18 +202,7 @@ public class ForeignKeyConstraint extends BaseConstraint {
                 values.add(((Selectable) _parentColumns.get(i)).evaluate(dec));
             }
 
-            Table childTable = _childTable;
-            if (table instanceof TransactableTable) {
-                Iterator iter = ((TransactableTable) table).getTableModificationListeners();
-                while (iter.hasNext()) {
-                    Object db = iter.next();
-                    if (db instanceof SnapshotIsolationTransaction) {
-                        childTable = ((SnapshotIsolationTransaction) db).getTable(getChildTableName());
-                        break;
-                    }
-                }
-            }
-
+            Table childTable = getTransactionTable(table, getChildTableName(), _childTable);
             RowIterator matching = childTable.getMatchingRows(_childColumns, values, true);
             if (matching.hasNext()) {
                 if (_onDeleteActionType == CASCADE || _onDeleteActionType == SETNULL || _onDeleteActionType == SETDEFAULT) {
@@ -244,18 +238,7 @@ public class ForeignKeyConstraint extends BaseConstraint {
                 values.add(val);
             }
 
-            Table parentTable = _parentTable;
-            if (table instanceof TransactableTable) {
-                Iterator iter = ((TransactableTable) table).getTableModificationListeners();
-                while (iter.hasNext()) {
-                    Object db = iter.next();
-                    if (db instanceof SnapshotIsolationTransaction) {
-                        parentTable = ((SnapshotIsolationTransaction) db).getTable(getParentTableName());
-                        break;
-                    }
-                }
-            }
-
+            Table parentTable = getTransactionTable(table, getParentTableName(), _parentTable);
             RowIterator matching = parentTable.getMatchingRows(_parentColumns, values, true);
             if (matching.hasNext()) {
                 return true;
@@ -266,7 +249,11 @@ public class ForeignKeyConstraint extends BaseConstraint {
         return true;
     }
     
-    // TODO: We can (for sure) do better than this, I am too lazy now ;) -- Ahi
+    /**
+     * Checks all of <i>newRows </i> together. Unless an index lookup for each of their
+     * distinct keys is cheaper, the keys are hashed and the parent table is read once,
+     * rather than once for each row when the parent key lacks an index.
+     */
     public boolean evaluate(RowIterator oldRows, RowIterator newRows, Table table) throws AxionException {
         if (null == newRows || newRows.isEmpty()) {
             return true;
@@ -275,6 +262,28 @@ public class ForeignKeyConstraint extends BaseConstraint {
         RowDecorator dec = table.makeRowDecorator();
         Row oldRow = null;
         newRows.reset();
+        if (table.getName().equals(getChildTableName()) && isHashable(_childColumns) && isHashable(_parentColumns)) {
+            if(_childTable == null) {
+                _childTable = table;
+            }
+            Set keys = getParentKeys(newRows, dec);
+            if (null == keys) {
+                return false;
+            }
+            Table parentTable = getTransactionTable(table, getParentTableName(), _parentTable);
+            if (!isIndexLookupCheaper(parentTable, (Selectable) _parentColumns.get(0), keys.size())) {
+                return findParentKeys(parentTable, keys);
+            }
+            for (Iterator iter = keys.iterator(); iter.hasNext();) {
+                Object key = iter.next();
+                List values = (key instanceof List) ? (List) key : Collections.singletonList(key);
+                if (!parentTable.getMatchingRows(_parentColumns, values, true).hasNext()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
         if(oldRows != null) {
             oldRows.reset();
         }
@@ -288,6 +297,78 @@ public class ForeignKeyConstraint extends BaseConstraint {
         return true;
     }
 
+    /**
+     * Returns the distinct parent keys that <i>rows </i> of my child table refer to,
+     * converted to the types of the parent columns, or <code>null</code> if one of them
+     * can't be converted and so has no parent row.
+     */
+    @SuppressWarnings("unchecked")
+    private Set getParentKeys(RowIterator rows, RowDecorator dec) throws AxionException {
+        DataType[] types = new DataType[_parentColumns.size()];
+        for (int i = 0; i < types.length; i++) {
+            types[i] = ((Selectable) _parentColumns.get(i)).getDataType();
+        }
+
+        Set keys = new HashSet();
+        while (rows.hasNext()) {
+            dec.setRow(rows.next());
+            Object[] values = new Object[types.length];
+            boolean needsParent = true;
+            for (int i = 0; needsParent && i < types.length; i++) {
+                ColumnIdentifier colid = (ColumnIdentifier) _childColumns.get(i);
+                Object val = colid.evaluate(dec);
+                // as with a single row, a null or default value needs no parent row
+                if (val == null || val.equals(_childTable.getColumn(colid.getName()).getDefault())) {
+                    needsParent = false;
+                } else {
+                    try {
+                        values[i] = types[i].convert(val);
+                    } catch (AxionException e) {
+                        return null;
+                    }
+                }
+            }
+            if (needsParent) {
+                keys.add(Utils.toHashKey(values));
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Reads <i>parentTable </i> once, returning true if it has a row for each of
+     * <i>keys </i>, which are removed as they are found.
+     */
+    private boolean findParentKeys(Table parentTable, Set keys) throws AxionException {
+        RowDecorator dec = parentTable.makeRowDecorator();
+        Object[] values = new Object[_parentColumns.size()];
+        for (RowIterator iter = parentTable.getRowIterator(true); !keys.isEmpty() && iter.hasNext();) {
+            dec.setRow(iter.next());
+            for (int i = 0; i < values.length; i++) {
+                values[i] = ((Selectable) _parentColumns.get(i)).evaluate(dec);
+            }
+            keys.remove(Utils.toHashKey(values));
+        }
+        return keys.isEmpty();
+    }
+
+    /**
+     * Returns the view of the table named <i>name </i> that the transaction modifying
+     * <i>table </i> sees, or <i>defaultTable </i> if <i>table </i> isn't part of one.
+     */
+    private Table getTransactionTable(Table table, String name, Table defaultTable) throws AxionException {
+        if (table instanceof TransactableTable) {
+            Iterator iter = ((TransactableTable) table).getTableModificationListeners();
+            while (iter.hasNext()) {
+                Object db = iter.next();
+                if (db instanceof SnapshotIsolationTransaction) {
+                    return ((SnapshotIsolationTransaction) db).getTable(name);
+                }
+            }
+        }
+        return defaultTable;
+    }
+
     private boolean matchColumns(List tableCols, List pkCols) {
         if (tableCols.size() != pkCols.size()) {
             return false;
@@ -82,7 +82,7 @@ public class PrimaryKeyConstraint extends UniqueConstraint {
             return true;
         }
         
-        return NotNullConstraint.noneNull(newRows, table, getSelectables())&& super.evaluate(newRows, oldRows, table);
+        return NotNullConstraint.noneNull(newRows, table, getSelectables())&& super.evaluate(oldRows, newRows, table);
     }
     
     private static final long serialVersionUID = 110880489889407960L;
@@ -42,26 +42,22 @@ package org.axiondb.constraints;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.axiondb.AxionException;
-import org.axiondb.ColumnIdentifier;
-import org.axiondb.Index;
 import org.axiondb.Row;
 import org.axiondb.RowDecorator;
 import org.axiondb.RowIterator;
 import org.axiondb.Selectable;
 import org.axiondb.Table;
-import org.axiondb.engine.rowiterators.ChangingIndexedRowIterator;
-import org.axiondb.engine.rowiterators.IndexNestedLoopJoinedRowIterator;
-import org.axiondb.engine.rowiterators.MutableIndexedRowIterator;
-import org.axiondb.engine.rows.JoinedRow;
 import org.axiondb.event.RowEvent;
 import org.axiondb.event.RowInsertedEvent;
-import org.axiondb.functions.EqualFunction;
+import org.axiondb.util.Utils;
 
 /**
  * A UNIQUE constraint, which is violated when my collection of {@link Selectable}s is
@@ -127,49 +123,53 @@ public class UniqueConstraint extends BaseSelectableBasedConstraint {
         return true;
     }
 
+    /**
+     * Checks all of <i>newRows </i> together. Unless an index lookup for each of them is
+     * cheaper, their keys are hashed and <i>table </i> is read once, rather than once for
+     * each row that lacks an index.
+     */
     public boolean evaluate(RowIterator oldRows, RowIterator newRows, Table table) throws AxionException {
         if (null == newRows || newRows.isEmpty()) {
             return true;
         }
 
-        Selectable sel = getSelectable(0);
-        if (sel instanceof ColumnIdentifier) {
-            boolean update = (oldRows != null);
-            String key = sel.getName();
-            int colPos = table.getColumnIndex(key);
-            Index index = table.getIndexForColumn(table.getColumn(key));
-
-            MutableIndexedRowIterator currentRows = new ChangingIndexedRowIterator(index, table, new EqualFunction());
-            RowIterator matching = new IndexNestedLoopJoinedRowIterator(newRows, colPos, currentRows, colPos, false, false);
-
-            int lastId = -1;
-            matching.reset();
-            while (matching.hasNext()) {
-                JoinedRow joinRow = (JoinedRow) matching.next();
-                if (!update && !checkOtherColumns(joinRow, table)) {
+        newRows.reset();
+        RowDecorator dec = table.makeRowDecorator();
+        if (isHashable(getSelectableList()) && !isIndexLookupCheaper(table, getSelectable(0), newRows.size())) {
+            return evaluateAll(newRows, table, dec);
+        }
+
+        for (RowIterator iter = newRows; iter.hasNext();) {
+            Row row = iter.next();
+            RowEvent event = new RowInsertedEvent(table, null, row);
+            if (!evaluate(event, dec, true)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    private boolean evaluateAll(RowIterator newRows, Table table, RowDecorator dec) throws AxionException {
+        // the id of the changed row holding each key; no other row may hold it
+        Map keys = new HashMap();
+        while (newRows.hasNext()) {
+            Row row = newRows.next();
+            Object key = makeKey(dec, row);
+            if (null != key) {
+                Integer id = (Integer) keys.put(key, Integer.valueOf(row.getIdentifier()));
+                if (null != id && id.intValue() != row.getIdentifier()) {
                     return false;
-                } else {
-
-                    Row oldRow = joinRow.getRow(0);
-                    int acceptableRowId = oldRow.getIdentifier();
-
-                    if (-1 == acceptableRowId) {
-                        // in this case, any matching row causes failure
-                        return false;
-                    } else if (acceptableRowId == lastId) {
-                        return false;
-                    } else {
-                        lastId = oldRow.getIdentifier();
-                    }
                 }
             }
-        } else {
-            newRows.reset();
-            RowDecorator dec = table.makeRowDecorator();
-            for (RowIterator iter = newRows; iter.hasNext();) {
+        }
+
+        if (!keys.isEmpty()) {
+            for (RowIterator iter = table.getRowIterator(true); iter.hasNext();) {
                 Row row = iter.next();
-                RowEvent event = new RowInsertedEvent(table, null, row);
-                if (!evaluate(event, dec, true)) {
+                Object key = makeKey(dec, row);
+                Integer id = (null == key) ? null : (Integer) keys.get(key);
+                if (null != id && id.intValue() != row.getIdentifier()) {
                     return false;
                 }
             }
@@ -177,17 +177,20 @@ public class UniqueConstraint extends BaseSelectableBasedConstraint {
         return true;
     }
 
-    private boolean checkOtherColumns(JoinedRow joinRow, Table table) throws AxionException {
-        for (int i = 1, I = getSelectableCount(); i < I; i++) {
-            String key = getSelectable(i).getName();
-            int colPos = table.getColumnIndex(key);
-            Row oldRow = joinRow.getRow(0);
-            Row newRow = joinRow.getRow(1);
-            if (oldRow.get(colPos).equals(newRow.get(colPos))) {
-                return false;
+    /**
+     * Returns the values of my selectables for <i>row </i> as a hash key, or
+     * <code>null</code> if any of them is null, as it then never matches another row.
+     */
+    private Object makeKey(RowDecorator dec, Row row) throws AxionException {
+        dec.setRow(row);
+        Object[] values = new Object[getSelectableCount()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = getSelectable(i).evaluate(dec);
+            if (null == values[i]) {
+                return null;
             }
         }
-        return true;
+        return Utils.toHashKey(values);
     }
 
     @SuppressWarnings("unchecked")
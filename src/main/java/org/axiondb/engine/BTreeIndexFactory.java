@@ -40,11 +40,14 @@
 
 package org.axiondb.engine;
 
+import java.util.List;
+
 import org.axiondb.AxionException;
 import org.axiondb.Column;
 import org.axiondb.Index;
 import org.axiondb.IndexFactory;
 import org.axiondb.engine.indexes.BaseIndexFactory;
+import org.axiondb.engine.indexes.CompositeBTreeIndex;
 import org.axiondb.engine.indexes.IntBTreeIndex;
 import org.axiondb.engine.indexes.ObjectBTreeIndex;
 import org.axiondb.engine.indexes.StringBTreeIndex;
@@ -71,5 +74,16 @@ public class BTreeIndexFactory extends BaseIndexFactory implements IndexFactory
             return new ObjectBTreeIndex(name, col, unique);
         }
     }
+
+    /**
+     * Creates an index over the given {@link Column}s, leading column first, using a
+     * {@link CompositeBTreeIndex} when there is more than one.
+     */
+    public Index makeNewInstance(String name, List columns, boolean unique, boolean memorydb) throws AxionException {
+        if (columns.size() == 1) {
+            return makeNewInstance(name, (Column) columns.get(0), unique, memorydb);
+        }
+        return new CompositeBTreeIndex(name, columns, unique);
+    }
 }
 
@@ -46,12 +46,14 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.sql.DatabaseMetaData;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -66,6 +68,7 @@ import org.axiondb.FunctionFactory;
 import org.axiondb.Index;
 import org.axiondb.IndexFactory;
 import org.axiondb.Literal;
+import org.axiondb.MaterializedView;
 import org.axiondb.Row;
 import org.axiondb.Selectable;
 import org.axiondb.Sequence;
@@ -105,6 +108,7 @@ import org.axiondb.types.ShortType;
 import org.axiondb.types.StringType;
 import org.axiondb.types.TimeType;
 import org.axiondb.types.TimestampType;
+import org.axiondb.util.CommandCache;
 
 /**
  * Abstract base {@link Database}implementation.
@@ -141,15 +145,13 @@ public abstract class BaseDatabase implements Database {
             throw new AxionException("An index named " + index.getName() + " already exists");
         }
         
-        Column indexedColumn = index.getIndexedColumn();
-        if (table.isColumnIndexed(indexedColumn)) {
-            Iterator i = table.getIndices();
-            while (i.hasNext()) {
-                Index existing = (Index) i.next();
-                if (existing.getIndexedColumn().equals(indexedColumn) && index.getClass() == existing.getClass()) {
-                    throw new AxionException("Column " + indexedColumn + " is already indexed " + "by an existing index, " + existing.getName()
-                            + ", of the same type");
-                }
+        List indexedColumns = index.getIndexedColumns();
+        Iterator i = table.getIndices();
+        while (i.hasNext()) {
+            Index existing = (Index) i.next();
+            if (existing.getIndexedColumns().equals(indexedColumns) && index.getClass() == existing.getClass()) {
+                String cols = indexedColumns.size() == 1 ? "Column " + indexedColumns.get(0) : "Columns " + indexedColumns;
+                throw new AxionException(cols + " is already indexed " + "by an existing index, " + existing.getName() + ", of the same type");
             }
         }
         
@@ -170,6 +172,7 @@ public abstract class BaseDatabase implements Database {
         
         _indices.put(index.getName(), new Object[] { index, table});
         addIndexMetaEntry(index, table);
+        clearCommandCache();
     }
     
     @SuppressWarnings("unchecked")
@@ -211,6 +214,11 @@ public abstract class BaseDatabase implements Database {
         }
     }
     
+    @SuppressWarnings("unchecked")
+    public void createMaterializedView(MaterializedView view) throws AxionException {
+        _materializedViews.put(view.getName().toUpperCase(), view);
+    }
+    
     @SuppressWarnings("unchecked")
     public void createSequence(Sequence seq) throws AxionException {
         if (seq != null) {
@@ -274,6 +282,16 @@ public abstract class BaseDatabase implements Database {
         }
     }
     
+    public void dropMaterializedView(String name) throws AxionException {
+        String upName = name.toUpperCase();
+        if (null == _materializedViews.remove(upName)) {
+            throw new AxionException("No materialized view " + upName + " found");
+        }
+        if (hasTable(upName)) {
+            dropTable(upName);
+        }
+    }
+    
     public void dropIndex(String name) throws AxionException {
         String upName = name.toUpperCase();
         Object[] pair = (Object[]) (_indices.remove(upName));
@@ -285,6 +303,7 @@ public abstract class BaseDatabase implements Database {
         Table table = (Table) (pair[1]);
         table.removeIndex(index);
         removeIndexMetaEntry(index);
+        clearCommandCache();
     }
     
     public void dropSequence(String name) throws AxionException {
@@ -332,6 +351,29 @@ public abstract class BaseDatabase implements Database {
         }
     }
     
+    public synchronized CommandCache getCommandCache() {
+        if (null == _commandCache) {
+            int size = 0;
+            try {
+                size = Integer.parseInt((String) getGlobalVariable(COMMAND_CACHE_SIZE));
+            } catch (NumberFormatException e) {
+            }
+            if (size <= 0) {
+                return null;
+            }
+            _commandCache = new CommandCache(size);
+            addDatabaseModificationListener(_commandCache);
+        }
+        return _commandCache;
+    }
+
+    /** Cached commands were planned against the old indices, so a change empties the cache. */
+    private synchronized void clearCommandCache() {
+        if (null != _commandCache) {
+            _commandCache.clear();
+        }
+    }
+
     public DatabaseLink getDatabaseLink(String name) {
         return (DatabaseLink) _databaseLink.get(name.toUpperCase());
     }
@@ -350,6 +392,22 @@ public abstract class BaseDatabase implements Database {
     
     // --------------------------------------------------------------- Protected
     
+    @SuppressWarnings("unchecked")
+    public List getDependentMaterializedViews(String tableName) {
+        if (_materializedViews.isEmpty()) {
+            return Collections.EMPTY_LIST;
+        }
+        String upName = tableName.toUpperCase();
+        List views = new ArrayList();
+        for (Iterator i = _materializedViews.values().iterator(); i.hasNext();) {
+            MaterializedView view = (MaterializedView) i.next();
+            if (view.getTableNames().contains(upName)) {
+                views.add(view);
+            }
+        }
+        return views;
+    }
+    
     @SuppressWarnings("unchecked")
     public List getDependentExternalDBTable(String name) {
         String upName = name.toUpperCase();
@@ -406,6 +464,10 @@ public abstract class BaseDatabase implements Database {
         return _globalVariables.get(key.toUpperCase());
     }
     
+    public MaterializedView getMaterializedView(String name) {
+        return (MaterializedView) _materializedViews.get(name.toUpperCase());
+    }
+    
     public IndexFactory getIndexFactory(String name) {
         return (IndexFactory) (_indexTypes.get(name.toUpperCase()));
     }
@@ -523,6 +585,12 @@ public abstract class BaseDatabase implements Database {
     }
     
     public void shutdown() throws AxionException {
+        if (!_transactionManager.isShutdown()) {
+            // commits are applied in the background, so let the transaction manager
+            // apply what is left first; it calls back here once it has
+            _transactionManager.shutdown();
+            return;
+        }
         checkpoint();
         for (Iterator tables = _tables.values().iterator(); tables.hasNext();) {
             Table table = (Table) (tables.next());
@@ -827,29 +895,33 @@ public abstract class BaseDatabase implements Database {
     private void addIndexMetaEntry(Index index, Table table) throws AxionException {
         // FIXME: TYPE, ASC_OR_DESC, CARDINALITY, and PAGES need to be revisited as
         // placeholder values are returned.
-        Row row = new SimpleRow(14);
-        row.set(0, null);
-        row.set(1, null);
-        row.set(2, table.getName());
-        row.set(3, Boolean.valueOf(index.isUnique()));
-        row.set(4, null);
-        row.set(5, index.getName());
-        // FIXME: Clarify index types and how they map to those indicated in
-        // DatabaseMetaData
-        row.set(6, new Short(DatabaseMetaData.tableIndexOther));
-        row.set(7, Short.valueOf("1"));
-        row.set(8, index.getIndexedColumn().getName());
-        // Determine sort order if any and set accordingly
-        row.set(9, null);
-        // Determine number of unique values in index
-        row.set(10, new Short(Short.MAX_VALUE));
-        // Determine number of pages used for current index
-        row.set(11, new Short(Short.MAX_VALUE));
-        row.set(12, null);
-        // This column is Axion-specific and indicates the basic indexing strategy
-        row.set(13, (index instanceof BaseBTreeIndex) ? "BTREE" : "ARRAY");
-        
-        this.getTable(SYSTABLE_INDEX_INFO).addRow(row);
+        // one row per indexed column, as DatabaseMetaData.getIndexInfo expects
+        List columns = index.getIndexedColumns();
+        for (int i = 0, I = columns.size(); i < I; i++) {
+            Row row = new SimpleRow(14);
+            row.set(0, null);
+            row.set(1, null);
+            row.set(2, table.getName());
+            row.set(3, Boolean.valueOf(index.isUnique()));
+            row.set(4, null);
+            row.set(5, index.getName());
+            // FIXME: Clarify index types and how they map to those indicated in
+            // DatabaseMetaData
+            row.set(6, new Short(DatabaseMetaData.tableIndexOther));
+            row.set(7, Short.valueOf((short) (i + 1)));
+            row.set(8, ((Column) columns.get(i)).getName());
+            // Determine sort order if any and set accordingly
+            row.set(9, null);
+            // Determine number of unique values in index
+            row.set(10, new Short(Short.MAX_VALUE));
+            // Determine number of pages used for current index
+            row.set(11, new Short(Short.MAX_VALUE));
+            row.set(12, null);
+            // This column is Axion-specific and indicates the basic indexing strategy
+            row.set(13, (index instanceof BaseBTreeIndex) ? "BTREE" : "ARRAY");
+            
+            this.getTable(SYSTABLE_INDEX_INFO).addRow(row);
+        }
     }
     
     @SuppressWarnings("unchecked")
@@ -1019,6 +1091,7 @@ public abstract class BaseDatabase implements Database {
     private static Logger _log = Logger.getLogger(BaseDatabase.class.getName());
     private static Properties _props;
     
+    private CommandCache _commandCache;
     private Map _databaseLink = new HashMap();
     private Map _dataTypes = new HashMap();
     private Map _functions = new HashMap();
@@ -1026,6 +1099,7 @@ public abstract class BaseDatabase implements Database {
     private Map _indexTypes = new HashMap();
     private Map _indices = new HashMap();
     private List _listeners = new ArrayList();
+    private Map _materializedViews = new ConcurrentHashMap();
     private String _name;
     private boolean _readOnly = false;
     private Map _sequences = new HashMap();
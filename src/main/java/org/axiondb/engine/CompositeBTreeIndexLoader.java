@@ -0,0 +1,141 @@
+/*
+ * 
+ * =======================================================================
+ * Copyright (c) 2002-2005 Axion Development Team.  All rights reserved.
+ *  
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions 
+ * are met:
+ * 
+ * 1. Redistributions of source code must retain the above 
+ *    copyright notice, this list of conditions and the following 
+ *    disclaimer. 
+ *   
+ * 2. Redistributions in binary form must reproduce the above copyright 
+ *    notice, this list of conditions and the following disclaimer in 
+ *    the documentation and/or other materials provided with the 
+ *    distribution. 
+ *   
+ * 3. The names "Tigris", "Axion", nor the names of its contributors may 
+ *    not be used to endorse or promote products derived from this 
+ *    software without specific prior written permission. 
+ *  
+ * 4. Products derived from this software may not be called "Axion", nor 
+ *    may "Tigris" or "Axion" appear in their names without specific prior
+ *    written permission.
+ *   
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT 
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, 
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT 
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * =======================================================================
+ */
+
+package org.axiondb.engine;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.axiondb.AxionException;
+import org.axiondb.Column;
+import org.axiondb.Index;
+import org.axiondb.IndexLoader;
+import org.axiondb.Table;
+import org.axiondb.engine.indexes.CompositeBTreeIndex;
+import org.axiondb.io.AxionFileSystem;
+
+/**
+ * An {@link IndexLoader} for {@link CompositeBTreeIndex}. The data file records the
+ * number of indexed columns followed by their names, in index order.
+ * 
+ * @version  
+ */
+public class CompositeBTreeIndexLoader implements IndexLoader {
+    public CompositeBTreeIndexLoader() {
+    }
+
+    @SuppressWarnings("unchecked")
+    public Index loadIndex(Table table, File dataDirectory) throws AxionException {
+        ObjectInputStream in = null;
+        try {
+            String name = dataDirectory.getName();
+            File file = new File(dataDirectory, name + ".DATA");
+            in = FS.openObjectInputSteam(file);
+
+            int ver = in.readInt(); // read version number
+            if (ver != 1) {
+                throw new AxionException("Can't parse data file " + file + " for index " + name + ", unrecognized data file version " + ver);
+            }
+
+            int count = in.readInt(); // read column count
+            List columns = new ArrayList(count);
+            for (int i = 0; i < count; i++) {
+                String col = in.readUTF(); // read column name
+                Column column = table.getColumn(col);
+                if (null == column) {
+                    throw new AxionException("Column " + col + " of index " + name + " not found in table " + table.getName());
+                }
+                columns.add(column);
+            }
+            boolean unique = in.readBoolean(); // read unique flag
+            return new CompositeBTreeIndex(name, columns, unique, dataDirectory);
+        } catch (IOException e) {
+            throw new AxionException(e);
+        } finally {
+            FS.closeInputStream(in);
+        }
+    }
+
+    public void saveIndex(Index ndx, File dataDirectory) throws AxionException {
+        CompositeBTreeIndex index = (CompositeBTreeIndex) ndx;
+        ObjectOutputStream out = null;
+        try {
+            String name = index.getName();
+            File file = new File(dataDirectory, name + ".DATA");
+            out = FS.createObjectOutputSteam(file);
+            out.writeInt(1); // write version number
+            List columns = index.getIndexedColumns();
+            out.writeInt(columns.size()); // write column count
+            for (int i = 0, I = columns.size(); i < I; i++) {
+                out.writeUTF(((Column) columns.get(i)).getName()); // write column name
+            }
+            out.writeBoolean(index.isUnique()); // write unique flag
+        } catch (IOException e) {
+            throw new AxionException(e);
+        } finally {
+            FS.closeOutputStream(out);
+        }
+
+        try {
+            index.getBTree().save(dataDirectory);
+        } catch (IOException e) {
+            throw new AxionException(e);
+        } catch (ClassNotFoundException e) {
+            throw new AxionException(e);
+        }
+    }
+
+    public void saveIndexAfterTruncate(Index ndx, File dataDirectory) throws AxionException {
+        CompositeBTreeIndex index = (CompositeBTreeIndex) ndx;
+        try {
+            index.getBTree().saveAfterTruncate();
+        } catch (IOException e) {
+            throw new AxionException(e);
+        } catch (ClassNotFoundException e) {
+            throw new AxionException(e);
+        }
+    }
+
+    private static AxionFileSystem FS = new AxionFileSystem();
+}
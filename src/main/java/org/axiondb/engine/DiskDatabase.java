@@ -43,6 +43,7 @@ package org.axiondb.engine;
 import java.io.BufferedInputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileFilter;
 import java.io.FileInputStream;
@@ -53,6 +54,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Properties;
@@ -60,12 +62,16 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.axiondb.AxionException;
+import org.axiondb.Database;
 import org.axiondb.DatabaseLink;
+import org.axiondb.MaterializedView;
 import org.axiondb.Sequence;
 import org.axiondb.Table;
 import org.axiondb.TableFactory;
 import org.axiondb.engine.commands.AlterTableCommand;
+import org.axiondb.engine.commands.MaterializedViewImpl;
 import org.axiondb.engine.tables.BaseDiskTable;
+import org.axiondb.engine.tables.DiskTable;
 import org.axiondb.engine.tables.MemoryTable;
 import org.axiondb.engine.tables.TableViewFactory;
 import org.axiondb.io.FileUtil;
@@ -120,10 +126,13 @@ public class DiskDatabase extends BaseDatabase {
         loadProperties(props);
         loadDBLinks();
         loadTables(_dbDir);
+        loadMaterializedViews();
         loadSequences();
         
         if (!isReadOnly()) {
             writeDbVersion();
+            openWriteAheadLog();
+            startCompactor();
         }
         _log.log(Level.FINE,"Disk-based database construction successful");
     }
@@ -149,20 +158,33 @@ public class DiskDatabase extends BaseDatabase {
     }
     
     @Override
-    public void checkpoint() throws AxionException {
+    @SuppressWarnings("unchecked")
+    public synchronized void checkpoint() throws AxionException {
         super.checkpoint();
         if (getSequenceCount() != 0) {
-            File seqFile = getDbFileName(".SEQ");
+            // written aside and renamed into place, so that a crash can't leave it torn;
+            // connections closing together would otherwise share the file
+            File tmpFile = getDbFileName(".SEQ.TMP");
             DataOutputStream out = null;
             try {
-                out = new DataOutputStream(new FileOutputStream(seqFile));
-                out.writeInt(getSequenceCount());
-                
+                out = new DataOutputStream(new FileOutputStream(tmpFile));
+                List sequences = new ArrayList();
                 for (Iterator i = getSequences(); i.hasNext();) {
-                    Sequence cur = (Sequence) (i.next());
+                    sequences.add(i.next());
+                }
+                out.writeInt(sequences.size());
+                
+                for (int i = 0, I = sequences.size(); i < I; i++) {
+                    Sequence cur = (Sequence) (sequences.get(i));
                     cur.write(out);
                 }
-                out.flush();
+                
+                // cache sizes follow the sequences, so older versions can still read them
+                for (int i = 0, I = sequences.size(); i < I; i++) {
+                    out.writeInt(((Sequence) (sequences.get(i))).getCacheSize());
+                }
+                out.close();
+                out = null;
             } catch (IOException e) {
                 String msg = "Unable to persist sequence file";
                 _log.log(Level.SEVERE,msg, e);
@@ -170,6 +192,7 @@ public class DiskDatabase extends BaseDatabase {
             } finally {
                 closeOutputStream(out);
             }
+            FileUtil.replace(tmpFile, getDbFileName(".SEQ"));
         }
     }
     
@@ -185,6 +208,9 @@ public class DiskDatabase extends BaseDatabase {
     @Override
     public void createSequence(Sequence seq) throws AxionException {
         super.createSequence(seq);
+        if (null != _writeAheadLog && null != seq) {
+            seq.addSequenceModificationListener(_writeAheadLog);
+        }
         checkpoint();
     }
     
@@ -218,6 +244,59 @@ public class DiskDatabase extends BaseDatabase {
         }
     }
     
+    /**
+     * Reclaims dead space in the data files of my tables in which at least the
+     * {@link Database#COMPACTION_THRESHOLD}percentage of the file is dead, without
+     * taking them offline the way {@link #defragTable}does. Each table is compacted a
+     * segment at a time. Rows are moved under the table's own lock while transactions
+     * go on reading it, but the file is only cut back while no open transaction has
+     * read it. Returns the number of bytes reclaimed.
+     */
+    @SuppressWarnings("unchecked")
+    public long compact() throws AxionException {
+        TransactionManagerImpl manager = (TransactionManagerImpl) getTransactionManager();
+        List names = new ArrayList();
+        synchronized (manager) {
+            for (Iterator i = getTables(); i.hasNext();) {
+                Table table = (Table) (i.next());
+                if (table instanceof DiskTable) {
+                    names.add(table.getName());
+                }
+            }
+        }
+
+        long reclaimed = 0;
+        for (Iterator i = names.iterator(); i.hasNext();) {
+            String name = (String) i.next();
+            for (long step = 1; step > 0;) {
+                Table table;
+                synchronized (manager) {
+                    table = manager.isShutdown() ? null : getTable(name);
+                }
+                if (!(table instanceof DiskTable)) {
+                    break;
+                }
+                long moved;
+                synchronized (_compactionLock) {
+                    moved = _compactionStopped ? 0 : ((DiskTable) table).compact(_compactionThreshold);
+                }
+                if (moved == 0) {
+                    break;
+                }
+                // hold the transaction manager's lock, so that no transaction starts
+                // reading the table while the old places of the moved rows are cut off
+                synchronized (manager) {
+                    if (manager.isShutdown() || manager.isTableInUse(name) || getTable(name) != table) {
+                        break;
+                    }
+                    step = ((DiskTable) table).cutDataFile();
+                }
+                reclaimed += step;
+            }
+        }
+        return reclaimed;
+    }
+
     public File getDBDirectory() {
         return _dbDir;
     }
@@ -252,6 +331,19 @@ public class DiskDatabase extends BaseDatabase {
     
     @Override
     public void shutdown() throws AxionException {
+        if (!getTransactionManager().isShutdown()) {
+            getTransactionManager().shutdown();
+            return;
+        }
+        if (null != _compactor) {
+            _compactor.interrupt();
+            _compactor = null;
+        }
+        // wait for a table being compacted to be left alone before the tables are closed
+        synchronized (_compactionLock) {
+            _compactionStopped = true;
+        }
+        ((TransactionManagerImpl) getTransactionManager()).closeWriteAheadLog();
         super.shutdown();
         releaseLockFile();
     }
@@ -280,6 +372,47 @@ public class DiskDatabase extends BaseDatabase {
         super.dropDatabaseLink(name);
     }
     
+    @Override
+    public void createMaterializedView(MaterializedView view) throws AxionException {
+        Properties prop = new Properties();
+        prop.setProperty(MVIEW_QUERY, view.getQuery());
+        prop.setProperty(MVIEW_REFRESH, view.isIncremental() ? MVIEW_REFRESH_INCREMENTAL : MVIEW_REFRESH_DEMAND);
+        StringBuffer tables = new StringBuffer();
+        for (Iterator i = view.getTableNames().iterator(); i.hasNext();) {
+            tables.append(tables.length() == 0 ? "" : ",").append(i.next());
+        }
+        prop.setProperty(MVIEW_TABLES, tables.toString());
+
+        File views = new File(getDBDirectory(), MVIEW_DIR);
+        if (!views.exists()) {
+            views.mkdir();
+        }
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(new File(views, view.getName().toUpperCase() + ".mview"));
+            prop.store(out, "Materialized view");
+        } catch (IOException e) {
+            throw new AxionException("Unable to persist materialized view " + view.getName(), e);
+        } finally {
+            try {
+                if (out != null) {
+                    out.close();
+                }
+            } catch (IOException e) {
+            }
+        }
+        super.createMaterializedView(view);
+    }
+    
+    @Override
+    public void dropMaterializedView(String name) throws AxionException {
+        File view = new File(new File(getDBDirectory(), MVIEW_DIR), name.toUpperCase() + ".mview");
+        if (view.exists()) {
+            view.delete();
+        }
+        super.dropMaterializedView(name);
+    }
+    
     private void persistDBLink(DatabaseLink dblink) throws IOException {
         File links = new File(getDBDirectory().getAbsolutePath(), "DBLINK");
         if(!links.exists()) {
@@ -351,6 +484,72 @@ public class DiskDatabase extends BaseDatabase {
         }
     }
     
+    /**
+     * Replays any write-ahead log left by a previous run and, if
+     * {@link Database#WRITE_AHEAD_LOG}is set, keeps logging committed transactions to it.
+     */
+    private void openWriteAheadLog() throws AxionException {
+        File logFile = getDbFileName(".WAL");
+        boolean enabled = Boolean.valueOf((String) getGlobalVariable(Database.WRITE_AHEAD_LOG)).booleanValue();
+        if (!enabled && !logFile.exists()) {
+            return;
+        }
+
+        WriteAheadLog wal = new WriteAheadLog(logFile);
+        int count = wal.replay(this);
+        if (count > 0) {
+            _log.log(Level.INFO, "Replayed " + count + " transactions from " + logFile);
+            checkpoint();
+            FileUtil.sync(_dbDir, logFile);
+        }
+        wal.truncate();
+
+        if (enabled) {
+            long interval = DEFAULT_WAL_CHECKPOINT_INTERVAL;
+            String value = (String) getGlobalVariable(Database.WAL_CHECKPOINT_INTERVAL);
+            if (null != value) {
+                try {
+                    interval = Long.parseLong(value.trim());
+                } catch (NumberFormatException e) {
+                    throw new AxionException("Invalid " + Database.WAL_CHECKPOINT_INTERVAL + " " + value);
+                }
+            }
+            for (Iterator iter = getSequences(); iter.hasNext();) {
+                ((Sequence) iter.next()).addSequenceModificationListener(wal);
+            }
+            _writeAheadLog = wal;
+            ((TransactionManagerImpl) getTransactionManager()).setWriteAheadLog(wal, interval);
+        } else {
+            wal.close();
+            logFile.delete();
+        }
+    }
+    
+    /**
+     * Starts compacting my tables in the background, if
+     * {@link Database#COMPACTION_INTERVAL}is set.
+     */
+    private void startCompactor() throws AxionException {
+        long interval = parseLongVariable(Database.COMPACTION_INTERVAL, 0);
+        _compactionThreshold = (int) parseLongVariable(Database.COMPACTION_THRESHOLD, DEFAULT_COMPACTION_THRESHOLD);
+        if (interval > 0) {
+            _compactor = new Compactor(interval);
+            _compactor.start();
+        }
+    }
+
+    private long parseLongVariable(String name, long defaultValue) throws AxionException {
+        String value = (String) getGlobalVariable(name);
+        if (null == value) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            throw new AxionException("Invalid " + name + " " + value);
+        }
+    }
+
     private void loadSequences() throws AxionException {
         File seqFile = getDbFileName(".SEQ");
         if (seqFile.exists()) {
@@ -358,6 +557,7 @@ public class DiskDatabase extends BaseDatabase {
             try {
                 in = new DataInputStream(new FileInputStream(seqFile));
                 int size = in.readInt();
+                Sequence[] sequences = new Sequence[size];
                 
                 for (int i = 0; i < size; i++) {
                     Sequence seq;
@@ -370,6 +570,15 @@ public class DiskDatabase extends BaseDatabase {
                         seq = new Sequence(name, value);
                     }
                     super.createSequence(seq);
+                    sequences[i] = seq;
+                }
+                
+                try {
+                    for (int i = 0; i < size; i++) {
+                        sequences[i].setCacheSize(in.readInt());
+                    }
+                } catch (EOFException e) {
+                    // written by an older version without cache sizes
                 }
             } catch (Exception e) {
                 String msg = "Unable to read sequence file";
@@ -525,13 +734,87 @@ public class DiskDatabase extends BaseDatabase {
         }
     }
     
+    private void loadMaterializedViews() throws AxionException {
+        File views = new File(getDBDirectory(), MVIEW_DIR);
+        File[] files = views.listFiles(new FilenameFilter() {
+            public boolean accept(File dir, String name) {
+                return name.endsWith(".mview");
+            }
+        });
+        if (files == null) {
+            return;
+        }
+        for (int i = 0; i < files.length; i++) {
+            String name = files[i].getName().substring(0, files[i].getName().indexOf("."));
+            Properties prop = new Properties();
+            InputStream in = null;
+            try {
+                in = new FileInputStream(files[i]);
+                prop.load(in);
+            } catch (IOException e) {
+                throw new AxionException("Unable to read materialized view " + name, e);
+            } finally {
+                try {
+                    if (in != null) {
+                        in.close();
+                    }
+                } catch (IOException e) {
+                }
+            }
+            String tables = prop.getProperty(MVIEW_TABLES, "");
+            List tableNames = tables.length() == 0 ? new ArrayList() : Arrays.asList(tables.split(","));
+            boolean incremental = MVIEW_REFRESH_INCREMENTAL.equals(prop.getProperty(MVIEW_REFRESH));
+            super.createMaterializedView(new MaterializedViewImpl(name, prop.getProperty(MVIEW_QUERY), incremental, tableNames));
+        }
+    }
+    
+    /** Periodically reclaims dead space in the data files of my tables. */
+    private class Compactor extends Thread {
+        Compactor(long interval) {
+            super("Axion compaction " + DiskDatabase.this.getName());
+            setDaemon(true);
+            _interval = interval;
+        }
+
+        public void run() {
+            while (!isInterrupted()) {
+                try {
+                    Thread.sleep(_interval);
+                    long reclaimed = compact();
+                    if (reclaimed > 0) {
+                        _log.log(Level.FINE, "Reclaimed " + reclaimed + " bytes of dead space");
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                } catch (AxionException e) {
+                    _log.log(Level.WARNING, "Unable to compact tables", e);
+                }
+            }
+        }
+
+        private long _interval;
+    }
+
     //-------------------------------------------------------------- Attributes
     
     private static final TableFactory DEFAULT_TABLE_FACTORY = new DiskTableFactory();
+    private static final int DEFAULT_COMPACTION_THRESHOLD = 25;
+    private static final long DEFAULT_WAL_CHECKPOINT_INTERVAL = 10000L;
     private static final String IGNORE_LOCK_FILE_PROPERTY_NAME = "org.axiondb.engine.DiskDatabase.IGNORE_LOCK_FILE";
     private static final String LOCK_FILE_NAME = "lockfile.txt";
+    private static final String MVIEW_DIR = "MVIEW";
+    private static final String MVIEW_QUERY = "QUERY";
+    private static final String MVIEW_REFRESH = "REFRESH";
+    private static final String MVIEW_REFRESH_DEMAND = "DEMAND";
+    private static final String MVIEW_REFRESH_INCREMENTAL = "INCREMENTAL";
+    private static final String MVIEW_TABLES = "TABLES";
+    private Compactor _compactor = null;
+    private final Object _compactionLock = new Object();
+    private boolean _compactionStopped = false;
+    private int _compactionThreshold = DEFAULT_COMPACTION_THRESHOLD;
     private File _dbDir = null;
     private boolean _ignoreLockFile = false;
+    private WriteAheadLog _writeAheadLog = null;
     private static final int DB_MAJOR_VERSION = 0;
     private static final int DB_MINOR_VERSION = 3; // XXX CHANGE ME ON RELEASE XXX
     private static final int DB_INTERNAL_MINOR_VERSION = 1; // XXX RESET TO 0 ON RELEASE
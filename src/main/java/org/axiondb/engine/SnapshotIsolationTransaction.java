@@ -41,6 +41,7 @@
 package org.axiondb.engine;
 
 import java.io.File;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -55,6 +56,7 @@ import org.axiondb.Database;
 import org.axiondb.DatabaseLink;
 import org.axiondb.Index;
 import org.axiondb.IndexFactory;
+import org.axiondb.MaterializedView;
 import org.axiondb.Sequence;
 import org.axiondb.Table;
 import org.axiondb.TableFactory;
@@ -69,6 +71,7 @@ import org.axiondb.event.DatabaseModificationListener;
 import org.axiondb.event.RowEvent;
 import org.axiondb.event.TableModificationListener;
 import org.axiondb.functions.ConcreteFunction;
+import org.axiondb.util.CommandCache;
 
 /**
  * A {@link Transaction}implementation that provides "snapshot isolation", which supports
@@ -91,10 +94,12 @@ public class SnapshotIsolationTransaction implements Transaction, TableModificat
     }
 
     public void addIndex(Index index, Table table) throws AxionException {
+        applyCommitted();
         _openOnTransaction.addIndex(index, table);
     }
 
     public void addIndex(Index index, Table table, boolean doPopulate) throws AxionException {
+        applyCommitted();
         _openOnTransaction.addIndex(index, table, doPopulate);
     }
 
@@ -134,13 +139,18 @@ public class SnapshotIsolationTransaction implements Transaction, TableModificat
     public TransactableTable commit(TableIdentifier tid) throws AxionException {
         assertOpen();
 
-        // remove the old transaction table
-        if (_wrappedTables.containsKey(tid.getTableName())) {
-            TransactableTable ttable = (TransactableTable) _wrappedTables.remove(tid.getTableName());
-            ttable.commit();
-            ttable.apply();
-            _readTables.remove(tid.getTableName());
-            _modifiedTables.remove(tid.getTableName());
+        // my changes are written through the transactions I was opened on, so those have
+        // to be applied first, and can't be while I write; until then I keep my changes
+        TransactionManager tm = getTransactionManager();
+        synchronized (tm) {
+            if (_wrappedTables.containsKey(tid.getTableName()) && applyUnreadCommitted()) {
+                // remove the old transaction table
+                TransactableTable ttable = (TransactableTable) _wrappedTables.remove(tid.getTableName());
+                ttable.commit();
+                ttable.apply();
+                _readTables.remove(tid.getTableName());
+                _modifiedTables.remove(tid.getTableName());
+            }
         }
 
         return getWrappedTable(tid);
@@ -160,11 +170,16 @@ public class SnapshotIsolationTransaction implements Transaction, TableModificat
         _openOnTransaction.createDatabaseLink(server);
     }
 
+    public void createMaterializedView(MaterializedView view) throws AxionException {
+        _openOnTransaction.createMaterializedView(view);
+    }
+
     public void createSequence(Sequence seq) throws AxionException {
         _openOnTransaction.createSequence(seq);
     }
 
     public int defragTable(String tableName) throws AxionException {
+        applyCommitted();
         if (_wrappedTables.containsKey(tableName)) {
 
             // Apply any pending transaction before renaming it.
@@ -196,11 +211,22 @@ public class SnapshotIsolationTransaction implements Transaction, TableModificat
         _openOnTransaction.dropIndex(name);
     }
 
+    public void dropMaterializedView(String name) throws AxionException {
+        applyCommitted();
+        _openOnTransaction.dropMaterializedView(name);
+        String upName = name.toUpperCase();
+        if (_wrappedTables.containsKey(upName)) {
+            _wrappedTables.remove(upName);
+            _readTables.remove(upName);
+        }
+    }
+
     public void dropSequence(String name) throws AxionException {
         _openOnTransaction.dropSequence(name);
     }
 
     public void dropTable(String name) throws AxionException {
+        applyCommitted();
         _openOnTransaction.dropTable(name);
         if (_wrappedTables.containsKey(name)) {
             _wrappedTables.remove(name);
@@ -212,6 +238,10 @@ public class SnapshotIsolationTransaction implements Transaction, TableModificat
         return _contextVariables.get(key);
     }
 
+    public CommandCache getCommandCache() {
+        return _openOnTransaction.getCommandCache();
+    }
+
     public DatabaseLink getDatabaseLink(String name) {
         return _openOnTransaction.getDatabaseLink(name);
     }
@@ -232,6 +262,10 @@ public class SnapshotIsolationTransaction implements Transaction, TableModificat
         return _openOnTransaction.getDependentExternalDBTable(name);
     }
 
+    public List getDependentMaterializedViews(String tableName) {
+        return _openOnTransaction.getDependentMaterializedViews(tableName);
+    }
+
     public List getDependentViews(String tableName) {
         return _openOnTransaction.getDependentViews(tableName);
     }
@@ -248,6 +282,10 @@ public class SnapshotIsolationTransaction implements Transaction, TableModificat
         return _openOnTransaction.getIndexFactory(name);
     }
 
+    public MaterializedView getMaterializedView(String name) {
+        return _openOnTransaction.getMaterializedView(name);
+    }
+
     public Set getModifiedTables() {
         return _modifiedTables;
     }
@@ -260,10 +298,42 @@ public class SnapshotIsolationTransaction implements Transaction, TableModificat
         return _openOnTransaction;
     }
 
+    /**
+     * Moves me on top of <code>db</code>, the transaction that committed last, when I
+     * commit after it without conflicting with it. Transactions opened on me then see its
+     * changes beneath mine, rather than only what I was opened on.
+     */
+    void rebase(Database db) throws AxionException {
+        for (Iterator iter = _wrappedTables.entrySet().iterator(); iter.hasNext();) {
+            Map.Entry entry = (Map.Entry) iter.next();
+            String name = (String) entry.getKey();
+            if (entry.getValue() instanceof TransactableTableImpl && db.hasTable(name)) {
+                ((TransactableTableImpl) entry.getValue()).rebase(db.getTable(name));
+            }
+        }
+        _openOnTransaction = db;
+    }
+
     public Set getReadTables() {
         return _readTables;
     }
 
+    /**
+     * Returns the {@link TransactableTable}s I have opened, one per table read or
+     * modified.
+     */
+    public Collection getTransactableTables() {
+        return _wrappedTables.values();
+    }
+
+    /**
+     * Returns the {@link TransactableTable}I have opened for the given table, or
+     * <code>null</code> if I haven't opened one.
+     */
+    public TransactableTable getTransactableTable(String name) {
+        return (TransactableTable) _wrappedTables.get(name);
+    }
+
     public Sequence getSequence(String name) {
         return _openOnTransaction.getSequence(name);
     }
@@ -273,10 +343,15 @@ public class SnapshotIsolationTransaction implements Transaction, TableModificat
     }
 
     public Table getTable(String name) throws AxionException {
-        return getWrappedTable(new TableIdentifier(name));
+        return getTable(new TableIdentifier(name));
     }
 
     public Table getTable(TableIdentifier table) throws AxionException {
+        if (STATE_OPEN != _state && !_wrappedTables.containsKey(table.getTableName())) {
+            // once committed I can't change a table I haven't wrapped, so transactions
+            // opened on me see it as I would have
+            return _openOnTransaction.getTable(table);
+        }
         return getWrappedTable(table);
     }
 
@@ -334,6 +409,7 @@ public class SnapshotIsolationTransaction implements Transaction, TableModificat
     }
 
     public void renameTable(String oldName, String newName, Properties newTableProp) throws AxionException {
+        applyCommitted();
         if (_wrappedTables.containsKey(oldName)) {
 
             // Apply any pending transaction before renaming it.
@@ -363,16 +439,33 @@ public class SnapshotIsolationTransaction implements Transaction, TableModificat
     @SuppressWarnings("unchecked")
     public void rowDeleted(RowEvent event) throws AxionException {
         _modifiedTables.add(event.getTable().getName());
+        maintainMaterializedViews(event);
     }
 
     @SuppressWarnings("unchecked")
     public void rowInserted(RowEvent event) throws AxionException {
         _modifiedTables.add(event.getTable().getName());
+        maintainMaterializedViews(event);
     }
 
     @SuppressWarnings("unchecked")
     public void rowUpdated(RowEvent event) throws AxionException {
         _modifiedTables.add(event.getTable().getName());
+        maintainMaterializedViews(event);
+    }
+
+    /**
+     * Applies a row change to the incremental materialized views that read the changed
+     * table, through me, so that their changes commit or roll back with it.
+     */
+    private void maintainMaterializedViews(RowEvent event) throws AxionException {
+        List views = _openOnTransaction.getDependentMaterializedViews(event.getTable().getName());
+        for (int i = 0, I = views.size(); i < I; i++) {
+            MaterializedView view = (MaterializedView) views.get(i);
+            if (view.isIncremental()) {
+                view.rowChanged(this, event);
+            }
+        }
     }
 
     public void shutdown() throws AxionException {
@@ -380,9 +473,34 @@ public class SnapshotIsolationTransaction implements Transaction, TableModificat
     }
 
     public void tableAltered(Table table) throws AxionException {
+        applyCommitted();
         _openOnTransaction.tableAltered(table);
     }
 
+    /**
+     * Has the committed transactions I can see applied, as far as possible, before I
+     * change the structure of a table they may have changed.
+     */
+    private void applyCommitted() throws AxionException {
+        TransactionManager tm = getTransactionManager();
+        if (tm instanceof TransactionManagerImpl) {
+            ((TransactionManagerImpl) tm).applyCommitted(this);
+        }
+    }
+
+    /**
+     * Has the committed transactions I can see applied, unless one of them changed a
+     * table that I or another open transaction may be reading, and returns true if all
+     * of them have been.
+     */
+    private boolean applyUnreadCommitted() throws AxionException {
+        TransactionManager tm = getTransactionManager();
+        if (tm instanceof TransactionManagerImpl) {
+            return ((TransactionManagerImpl) tm).applyUnreadCommitted(this);
+        }
+        return true;
+    }
+
     private void assertOpen() throws AxionException {
         if (STATE_OPEN != _state) {
             throw new AxionException("Already committed or rolled back.");
@@ -393,15 +511,23 @@ public class SnapshotIsolationTransaction implements Transaction, TableModificat
     private TransactableTable getWrappedTable(TableIdentifier id) throws AxionException {
         TransactableTable ttable = (TransactableTable) (_wrappedTables.get(id.getTableName()));
         if (null == ttable) {
-            Table table = _openOnTransaction.getTable(id);
-            if (null == table) {
-                return null;
+            // hold the transaction manager's lock, so that it can't apply a committed
+            // change to the table while I start reading it
+            TransactionManager tm = getTransactionManager();
+            synchronized (tm) {
+                if (tm instanceof TransactionManagerImpl) {
+                    ((TransactionManagerImpl) tm).waitForApplier(id.getTableName());
+                }
+                Table table = _openOnTransaction.getTable(id);
+                if (null == table) {
+                    return null;
+                }
+
+                ttable = table.makeTransactableTable();
+                ttable.addTableModificationListener(this);
+                _wrappedTables.put(id.getTableName(), ttable);
+                _readTables.add(ttable.getName());
             }
-
-            ttable = table.makeTransactableTable();
-            ttable.addTableModificationListener(this);
-            _wrappedTables.put(id.getTableName(), ttable);
-            _readTables.add(ttable.getName());
         }
         return ttable;
     }
@@ -41,6 +41,7 @@
 package org.axiondb.engine;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 
@@ -53,6 +54,7 @@ import org.axiondb.Constraint;
 import org.axiondb.Function;
 import org.axiondb.Index;
 import org.axiondb.Literal;
+import org.axiondb.RangeScannableTable;
 import org.axiondb.Row;
 import org.axiondb.RowCollection;
 import org.axiondb.RowComparator;
@@ -70,6 +72,7 @@ import org.axiondb.engine.rowiterators.AbstractAcceptingRowIterator;
 import org.axiondb.engine.rowiterators.ChainedRowIterator;
 import org.axiondb.engine.rowiterators.CollatingRowIterator;
 import org.axiondb.engine.rowiterators.DelegatingRowIterator;
+import org.axiondb.engine.rowiterators.FilteringRowIterator;
 import org.axiondb.engine.rowiterators.LazyRowRowIterator;
 import org.axiondb.engine.rowiterators.TransformingRowIterator;
 import org.axiondb.engine.rowiterators.UnmodifiableRowIterator;
@@ -78,6 +81,7 @@ import org.axiondb.event.RowDeletedEvent;
 import org.axiondb.event.RowEvent;
 import org.axiondb.event.RowInsertedEvent;
 import org.axiondb.event.RowUpdatedEvent;
+import org.axiondb.functions.AndFunction;
 import org.axiondb.functions.ComparisonFunction;
 
 /**
@@ -88,7 +92,7 @@ import org.axiondb.functions.ComparisonFunction;
  * @author Chuck Burdick
  * @author Ahimanikya Satapathy
  */
-public final class TransactableTableImpl extends AbstractBaseTable implements TransactableTable {
+public final class TransactableTableImpl extends AbstractBaseTable implements TransactableTable, RangeScannableTable {
 
     public TransactableTableImpl(Table table) {
         _table = table;
@@ -222,6 +226,7 @@ public final class TransactableTableImpl extends AbstractBaseTable implements Tr
     }
 
     public RowIterator getRowIterator(boolean readOnly) throws AxionException {
+        _readAll = true;
         if ((!readOnly) || hasUpdates() || hasDeletes() || hasInserts()) {
             ChainedRowIterator chain = new ChainedRowIterator();
             chain.addRowIterator(excludeDeletedTransformUpdated(_table.getRowIterator(readOnly)));
@@ -231,6 +236,22 @@ public final class TransactableTableImpl extends AbstractBaseTable implements Tr
         return UnmodifiableRowIterator.wrap(_table.getRowIterator(readOnly));
     }
 
+    /**
+     * Returns the row id limit of my underlying table, or -1 if it can't be scanned by
+     * range or I have uncommitted changes.
+     */
+    public int getRowIdLimit() throws AxionException {
+        if (hasUpdates() || hasDeletes() || hasInserts() || !(_table instanceof RangeScannableTable)) {
+            return -1;
+        }
+        return ((RangeScannableTable) _table).getRowIdLimit();
+    }
+
+    public RowIterator getRowIterator(int fromId, int toId) throws AxionException {
+        _readAll = true;
+        return ((RangeScannableTable) _table).getRowIterator(fromId, toId);
+    }
+
     public RowIterator getIndexedRows(Selectable node, boolean readOnly) throws AxionException {
         return getIndexedRows(this.getTable(), node, readOnly);
     }
@@ -238,27 +259,62 @@ public final class TransactableTableImpl extends AbstractBaseTable implements Tr
     public RowIterator getIndexedRows(RowSource source, Selectable node, boolean readOnly) throws AxionException {
         RowIterator rows = _table.getIndexedRows(source, node, readOnly);
         if (null != rows) {
+            // A lookup on the leading columns of a composite index is an AND of column =
+            // literal comparisons: every row it returns matches the first of them, so that
+            // one stands in for the lookup when tracking reads and searching my own rows.
+            Selectable lookup = (node instanceof AndFunction) ? ((Function) node).getArgument(0) : node;
+            addReadPredicate(lookup);
             if ((!readOnly) || hasUpdates() || hasDeletes() || hasInserts()) {
                 // Ensure rows in transaction are returned in natural order.
                 // CollatingRowIterator takes two ordered row iterators and
                 // collates their rows
-                Selectable col = getIndexColumn(node);
+                Selectable col = getIndexColumn(lookup);
                 RowComparator comparator = new RowComparator(col, makeRowDecorator());
                 CollatingRowIterator collator = new CollatingRowIterator(comparator);
                 collator.addRowIterator(excludeDeletedAndUpdated(rows));
 
                 Column column = this.getColumn(col.getName());
                 Index basendx = getIndexForColumn(column);
-                addUpdatedRowIterator(basendx, node, collator, readOnly);
-                addInsertedRowIterator(basendx, node, collator, readOnly);
+                addUpdatedRowIterator(basendx, column, lookup, node, collator, readOnly);
+                addInsertedRowIterator(basendx, column, lookup, node, collator, readOnly);
                 rows = collator;
             } else {
                 rows = UnmodifiableRowIterator.wrap(rows);
             }
+            rows = new ReadRecordingRowIterator(rows);
         }
         return rows;
     }
 
+    /**
+     * Returns true if <code>committed</code>, my table as seen by a transaction that
+     * committed after mine started, changed anything I have read: a row I read by
+     * identifier or through an index, or a row that now matches one of my index lookups.
+     * If I have read the table any other way (for example by a full scan), any change
+     * conflicts.
+     */
+    public boolean isInConflictWith(TransactableTableImpl committed) throws AxionException {
+        if (null == committed._writtenRowIds) {
+            return false;
+        }
+        if (_readAll) {
+            return true;
+        }
+        for (IntIterator iter = _readRowIds.iterator(); iter.hasNext();) {
+            if (committed._writtenRowIds.contains(iter.next())) {
+                return true;
+            }
+        }
+        if (!committed._writtenRows.isEmpty()) {
+            for (int i = 0, I = _readPredicates.size(); i < I; i++) {
+                if (matchesAny((Selectable) _readPredicates.get(i), committed._writtenRows)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
     private Selectable getIndexColumn(Selectable node) {
         if (node instanceof ColumnIdentifier) {
             return node;
@@ -283,23 +339,33 @@ public final class TransactableTableImpl extends AbstractBaseTable implements Tr
         return null;
     }
 
-    private void addUpdatedRowIterator(Index basendx, Selectable node, CollatingRowIterator collator, boolean readOnly) throws AxionException {
-        makeIndexForRowsInTransaction(basendx, _updatedRows);
-        collator.addRowIterator(_updatedRows.getIndexedRows(this, node, readOnly));
+    private void addUpdatedRowIterator(Index basendx, Column column, Selectable lookup, Selectable node, CollatingRowIterator collator,
+            boolean readOnly) throws AxionException {
+        makeIndexForRowsInTransaction(basendx, column, _updatedRows);
+        collator.addRowIterator(filterLookup(_updatedRows.getIndexedRows(this, lookup, readOnly), lookup, node));
+    }
+
+    private void addInsertedRowIterator(Index basendx, Column column, Selectable lookup, Selectable node, CollatingRowIterator collator,
+            boolean readOnly) throws AxionException {
+        makeIndexForRowsInTransaction(basendx, column, _insertedRows);
+        collator.addRowIterator(new InsertedRowIterator(filterLookup(_insertedRows.getIndexedRows(this, lookup, readOnly), lookup, node)));
     }
 
-    private void addInsertedRowIterator(Index basendx, Selectable node, CollatingRowIterator collator, boolean readOnly) throws AxionException {
-        makeIndexForRowsInTransaction(basendx, _insertedRows);
-        collator.addRowIterator(new InsertedRowIterator(_insertedRows.getIndexedRows(this, node, readOnly)));
+    private RowIterator filterLookup(RowIterator rows, Selectable lookup, Selectable node) {
+        return (lookup == node) ? rows : new FilteringRowIterator(rows, makeRowDecorator(), node);
     }
 
-    private void makeIndexForRowsInTransaction(Index basendx, IntRowMap rowMap) throws AxionException {
-        if (rowMap.getIndexForColumn(basendx.getIndexedColumn()) == null) {
+    /**
+     * Indexes <i>column</i> of <i>rowMap</i>, following the type of <i>basendx</i>, the
+     * table's own index on it; there is none when the column leads a composite index.
+     */
+    private void makeIndexForRowsInTransaction(Index basendx, Column column, IntRowMap rowMap) throws AxionException {
+        if (rowMap.getIndexForColumn(column) == null) {
             Index index = null;
-            if (basendx.getType().equals(Index.ARRAY)) {
-                index = ARRAY_INDEX_FACTORY.makeNewInstance(basendx.getName(), basendx.getIndexedColumn(), false, true);
+            if (null != basendx && basendx.getType().equals(Index.ARRAY)) {
+                index = ARRAY_INDEX_FACTORY.makeNewInstance(basendx.getName(), column, false, true);
             } else {
-                index = BTREE_INDEX_FACTORY.makeNewInstance(basendx.getName(), basendx.getIndexedColumn(), false, true);
+                index = BTREE_INDEX_FACTORY.makeNewInstance(null == basendx ? column.getName() : basendx.getName(), column, false, true);
             }
             rowMap.addIndex(index);
             rowMap.populateIndex(this, index);
@@ -307,9 +373,14 @@ public final class TransactableTableImpl extends AbstractBaseTable implements Tr
     }
 
     public final int getRowCount() {
+        _readAll = true;
         return _table.getRowCount() + _insertedRows.size() - _deletedRows.size();
     }
 
+    public final int getRowCountEstimate() {
+        return Math.max(0, estimateRowCount(_table) + _insertedRows.size() - _deletedRows.size());
+    }
+
     public final int getNextRowId() {
         return _table.getNextRowId();
     }
@@ -354,8 +425,14 @@ public final class TransactableTableImpl extends AbstractBaseTable implements Tr
 
     @Override
     public void setDeferAllConstraints(boolean deferAll) {
+        // rows changed while deferring are still checked when I commit
+        _checkAllOnCommit |= _deferAll;
         _deferAll = deferAll;
     }
+
+    public boolean isDeferAllConstraints() {
+        return _deferAll;
+    }
     
     public void setSequence(Sequence seq) throws AxionException {
         _table.setSequence(seq);
@@ -374,6 +451,7 @@ public final class TransactableTableImpl extends AbstractBaseTable implements Tr
     }
 
     public Row getRow(int id) throws AxionException {
+        _readRowIds.add(id);
         if (isDeleted(id)) {
             return null;
         }
@@ -402,7 +480,7 @@ public final class TransactableTableImpl extends AbstractBaseTable implements Tr
 
     public void commit() throws AxionException {
         assertOpen();
-        if (hasDeferredConstraint()) {
+        if (_checkAllOnCommit || hasDeferredConstraint()) {
             if (hasInserts()) {
                 checkConstraints(null, _insertedRows.rowIterator());
             }
@@ -413,9 +491,70 @@ public final class TransactableTableImpl extends AbstractBaseTable implements Tr
                 checkConstraints(new LazyRowRowIterator(_table, _updatedRows.keyIterator(), _updatedRows.size()), _updatedRows.rowIterator());
             }
         }
+        rememberWrites();
         _state = Transaction.STATE_COMMITTED;
     }
 
+    /**
+     * Keeps the identifiers and new values of the rows I changed, for conflict detection
+     * against transactions that are still open, as {@link #apply}clears my changes.
+     */
+    private void rememberWrites() {
+        if (hasDeletes() || hasUpdates() || hasInserts()) {
+            _writtenRowIds = new IntSet(_deletedRows.size() + _updatedRows.size());
+            for (IntIterator iter = _deletedRows.iterator(); iter.hasNext();) {
+                _writtenRowIds.add(iter.next());
+            }
+            _writtenRows = new IntRowMap(_updatedRows.size() + _insertedRows.size());
+            for (IntIterator iter = _updatedRows.keyIterator(); iter.hasNext();) {
+                int rowid = iter.next();
+                _writtenRowIds.add(rowid);
+                _writtenRows.putRow(rowid, _updatedRows.getRow(rowid));
+            }
+            for (IntIterator iter = _insertedRows.keyIterator(); iter.hasNext();) {
+                int rowid = iter.next();
+                _writtenRows.putRow(rowid, _insertedRows.getRow(rowid));
+            }
+        }
+    }
+
+    /**
+     * Remembers an index lookup for conflict detection, with any bind variable replaced by
+     * its current value so that re-executing the statement does not change it.
+     */
+    private void addReadPredicate(Selectable node) {
+        if (node instanceof ComparisonFunction && ((ComparisonFunction) node).isColumnLiteral()) {
+            ComparisonFunction fn = (ComparisonFunction) node;
+            try {
+                ComparisonFunction copy = (ComparisonFunction) fn.getClass().newInstance();
+                for (int i = 0; i < 2; i++) {
+                    Selectable arg = fn.getArgument(i);
+                    if (arg instanceof Literal) {
+                        arg = new Literal(((Literal) arg).evaluate(), arg.getDataType());
+                    }
+                    copy.addArgument(arg);
+                }
+                node = copy;
+            } catch (Exception e) {
+                // can't freeze it, so fall back to treating the whole table as read
+                _readAll = true;
+                return;
+            }
+        }
+        _readPredicates.add(node);
+    }
+
+    private boolean matchesAny(Selectable node, IntRowMap rows) throws AxionException {
+        Selectable col = getIndexColumn(node);
+        if (null == col) {
+            return true;
+        }
+        Column column = getColumn(col.getName());
+        makeIndexForRowsInTransaction(getIndexForColumn(column), column, rows);
+        RowIterator matches = rows.getIndexedRows(this, node, true);
+        return null == matches || matches.hasNext();
+    }
+
     public void rollback() throws AxionException {
         // No need to assertOpen, we need to rollback even if previous "commit" attempt failed.
         assertOpenOrCommitted(); 
@@ -430,9 +569,14 @@ public final class TransactableTableImpl extends AbstractBaseTable implements Tr
     }
 
     private void freeRowIds() {
+        // last handed out, first given back
+        int[] rowids = new int[_insertedRows.size()];
         IntIterator itr = _insertedRows.keyIterator();
-        while (itr.hasNext()) {
-            freeRowId(itr.next());
+        for (int i = 0; itr.hasNext(); i++) {
+            rowids[i] = itr.next();
+        }
+        for (int i = rowids.length - 1; i >= 0; i--) {
+            freeRowId(rowids[i]);
         }
     }
 
@@ -460,19 +604,46 @@ public final class TransactableTableImpl extends AbstractBaseTable implements Tr
         _state = Transaction.STATE_APPLIED;
     }
 
+    /**
+     * Replaces the table beneath my changes with <code>table</code>, the same table as
+     * seen by a transaction that committed after mine was opened.
+     */
+    final void rebase(Table table) {
+        _table = table;
+    }
+
     public final TransactableTable makeTransactableTable() {
         return new TransactableTableImpl(this);
     }
 
-    public void deleteRow(Row row) throws AxionException {
-        // by construction, this method should never be called for a row that only exists
-        // in _insertedRows, so we'll ignore that case
+    /** Returns the identifiers of the rows I have deleted but not yet applied. */
+    public final IntCollection getDeletedRowIds() {
+        return _deletedRows;
+    }
 
+    /** Returns the rows I have inserted but not yet applied. */
+    public final RowCollection getInsertedRows() {
+        return _insertedRows.rowValues();
+    }
+
+    /** Returns the new values of the rows I have updated but not yet applied. */
+    public final RowCollection getUpdatedRows() {
+        return _updatedRows.rowValues();
+    }
+
+    public void deleteRow(Row row) throws AxionException {
         RowEvent event = new RowDeletedEvent(this, row, null);
         checkConstraints(event, makeRowDecorator());
 
+        // a row inserted in this transaction is simply forgotten
+        if (_insertedRows.deleteRow(this, row) != null) {
+            freeRowId(row.getIdentifier());
+            publishEvent(event);
+            return;
+        }
+
         // add the row to our list of deleted rows and
-        // delete from updated/inserted Rows, if it's in there
+        // delete from updated Rows, if it's in there
         if(_deletedRows.add(row.getIdentifier())) {
             _updatedRows.deleteRow(this, row);
             //_insertedRows.deleteRow(this, row);
@@ -484,7 +655,11 @@ public final class TransactableTableImpl extends AbstractBaseTable implements Tr
         newrow.setIdentifier(oldrow.getIdentifier());
         RowEvent event = new RowUpdatedEvent(this, oldrow, newrow);
         checkConstraints(event, makeRowDecorator());
-        _updatedRows.updateRow(this, oldrow, newrow);
+        if (_insertedRows.containsKey(newrow.getIdentifier())) {
+            _insertedRows.updateRow(this, oldrow, newrow);
+        } else {
+            _updatedRows.updateRow(this, oldrow, newrow);
+        }
         publishEvent(event);
     }
 
@@ -612,6 +787,59 @@ public final class TransactableTableImpl extends AbstractBaseTable implements Tr
         return new TransactableTableRowIterator(new ExcludeDeleted(new ExcludeUpdated(base)));
     }
 
+    /** Remembers the identifier of every row read through it. */
+    private class ReadRecordingRowIterator extends DelegatingRowIterator {
+        public ReadRecordingRowIterator(RowIterator iter) {
+            super(iter);
+        }
+
+        @Override
+        public Row first() throws AxionException {
+            return record(super.first());
+        }
+
+        @Override
+        public Row last() throws AxionException {
+            return record(super.last());
+        }
+
+        @Override
+        public Row next() throws AxionException {
+            return record(super.next());
+        }
+
+        @Override
+        public Row peekNext() throws AxionException {
+            return record(super.peekNext());
+        }
+
+        @Override
+        public Row peekPrevious() throws AxionException {
+            return record(super.peekPrevious());
+        }
+
+        @Override
+        public Row previous() throws AxionException {
+            return record(super.previous());
+        }
+
+        public String toString() {
+            // shown by EXPLAIN in place of the index scan it wraps
+            return getDelegate().toString();
+        }
+
+        private Row record(Row row) {
+            if (null != row) {
+                _readRowIds.add(row.getIdentifier());
+            }
+            return row;
+        }
+    }
+
+    /**
+     * Removes rows inserted in the current transaction through the underlying iterator,
+     * so that it stays positioned.
+     */
     private class InsertedRowIterator extends DelegatingRowIterator {
         public InsertedRowIterator(RowIterator iter) {
             super(iter);
@@ -624,8 +852,14 @@ public final class TransactableTableImpl extends AbstractBaseTable implements Tr
 
         @Override
         public void remove() throws AxionException {
-            _table.freeRowId(current().getIdentifier());
+            Row row = current();
+            RowEvent event = new RowDeletedEvent(TransactableTableImpl.this, row, null);
+            checkConstraints(event, makeRowDecorator());
+            _table.freeRowId(row.getIdentifier());
             super.remove();
+            // indexes over my inserted rows are rebuilt on the next lookup
+            _insertedRows.clearIndexes();
+            publishEvent(event);
         }
 
         @Override
@@ -680,10 +914,26 @@ public final class TransactableTableImpl extends AbstractBaseTable implements Tr
     /** {@link IntSet}of row identifiers that have been deleted. */
     private IntSet _deletedRows = new IntSet();
 
+    /** Whether I have been read other than by row identifier or through an index. */
+    private boolean _readAll = false;
+
+    /** Index lookups made against me, as {@link Selectable}s. */
+    private List _readPredicates = new ArrayList();
+
+    /** {@link IntSet}of row identifiers read by identifier or through an index. */
+    private IntSet _readRowIds = new IntSet();
+
+    /** Identifiers of the rows deleted or updated, set on commit if I changed anything. */
+    private IntSet _writtenRowIds;
+
+    /** New values of the rows updated or inserted, set on commit if I changed anything. */
+    private IntRowMap _writtenRows;
+
     private static ArrayIndexFactory ARRAY_INDEX_FACTORY = new ArrayIndexFactory();
     private static BTreeIndexFactory BTREE_INDEX_FACTORY = new BTreeIndexFactory();
 
     /** My current state. */
     private int _state = Transaction.STATE_OPEN;
+    private boolean _checkAllOnCommit = false;
     private boolean _deferAll =  false;
 }
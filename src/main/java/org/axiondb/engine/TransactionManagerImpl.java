@@ -40,17 +40,25 @@
 
 package org.axiondb.engine;
 
+import java.io.File;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.axiondb.AxionException;
 import org.axiondb.Database;
+import org.axiondb.TransactableTable;
 import org.axiondb.Transaction;
 import org.axiondb.TransactionConflictException;
 import org.axiondb.TransactionManager;
+import org.axiondb.io.FileUtil;
 import org.axiondb.util.Utils;
 
 /**
@@ -68,14 +76,146 @@ public class TransactionManagerImpl implements TransactionManager {
     @SuppressWarnings("unchecked")
     public synchronized Transaction createTransaction() throws AxionException {
         assertNotShutdown();
+        assertLogAvailable();
         Transaction t = new SnapshotIsolationTransaction(getLastCommittedTransaction());
         _openTransactions.add(t);
         return t;
     }
 
+    public void commitTransaction(Transaction t) throws AxionException {
+        WriteAheadLog wal = null;
+        long lsn = -1;
+        synchronized (this) {
+            lsn = commit(t);
+            wal = _wal;
+            if (lsn == -1) {
+                notifyAll();
+                return;
+            }
+            _unsyncedTransactions.add(t);
+        }
+
+        // wait for the log outside the lock, so that concurrent commits share one sync
+        try {
+            wal.sync(lsn);
+        } catch (AxionException e) {
+            synchronized (this) {
+                // t is visible but may not be durable, so it stays unsynced and unapplied
+                throw logFailed(e);
+            }
+        }
+        synchronized (this) {
+            _unsyncedTransactions.remove(t);
+            notifyAll();
+        }
+    }
+
+    /**
+     * Forces the files of the tables changed by the transactions applied so far to disk,
+     * and discards those transactions from the write-ahead log. Committed transactions
+     * still waiting to be applied stay in the log. The files are forced outside my lock,
+     * so transactions keep committing meanwhile. Returns false if no logged transaction
+     * has been applied since the last checkpoint.
+     */
+    public boolean checkpointLog() throws AxionException {
+        WriteAheadLog wal = null;
+        long lsn = -1;
+        List files = new ArrayList();
+        Set tables = null;
+        synchronized (this) {
+            if (null == _wal || isShutdown() || null != _logFailure || _applyFailed || _appliedLsn <= _checkpointedLsn) {
+                return false;
+            }
+            // the tables must not change while they are checkpointed
+            waitForApplier();
+            if (null == _wal || isShutdown() || _applyFailed) {
+                return false;
+            }
+            wal = _wal;
+            lsn = _appliedLsn;
+            tables = _checkpointTables;
+            _checkpointTables = new HashSet();
+
+            _database.checkpoint();
+            File dbdir = _database.getDBDirectory();
+            for (Iterator iter = tables.iterator(); iter.hasNext();) {
+                addFile(files, new File(dbdir, ((String) iter.next()).toUpperCase()));
+            }
+            // the database's own files, such as its sequences, but not the log
+            File[] contents = dbdir.listFiles();
+            for (int i = 0; contents != null && i < contents.length; i++) {
+                if (contents[i].isFile() && !contents[i].equals(wal.getFile())) {
+                    addFile(files, contents[i]);
+                }
+            }
+        }
+
+        try {
+            for (int i = 0, I = files.size(); i < I; i++) {
+                File file = (File) files.get(i);
+                if (file.isDirectory()) {
+                    FileUtil.sync(file, null);
+                } else if (file.exists()) {
+                    FileUtil.sync(file);
+                }
+            }
+            wal.truncate(lsn);
+        } catch (AxionException e) {
+            synchronized (this) {
+                addAll(_checkpointTables, tables);
+            }
+            throw e;
+        }
+        synchronized (this) {
+            if (lsn > _checkpointedLsn) {
+                _checkpointedLsn = lsn;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Stops logging, first discarding every transaction that has been applied from the
+     * write-ahead log.
+     */
+    public synchronized void closeWriteAheadLog() {
+        if (null != _wal) {
+            if (null != _checkpointer) {
+                _checkpointer.interrupt();
+                _checkpointer = null;
+            }
+            try {
+                checkpointLog();
+            } catch (AxionException e) {
+                _log.log(Level.WARNING, "Unable to checkpoint the write-ahead log", e);
+            }
+            _wal.close();
+            _wal = null;
+        }
+    }
+
+    /**
+     * Logs every transaction I commit to <code>wal</code>, and checkpoints the log every
+     * <code>checkpointInterval</code> milliseconds from a background thread (never, if
+     * not positive).
+     */
+    public synchronized void setWriteAheadLog(WriteAheadLog wal, long checkpointInterval) {
+        _wal = wal;
+        if (checkpointInterval > 0) {
+            _checkpointer = new LogCheckpointer(checkpointInterval);
+            _checkpointer.start();
+        }
+    }
+
+    /**
+     * Commits <code>t</code> and, if I have a write-ahead log, appends it. Returns the
+     * log sequence number to sync on, or -1 if nothing was logged.
+     */
     @SuppressWarnings("unchecked")
-    public synchronized void commitTransaction(Transaction t) throws AxionException {
+    private long commit(Transaction t) throws AxionException {
         assertNotShutdown();
+        assertLogAvailable();
+        long lsn = -1;
         if (t.getModifiedTables().isEmpty()) {
             t.commit();
             t.apply();
@@ -100,83 +240,312 @@ public class TransactionManagerImpl implements TransactionManager {
                 }
             }
 
+            // stack t on whatever committed since it was opened, so that later
+            // transactions see both
+            Database last = getLastCommittedTransaction();
+            if (t.getOpenOnTransaction() != last && t instanceof SnapshotIsolationTransaction) {
+                ((SnapshotIsolationTransaction) t).rebase(last);
+            }
             t.commit();
+            if (null != _wal) {
+                try {
+                    lsn = _wal.append((SnapshotIsolationTransaction) t);
+                } catch (AxionException e) {
+                    _openTransactions.remove(t);
+                    throw logFailed(e);
+                }
+            }
+            if (lsn != -1) {
+                _lsns.put(t, Long.valueOf(lsn));
+            }
             _committedTransactions.add(t);
             _openTransactions.remove(t);
+            if ((!NEVER_APPLY) && null == _applier) {
+                _applier = new Applier();
+                _applier.start();
+            }
         }
-        tryToApply();
+        return lsn;
+    }
+
+    /**
+     * Applies the committed transactions that the open transaction <code>t</code> can
+     * see, as far as the other open transactions allow, before <code>t</code> changes
+     * the structure of a table underneath them.
+     */
+    public synchronized void applyCommitted(Transaction t) throws AxionException {
+        assertNotShutdown();
+        applyCommitted(t, false);
+    }
+
+    /**
+     * Applies the committed transactions that no open transaction, <code>t</code>
+     * included, may be reading, and returns true if that leaves none that <code>t</code>
+     * can see, so that <code>t</code> may apply changes of its own before it commits.
+     */
+    public synchronized boolean applyUnreadCommitted(Transaction t) throws AxionException {
+        assertNotShutdown();
+        applyCommitted(null, false);
+        return !_committedTransactions.contains(t.getOpenOnTransaction());
     }
 
     public synchronized void abortTransaction(Transaction t) throws AxionException {
         assertNotShutdown();
         t.rollback();
         _openTransactions.remove(t);
-
-        try {
-            tryToApply();
-        } catch (AxionException e) {
-            _log.log(Level.FINE,e.getMessage(),e);
-        }
+        notifyAll();
     }
 
+    /**
+     * Rolls back the open transactions, applies the committed ones and shuts the database
+     * down. If a committed transaction can't be applied, the write-ahead log is closed as
+     * it is, so that the next start replays it, and the failure is rethrown once the
+     * database is shut down.
+     */
     public synchronized void shutdown() throws AxionException {
+        // the applier may be writing to a table; let it finish rather than interrupt it
+        _applier = null;
+        notifyAll();
         for (int i = _openTransactions.size() - 1; i >= 0; i--) {
             Transaction t = (Transaction) (_openTransactions.get(i));
             t.rollback();
         }
         _openTransactions.clear();
 
+        AxionException failure = null;
         try {
-            tryToApply();
+            applyCommitted(null, true);
         } catch (AxionException e) {
+            _log.log(Level.SEVERE, "Unable to apply committed transactions at shutdown", e);
+            failure = e;
         }
-        _database.shutdown();
+        if (null == failure) {
+            closeWriteAheadLog();
+        } else if (null != _wal) {
+            if (null != _checkpointer) {
+                _checkpointer.interrupt();
+                _checkpointer = null;
+            }
+            _wal.close();
+            _wal = null;
+        }
+        Database db = _database;
         _database = null;
+        db.shutdown();
+        if (null != failure) {
+            throw failure;
+        }
     }
 
     public synchronized boolean isShutdown() {
         return null == _database;
     }
 
-    private boolean inConflict(Transaction newT, Transaction oldT) {
+    /**
+     * Returns true if an open transaction has read the table named
+     * <code>tableName</code>, and so may still be reading it.
+     */
+    public synchronized boolean isTableInUse(String tableName) {
+        if (_applyingTables.contains(tableName)) {
+            return true;
+        }
+        for (int i = 0, I = _openTransactions.size(); i < I; i++) {
+            Transaction open = (Transaction) _openTransactions.get(i);
+            if (open.getReadTables().contains(tableName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean inConflict(Transaction newT, Transaction oldT) throws AxionException {
         // if the new transaction changed anything
         if (!newT.getModifiedTables().isEmpty()) {
-            // then check that none of the tables read were changed
+            // then check that none of the rows read were changed
             // by the already committed transaction
-            // (note that this is much too strong of a conflict detection
-            // alogrithm, it'll give a lot of false conflicts).
-            if (Utils.containsAny(newT.getReadTables(), oldT.getModifiedTables())) {
-                return true;
+            for (Iterator iter = oldT.getModifiedTables().iterator(); iter.hasNext();) {
+                String name = (String) iter.next();
+                if (newT.getReadTables().contains(name) && inConflict(newT, oldT, name)) {
+                    return true;
+                }
             }
         }
         return false;
     }
 
+    private boolean inConflict(Transaction newT, Transaction oldT, String tableName) throws AxionException {
+        if (newT instanceof SnapshotIsolationTransaction && oldT instanceof SnapshotIsolationTransaction) {
+            TransactableTable newTable = ((SnapshotIsolationTransaction) newT).getTransactableTable(tableName);
+            TransactableTable oldTable = ((SnapshotIsolationTransaction) oldT).getTransactableTable(tableName);
+            if (newTable instanceof TransactableTableImpl && oldTable instanceof TransactableTableImpl) {
+                return ((TransactableTableImpl) newTable).isInConflictWith((TransactableTableImpl) oldTable);
+            }
+        }
+        // can't tell which rows were touched, so any change to the table conflicts
+        return true;
+    }
+
     private void assertNotShutdown() throws AxionException {
         if (isShutdown()) {
             throw new AxionException("Already shutdown");
         }
     }
 
-    private void tryToApply() throws AxionException {
-        if ((!NEVER_APPLY) && _openTransactions.isEmpty()) {
-            Transaction last = null;
-            try {
-                for (Iterator iter = _committedTransactions.iterator(); iter.hasNext();) {
-                    last = (Transaction) (iter.next());
-                    last.apply();
-                    iter.remove();
+    private void assertLogAvailable() throws AxionException {
+        if (null != _logFailure) {
+            throw new AxionException("The write-ahead log has failed; the database must be reopened", _logFailure);
+        }
+    }
+
+    /**
+     * Records that the write-ahead log could not be written or forced. Whether the
+     * transaction being logged survives a restart is then unknown, so no further
+     * transactions are started, committed or applied: reopening the database replays
+     * whatever part of the log reached the disk.
+     */
+    private AxionException logFailed(AxionException e) {
+        _logFailure = e;
+        _log.log(Level.SEVERE, "Write-ahead log failed, refusing further transactions", e);
+        notifyAll();
+        return new AxionException("Transaction may not be durable: the write-ahead log failed and the database must be reopened", e);
+    }
+
+    /**
+     * Applies committed transactions to the tables, oldest first, stopping at the first
+     * one that can't be applied yet. Reads by the open transaction <code>caller</code>
+     * don't hold them back, nor does the write-ahead log if <code>force</code> is set.
+     * Called with my lock held; waits for the {@link Applier}to finish first.
+     */
+    private void applyCommitted(Transaction caller, boolean force) throws AxionException {
+        if (!NEVER_APPLY) {
+            waitForApplier();
+            apply(getApplicable(caller, force));
+        }
+    }
+
+    /**
+     * Applies the committed transactions in <code>batch</code>, oldest first. Each stays
+     * committed, so that transactions opened on it still see its changes, until it has
+     * been applied, and is then published under my lock. The {@link Applier}calls this
+     * without my lock.
+     */
+    private void apply(List batch) throws AxionException {
+        Transaction last = null;
+        try {
+            for (int i = 0, I = batch.size(); i < I; i++) {
+                last = (Transaction) batch.get(i);
+                last.apply();
+                synchronized (this) {
+                    applied(last);
                 }
-            } catch (Exception e) {
+            }
+        } catch (Exception e) {
+            synchronized (this) {
+                // the log still holds what wasn't applied; keep all of it for the next start
+                _applyFailed = true;
                 _committedTransactions.clear();
-                throw new AxionException("Fail to apply transction", e);
+                _lsns.clear();
+            }
+            throw new AxionException("Fail to apply transction", e);
+        }
+        if (null != last) {
+            last.checkpoint();
+        }
+    }
+
+    /**
+     * Returns the committed transactions, oldest first, that can be applied now.
+     */
+    @SuppressWarnings("unchecked")
+    private List getApplicable(Transaction caller, boolean force) {
+        List batch = new ArrayList();
+        for (int i = 0, I = _committedTransactions.size(); i < I && canApply(i, caller, force); i++) {
+            batch.add(_committedTransactions.get(i));
+        }
+        return batch;
+    }
+
+    /**
+     * Waits until the {@link Applier}has finished the batch it is applying, if any.
+     * Callers hold my lock.
+     */
+    private void waitForApplier() throws AxionException {
+        while (_applying) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                throw new AxionException("Interrupted waiting for committed transactions to be applied", e);
             }
-            if (null != last) {
-                last.checkpoint();
+        }
+    }
+
+    /**
+     * Waits while the {@link Applier}writes committed changes to the table named
+     * <code>tableName</code>, so that a transaction doesn't start reading it halfway.
+     * Callers hold my lock.
+     */
+    void waitForApplier(String tableName) throws AxionException {
+        while (_applying && _applyingTables.contains(tableName)) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                throw new AxionException("Interrupted waiting for committed transactions to be applied", e);
             }
         }
     }
 
+    /**
+     * Publishes that the oldest committed transaction <code>t</code> has been applied,
+     * and records it so that a checkpoint may discard it from the write-ahead log once
+     * the tables it changed are on disk.
+     */
+    @SuppressWarnings("unchecked")
+    private void applied(Transaction t) {
+        _committedTransactions.remove(t);
+        Long lsn = (Long) _lsns.remove(t);
+        if (null != lsn) {
+            _appliedLsn = lsn.longValue();
+            addAll(_checkpointTables, t.getModifiedTables());
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void addAll(Collection to, Collection from) {
+        to.addAll(from);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void addFile(List files, File file) {
+        files.add(file);
+    }
+
+    /**
+     * Returns true if the committed transaction at <code>index</code> can be applied once
+     * those before it have been: the write-ahead log (if any) has not failed and holds
+     * it, no open transaction was opened before it committed (and so needs the tables as
+     * they were before it), and no open transaction has read a table it changed (and so
+     * might be reading it while it is applied).
+     */
+    private boolean canApply(int index, Transaction caller, boolean force) {
+        Transaction t = (Transaction) _committedTransactions.get(index);
+        if (null != _logFailure) {
+            return false;
+        }
+        if ((!force) && _unsyncedTransactions.contains(t)) {
+            return false;
+        }
+        for (int i = 0, I = _openTransactions.size(); i < I; i++) {
+            Transaction open = (Transaction) _openTransactions.get(i);
+            if (_committedTransactions.indexOf(open.getOpenOnTransaction()) < index) {
+                return false;
+            }
+            if (open != caller && Utils.containsAny(open.getReadTables(), t.getModifiedTables())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     private Database getLastCommittedTransaction() {
         if (_committedTransactions.isEmpty()) {
             return _database;
@@ -184,9 +553,107 @@ public class TransactionManagerImpl implements TransactionManager {
         return (Database) (_committedTransactions.get(_committedTransactions.size() - 1));
     }
 
+    /**
+     * Applies committed transactions in the background, whenever a transaction commits
+     * or ends. The transactions are picked under the manager's lock but applied without
+     * it, so that transactions keep starting and committing meanwhile.
+     */
+    private class Applier extends Thread {
+        Applier() {
+            super("Axion apply " + _database.getName());
+            setDaemon(true);
+        }
+
+        @SuppressWarnings("unchecked")
+        public void run() {
+            while (true) {
+                List batch = null;
+                synchronized (TransactionManagerImpl.this) {
+                    while (true) {
+                        if (_applier != this || isShutdown()) {
+                            return;
+                        }
+                        if (!_applying) {
+                            batch = getApplicable(null, false);
+                            if (!batch.isEmpty()) {
+                                break;
+                            }
+                        }
+                        try {
+                            TransactionManagerImpl.this.wait();
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+                    _applying = true;
+                    for (int i = 0, I = batch.size(); i < I; i++) {
+                        _applyingTables.addAll(((Transaction) batch.get(i)).getModifiedTables());
+                    }
+                }
+
+                try {
+                    apply(batch);
+                } catch (AxionException e) {
+                    _log.log(Level.WARNING, "Unable to apply committed transactions", e);
+                } finally {
+                    synchronized (TransactionManagerImpl.this) {
+                        _applying = false;
+                        _applyingTables.clear();
+                        TransactionManagerImpl.this.notifyAll();
+                    }
+                }
+            }
+        }
+    }
+
+    /** Periodically empties the write-ahead log once its transactions are applied. */
+    private class LogCheckpointer extends Thread {
+        LogCheckpointer(long interval) {
+            super("Axion log checkpoint " + _database.getName());
+            setDaemon(true);
+            _interval = interval;
+        }
+
+        public void run() {
+            while (!isInterrupted()) {
+                try {
+                    Thread.sleep(_interval);
+                    checkpointLog();
+                } catch (InterruptedException e) {
+                    return;
+                } catch (AxionException e) {
+                    _log.log(Level.WARNING, "Unable to checkpoint the write-ahead log", e);
+                }
+            }
+        }
+
+        private long _interval;
+    }
+
+    private Applier _applier = null;
+    /** Log sequence number of the last logged transaction applied to the tables. */
+    private long _appliedLsn = -1;
+    /** Whether a committed transaction failed to apply; the log must then be kept whole. */
+    private boolean _applyFailed = false;
+    /** Whether the {@link Applier}is applying a batch of committed transactions. */
+    private boolean _applying = false;
+    /** Names of the tables changed by the batch the {@link Applier}is applying. */
+    private Set _applyingTables = new HashSet();
+    private LogCheckpointer _checkpointer = null;
+    /** Log sequence number up to which the write-ahead log has been discarded. */
+    private long _checkpointedLsn = -1;
+    /** Names of the tables changed by transactions applied since the last checkpoint. */
+    private Set _checkpointTables = new HashSet();
     private List _committedTransactions = new ArrayList();
+    /** Committed transaction to the log sequence number its record ends at. */
+    private Map _lsns = new HashMap();
     private List _openTransactions = new ArrayList();
+    /** Committed transactions still waiting for the write-ahead log to reach disk. */
+    private Set _unsyncedTransactions = new HashSet();
     private Database _database = null;
+    /** Why the write-ahead log failed, if it has; no transaction may commit after. */
+    private AxionException _logFailure = null;
+    private WriteAheadLog _wal = null;
 
     // allow a System property to indicate that we should never apply a transaction
     public static final boolean NEVER_APPLY;
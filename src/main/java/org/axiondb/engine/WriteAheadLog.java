@@ -0,0 +1,534 @@
+/*
+ * 
+ * =======================================================================
+ * Copyright (c) 2002-2005 Axion Development Team.  All rights reserved.
+ *  
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions 
+ * are met:
+ * 
+ * 1. Redistributions of source code must retain the above 
+ *    copyright notice, this list of conditions and the following 
+ *    disclaimer. 
+ *   
+ * 2. Redistributions in binary form must reproduce the above copyright 
+ *    notice, this list of conditions and the following disclaimer in 
+ *    the documentation and/or other materials provided with the 
+ *    distribution. 
+ *   
+ * 3. The names "Tigris", "Axion", nor the names of its contributors may 
+ *    not be used to endorse or promote products derived from this 
+ *    software without specific prior written permission. 
+ *  
+ * 4. Products derived from this software may not be called "Axion", nor 
+ *    may "Tigris" or "Axion" appear in their names without specific prior
+ *    written permission.
+ *   
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT 
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, 
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT 
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * =======================================================================
+ */
+
+package org.axiondb.engine;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+import org.apache.commons.collections.primitives.ArrayIntList;
+import org.apache.commons.collections.primitives.IntCollection;
+import org.apache.commons.collections.primitives.IntIterator;
+import org.apache.commons.collections.primitives.IntList;
+import org.axiondb.AxionException;
+import org.axiondb.Database;
+import org.axiondb.Row;
+import org.axiondb.RowCollection;
+import org.axiondb.RowIterator;
+import org.axiondb.Sequence;
+import org.axiondb.Table;
+import org.axiondb.TransactableTable;
+import org.axiondb.engine.rowcollection.IntRowMap;
+import org.axiondb.engine.rows.SimpleRow;
+import org.axiondb.engine.tables.BaseDiskTable;
+import org.axiondb.engine.tables.DiskTable;
+import org.axiondb.event.DatabaseSequenceEvent;
+import org.axiondb.event.SequenceModificationListener;
+import org.axiondb.io.FileUtil;
+
+/**
+ * A sequential redo log of committed transactions against {@link DiskTable}s.
+ * <p>
+ * Each committed transaction is appended as one record holding, per modified table,
+ * the deleted row identifiers and the updated and inserted rows. A record is durable
+ * once {@link #sync}has returned for its log sequence number; <code>sync</code> is a
+ * group commit, so concurrent committers waiting on it share a single
+ * <code>fsync</code>.
+ * <p>
+ * On startup, {@link #replay}re-applies every complete record through
+ * {@link BaseDiskTable#redo}, stopping at the first torn or corrupt record. Once the
+ * records up to some log sequence number have been applied and the table files they
+ * changed forced to disk, the log is {@link #truncate(long) truncated}up to it. Changes
+ * are replayed by table name; tables that no longer exist, or whose column count has
+ * changed, are skipped.
+ * <p>
+ * I also listen to the database's sequences. Each record carries the blocks of values
+ * reserved since the previous record, and the next value of the identity column of
+ * each table it changes, so that sequences replayed rows were numbered from never hand
+ * out the same values again.
+ * 
+ * @version  
+ */
+public class WriteAheadLog implements SequenceModificationListener {
+
+    public WriteAheadLog(File file) throws AxionException {
+        _file = file;
+        try {
+            _raf = new RandomAccessFile(file, "rw");
+            _channel = _raf.getChannel();
+            _channel.position(_channel.size());
+        } catch (IOException e) {
+            throw new AxionException("Unable to open log " + file, e);
+        }
+    }
+
+    /**
+     * Appends the changes made by <code>t</code> and returns the log sequence number to
+     * {@link #sync}on, or -1 if <code>t</code> changed no logged table.
+     */
+    public long append(SnapshotIsolationTransaction t) throws AxionException {
+        try {
+            ByteArrayOutputStream buf = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(buf);
+            int count = 0;
+            for (Iterator iter = t.getTransactableTables().iterator(); iter.hasNext();) {
+                Object ttable = iter.next();
+                if (ttable instanceof TransactableTableImpl && t.getModifiedTables().contains(((Table) ttable).getName())) {
+                    count += writeTable((TransactableTableImpl) ttable, out);
+                }
+            }
+            if (count == 0) {
+                return -1;
+            }
+            writeSequences(out);
+            out.writeInt(END_OF_RECORD);
+            out.flush();
+            return append(buf.toByteArray());
+        } catch (IOException e) {
+            throw new AxionException("Unable to write to log " + _file, e);
+        }
+    }
+
+    public synchronized void close() {
+        _closed = true;
+        try {
+            _channel.close();
+            _raf.close();
+        } catch (IOException e) {
+            // ignored
+        }
+    }
+
+    public File getFile() {
+        return _file;
+    }
+
+    /**
+     * Returns true if I hold no records.
+     */
+    public synchronized boolean isEmpty() throws AxionException {
+        try {
+            return _channel.size() == 0;
+        } catch (IOException e) {
+            throw new AxionException(e);
+        }
+    }
+
+    /**
+     * Re-applies every complete record in the log to the tables of <code>db</code> and
+     * returns the number of records replayed. A torn record at the end of the log (the
+     * result of a crash while it was being written) is discarded.
+     */
+    public synchronized int replay(Database db) throws AxionException {
+        int count = 0;
+        try {
+            long pos = 0;
+            long size = _channel.size();
+            ByteBuffer header = ByteBuffer.allocate(FRAME_HEADER_SIZE);
+            while (pos + FRAME_HEADER_SIZE <= size) {
+                header.clear();
+                readFully(header, pos);
+                int length = header.getInt(0);
+                long checksum = header.getLong(4);
+                if (length <= 0 || pos + FRAME_HEADER_SIZE + length > size) {
+                    break;
+                }
+                ByteBuffer payload = ByteBuffer.allocate(length);
+                readFully(payload, pos + FRAME_HEADER_SIZE);
+                if (checksum(payload.array()) != checksum) {
+                    break;
+                }
+                redo(db, payload.array());
+                count++;
+                pos += FRAME_HEADER_SIZE + length;
+            }
+            if (pos < size) {
+                _log.log(Level.WARNING, "Discarding " + (size - pos) + " bytes of incomplete log records in " + _file);
+                _channel.truncate(pos);
+            }
+            _channel.position(pos);
+            _appended = _durable = pos;
+        } catch (IOException e) {
+            throw new AxionException("Unable to replay log " + _file, e);
+        }
+        return count;
+    }
+
+    /**
+     * Blocks until every record up to <code>lsn</code> is on disk. The first caller to
+     * find the log unsynced forces it for everyone appended so far; callers arriving
+     * while that is in progress wait and are usually covered by it.
+     */
+    public void sync(long lsn) throws AxionException {
+        while (true) {
+            synchronized (_syncLock) {
+                while (_syncing && _durable < lsn) {
+                    try {
+                        _syncLock.wait();
+                    } catch (InterruptedException e) {
+                        throw new AxionException("Interrupted waiting for log sync", e);
+                    }
+                }
+                if (_durable >= lsn) {
+                    return;
+                }
+                _syncing = true;
+            }
+
+            long target = -1;
+            try {
+                synchronized (this) {
+                    target = _appended;
+                }
+                _channel.force(false);
+            } catch (IOException e) {
+                target = -1;
+                throw new AxionException("Unable to sync log " + _file, e);
+            } finally {
+                synchronized (_syncLock) {
+                    if (target > _durable) {
+                        _durable = target;
+                    }
+                    _syncing = false;
+                    _syncLock.notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Remembers the value <code>e</code>'s sequence will reserve next, to be logged
+     * with the next record.
+     */
+    @SuppressWarnings("unchecked")
+    public void sequenceIncremented(DatabaseSequenceEvent e) {
+        synchronized (_reservedSequences) {
+            _reservedSequences.put(e.getName(), e.getValue());
+        }
+    }
+
+    /**
+     * Discards every record. Callers must make sure all logged changes have been applied
+     * and forced to disk first.
+     */
+    public synchronized void truncate() throws AxionException {
+        try {
+            _base += _channel.size();
+            _channel.truncate(0);
+            _channel.position(0);
+            _channel.force(true);
+        } catch (IOException e) {
+            throw new AxionException("Unable to truncate log " + _file, e);
+        }
+    }
+
+    /**
+     * Discards the records up to log sequence number <code>lsn</code>, which must be the
+     * end of a record returned by {@link #append}. The records after it are written
+     * aside, forced and renamed over the log, so a crash leaves either the old log or
+     * the new one. Callers must make sure the discarded changes have been applied and
+     * forced to disk first.
+     */
+    public void truncate(long lsn) throws AxionException {
+        synchronized (_syncLock) {
+            // a sync in progress must not force a channel closed underneath it
+            while (_syncing) {
+                try {
+                    _syncLock.wait();
+                } catch (InterruptedException e) {
+                    throw new AxionException("Interrupted waiting for log sync", e);
+                }
+            }
+            _syncing = true;
+        }
+        long durable = -1;
+        try {
+            durable = truncateTo(lsn);
+        } finally {
+            synchronized (_syncLock) {
+                if (durable > _durable) {
+                    _durable = durable;
+                }
+                _syncing = false;
+                _syncLock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Returns the log sequence number up to which the log is on disk afterwards, or -1
+     * if that didn't change.
+     */
+    private synchronized long truncateTo(long lsn) throws AxionException {
+        if (_closed) {
+            return -1;
+        }
+        File tmpFile = new File(_file.getPath() + ".TMP");
+        try {
+            long size = _channel.size();
+            long from = lsn - _base;
+            if (from <= 0) {
+                return -1;
+            }
+            if (from >= size) {
+                truncate();
+                return _appended;
+            }
+
+            RandomAccessFile tmp = new RandomAccessFile(tmpFile, "rw");
+            try {
+                tmp.setLength(0);
+                FileChannel out = tmp.getChannel();
+                for (long pos = from; pos < size;) {
+                    long n = _channel.transferTo(pos, size - pos, out);
+                    if (n <= 0) {
+                        throw new IOException("Unable to copy " + _file + " to " + tmpFile);
+                    }
+                    pos += n;
+                }
+                out.force(true);
+            } finally {
+                tmp.close();
+            }
+
+            _channel.close();
+            _raf.close();
+            try {
+                FileUtil.replace(tmpFile, _file);
+                _base = lsn;
+            } finally {
+                // reopen whichever file is now the log
+                _raf = new RandomAccessFile(_file, "rw");
+                _channel = _raf.getChannel();
+                _channel.position(_channel.size());
+            }
+            return _appended;
+        } catch (IOException e) {
+            throw new AxionException("Unable to truncate log " + _file, e);
+        }
+    }
+
+    private synchronized long append(byte[] payload) throws IOException {
+        ByteBuffer frame = ByteBuffer.allocate(FRAME_HEADER_SIZE + payload.length);
+        frame.putInt(payload.length);
+        frame.putLong(checksum(payload));
+        frame.put(payload);
+        frame.flip();
+        while (frame.hasRemaining()) {
+            _channel.write(frame);
+        }
+        _appended = _base + _channel.position();
+        return _appended;
+    }
+
+    private long checksum(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+        return crc.getValue();
+    }
+
+    private void readFully(ByteBuffer buf, long pos) throws IOException {
+        while (buf.hasRemaining()) {
+            if (_channel.read(buf, pos + buf.position()) < 0) {
+                throw new IOException("Unexpected end of log " + _file);
+            }
+        }
+    }
+
+    private void redo(Database db, byte[] record) throws IOException, AxionException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+        for (int marker = in.readInt(); marker != END_OF_RECORD; marker = in.readInt()) {
+            if (marker == SEQUENCE_MARKER) {
+                Sequence seq = db.getSequence(in.readUTF());
+                BigInteger next = new BigInteger(in.readUTF(), Sequence.RADIX);
+                if (null != seq) {
+                    seq.skipTo(next);
+                }
+                continue;
+            } else if (marker == IDENTITY_MARKER) {
+                String name = in.readUTF();
+                BigInteger next = new BigInteger(in.readUTF(), Sequence.RADIX);
+                Sequence seq = db.hasTable(name) ? db.getTable(name).getSequence() : null;
+                if (null != seq) {
+                    seq.skipTo(next);
+                }
+                continue;
+            }
+
+            String name = in.readUTF();
+            int columns = in.readInt();
+            Table table = db.hasTable(name) ? db.getTable(name) : null;
+            boolean apply = (table instanceof BaseDiskTable) && table.getColumnCount() == columns;
+            if (!apply) {
+                _log.log(Level.WARNING, "Skipping logged changes to table " + name + " which no longer matches the log");
+            }
+
+            IntList deletes = new ArrayIntList();
+            for (int i = 0, n = in.readInt(); i < n; i++) {
+                deletes.add(in.readInt());
+            }
+            IntRowMap updates = readRows(in, table, columns, apply);
+            IntRowMap inserts = readRows(in, table, columns, apply);
+            if (apply) {
+                ((BaseDiskTable) table).redo(deletes, updates.rowValues(), inserts.rowValues());
+            }
+        }
+    }
+
+    private IntRowMap readRows(DataInputStream in, Table table, int columns, boolean decode) throws IOException {
+        IntRowMap rows = new IntRowMap();
+        for (int i = 0, n = in.readInt(); i < n; i++) {
+            int id = in.readInt();
+            int length = in.readInt();
+            if (decode) {
+                Row row = new SimpleRow(id, columns);
+                for (int j = 0; j < columns; j++) {
+                    row.set(j, table.getColumn(j).getDataType().read(in));
+                }
+                rows.putRow(id, row);
+            } else {
+                in.skipBytes(length);
+            }
+        }
+        return rows;
+    }
+
+    private int writeTable(TransactableTableImpl ttable, DataOutputStream out) throws IOException, AxionException {
+        Table table = ttable;
+        while (table instanceof TransactableTable) {
+            table = ((TransactableTable) table).getTable();
+        }
+        if (!(table instanceof DiskTable)) {
+            return 0;
+        }
+
+        out.writeInt(TABLE_MARKER);
+        out.writeUTF(table.getName());
+        out.writeInt(table.getColumnCount());
+        IntCollection deletes = ttable.getDeletedRowIds();
+        out.writeInt(deletes.size());
+        for (IntIterator iter = deletes.iterator(); iter.hasNext();) {
+            out.writeInt(iter.next());
+        }
+        writeRows(table, ttable.getUpdatedRows(), out);
+        writeRows(table, ttable.getInsertedRows(), out);
+
+        // identity values are handed out before the rows holding them commit
+        if (null != table.getSequence()) {
+            out.writeInt(IDENTITY_MARKER);
+            out.writeUTF(table.getName());
+            out.writeUTF(table.getSequence().getValue().toString());
+        }
+        return 1;
+    }
+
+    private void writeSequences(DataOutputStream out) throws IOException {
+        synchronized (_reservedSequences) {
+            for (Iterator iter = _reservedSequences.entrySet().iterator(); iter.hasNext();) {
+                Map.Entry entry = (Map.Entry) iter.next();
+                out.writeInt(SEQUENCE_MARKER);
+                out.writeUTF((String) entry.getKey());
+                out.writeUTF(entry.getValue().toString());
+            }
+            _reservedSequences.clear();
+        }
+    }
+
+    private void writeRows(Table table, RowCollection rows, DataOutputStream out) throws IOException, AxionException {
+        ByteArrayOutputStream rowbuf = new ByteArrayOutputStream();
+        DataOutputStream rowout = new DataOutputStream(rowbuf);
+        int count = 0;
+        for (RowIterator iter = rows.rowIterator(); iter.hasNext();) {
+            if (iter.next() != null) {
+                count++;
+            }
+        }
+        out.writeInt(count);
+        for (RowIterator iter = rows.rowIterator(); iter.hasNext();) {
+            Row row = iter.next();
+            if (row != null) {
+                rowbuf.reset();
+                for (int i = 0, I = table.getColumnCount(); i < I; i++) {
+                    table.getColumn(i).getDataType().write(row.get(i), rowout);
+                }
+                rowout.flush();
+                out.writeInt(row.getIdentifier());
+                out.writeInt(rowbuf.size());
+                rowbuf.writeTo(out);
+            }
+        }
+    }
+
+    private static final int END_OF_RECORD = 0;
+    private static final int FRAME_HEADER_SIZE = 12;
+    private static final int IDENTITY_MARKER = 3;
+    private static final int SEQUENCE_MARKER = 2;
+    private static final int TABLE_MARKER = 1;
+    private static Logger _log = Logger.getLogger(WriteAheadLog.class.getName());
+
+    /** Log sequence number just past the last appended record. */
+    private long _appended = 0;
+    /** Log sequence number of the start of the current file. */
+    private long _base = 0;
+    private FileChannel _channel;
+    private boolean _closed = false;
+    /** Log sequence number up to which the log is known to be on disk. */
+    private long _durable = 0;
+    private File _file;
+    private RandomAccessFile _raf;
+    /** Sequence name to the next value it will reserve, for sequences advanced since the last record. */
+    private final Map _reservedSequences = new HashMap();
+    private boolean _syncing = false;
+    private final Object _syncLock = new Object();
+}
@@ -80,6 +80,10 @@ public class AlterSequenceCommand extends CreateCommand {
         _isCycle = ValuePool.getBoolean(cycle);
     }
 
+    public void setCacheSize(String cacheSize) {
+        _cacheSize = cacheSize;
+    }
+
     public boolean execute(org.axiondb.Database db) throws AxionException {
         assertNotReadOnly(db);
 
@@ -132,10 +136,17 @@ public class AlterSequenceCommand extends CreateCommand {
             isCycle = _isCycle.booleanValue();
         }
 
+        int cacheSize;
+        if (_cacheSize == null) {
+            cacheSize = old.getCacheSize();
+        } else {
+            cacheSize = CreateSequenceCommand.parseCacheSize(_cacheSize);
+        }
+
         DataType type = old.getDataType();
 
         return new Sequence(getObjectName(), type, startVal, incrementBy, maxValue, minValue,
-            isCycle);
+            isCycle, cacheSize);
     }
 
     private String _startVal;
@@ -143,4 +154,5 @@ public class AlterSequenceCommand extends CreateCommand {
     private String _maxValue;
     private String _minValue;
     private Boolean _isCycle;
+    private String _cacheSize;
 }
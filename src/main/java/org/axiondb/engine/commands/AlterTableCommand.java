@@ -62,6 +62,7 @@ import org.axiondb.TransactableTable;
 import org.axiondb.constraints.BaseSelectableBasedConstraint;
 import org.axiondb.constraints.CheckConstraint;
 import org.axiondb.constraints.ForeignKeyConstraint;
+import org.axiondb.engine.BTreeIndexFactory;
 import org.axiondb.engine.tables.BaseFlatfileTable;
 import org.axiondb.engine.tables.ExternalDatabaseTable;
 import org.axiondb.engine.visitors.TableColumnsUsedInFunctionVisitor;
@@ -132,6 +133,9 @@ public class AlterTableCommand extends BaseAxionCommand {
         }
 
         if (_newTableName != null) {
+            if (null != db.getMaterializedView(_tableName) || !db.getDependentMaterializedViews(_tableName).isEmpty()) {
+                throw new AxionException("Can't rename " + _tableName + ": it is, or is read by, a materialized view");
+            }
             db.renameTable(_tableName, _newTableName);
             setEffectedRowCount(0);
             return 0;
@@ -223,14 +227,27 @@ public class AlterTableCommand extends BaseAxionCommand {
         List indexesToAdd = new ArrayList();
         for (Iterator iter = table.getIndices(); iter.hasNext();) {
             Index i = (Index) iter.next();
-            Column col = i.getIndexedColumn();
-            if (_createTempTableCmd.isColumnEexcluded(col.getName()) && !_cascade) {
-                throw new AxionException("Can't drop Column: Index exist for " + col.getName());
-            } else if (col.getName().equals(_alterColumn) && !_cascade) {
-                throw new AxionException("Can't alter Column: Index exist for " + col.getName());
-            } else if (!_createTempTableCmd.isColumnEexcluded(col.getName()) && !col.getName().equals(_alterColumn)) {
+            List cols = i.getIndexedColumns();
+            boolean keep = true;
+            for (int j = 0, J = cols.size(); j < J; j++) {
+                Column col = (Column) cols.get(j);
+                if (_createTempTableCmd.isColumnEexcluded(col.getName()) && !_cascade) {
+                    throw new AxionException("Can't drop Column: Index exist for " + col.getName());
+                } else if (col.getName().equals(_alterColumn) && !_cascade) {
+                    throw new AxionException("Can't alter Column: Index exist for " + col.getName());
+                } else if (_createTempTableCmd.isColumnEexcluded(col.getName()) || col.getName().equals(_alterColumn)) {
+                    keep = false;
+                }
+            }
+
+            if (keep) {
                 IndexFactory factory = db.getIndexFactory(i.getType());
-                Index index = factory.makeNewInstance(i.getName(), col, i.isUnique(), db.getDBDirectory() == null);
+                Index index = null;
+                if (cols.size() > 1) {
+                    index = ((BTreeIndexFactory) factory).makeNewInstance(i.getName(), cols, i.isUnique(), db.getDBDirectory() == null);
+                } else {
+                    index = factory.makeNewInstance(i.getName(), i.getIndexedColumn(), i.isUnique(), db.getDBDirectory() == null);
+                }
                 indexesToAdd.add(index);
             }
         }
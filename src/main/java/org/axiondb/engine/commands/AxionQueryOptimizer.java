@@ -39,8 +39,14 @@
  */
 package org.axiondb.engine.commands;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.axiondb.AxionException;
@@ -49,6 +55,7 @@ import org.axiondb.ColumnIdentifier;
 import org.axiondb.FromNode;
 import org.axiondb.Function;
 import org.axiondb.FunctionFactory;
+import org.axiondb.Index;
 import org.axiondb.Selectable;
 import org.axiondb.Table;
 import org.axiondb.TableIdentifier;
@@ -244,6 +251,65 @@ public class AxionQueryOptimizer {
         return result;
     }
 
+    /**
+     * Find the column-literal equal functions that bind the longest leading prefix of a
+     * multi-column index of the given table. The result ANDs them, in index column order,
+     * into a single node that {@link Table#getIndexedRows(Selectable,boolean)} can answer
+     * from that index.
+     * 
+     * @param tid TableIdentifier, or null if the conditions only reference the table
+     * @param conditions decomposed condition set
+     * @return AndFunction over the matching conditions, null if no multi-column index
+     *         has its leading column bound
+     */
+    @SuppressWarnings("unchecked")
+    public static AndFunction findCompositeIndexLookup(TableIdentifier tid, Table table, Collection conditions) {
+        Map bound = new HashMap();
+        for (Iterator it = conditions.iterator(); it.hasNext();) {
+            Object condition = it.next();
+            if (condition instanceof EqualFunction && ((EqualFunction) condition).isColumnLiteral()) {
+                EqualFunction fn = (EqualFunction) condition;
+                Selectable searchColumn = null;
+                if (tid == null) {
+                    searchColumn = (fn.getArgument(0) instanceof ColumnIdentifier) ? fn.getArgument(0) : fn.getArgument(1);
+                } else if (onlyReferencesTable(tid, fn)) {
+                    searchColumn = getColumnRefersTable(fn, tid);
+                }
+                Column column = (searchColumn == null) ? null : table.getColumn(searchColumn.getName());
+                if (column != null && !bound.containsKey(column.getName())) {
+                    bound.put(column.getName(), fn);
+                }
+            }
+        }
+
+        if (bound.isEmpty()) {
+            return null;
+        }
+
+        List best = Collections.EMPTY_LIST;
+        for (Iterator it = table.getIndices(); it.hasNext();) {
+            List columns = ((Index) it.next()).getIndexedColumns();
+            if (columns.size() > 1) {
+                List prefix = new ArrayList(columns.size());
+                for (int i = 0, I = columns.size(); i < I && bound.containsKey(((Column) columns.get(i)).getName()); i++) {
+                    prefix.add(bound.get(((Column) columns.get(i)).getName()));
+                }
+                if (prefix.size() > best.size()) {
+                    best = prefix;
+                }
+            }
+        }
+
+        if (best.isEmpty()) {
+            return null;
+        }
+        AndFunction lookup = new AndFunction();
+        for (int i = 0, I = best.size(); i < I; i++) {
+            lookup.addArgument((Selectable) best.get(i));
+        }
+        return lookup;
+    }
+
     public static Function isColumnIndexed(TableIdentifier tid, Table table, Selectable condition, boolean mustCheckForIndex) {
         if (condition instanceof ComparisonFunction) {
             ComparisonFunction fn = (ComparisonFunction) condition;
@@ -44,6 +44,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
@@ -51,14 +52,17 @@ import java.util.Map;
 import java.util.Set;
 
 import org.axiondb.AxionException;
+import org.axiondb.BindVariable;
 import org.axiondb.Column;
 import org.axiondb.ColumnIdentifier;
+import org.axiondb.DataType;
 import org.axiondb.Database;
 import org.axiondb.FromNode;
 import org.axiondb.Function;
 import org.axiondb.Index;
 import org.axiondb.Literal;
 import org.axiondb.OrderNode;
+import org.axiondb.RangeScannableTable;
 import org.axiondb.Row;
 import org.axiondb.RowDecorator;
 import org.axiondb.RowIterator;
@@ -71,19 +75,25 @@ import org.axiondb.engine.rowiterators.DistinctRowIterator;
 import org.axiondb.engine.rowiterators.FilteringChangingIndexedRowIterator;
 import org.axiondb.engine.rowiterators.FilteringRowIterator;
 import org.axiondb.engine.rowiterators.GroupedRowIterator;
+import org.axiondb.engine.rowiterators.HashJoinedRowIterator;
 import org.axiondb.engine.rowiterators.IndexNestedLoopJoinedRowIterator;
 import org.axiondb.engine.rowiterators.LimitingRowIterator;
 import org.axiondb.engine.rowiterators.ListRowIterator;
 import org.axiondb.engine.rowiterators.MutableIndexedRowIterator;
 import org.axiondb.engine.rowiterators.NestedLoopJoinedRowIterator;
+import org.axiondb.engine.rowiterators.ParallelScanRowIterator;
 import org.axiondb.engine.rowiterators.ReverseSortedRowIterator;
 import org.axiondb.engine.rowiterators.SingleRowIterator;
 import org.axiondb.engine.rowiterators.SortedRowIterator;
 import org.axiondb.engine.rows.SimpleRow;
+import org.axiondb.engine.tables.AbstractBaseTable;
 import org.axiondb.engine.tables.ExternalDatabaseTable;
 import org.axiondb.engine.tables.TableView;
+import org.axiondb.functions.AndFunction;
 import org.axiondb.functions.ComparisonFunction;
+import org.axiondb.functions.CountFunction;
 import org.axiondb.functions.EqualFunction;
+import org.axiondb.util.Utils;
 import org.axiondb.util.ValuePool;
 
 /**
@@ -499,12 +509,44 @@ public class AxionQueryPlanner {
             return rows;
         }
 
+        if (readOnly && table instanceof ExternalDatabaseTable) {
+            rows = ((ExternalDatabaseTable) table).getRemoteRows(tid, conditions);
+            addExplainRow(rows);
+            return rows;
+        }
+
+        rows = getIndexedRowsFromTable(tid, table, readOnly, conditions);
+
+        // If we still don't have a RowIterator for this table, then we'll use a full
+        // table scan.
+        if (null == rows) {
+            rows = table.getRowIterator(readOnly);
+            addExplainRow(rows);
+        }
+        return rows;
+    }
+
+    private RowIterator getIndexedRowsFromTable(TableIdentifier tid, Table table, boolean readOnly, Set conditions) throws AxionException {
+        RowIterator rows = null;
         Function fn = AxionQueryOptimizer.findColumnLiteralFunction(tid, table, conditions, true);
+        AndFunction lookup = AxionQueryOptimizer.findCompositeIndexLookup(tid, table, conditions);
+
+        // Prefer a composite index when equalities bind more than its leading column,
+        // or when no single column index can be used at all
+        if (lookup != null && (lookup.getArgumentCount() > 1 || fn == null)) {
+            rows = table.getIndexedRows(lookup, readOnly);
+            if (rows != null) {
+                for (int i = 0, I = lookup.getArgumentCount(); i < I; i++) {
+                    conditions.remove(lookup.getArgument(i));
+                }
+                addExplainRow(rows);
+            }
+        }
 
         // First try to apply column literal equal function or other comparison
         // function, this is very fast in case of comparison function this will result in
         // subset which contains less rows which improves performance
-        if (fn != null) {
+        if (rows == null && fn != null) {
             // ...then try to find an index for this node.
             rows = table.getIndexedRows(fn, readOnly);
             if (rows != null) {
@@ -512,13 +554,6 @@ public class AxionQueryPlanner {
                 addExplainRow(rows);
             }
         }
-
-        // If we still don't have a RowIterator for this table, then we'll use a full
-        // table scan.
-        if (null == rows) {
-            rows = table.getRowIterator(readOnly);
-            addExplainRow(rows);
-        }
         return rows;
     }
 
@@ -540,6 +575,54 @@ public class AxionQueryPlanner {
         return true;
     }
 
+    // Returns the names of the columns of the given table the query refers to, or null if
+    // they can't all be told from the query
+    @SuppressWarnings("unchecked")
+    private Set getColumnsUsed(TableIdentifier tid, AxionQueryContext context) {
+        List nodes = new ArrayList(context.getSelect());
+        nodes.add(context.getWhere());
+        nodes.add(context.getHaving());
+        nodes.addAll(context.getGroupBy());
+        for (int i = 0, I = context.getOrderByCount(); i < I; i++) {
+            nodes.add(context.getOrderBy(i).getSelectable());
+        }
+
+        Set columns = new HashSet();
+        for (int i = 0, I = nodes.size(); i < I; i++) {
+            if (!addColumnsUsed(tid, (Selectable) nodes.get(i), columns)) {
+                return null;
+            }
+        }
+        return columns;
+    }
+
+    @SuppressWarnings("unchecked")
+    private boolean addColumnsUsed(TableIdentifier tid, Selectable node, Set columns) {
+        if (null == node || node instanceof Literal) {
+            return true;
+        } else if (node instanceof ColumnIdentifier) {
+            ColumnIdentifier column = (ColumnIdentifier) node;
+            if ("*".equals(column.getName())) {
+                return false;
+            } else if (tid.equals(column.getTableIdentifier())) {
+                columns.add(column.getName());
+            }
+            return true;
+        } else if (node instanceof Function) {
+            Function fn = (Function) node;
+            for (int i = 0, I = fn.getArgumentCount(); i < I; i++) {
+                Selectable arg = fn.getArgument(i);
+                boolean countAll = fn instanceof CountFunction && "*".equals(arg.getName());
+                if (!countAll && !addColumnsUsed(tid, arg, columns)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        // sub-queries may refer to any column through their parent row
+        return false;
+    }
+
     /**
      * Detemines whether we can eliminate sorting by checking whether or not the
      * RowIterrator has been already sorted.
@@ -585,6 +668,26 @@ public class AxionQueryPlanner {
         return true;
     }
 
+    private int estimateRowCount(Object child, Database db) throws AxionException {
+        if (child instanceof TableIdentifier) {
+            Table table = db.getTable((TableIdentifier) child);
+            if (!isTableView(table)) {
+                // an exact count may mean reading all of the table
+                return AbstractBaseTable.estimateRowCount(table);
+            }
+        }
+        // a view or a nested join may well be larger than any table
+        return Integer.MAX_VALUE;
+    }
+
+    private boolean isFromSubtree(ColumnIdentifier column, Object child) {
+        TableIdentifier tid = column.getTableIdentifier();
+        if (child instanceof FromNode) {
+            return Arrays.asList(((FromNode) child).toTableArray()).contains(tid);
+        }
+        return null != tid && tid.equals(child);
+    }
+
     private boolean isTableView(Table table) {
         if (table instanceof TransactableTableImpl) {
             table = ((TransactableTableImpl) table).getTable();
@@ -602,6 +705,43 @@ public class AxionQueryPlanner {
         return iter;
     }
 
+    // Scan a large disk table on several threads, each filtering its own range of rows,
+    // if the database allows it and the remaining conditions are safe to share.
+    private RowIterator makeParallelScanRowIterator(Database db, Table table, boolean readOnly, Map colIdToFieldMap) throws AxionException {
+        int parallelism = getParallelism(db);
+        if (!readOnly || parallelism < 2 || !(table instanceof RangeScannableTable)) {
+            return null;
+        }
+
+        Selectable where = null;
+        if (!_unappliedWhereNodes.isEmpty()) {
+            where = AxionQueryOptimizer.createOneRootFunction(_unappliedWhereNodes);
+        }
+        int limit = ((RangeScannableTable) table).getRowIdLimit();
+        if (limit < PARALLEL_SCAN_MIN_ROWS || !ParallelScanRowIterator.isParallelSafe(where)) {
+            return null;
+        }
+
+        RowIterator rows = new ParallelScanRowIterator((RangeScannableTable) table, limit, new HashMap(colIdToFieldMap), where, parallelism);
+        _unappliedWhereNodes.clear();
+        addExplainRow(rows);
+        return rows;
+    }
+
+    // Let the remote database filter the rows of an external table, and when nothing but
+    // sorting is left to do locally, stop after the rows the LIMIT can reach.
+    private RowIterator makeRemoteRowIterator(AxionQueryContext context, ExternalDatabaseTable table, boolean limitable) throws AxionException {
+        TableIdentifier tid = context.getTables(0);
+        int maxRows = -1;
+        if (limitable && context.getGroupByCount() == 0 && !context.foundAggregateFunction() && !context.getDistinct()) {
+            maxRows = getTopN(context);
+        }
+
+        RowIterator rows = table.getRemoteRows(tid, _unappliedWhereNodes, getColumnsUsed(tid, context), context.getOrderBy(), maxRows);
+        addExplainRow(rows);
+        return rows;
+    }
+
     private RowIterator makeDistinctRowIterator(RowIterator rows, AxionQueryContext context) {
         // Apply distinct, if needed
         if (context.getDistinct()) {
@@ -862,6 +1002,36 @@ public class AxionQueryPlanner {
         addExplainRow(joinedRowIter);
     }
 
+    private void makeHashJoinedRowIterator(FromNode from, JoinCondition joinCondition, QueryPlannerJoinContext joinContext, Database db)
+            throws AxionException {
+        EqualFunction fn = joinContext.getHashJoinKey();
+        if (fn == null || joinContext.getLeftColumnPosition() < 0 || joinContext.getRightColumnPosition() < 0) {
+            return;
+        }
+
+        // Hash the inner side of an outer join, or the smaller side of an inner join
+        DataType keyType = fn.getArgument(0).getDataType();
+        HashJoinedRowIterator joinedRowIter = null;
+        if (from.isRightJoin()
+            || (from.isInnerJoin() && !joinContext.swapRightToLeft() && estimateRowCount(from.getLeft(), db) < estimateRowCount(from.getRight(), db))) {
+            joinedRowIter = new HashJoinedRowIterator(joinContext.getRightIterator(), joinContext.getRightColumnPosition(),
+                joinContext.getLeftIterator(), joinContext.getLeftColumnPosition(), joinContext.getLeftColumnCount(), keyType, !from.isInnerJoin(), true);
+        } else {
+            joinedRowIter = new HashJoinedRowIterator(joinContext.getLeftIterator(), joinContext.getLeftColumnPosition(),
+                joinContext.getRightIterator(), joinContext.getRightColumnPosition(), joinContext.getRightColumnCount(), keyType, !from.isInnerJoin(),
+                false);
+        }
+
+        joinCondition.getNodes().remove(fn);
+        _unappliedWhereNodes.remove(fn);
+        if (!joinCondition.isEmpty()) {
+            joinedRowIter.setJoinCondition(joinCondition.stitchAll(), new RowDecorator(joinContext.getColumnIdToFieldMap()));
+            _unappliedWhereNodes.removeAll(joinCondition.getNodes());
+        }
+        joinContext.setRowIterator(joinedRowIter);
+        addExplainRow(joinedRowIter);
+    }
+
     private RowIterator makeOrderedIndexBasedRowIterator(boolean readOnly, AxionQueryContext context, Table table) throws AxionException {
         // Check if we can use index for order by; only supported for single table
         RowIterator orderedRows = null;
@@ -889,7 +1059,18 @@ public class AxionQueryPlanner {
 
     private RowIterator makeOrderedRowIterator(Database db, RowIterator rows, Map colIdToFieldMap, AxionQueryContext context) throws AxionException {
         if (isSortingRequired(context)) {
-            rows = new SortedRowIterator.MergeSort(rows, context.getOrderBy(), new RowDecorator(colIdToFieldMap));
+            long sortBufferSize = getSortBufferSize(db);
+            int topN = getTopN(context);
+            DataType[] types = getColumnTypes(colIdToFieldMap);
+            long rowSize = SortedRowIterator.estimateSize(null == types ? new DataType[colIdToFieldMap.size()] : types);
+            if (topN >= 0 && (sortBufferSize <= 0 || topN <= sortBufferSize / rowSize)) {
+                rows = new SortedRowIterator.TopNSort(rows, context.getOrderBy(), new RowDecorator(colIdToFieldMap), topN);
+            } else if (sortBufferSize > 0) {
+                rows = new SortedRowIterator.ExternalMergeSort(rows, context.getOrderBy(), new RowDecorator(colIdToFieldMap), types,
+                    sortBufferSize, db.getDBDirectory());
+            } else {
+                rows = new SortedRowIterator.MergeSort(rows, context.getOrderBy(), new RowDecorator(colIdToFieldMap));
+            }
             addExplainRow(rows);
         } else if (_doReverseSorting) {
             rows = new ReverseSortedRowIterator(rows);
@@ -898,6 +1079,71 @@ public class AxionQueryPlanner {
         return rows;
     }
 
+    /**
+     * Returns the number of ordered rows a literal LIMIT (plus OFFSET) can reach, or -1
+     * if there is no LIMIT or either is a bind variable. A plan is reused by later
+     * executions of its command, which may bind a larger LIMIT or OFFSET.
+     */
+    private int getTopN(AxionQueryContext context) throws AxionException {
+        Literal limit = context.getLimit();
+        Literal offset = context.getOffset();
+        if (null == limit || limit instanceof BindVariable || offset instanceof BindVariable) {
+            return -1;
+        }
+        Object n = limit.evaluate();
+        Object skip = (null == offset) ? null : offset.evaluate();
+        if (!(n instanceof Number) || (null != offset && !(skip instanceof Number))) {
+            return -1;
+        }
+        long total = ((Number) n).longValue() + (null == skip ? 0 : ((Number) skip).longValue());
+        return (total < 0 || total > Integer.MAX_VALUE) ? -1 : (int) total;
+    }
+
+    private int getParallelism(Database db) {
+        int parallelism = 1;
+        try {
+            parallelism = Integer.parseInt((String) db.getGlobalVariable(Database.PARALLELISM));
+        } catch (NumberFormatException e) {
+        }
+        return (parallelism == 0) ? Runtime.getRuntime().availableProcessors() : parallelism;
+    }
+
+    private long getSortBufferSize(Database db) {
+        long size = 0;
+        try {
+            size = Long.parseLong((String) db.getGlobalVariable(Database.SORT_BUFFER_SIZE));
+        } catch (NumberFormatException e) {
+            // not set, or not a number: sort in memory
+        }
+        return size;
+    }
+
+    /**
+     * Returns the type of each field of the rows described by the given map, or null if
+     * some field has no known type.
+     */
+    private DataType[] getColumnTypes(Map colIdToFieldMap) {
+        int size = 0;
+        for (Iterator iter = colIdToFieldMap.values().iterator(); iter.hasNext();) {
+            size = Math.max(size, ((Integer) iter.next()).intValue() + 1);
+        }
+        DataType[] types = new DataType[size];
+        for (Iterator iter = colIdToFieldMap.entrySet().iterator(); iter.hasNext();) {
+            Map.Entry entry = (Map.Entry) iter.next();
+            int pos = ((Integer) entry.getValue()).intValue();
+            if (pos < 0 || !(entry.getKey() instanceof Selectable)) {
+                return null;
+            }
+            types[pos] = ((Selectable) entry.getKey()).getDataType();
+        }
+        for (int i = 0; i < types.length; i++) {
+            if (types[i] == null) {
+                return null;
+            }
+        }
+        return types;
+    }
+
     private void makeRightChangingIndexedRowIterator(FromNode from, JoinCondition joinCondition, Database db, QueryPlannerJoinContext joinContext)
             throws AxionException {
 
@@ -994,7 +1240,7 @@ public class AxionQueryPlanner {
             }
 
             if (null == id) {
-                id = new ColumnIdentifier(tableIdent, table.getColumn(j).getName());
+                id = new ColumnIdentifier(tableIdent, table.getColumn(j).getName(), null, table.getColumn(j).getDataType());
             }
             colList.add(id);
         }
@@ -1024,9 +1270,12 @@ public class AxionQueryPlanner {
         // ChangingIndexedRowIterator on the left table
         makeLeftChangingIndexedRowIterator(from, joinCondition, db, joinContext);
 
-        // If no index found then we may create dynamic index
+        // If no index found then we may hash join on an equality, or else create
+        // dynamic index
         if (from.getTableCount() > 1 && joinContext.getLeftIterator() == null && joinContext.getRightIterator() == null) {
-            createDynamicIndex(from, joinCondition, joinContext, db);
+            if (!findHashJoinKey(from, joinCondition, joinContext)) {
+                createDynamicIndex(from, joinCondition, joinContext, db);
+            }
         }
         
         // Get RowIterator from left subtree.
@@ -1040,6 +1289,10 @@ public class AxionQueryPlanner {
         // If index found or created for the outer table then use
         // IndexNestedLoopRowIterator.
         makeIndexNestedLoopJoinedRowIterator(from, joinCondition, joinContext);
+        // Else use HashJoinedRowIterator if we found an equality to hash on.
+        if (joinContext.getRowIterator() == null) {
+            makeHashJoinedRowIterator(from, joinCondition, joinContext, db);
+        }
         // Else use NestedLoopJoinedIterator.
         if (joinContext.getRowIterator() == null) {
             makeNestedLoopJoinedIterator(from, joinCondition, joinContext);
@@ -1047,6 +1300,33 @@ public class AxionQueryPlanner {
         return joinContext;
     }
     
+    private boolean findHashJoinKey(FromNode from, JoinCondition joinCondition, QueryPlannerJoinContext joinContext) {
+        for (Iterator iter = joinCondition.getNodes().iterator(); iter.hasNext();) {
+            Object condition = iter.next();
+            if (condition instanceof EqualFunction && ((EqualFunction) condition).isColumnColumn()) {
+                EqualFunction fn = (EqualFunction) condition;
+                ColumnIdentifier first = (ColumnIdentifier) fn.getArgument(0);
+                ColumnIdentifier second = (ColumnIdentifier) fn.getArgument(1);
+                if (!Utils.isHashable(first.getDataType())) {
+                    continue;
+                }
+
+                if (isFromSubtree(first, from.getLeft()) && isFromSubtree(second, from.getRight())) {
+                    joinContext.setLeftTableKey(first);
+                    joinContext.setRightTablekey(second);
+                } else if (isFromSubtree(second, from.getLeft()) && isFromSubtree(first, from.getRight())) {
+                    joinContext.setLeftTableKey(second);
+                    joinContext.setRightTablekey(first);
+                } else {
+                    continue;
+                }
+                joinContext.setHashJoinKey(fn);
+                return true;
+            }
+        }
+        return false;
+    }
+
     private boolean findFilterOnIndexColumnForRightTable(FromNode from, Database db, QueryPlannerJoinContext joinContext, JoinCondition joinCondition)
             throws AxionException {
         if (!_isAllInnerJoin) {
@@ -1136,7 +1416,10 @@ public class AxionQueryPlanner {
         populateColumnIdToFieldMap(columnList, colIdToFieldMap);
 
         RowIterator rows = null;
-        if (context.getOrderByCount() == 1 && context.getGroupByCount() < 1) {
+        if (readOnly && table instanceof ExternalDatabaseTable) {
+            _unappliedWhereNodes = AxionQueryOptimizer.flatConditionTree(context.getWhere());
+            rows = makeRemoteRowIterator(context, (ExternalDatabaseTable) table, literaliter == null);
+        } else if (context.getOrderByCount() == 1 && context.getGroupByCount() < 1) {
             rows = makeOrderedIndexBasedRowIterator(readOnly, context, table);
         } else if (context.getGroupByCount() == 1) {
             rows = makeGroupedIndexBasedRowIterator(readOnly, context, table);
@@ -1144,7 +1427,14 @@ public class AxionQueryPlanner {
 
         if (rows == null) {
             _unappliedWhereNodes = AxionQueryOptimizer.flatConditionTree(context.getWhere());
-            rows = getRowIteratorFromTable(db, context.getTables(0), table, rows, readOnly, _unappliedWhereNodes);
+            rows = getIndexedRowsFromTable(context.getTables(0), table, readOnly, _unappliedWhereNodes);
+            if (rows == null && literaliter == null) {
+                rows = makeParallelScanRowIterator(db, table, readOnly, colIdToFieldMap);
+            }
+            if (rows == null) {
+                rows = table.getRowIterator(readOnly);
+                addExplainRow(rows);
+            }
         }
 
         // Add RowIterator for literals (if any) in the select list
@@ -1314,6 +1604,7 @@ public class AxionQueryPlanner {
 
         private boolean _rowsAreSortedByJoinKey = false;
         private boolean _swapRightToLeft = false;
+        private EqualFunction _hashJoinKey;
 
         /**
          * Default constructor
@@ -1511,6 +1802,17 @@ public class AxionQueryPlanner {
         public void setSwapRightToLeft(boolean swapRightToLeft) {
             _swapRightToLeft = swapRightToLeft;
         }
+
+        /**
+         * @return the equality to hash join on, if any
+         */
+        public EqualFunction getHashJoinKey() {
+            return _hashJoinKey;
+        }
+
+        public void setHashJoinKey(EqualFunction hashJoinKey) {
+            _hashJoinKey = hashJoinKey;
+        }
         
         @Override
         public String toString() {
@@ -1535,6 +1837,9 @@ public class AxionQueryPlanner {
         }
     }
 
+    /** The fewest row ids a table must have to be scanned on several threads. */
+    private static final int PARALLEL_SCAN_MIN_ROWS = 65536;
+
     private Map _colIdToFieldMap = new HashMap();
     private AxionQueryContext _context;
     private List _literals;
@@ -64,6 +64,7 @@ import org.axiondb.TableIdentifier;
 import org.axiondb.engine.rowiterators.FilteringRowIterator;
 import org.axiondb.engine.visitors.FindBindVariableVisitor;
 import org.axiondb.engine.visitors.ResolveSelectableVisitor;
+import org.axiondb.functions.AndFunction;
 import org.axiondb.functions.ConcreteFunction;
 import org.axiondb.functions.FunctionIdentifier;
 import org.axiondb.jdbc.AxionResultSet;
@@ -106,6 +107,16 @@ public abstract class BaseAxionCommand implements AxionCommand {
         return executeQuery(db);
     }
 
+    /**
+     * Clears my bindings and drops what my last execution left behind, so I may be kept
+     * for reuse without holding on to its values or rows.
+     */
+    public void release() throws AxionException {
+        clearBindings();
+        _rset = null;
+        _rowCount = -1;
+    }
+
     public List getBindVariables() {
         if (getBindVariableVisitor() == null) {
             buildBindVariables();
@@ -200,9 +211,18 @@ public abstract class BaseAxionCommand implements AxionCommand {
         RowIterator rows = null;
         Set whereNodes = AxionQueryOptimizer.flatConditionTree(whereNode);
         Selectable searchNode = AxionQueryOptimizer.findColumnLiteralFunction(tid, table, whereNodes, true);
+        AndFunction lookup = AxionQueryOptimizer.findCompositeIndexLookup(tid, table, whereNodes);
 
-        // look for an index
-        if (searchNode != null) {
+        // look for an index, preferring a composite one as the planner does
+        if (lookup != null && (lookup.getArgumentCount() > 1 || searchNode == null)) {
+            rows = table.getIndexedRows(lookup, readOnly);
+            if (rows != null) {
+                for (int i = 0, I = lookup.getArgumentCount(); i < I; i++) {
+                    whereNodes.remove(lookup.getArgument(i));
+                }
+            }
+        }
+        if (rows == null && searchNode != null) {
             rows = table.getIndexedRows(searchNode, readOnly);
             if (rows != null) {
                 whereNodes.remove(searchNode);
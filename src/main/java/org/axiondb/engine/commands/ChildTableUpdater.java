@@ -86,12 +86,21 @@ public abstract class ChildTableUpdater extends BaseAxionCommand {
             filter = buildFilter(dec, parentCols);
             RowIterator matching = getRowIterator(db, new TableIdentifier(fk.getChildTableName()), childTable, filter, false, dec);
             if (matching.hasNext()) {
-                if (fk.getOnDeleteActionType() == ForeignKeyConstraint.CASCADE) {
-                    deleteMatchingChildRows(matching);
-                } else if (fk.getOnDeleteActionType() == ForeignKeyConstraint.SETNULL) {
-                    setNullForMatchingChildRows(childCols, childTable, matching);
-                }  else if (fk.getOnDeleteActionType() == ForeignKeyConstraint.SETDEFAULT) {
-                    setDefaultForMatchingChildRows(childCols, childTable, matching);
+                // child rows changed by a statement that defers its checks are checked
+                // with the statement's own rows, all together when the transaction commits;
+                // later statements on the child table check their rows as before
+                boolean deferAllBefore = childTable.isDeferAllConstraints();
+                setDeferAllConstraintIfRequired(childTable);
+                try {
+                    if (fk.getOnDeleteActionType() == ForeignKeyConstraint.CASCADE) {
+                        deleteMatchingChildRows(matching);
+                    } else if (fk.getOnDeleteActionType() == ForeignKeyConstraint.SETNULL) {
+                        setNullForMatchingChildRows(childCols, childTable, matching);
+                    }  else if (fk.getOnDeleteActionType() == ForeignKeyConstraint.SETDEFAULT) {
+                        setDefaultForMatchingChildRows(childCols, childTable, matching);
+                    }
+                } finally {
+                    childTable.setDeferAllConstraints(deferAllBefore);
                 }
             }
         }
@@ -122,12 +131,18 @@ public abstract class ChildTableUpdater extends BaseAxionCommand {
             filter = buildFilter(dec, parentCols);
             RowIterator matching = getRowIterator(db, new TableIdentifier(fk.getChildTableName()), childTable, filter, false, dec);
             if (matching.hasNext()) {
-                if (fk.getOnDeleteActionType() == ForeignKeyConstraint.CASCADE) {
-                    updateMatchingChildRows(parentTable, parentNewRow, parentCols, childCols, childTable, matching);
-                } else if (fk.getOnDeleteActionType() == ForeignKeyConstraint.SETNULL) {
-                    setNullForMatchingChildRows(childCols, childTable, matching);
-                }  else if (fk.getOnDeleteActionType() == ForeignKeyConstraint.SETDEFAULT) {
-                    setDefaultForMatchingChildRows(childCols, childTable, matching);
+                boolean deferAllBefore = childTable.isDeferAllConstraints();
+                setDeferAllConstraintIfRequired(childTable);
+                try {
+                    if (fk.getOnDeleteActionType() == ForeignKeyConstraint.CASCADE) {
+                        updateMatchingChildRows(parentTable, parentNewRow, parentCols, childCols, childTable, matching);
+                    } else if (fk.getOnDeleteActionType() == ForeignKeyConstraint.SETNULL) {
+                        setNullForMatchingChildRows(childCols, childTable, matching);
+                    }  else if (fk.getOnDeleteActionType() == ForeignKeyConstraint.SETDEFAULT) {
+                        setDefaultForMatchingChildRows(childCols, childTable, matching);
+                    }
+                } finally {
+                    childTable.setDeferAllConstraints(deferAllBefore);
                 }
             }
         }
@@ -51,6 +51,7 @@ import org.axiondb.Index;
 import org.axiondb.IndexFactory;
 import org.axiondb.Table;
 import org.axiondb.TableIdentifier;
+import org.axiondb.engine.BTreeIndexFactory;
 
 /**
  * A <code>CREATE [UNIQUE] [<i>TYPE</i>] INDEX</code> command.
@@ -109,13 +110,10 @@ public class CreateIndexCommand extends CreateCommand {
         return _type;
     }
 
+    @SuppressWarnings("unchecked")
     public boolean execute(Database db) throws AxionException {
         assertNotReadOnly(db);
         if (!isIfNotExists() || !db.hasIndex(getObjectName())) {
-            if (getColumnCount() > 1) {
-                throw new AxionException("Multi-column indices are not supported yet.");
-            }
-            
             Table table = db.getTable(getTable());
             if (null == table) {
                 throw new AxionException("Table " + getTable() + " not found.");
@@ -126,15 +124,31 @@ public class CreateIndexCommand extends CreateCommand {
                         "reserved for internally-generated indexes.");
             }
             
-            String columnName = getColumn(0).getName();
-            Column column = table.getColumn(columnName);
-
             Index index = null;
             IndexFactory factory = db.getIndexFactory(null == _type ? "default" : _type);
             if (null == factory) {
                 throw new AxionException("Index type \"" + _type + "\" not recognized.");
             }
-            index = factory.makeNewInstance(getObjectName(), column, _unique, db.getDBDirectory() == null);
+
+            if (getColumnCount() > 1) {
+                if (!(factory instanceof BTreeIndexFactory)) {
+                    throw new AxionException("Multi-column indices are only supported for btree indices.");
+                }
+                List columns = new ArrayList(getColumnCount());
+                for (int i = 0, I = getColumnCount(); i < I; i++) {
+                    String columnName = getColumn(i).getName();
+                    Column column = table.getColumn(columnName);
+                    if (null == column) {
+                        throw new AxionException("Column " + columnName + " not found in table " + table.getName());
+                    }
+                    columns.add(column);
+                }
+                index = ((BTreeIndexFactory) factory).makeNewInstance(getObjectName(), columns, _unique, db.getDBDirectory() == null);
+            } else {
+                String columnName = getColumn(0).getName();
+                Column column = table.getColumn(columnName);
+                index = factory.makeNewInstance(getObjectName(), column, _unique, db.getDBDirectory() == null);
+            }
             
             db.addIndex(index, table, true);
         }
@@ -41,6 +41,8 @@
 package org.axiondb.engine.commands;
 
 import java.math.BigInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.axiondb.AxionException;
 import org.axiondb.DataType;
@@ -83,6 +85,10 @@ public class CreateSequenceCommand extends CreateCommand {
         _isCycle = cycle;
     }
 
+    public void setCacheSize(String cacheSize) {
+        _cacheSize = cacheSize;
+    }
+
     public void setDataType(String typeName) {
         _typeName = typeName;
     }
@@ -112,6 +118,61 @@ public class CreateSequenceCommand extends CreateCommand {
         }
     }
 
+    /**
+     * Returns the cache size given by a <tt>CACHE n</tt> or <tt>NOCACHE</tt> option in
+     * <i>sql</i>, or null if it has none. The parser does not know these options, so
+     * they are found in the statement text: they may end a <tt>CREATE SEQUENCE</tt> or
+     * <tt>ALTER SEQUENCE</tt> statement, or the options of an identity column in
+     * <tt>CREATE TABLE</tt>.
+     * 
+     * @see #removeCacheOption
+     */
+    public static String getCacheOption(String sql) {
+        Matcher option = findCacheOption(sql);
+        if (null == option) {
+            return null;
+        }
+        return (null == option.group(2)) ? "1" : option.group(2);
+    }
+
+    /**
+     * Returns <i>sql</i> without the option found by {@link #getCacheOption}, so that it
+     * can be parsed.
+     */
+    public static String removeCacheOption(String sql) {
+        Matcher option = findCacheOption(sql);
+        if (null == option) {
+            return sql;
+        }
+        return sql.substring(0, option.start(1)) + sql.substring(option.end(1));
+    }
+
+    private static Matcher findCacheOption(String sql) {
+        Matcher option = SEQUENCE_CACHE_OPTION.matcher(sql);
+        if (option.matches()) {
+            return option;
+        }
+        if (CREATE_TABLE.matcher(sql).lookingAt()) {
+            option = IDENTITY_CACHE_OPTION.matcher(sql);
+            if (option.find()) {
+                return option;
+            }
+        }
+        return null;
+    }
+
+    static int parseCacheSize(String cacheSize) throws AxionException {
+        try {
+            int size = Integer.parseInt(cacheSize);
+            if (size > 0) {
+                return size;
+            }
+        } catch (NumberFormatException e) {
+            // fall through
+        }
+        throw new AxionException("Invalid Cache value " + cacheSize);
+    }
+
     public Sequence createSequence(Database db) throws AxionException {
         DataType type = db.getDataType(_typeName);
         validate(type);
@@ -125,14 +186,25 @@ public class CreateSequenceCommand extends CreateCommand {
             }
         }
 
-        return new Sequence(getObjectName(), type, _startVal, _incrementBy, _maxValue, _minValue, _isCycle);
+        int cacheSize = (null == _cacheSize) ? Sequence.DEFAULT_CACHE_SIZE : parseCacheSize(_cacheSize);
+        return new Sequence(getObjectName(), type, _startVal, _incrementBy, _maxValue, _minValue, _isCycle, cacheSize);
     }
 
+    private static final Pattern SEQUENCE_CACHE_OPTION = Pattern.compile(
+        "\\s*(?:CREATE|ALTER)\\s+SEQUENCE\\s+\\S+.*?\\s(CACHE\\s+(\\d+)|NOCACHE)\\s*;?\\s*",
+        Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+    private static final Pattern CREATE_TABLE = Pattern.compile("\\s*CREATE\\s+TABLE\\s",
+        Pattern.CASE_INSENSITIVE);
+    private static final Pattern IDENTITY_CACHE_OPTION = Pattern.compile(
+        "\\sAS\\s+IDENTITY\\b[^,()]*?\\s(CACHE\\s+(\\d+)|NOCACHE)(?=\\s*[,)])",
+        Pattern.CASE_INSENSITIVE);
+
     private BigInteger _startVal = BigInteger.valueOf(-1);
     private BigInteger _incrementBy = BigInteger.valueOf(1);
     private BigInteger _maxValue = BigInteger.valueOf(Integer.MAX_VALUE);
     private BigInteger _minValue = BigInteger.valueOf(0);
     private boolean _isCycle = false;
+    private String _cacheSize;
     private String _identityType;
     private String _typeName = "INTEGER";
 }
@@ -198,6 +198,19 @@ public class CreateTableCommand extends CreateCommand {
         return _childCommands.size();
     }
 
+    /**
+     * Returns the command creating the sequence of my identity column, or null if I
+     * have none.
+     */
+    public CreateSequenceCommand getIdentitySequenceCommand() {
+        for (int i = 0, I = _defaults.size(); i < I; i++) {
+            if (_defaults.get(i) instanceof CreateSequenceCommand) {
+                return (CreateSequenceCommand) _defaults.get(i);
+            }
+        }
+        return null;
+    }
+
     @SuppressWarnings("unchecked")
     public List getColumnNames() {
         return Collections.unmodifiableList(_columnNames);
@@ -0,0 +1,96 @@
+/*
+ * 
+ * =======================================================================
+ * Copyright (c) 2002-2005 Axion Development Team.  All rights reserved.
+ *  
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions 
+ * are met:
+ * 
+ * 1. Redistributions of source code must retain the above 
+ *    copyright notice, this list of conditions and the following 
+ *    disclaimer. 
+ *   
+ * 2. Redistributions in binary form must reproduce the above copyright 
+ *    notice, this list of conditions and the following disclaimer in 
+ *    the documentation and/or other materials provided with the 
+ *    distribution. 
+ *   
+ * 3. The names "Tigris", "Axion", nor the names of its contributors may 
+ *    not be used to endorse or promote products derived from this 
+ *    software without specific prior written permission. 
+ *  
+ * 4. Products derived from this software may not be called "Axion", nor 
+ *    may "Tigris" or "Axion" appear in their names without specific prior
+ *    written permission.
+ *   
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT 
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, 
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT 
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * =======================================================================
+ */
+
+package org.axiondb.engine.commands;
+
+import java.util.List;
+
+import org.axiondb.AxionException;
+import org.axiondb.Database;
+import org.axiondb.MaterializedView;
+
+/**
+ * A <code>DROP MATERIALIZED VIEW</code> command.
+ * 
+ * @version  
+ */
+public class DropMaterializedViewCommand extends DropCommand {
+
+    public DropMaterializedViewCommand(String viewName, boolean exists, boolean cascade) {
+        setObjectName(viewName);
+        setIfExists(exists);
+        setCascade(cascade);
+    }
+
+    public boolean execute(Database db) throws AxionException {
+        assertNotReadOnly(db);
+        if (!isIfExists() || null != db.getMaterializedView(getObjectName())) {
+            if (null == db.getMaterializedView(getObjectName())) {
+                throw new AxionException("No materialized view " + getObjectName() + " found");
+            }
+            dropDependents(db, getObjectName(), isCascade());
+            db.dropMaterializedView(getObjectName());
+        }
+        return false;
+    }
+
+    /**
+     * Drops the views and materialized views that read the given table, if
+     * <code>cascade</code> is set, and otherwise throws an exception if there are any.
+     */
+    static void dropDependents(Database db, String tableName, boolean cascade) throws AxionException {
+        List views = db.getDependentViews(tableName);
+        List materializedViews = db.getDependentMaterializedViews(tableName);
+        if (views.isEmpty() && materializedViews.isEmpty()) {
+            return;
+        } else if (!cascade) {
+            throw new AxionException("Can't drop " + tableName + ": it has reference in another View...");
+        }
+
+        db.dropDependentViews(views);
+        for (int i = 0, I = materializedViews.size(); i < I; i++) {
+            String name = ((MaterializedView) materializedViews.get(i)).getName();
+            if (null != db.getMaterializedView(name)) {
+                dropDependents(db, name, true);
+                db.dropMaterializedView(name);
+            }
+        }
+    }
+}
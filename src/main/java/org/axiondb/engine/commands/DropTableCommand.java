@@ -51,7 +51,8 @@ import org.axiondb.engine.tables.TableView;
 
 /**
  * A <code>DROP TABLE</code> command. One can't drop SYSTEM_TABLE or VIEW using this
- * command. To drop view use <code>DROP VIEW viewname</code>
+ * command. To drop view use <code>DROP VIEW viewname</code>, and to drop a materialized
+ * view use <code>DROP MATERIALIZED VIEW viewname</code>
  * 
  * @version  
  * @author Rodney Waldhoff
@@ -69,11 +70,14 @@ public class DropTableCommand extends DropCommand {
         assertNotReadOnly(db);
         if (!isIfExists() || db.hasTable(getObjectName())) {
             Table t = db.getTable(getObjectName());
-            if (t != null && !t.getType().equals(TableView.VIEW)
+            if (t != null && null != db.getMaterializedView(getObjectName())) {
+                throw new AxionException("Use DROP MATERIALIZED VIEW to drop " + getObjectName());
+            } else if (t != null && !t.getType().equals(TableView.VIEW)
                 && !t.getType().equals(Table.SYSTEM_TABLE_TYPE)) {
                 checkConstraint(db, t);
                 List depedentViews = db.getDependentViews(getObjectName());
                 dropDepedentViews(db, depedentViews);
+                DropMaterializedViewCommand.dropDependents(db, getObjectName(), isCascade());
                 db.dropTable(getObjectName());
             } else {
                 throw new AxionException("No table " + getObjectName() + " found");
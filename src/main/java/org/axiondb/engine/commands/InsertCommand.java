@@ -44,6 +44,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.StringTokenizer;
 
 import org.axiondb.AxionCommand;
 import org.axiondb.AxionException;
@@ -112,6 +113,44 @@ public class InsertCommand extends BaseAxionCommand {
         _insertIntoList.add(into);
     }
 
+    /**
+     * Returns <code>true</code> if I bulk load rows, deferring constraint checks to
+     * commit so that they are made once for all the rows I insert.
+     */
+    public final boolean isBulkLoad() {
+        return _bulkLoad;
+    }
+
+    /**
+     * Returns <code>true</code> if <i>sql</i> begins <tt>INSERT /*+ APPEND *&#47;</tt>,
+     * asking for its rows to be {@link #setBulkLoad bulk loaded}. The parser skips
+     * comments, so the hint can only be found in the statement text.
+     */
+    public static boolean isAppendHinted(String sql) {
+        int start = 0;
+        while (start < sql.length() && Character.isWhitespace(sql.charAt(start))) {
+            start++;
+        }
+        if (!sql.regionMatches(true, start, "INSERT", 0, 6)) {
+            return false;
+        }
+        int open = sql.indexOf("/*+", start + 6);
+        if (open == -1 || sql.substring(start + 6, open).trim().length() != 0) {
+            return false;
+        }
+        int close = sql.indexOf("*/", open + 3);
+        if (close == -1) {
+            return false;
+        }
+        StringTokenizer hints = new StringTokenizer(sql.substring(open + 3, close));
+        while (hints.hasMoreTokens()) {
+            if ("APPEND".equalsIgnoreCase(hints.nextToken())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     public final boolean isInsertIntoListEmpty() {
         return _insertIntoList.isEmpty();
     }
@@ -143,6 +182,7 @@ public class InsertCommand extends BaseAxionCommand {
                 count = _simpleInsert.insertRow(db);
             }
         } finally {
+            postProcess();
             //cleanup if a view exist.
             if (_source != null) {
                 db.dropTable(_source.getName());
@@ -164,6 +204,10 @@ public class InsertCommand extends BaseAxionCommand {
         return _simpleInsert.getValueIterator();
     }
 
+    public void setBulkLoad(boolean bulkLoad) {
+        _bulkLoad = bulkLoad;
+    }
+
     public void setElseClause(TableIdentifier table, List tableColumns, List tableValues) {
         _elseClause = new ElseClause(table, tableColumns, tableValues);
     }
@@ -271,19 +315,35 @@ public class InsertCommand extends BaseAxionCommand {
         // go through all Insert clause do pre processing
         for (int i = 0, I = _insertIntoList.size(); i < I; i++) {
             InsertIntoClause insertClause = (InsertIntoClause) _insertIntoList.get(i);
+            insertClause.setBulkLoad(_bulkLoad);
             insertClause.preProcess(db);
         }
         
         if(_simpleInsert != null) {
+            _simpleInsert.setBulkLoad(_bulkLoad);
             _simpleInsert.preProcess(db);
         }
 
         // pre process else clause
         if (_elseClause != null) {
+            _elseClause.setBulkLoad(_bulkLoad);
             _elseClause.preProcess(db);
         }
     }
 
+    // Undoes preProcess in reverse, as clauses may share a table
+    private void postProcess() {
+        if (_elseClause != null) {
+            _elseClause.postProcess();
+        }
+        if (_simpleInsert != null) {
+            _simpleInsert.postProcess();
+        }
+        for (int i = _insertIntoList.size() - 1; i >= 0; i--) {
+            ((InsertIntoClause) _insertIntoList.get(i)).postProcess();
+        }
+    }
+
     protected void resolve(Database db) throws AxionException {
         if (!_resolved) {
 
@@ -377,6 +437,7 @@ public class InsertCommand extends BaseAxionCommand {
 
     public static final int WHEN_ALL = 1;
     public static final int WHEN_FIRST = 2;
+    private boolean _bulkLoad = false;
     private ElseClause _elseClause;
 
     // default mode of when condition evaluation is ALL
@@ -132,7 +132,30 @@ public abstract class InsertIntoClause extends BaseAxionCommand {
         if (null == _table) {
             throw new AxionException("Table " + _tableId + " not found.");
         }
-        setDeferAllConstraintIfRequired(_table);
+        _deferAllBefore = _table.isDeferAllConstraints();
+        if (_bulkLoad) {
+            _table.setDeferAllConstraints(true);
+        } else {
+            setDeferAllConstraintIfRequired(_table);
+        }
+    }
+
+    /**
+     * Restores the deferral of constraints {@link #preProcess}found, once the statement
+     * has inserted its rows.
+     */
+    public void postProcess() {
+        if (null != _table) {
+            _table.setDeferAllConstraints(_deferAllBefore);
+        }
+    }
+
+    /**
+     * Sets whether rows are bulk loaded, with constraints checked together for all the
+     * rows when the transaction commits rather than as each row is added.
+     */
+    public void setBulkLoad(boolean bulkLoad) {
+        _bulkLoad = bulkLoad;
     }
 
     protected void addRowToTable(Database db, Row srcRow, RowDecorator dec) throws AxionException {
@@ -246,7 +269,9 @@ public abstract class InsertIntoClause extends BaseAxionCommand {
         }
 
         if (db instanceof SnapshotIsolationTransaction && (_count % getCommitSize(db)) == 0) {
+            boolean deferAll = _table.isDeferAllConstraints();
             _table = ((SnapshotIsolationTransaction) db).commit(_tableId);
+            _table.setDeferAllConstraints(deferAll);
         }
     }
 
@@ -265,6 +290,8 @@ public abstract class InsertIntoClause extends BaseAxionCommand {
     private boolean _useDefaultValues = false;
     private boolean _populateSequence = true;
     private boolean _isExternalDBTable = false;
+    private boolean _bulkLoad = false;
+    private boolean _deferAllBefore = false;
 
     private int _count = 0;
     private TableIdentifier _tableId;
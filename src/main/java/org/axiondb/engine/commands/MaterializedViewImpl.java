@@ -0,0 +1,708 @@
+/*
+ * 
+ * =======================================================================
+ * Copyright (c) 2002-2005 Axion Development Team.  All rights reserved.
+ *  
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions 
+ * are met:
+ * 
+ * 1. Redistributions of source code must retain the above 
+ *    copyright notice, this list of conditions and the following 
+ *    disclaimer. 
+ *   
+ * 2. Redistributions in binary form must reproduce the above copyright 
+ *    notice, this list of conditions and the following disclaimer in 
+ *    the documentation and/or other materials provided with the 
+ *    distribution. 
+ *   
+ * 3. The names "Tigris", "Axion", nor the names of its contributors may 
+ *    not be used to endorse or promote products derived from this 
+ *    software without specific prior written permission. 
+ *  
+ * 4. Products derived from this software may not be called "Axion", nor 
+ *    may "Tigris" or "Axion" appear in their names without specific prior
+ *    written permission.
+ *   
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT 
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, 
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT 
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * =======================================================================
+ */
+
+package org.axiondb.engine.commands;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.axiondb.AxionCommand;
+import org.axiondb.AxionException;
+import org.axiondb.BindVariable;
+import org.axiondb.Column;
+import org.axiondb.ColumnIdentifier;
+import org.axiondb.DataType;
+import org.axiondb.Database;
+import org.axiondb.Function;
+import org.axiondb.Index;
+import org.axiondb.Literal;
+import org.axiondb.MaterializedView;
+import org.axiondb.Row;
+import org.axiondb.RowDecorator;
+import org.axiondb.RowIterator;
+import org.axiondb.Selectable;
+import org.axiondb.Table;
+import org.axiondb.TableIdentifier;
+import org.axiondb.TransactableTable;
+import org.axiondb.engine.rowiterators.RowViewRowIterator;
+import org.axiondb.engine.rows.SimpleRow;
+import org.axiondb.event.RowEvent;
+import org.axiondb.functions.AggregateFunction;
+import org.axiondb.functions.ComparableAggregateFunction;
+import org.axiondb.functions.ConcreteFunction;
+import org.axiondb.functions.CountFunction;
+import org.axiondb.functions.EqualFunction;
+import org.axiondb.functions.MaxFunction;
+import org.axiondb.functions.MinFunction;
+import org.axiondb.functions.NowFunction;
+import org.axiondb.functions.RowNumFunction;
+import org.axiondb.functions.SumFunction;
+import org.axiondb.parser.AxionSqlParser;
+import org.axiondb.util.StringIdentifierGenerator;
+
+/**
+ * A {@link MaterializedView}of a <code>SELECT</code>, created by
+ * {@link CreateMaterializedViewCommand}.
+ * <p>
+ * An incremental view must read a single regular table, through a <code>WHERE</code>
+ * clause and select list free of sub-queries, bind variables, sequences and
+ * <code>NOW()</code> or <code>ROWNUM</code>, and without <code>DISTINCT</code>,
+ * <code>HAVING</code>, <code>LIMIT</code> or <code>OFFSET</code>. If it selects no
+ * aggregates, each matching row inserted or deleted adds or removes one of my rows
+ * with the same values. Otherwise it selects <code>COUNT</code>, <code>SUM</code>,
+ * <code>MIN</code> or <code>MAX</code> of a single argument, grouped by all the other
+ * selected columns, and each matching row changes the aggregates of its group. A group
+ * is computed again from the table when a deleted row can't simply be taken back out
+ * of it: when it held the group's <code>MIN</code> or <code>MAX</code>, when it
+ * brings a <code>SUM</code> to zero, which may leave only nulls to sum, or when the
+ * view has no <code>COUNT</code> to tell whether the group is left empty. Like the
+ * <code>COUNT</code> function, a <code>COUNT</code> counts every row, whatever its
+ * argument. An update is a delete followed by an insert.
+ * <p>
+ * My rows are looked up through the index {@link #addKeyIndex}creates on my first
+ * non-aggregate column. The rows of a group being computed again are looked up through
+ * an index on the table's column for one of my non-aggregate columns, if it has one,
+ * and otherwise by a scan.
+ * 
+ * @version  
+ */
+public class MaterializedViewImpl implements MaterializedView {
+
+    public MaterializedViewImpl(String name, String query, boolean incremental, List tableNames) {
+        _name = name.toUpperCase();
+        _query = query;
+        _incremental = incremental;
+        _tableNames = tableNames;
+    }
+
+    public String getName() {
+        return _name;
+    }
+
+    public String getQuery() {
+        return _query;
+    }
+
+    public List getTableNames() {
+        return _tableNames;
+    }
+
+    public boolean isIncremental() {
+        return _incremental;
+    }
+
+    /**
+     * Returns a new, empty table to hold my rows, after checking that my query can be
+     * maintained incrementally if I am to be. Also records the tables my query reads.
+     */
+    @SuppressWarnings("unchecked")
+    public Table createTable(Database db) throws AxionException {
+        SelectCommand cmd = parse();
+        cmd.resolve(db);
+        AxionQueryContext ctx = cmd.getQueryContext();
+
+        List tableNames = new ArrayList();
+        TableIdentifier[] tables = ctx.getTables();
+        for (int i = 0; i < tables.length; i++) {
+            if (!tableNames.contains(tables[i].getTableName())) {
+                tableNames.add(tables[i].getTableName());
+            }
+        }
+        if (_incremental) {
+            Table source = (tables.length == 1) ? getSource(db.getTable(tables[0])) : null;
+            _plan = new Plan(_name, ctx, source);
+        }
+
+        List select = ctx.getResolvedSelect();
+        List columns = new ArrayList();
+        Set names = new HashSet();
+        for (int i = 0, I = select.size(); i < I; i++) {
+            Selectable sel = (Selectable) select.get(i);
+            String name = getColumnName(sel);
+            if (!names.add(name)) {
+                throw new AxionException("Materialized view " + _name + " selects more than one column named " + name
+                    + "; give them distinct aliases");
+            }
+            columns.add(new Column(name, getColumnType(sel)));
+        }
+
+        Table table = db.getTableFactory(null).createTable(db, _name);
+        for (int i = 0, I = columns.size(); i < I; i++) {
+            table.addColumn((Column) columns.get(i));
+        }
+        _tableNames = tableNames;
+        return table;
+    }
+
+    /**
+     * Indexes the first of my non-aggregate columns in the given table, which holds my
+     * rows, so that a change to the table I read finds the row or group it touches
+     * without scanning all of my rows. Does nothing unless I am incremental. Call once my
+     * table has been added to the database.
+     */
+    public void addKeyIndex(Database db, Table table) throws AxionException {
+        Plan plan = _plan;
+        if (null == plan || plan._keys.length == 0) {
+            return;
+        }
+        Column column = table.getColumn(plan._keys[0]);
+        if (!table.isColumnIndexed(column)) {
+            String name = StringIdentifierGenerator.INSTANCE.next16DigitIdentifier("SYS");
+            Index index = db.getIndexFactory("default").makeNewInstance(name, column, false, db.getDBDirectory() == null);
+            if (null != index) {
+                db.addIndex(index, table, true);
+            }
+        }
+    }
+
+    public void refresh(Database db) throws AxionException {
+        Table table = db.getTable(_name);
+        if (null == table) {
+            throw new AxionException("No table " + _name + " found for materialized view " + _name);
+        }
+
+        SelectCommand cmd = parse();
+        RowIterator rows = cmd.makeRowIterator(db, true, true);
+        rows = new RowViewRowIterator(rows, cmd.getColumnIdToFieldMap(), getCanonicalIdentifiers(cmd.getQueryContext().getResolvedSelect()));
+
+        for (RowIterator old = table.getRowIterator(false); old.hasNext();) {
+            old.next();
+            old.remove();
+        }
+        int count = table.getColumnCount();
+        while (rows.hasNext()) {
+            Row row = rows.next();
+            Row copy = new SimpleRow(count);
+            for (int i = 0; i < count; i++) {
+                copy.set(i, table.getColumn(i).getDataType().convert(row.get(i)));
+            }
+            table.addRow(copy);
+        }
+    }
+
+    public void rowChanged(Database db, RowEvent event) throws AxionException {
+        Table source = getSource(event.getTable());
+        Plan plan = _plan;
+        if (null == plan || plan._source != source) {
+            plan = compile(db, source);
+        }
+        Table view = db.getTable(_name);
+        if (null != view) {
+            plan.apply(event.getTable(), view, event.getOldRow(), event.getNewRow());
+        }
+    }
+
+    /**
+     * Returns the plan for the given table, resolving my query again if it has been
+     * replaced (for example by <code>ALTER TABLE</code>) since my plan was made.
+     */
+    private synchronized Plan compile(Database db, Table source) throws AxionException {
+        if (null == _plan || _plan._source != source) {
+            SelectCommand cmd = parse();
+            cmd.resolve(db);
+            _plan = new Plan(_name, cmd.getQueryContext(), source);
+        }
+        return _plan;
+    }
+
+    private SelectCommand parse() throws AxionException {
+        AxionCommand cmd = new AxionSqlParser().parse(_query);
+        if (!(cmd instanceof SelectCommand)) {
+            throw new AxionException("Materialized view " + _name + " must be defined by a SELECT");
+        }
+        return (SelectCommand) cmd;
+    }
+
+    private static Table getSource(Table table) {
+        while (table instanceof TransactableTable) {
+            table = ((TransactableTable) table).getTable();
+        }
+        return table;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List getCanonicalIdentifiers(List selected) {
+        List colids = new ArrayList();
+        for (int i = 0, I = selected.size(); i < I; i++) {
+            Object sel = selected.get(i);
+            if (sel instanceof ColumnIdentifier) {
+                colids.add(((ColumnIdentifier) sel).getCanonicalIdentifier());
+            } else {
+                colids.add(sel);
+            }
+        }
+        return colids;
+    }
+
+    private static String getColumnName(Selectable sel) {
+        if (sel instanceof ColumnIdentifier) {
+            ColumnIdentifier col = (ColumnIdentifier) sel;
+            return (null == col.getAlias()) ? col.getName() : col.getAlias();
+        } else if (sel instanceof ConcreteFunction) {
+            return sel.getLabel();
+        }
+        return sel.getName();
+    }
+
+    private static DataType getColumnType(Selectable sel) {
+        // SUM, MIN and MAX take the type of their argument once evaluated
+        if (sel instanceof SumFunction || sel instanceof ComparableAggregateFunction) {
+            return ((Function) sel).getArgument(0).getDataType();
+        }
+        return sel.getDataType();
+    }
+
+    /**
+     * How an incremental view's rows follow the rows of the table it reads, resolved
+     * against one instance of that table. Shared by all transactions, so it holds no
+     * state once made.
+     */
+    private static final class Plan {
+        Plan(String viewName, AxionQueryContext ctx, Table source) throws AxionException {
+            _viewName = viewName;
+            _source = source;
+            if (ctx.getTables().length != 1) {
+                throw notIncremental("it reads more than one table");
+            }
+            if (null == source || !Table.REGULAR_TABLE_TYPE.equals(source.getType())) {
+                throw notIncremental(ctx.getTables()[0].getTableName() + " is not a regular table");
+            }
+            if (ctx.getDistinct() || null != ctx.getHaving() || null != ctx.getLimit() || null != ctx.getOffset()) {
+                throw notIncremental("it uses DISTINCT, HAVING, LIMIT or OFFSET");
+            }
+
+            _where = ctx.getWhere();
+            collect(_where);
+
+            List select = ctx.getResolvedSelect();
+            int count = select.size();
+            _kinds = new int[count];
+            _values = new Selectable[count];
+            List keys = new ArrayList();
+            boolean aggregated = false;
+            for (int i = 0; i < count; i++) {
+                Selectable sel = (Selectable) select.get(i);
+                if (sel instanceof AggregateFunction) {
+                    Function fn = (Function) sel;
+                    if (sel instanceof CountFunction) {
+                        _kinds[i] = COUNT;
+                    } else if (sel instanceof SumFunction) {
+                        _kinds[i] = SUM;
+                    } else if (sel instanceof MinFunction) {
+                        _kinds[i] = MIN;
+                    } else if (sel instanceof MaxFunction) {
+                        _kinds[i] = MAX;
+                    } else {
+                        throw notIncremental("it selects " + fn.getName());
+                    }
+                    if (fn.getArgumentCount() != 1) {
+                        throw notIncremental("it selects " + fn.getName() + "(DISTINCT ...)");
+                    }
+                    Selectable arg = fn.getArgument(0);
+                    if (COUNT == _kinds[i]) {
+                        if (!"*".equals(arg.getName())) {
+                            collect(arg);
+                        }
+                        arg = null;
+                        if (_countStar < 0) {
+                            _countStar = i;
+                        }
+                    } else {
+                        collect(arg);
+                    }
+                    _values[i] = arg;
+                    aggregated = true;
+                } else {
+                    collect(sel);
+                    _kinds[i] = KEY;
+                    _values[i] = sel;
+                    keys.add(Integer.valueOf(i));
+                }
+            }
+
+            _keys = new int[keys.size()];
+            for (int i = 0; i < _keys.length; i++) {
+                _keys[i] = ((Integer) keys.get(i)).intValue();
+            }
+
+            List groupBy = ctx.getGroupBy();
+            _hasGroupBy = !groupBy.isEmpty();
+            _grouped = aggregated || _hasGroupBy;
+            if (_hasGroupBy) {
+                for (int i = 0, I = groupBy.size(); i < I; i++) {
+                    if (findKey((Selectable) groupBy.get(i)) < 0) {
+                        throw notIncremental("it doesn't select all of its GROUP BY columns");
+                    }
+                }
+                List grouped = new ArrayList();
+                for (int i = 0, I = groupBy.size(); i < I; i++) {
+                    grouped.add(Integer.valueOf(findKey((Selectable) groupBy.get(i))));
+                }
+                for (int i = 0; i < _keys.length; i++) {
+                    if (!grouped.contains(Integer.valueOf(_keys[i]))) {
+                        throw notIncremental("it selects " + _values[_keys[i]].getLabel() + ", which isn't a GROUP BY column");
+                    }
+                }
+            }
+        }
+
+        void apply(Table table, Table view, Row oldRow, Row newRow) throws AxionException {
+            RowDecorator dec = new RowDecorator(_fieldMap);
+            Object[] oldVals = evaluate(dec, oldRow, view);
+            Object[] newVals = evaluate(dec, newRow, view);
+
+            if (!_grouped) {
+                if (null != oldVals && null != newVals && isSameKey(view, oldVals, newVals)) {
+                    return;
+                }
+                if (null != oldVals) {
+                    Row row = find(view, oldVals);
+                    if (null != row) {
+                        view.deleteRow(row);
+                    }
+                }
+                if (null != newVals) {
+                    view.addRow(new SimpleRow(newVals));
+                }
+                return;
+            }
+
+            if (null != oldVals && null != newVals && isSameKey(view, oldVals, newVals)) {
+                Row group = find(view, oldVals);
+                Object[] acc = (null == group) ? null : getValues(group);
+                if (null == acc || !remove(view, acc, oldVals)) {
+                    recompute(table, view, oldVals, group);
+                } else {
+                    add(view, acc, newVals);
+                    store(view, group, acc);
+                }
+                return;
+            }
+            if (null != oldVals) {
+                Row group = find(view, oldVals);
+                Object[] acc = (null == group) ? null : getValues(group);
+                if (null == acc || !remove(view, acc, oldVals)) {
+                    recompute(table, view, oldVals, group);
+                } else {
+                    store(view, group, acc);
+                }
+            }
+            if (null != newVals) {
+                Row group = find(view, newVals);
+                Object[] acc = (null == group) ? makeEmpty(newVals) : getValues(group);
+                add(view, acc, newVals);
+                store(view, group, acc);
+            }
+        }
+
+        /**
+         * Returns the selected values, or aggregate arguments, of the given row, or null
+         * if there is no row or it doesn't match my <code>WHERE</code> clause.
+         */
+        private Object[] evaluate(RowDecorator dec, Row row, Table view) throws AxionException {
+            if (null == row) {
+                return null;
+            }
+            dec.setRow(row);
+            if (null != _where && !Boolean.TRUE.equals(_where.evaluate(dec))) {
+                return null;
+            }
+            Object[] vals = new Object[_values.length];
+            for (int i = 0; i < vals.length; i++) {
+                if (null != _values[i]) {
+                    vals[i] = view.getColumn(i).getDataType().convert(_values[i].evaluate(dec));
+                }
+            }
+            return vals;
+        }
+
+        private void add(Table view, Object[] acc, Object[] vals) throws AxionException {
+            for (int i = 0; i < acc.length; i++) {
+                Object val = vals[i];
+                DataType type = view.getColumn(i).getDataType();
+                switch (_kinds[i]) {
+                    case COUNT:
+                        acc[i] = Integer.valueOf(getCount(acc[i]) + 1);
+                        break;
+                    case SUM:
+                        if (null != val) {
+                            acc[i] = (null == acc[i]) ? val : type.convert(type.toBigDecimal(acc[i]).add(type.toBigDecimal(val)));
+                        }
+                        break;
+                    case MIN:
+                        if (null != val && (null == acc[i] || type.compare(val, acc[i]) < 0)) {
+                            acc[i] = val;
+                        }
+                        break;
+                    case MAX:
+                        if (null != val && (null == acc[i] || type.compare(val, acc[i]) > 0)) {
+                            acc[i] = val;
+                        }
+                        break;
+                }
+            }
+        }
+
+        /**
+         * Takes the given values out of a group's aggregates, returning false if that
+         * can't be done without computing the group again.
+         */
+        private boolean remove(Table view, Object[] acc, Object[] vals) throws AxionException {
+            if (_countStar < 0) {
+                return false;
+            }
+            for (int i = 0; i < acc.length; i++) {
+                Object val = vals[i];
+                DataType type = view.getColumn(i).getDataType();
+                if (COUNT == _kinds[i]) {
+                    acc[i] = Integer.valueOf(getCount(acc[i]) - 1);
+                } else if (null == val || KEY == _kinds[i]) {
+                    continue;
+                } else if (SUM == _kinds[i]) {
+                    if (null == acc[i]) {
+                        return false;
+                    }
+                    acc[i] = type.convert(type.toBigDecimal(acc[i]).subtract(type.toBigDecimal(val)));
+                    if (type.toBigDecimal(acc[i]).signum() == 0) {
+                        // either a sum of zero or nothing left to sum
+                        return false;
+                    }
+                } else if (null == acc[i] || type.compare(val, acc[i]) == 0) {
+                    // the group's MIN or MAX is going
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /** Computes the group with the given key again from the rows of the table. */
+        private void recompute(Table table, Table view, Object[] key, Row group) throws AxionException {
+            Object[] acc = makeEmpty(key);
+            boolean found = false;
+            RowDecorator dec = new RowDecorator(_fieldMap);
+            for (RowIterator rows = lookup(table, key, false); rows.hasNext();) {
+                Object[] vals = evaluate(dec, rows.next(), view);
+                if (null != vals && isSameKey(view, vals, key)) {
+                    add(view, acc, vals);
+                    found = true;
+                }
+            }
+
+            if (!found && _hasGroupBy) {
+                if (null != group) {
+                    view.deleteRow(group);
+                }
+            } else if (null == group) {
+                view.addRow(new SimpleRow(acc));
+            } else {
+                view.updateRow(group, new SimpleRow(acc));
+            }
+        }
+
+        /** Writes a group's aggregates, removing the group if it is now empty. */
+        private void store(Table view, Row group, Object[] acc) throws AxionException {
+            if (_countStar >= 0 && getCount(acc[_countStar]) == 0) {
+                if (_hasGroupBy) {
+                    if (null != group) {
+                        view.deleteRow(group);
+                    }
+                    return;
+                }
+                acc = makeEmpty(acc);
+            }
+            if (null == group) {
+                view.addRow(new SimpleRow(acc));
+            } else {
+                view.updateRow(group, new SimpleRow(acc));
+            }
+        }
+
+        /** Returns one of my rows with the given key values, or null. */
+        private Row find(Table view, Object[] key) throws AxionException {
+            for (RowIterator rows = lookup(view, key, true); rows.hasNext();) {
+                Row row = rows.next();
+                if (isSameKey(view, getValues(row), key)) {
+                    return row;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Returns the rows of the given table, or of the view itself, that may have the
+         * given key values: those found through an index on the first key column that
+         * has one, or else all of them.
+         */
+        private RowIterator lookup(Table table, Object[] key, boolean isView) throws AxionException {
+            for (int i = 0; i < _keys.length; i++) {
+                int k = _keys[i];
+                if (null == key[k]) {
+                    continue;
+                }
+                Column column = null;
+                if (isView) {
+                    column = table.getColumn(k);
+                } else if (_values[k] instanceof ColumnIdentifier) {
+                    column = table.getColumn(((ColumnIdentifier) _values[k]).getName());
+                }
+                if (null != column && table.isColumnIndexed(column)) {
+                    EqualFunction equal = new EqualFunction();
+                    equal.addArgument(new ColumnIdentifier(new TableIdentifier(table.getName()), column.getName(), null, column.getDataType()));
+                    equal.addArgument(new Literal(key[k], column.getDataType()));
+                    RowIterator rows = table.getIndexedRows(equal, !isView);
+                    if (null != rows) {
+                        return rows;
+                    }
+                }
+            }
+            return table.getRowIterator(!isView);
+        }
+
+        private Object[] makeEmpty(Object[] key) {
+            Object[] acc = new Object[_values.length];
+            for (int i = 0; i < acc.length; i++) {
+                if (KEY == _kinds[i]) {
+                    acc[i] = key[i];
+                } else if (COUNT == _kinds[i]) {
+                    acc[i] = Integer.valueOf(0);
+                }
+            }
+            return acc;
+        }
+
+        private boolean isSameKey(Table view, Object[] left, Object[] right) {
+            for (int i = 0; i < _keys.length; i++) {
+                int k = _keys[i];
+                Object l = left[k];
+                Object r = right[k];
+                if (null == l ? null != r : (null == r || view.getColumn(k).getDataType().compare(l, r) != 0)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /** Returns the index of the selected key column for the given expression, or -1. */
+        private int findKey(Selectable sel) {
+            for (int i = 0; i < _keys.length; i++) {
+                if (isSame(sel, _values[_keys[i]])) {
+                    return _keys[i];
+                }
+            }
+            return -1;
+        }
+
+        /** Records the fields of the table that the given expression reads. */
+        @SuppressWarnings("unchecked")
+        private void collect(Selectable sel) throws AxionException {
+            if (null == sel || (sel instanceof Literal && !(sel instanceof BindVariable))) {
+                return;
+            } else if (sel instanceof ColumnIdentifier) {
+                ColumnIdentifier colid = (ColumnIdentifier) sel;
+                _fieldMap.put(colid.getCanonicalIdentifier(), Integer.valueOf(_source.getColumnIndex(colid.getName())));
+            } else if (sel instanceof BindVariable) {
+                throw notIncremental("it uses bind variables");
+            } else if (sel instanceof AggregateFunction) {
+                throw notIncremental("it nests " + ((Function) sel).getName() + " within an expression");
+            } else if (sel instanceof NowFunction || sel instanceof RowNumFunction) {
+                throw notIncremental("it uses " + ((Function) sel).getName());
+            } else if (sel instanceof Function) {
+                Function fn = (Function) sel;
+                for (int i = 0, I = fn.getArgumentCount(); i < I; i++) {
+                    collect(fn.getArgument(i));
+                }
+            } else {
+                throw notIncremental("it uses " + sel.getLabel());
+            }
+        }
+
+        private AxionException notIncremental(String reason) {
+            return new AxionException("Materialized view " + _viewName + " can't be maintained incrementally, as " + reason
+                + "; use REFRESH ON DEMAND");
+        }
+
+        private static Object[] getValues(Row row) {
+            Object[] vals = new Object[row.size()];
+            for (int i = 0; i < vals.length; i++) {
+                vals[i] = row.get(i);
+            }
+            return vals;
+        }
+
+        private static int getCount(Object count) {
+            return (null == count) ? 0 : ((Number) count).intValue();
+        }
+
+        private static boolean isSame(Selectable left, Selectable right) {
+            if (left instanceof ColumnIdentifier && right instanceof ColumnIdentifier) {
+                return ((ColumnIdentifier) left).getCanonicalIdentifier().equals(((ColumnIdentifier) right).getCanonicalIdentifier());
+            }
+            return left.equals(right);
+        }
+
+        private static final int KEY = 0;
+        private static final int COUNT = 1;
+        private static final int SUM = 2;
+        private static final int MIN = 3;
+        private static final int MAX = 4;
+
+        private final String _viewName;
+        private final Table _source;
+        private final Map _fieldMap = new HashMap();
+        private final Selectable _where;
+        private final int[] _kinds;
+        private final Selectable[] _values;
+        private int[] _keys;
+
+        private int _countStar = -1;
+        private boolean _grouped;
+        private boolean _hasGroupBy;
+    }
+
+    private final String _name;
+    private final String _query;
+    private final boolean _incremental;
+    private List _tableNames;
+    private volatile Plan _plan;
+}
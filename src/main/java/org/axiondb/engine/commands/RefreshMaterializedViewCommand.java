@@ -0,0 +1,86 @@
+/*
+ * 
+ * =======================================================================
+ * Copyright (c) 2002-2005 Axion Development Team.  All rights reserved.
+ *  
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions 
+ * are met:
+ * 
+ * 1. Redistributions of source code must retain the above 
+ *    copyright notice, this list of conditions and the following 
+ *    disclaimer. 
+ *   
+ * 2. Redistributions in binary form must reproduce the above copyright 
+ *    notice, this list of conditions and the following disclaimer in 
+ *    the documentation and/or other materials provided with the 
+ *    distribution. 
+ *   
+ * 3. The names "Tigris", "Axion", nor the names of its contributors may 
+ *    not be used to endorse or promote products derived from this 
+ *    software without specific prior written permission. 
+ *  
+ * 4. Products derived from this software may not be called "Axion", nor 
+ *    may "Tigris" or "Axion" appear in their names without specific prior
+ *    written permission.
+ *   
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT 
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, 
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT 
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * =======================================================================
+ */
+
+package org.axiondb.engine.commands;
+
+import org.axiondb.AxionException;
+import org.axiondb.Database;
+import org.axiondb.MaterializedView;
+import org.axiondb.jdbc.AxionResultSet;
+
+/**
+ * A <code>REFRESH MATERIALIZED VIEW name</code> command, replacing the rows of a
+ * materialized view with those its query currently returns.
+ * 
+ * @version  
+ */
+public class RefreshMaterializedViewCommand extends BaseAxionCommand {
+
+    public RefreshMaterializedViewCommand() {
+    }
+
+    public int executeUpdate(Database db) throws AxionException {
+        assertNotReadOnly(db);
+        MaterializedView view = db.getMaterializedView(_viewName);
+        if (null == view) {
+            throw new AxionException("No materialized view " + _viewName + " found");
+        }
+        view.refresh(db);
+        int rowcount = db.getTable(view.getName()).getRowCount();
+        setEffectedRowCount(rowcount);
+        return rowcount;
+    }
+
+    public boolean execute(Database db) throws AxionException {
+        executeUpdate(db);
+        return false;
+    }
+
+    /** Unsupported */
+    public AxionResultSet executeQuery(Database database) throws AxionException {
+        throw new UnsupportedOperationException("Use executeUpdate.");
+    }
+
+    public void setObjectName(String viewName) {
+        _viewName = viewName;
+    }
+
+    private String _viewName;
+}
@@ -54,6 +54,7 @@ import org.axiondb.RowDecorator;
 import org.axiondb.RowIterator;
 import org.axiondb.Selectable;
 import org.axiondb.TableIdentifier;
+import org.axiondb.Transaction;
 import org.axiondb.engine.rowiterators.RowIteratorRowDecoratorIterator;
 import org.axiondb.engine.visitors.AmbiguousColumnReferenceVisitor;
 import org.axiondb.engine.visitors.AssertGroupByRulesVisitor;
@@ -138,13 +139,20 @@ public class SelectCommand extends BaseAxionCommand {
         getBindVariableVisitor().visit(this);
     }
 
+    @Override
+    public void release() throws AxionException {
+        super.release();
+        _context.setRows(null);
+        _currentDatabase = null;
+    }
+
     public RowIterator makeRowIterator(Database db, boolean isReadOnly) throws AxionException {
         return makeRowIterator(db, isReadOnly, false);
     }
     
     public RowIterator makeRowIterator(Database db, boolean isReadOnly, boolean refresh) throws AxionException {
         resolve(db);
-        if (refresh || _currentDatabase != db || _context.foundAggregateFunction() || (_context.getGroupByCount() > 0)) {
+        if (refresh || _currentDatabase != db || hasChanges(db) || _context.foundAggregateFunction() || (_context.getGroupByCount() > 0)) {
             _context.setSelected(generateSelectArrayForResultSet());
             _context.setRows(_planner.makeRowIterator(db, isReadOnly));
         } else {
@@ -155,6 +163,15 @@ public class SelectCommand extends BaseAxionCommand {
         return _context.getRows();
     }
 
+    /**
+     * Returns <code>true</code> if <i>db</i> is a transaction that has changed rows. Row
+     * iterators over a changed table only see the changes made before they were built,
+     * so a plan made in such a transaction can't simply be reset.
+     */
+    private static boolean hasChanges(Database db) {
+        return (db instanceof Transaction) && !((Transaction) db).getModifiedTables().isEmpty();
+    }
+
     @SuppressWarnings("unchecked")
     protected void resolve(Database db) throws AxionException {
 
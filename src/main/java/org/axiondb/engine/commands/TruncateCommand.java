@@ -41,9 +41,11 @@
 package org.axiondb.engine.commands;
 
 import java.util.Iterator;
+import java.util.List;
 
 import org.axiondb.AxionException;
 import org.axiondb.Database;
+import org.axiondb.MaterializedView;
 import org.axiondb.Table;
 import org.axiondb.constraints.ForeignKeyConstraint;
 import org.axiondb.engine.tables.TableView;
@@ -69,6 +71,7 @@ public class TruncateCommand extends BaseAxionCommand {
             checkConstraint(db, t);
             int rowcount = t.getRowCount();
             t.truncate();
+            refreshMaterializedViews(db);
             setEffectedRowCount(rowcount);
             return rowcount;
         } else {
@@ -108,6 +111,20 @@ public class TruncateCommand extends BaseAxionCommand {
         }
     }
     
+    /**
+     * Truncating doesn't delete rows one by one, so incremental materialized views of
+     * the table are computed again.
+     */
+    private void refreshMaterializedViews(Database db) throws AxionException {
+        List views = db.getDependentMaterializedViews(_tableName);
+        for (int i = 0, I = views.size(); i < I; i++) {
+            MaterializedView view = (MaterializedView) views.get(i);
+            if (view.isIncremental()) {
+                view.refresh(db);
+            }
+        }
+    }
+
     private String _tableName;
 }
 
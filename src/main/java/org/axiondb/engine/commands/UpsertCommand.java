@@ -41,6 +41,7 @@
 package org.axiondb.engine.commands;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -64,14 +65,23 @@ import org.axiondb.engine.SnapshotIsolationTransaction;
 import org.axiondb.engine.rowcollection.IntSet;
 import org.axiondb.engine.rows.JoinedRow;
 import org.axiondb.engine.rows.SimpleRow;
+import org.axiondb.engine.tables.AbstractBaseTable;
 import org.axiondb.engine.tables.ExternalDatabaseTable;
 import org.axiondb.engine.visitors.FindBindVariableVisitor;
 import org.axiondb.engine.visitors.TableColumnsUsedInFunctionVisitor;
+import org.axiondb.functions.EqualFunction;
 import org.axiondb.jdbc.AxionResultSet;
+import org.axiondb.util.Utils;
 import org.axiondb.util.ValuePool;
 
 /**
  * An <tt>UPSERT or MERGE</tt> command.
+ * <p>
+ * When the merge condition is one or more equalities between a source and a target
+ * column, the source is read once and each row is matched by its key: through an index
+ * on the target for the first rows, and once there are enough of them, through a hash
+ * table of the target's keys built by reading it once. Otherwise the source is left
+ * outer joined to the target by a select.
  * 
  * @version  
  * @author Ahimanikya Satapathy
@@ -113,9 +123,8 @@ public class UpsertCommand extends ChildTableUpdater {
         assertNotReadOnly(db);
         IntSet rowcount = new IntSet();
         int exTblCnt = 0;
-        int rowId = -1;
         
-        RowIterator joinedRowIter;
+        RowIterator joinedRowIter = null;
         JoinedRow joinRow;
 
         Set sourceColsUsedInCondition = new HashSet();
@@ -126,8 +135,12 @@ public class UpsertCommand extends ChildTableUpdater {
             preProcess(db);
             resolve(db);
 
-            // 1. execute the 'select * from srcTable left outer join targetTable...'
-            joinedRowIter = _selectCommand.makeRowIterator(db, true);
+            // 1. unless we can match rows by key, execute the
+            //    'select * from srcTable left outer join targetTable...'
+            boolean mergeOnKey = findMergeKey();
+            if (!mergeOnKey) {
+                joinedRowIter = _selectCommand.makeRowIterator(db, true);
+            }
 
             // 2. build decorator now, building this before executing the above
             RowDecorator dec = buildDecorator(_sourceTable, _targetTable);
@@ -152,87 +165,23 @@ public class UpsertCommand extends ChildTableUpdater {
             setDeferAllConstraintIfRequired(_targetTable);
 
             // 5. Loop thru and merge(insert or update as appropriate)
-            while (joinedRowIter.hasNext()) {
-                Iterator colids;
-                Iterator values;
-                Row newrow;
-
-                // Since we createrd a LOJ assume the the joined row has
-                // left table's row should be at index(0)
-                // and right table's row at index(1)
-                joinRow = (JoinedRow) joinedRowIter.next();
-
-                Row sourceRow = joinRow.getRow(0); // get source table row
-                Row targetRow = joinRow.getRow(1); // get target table row
-
-                dec.setRow(joinedRowIter.currentIndex(), joinRow);
-
-                // check for unstable/duplicate row set in source table
-                if (hasDuplicateRow(dec, sourceColsUsedInCondition, uniqueSourceRowSet)) {
-                    throw new AxionException(
-                        "Unable to get a stable set of rows in the source tables...");
-                }
-
-                // if current row match exception when condition process else
-                if (_exceptionWhenClause != null
-                    && _exceptionWhenClause.insertMatchingRow(db, dec, sourceRow)) {
-                    continue; // pick next row
-                }
-
-                // check for null in columns that are participating in merge condition
-                // if true then it's an insert
-                // else we have matching row in the target table , so it's an update
-                if (isNullRow(targetRow)) {
-                    // INSERT: add sourceRow to targetTable
-                    newrow = new SimpleRow(ttColCount);
-                    colids = this.getInsertColumnIterator();
-                    values = this.getInsertValueIterator();
-                    prepareRow(newrow, colids, values, dec, _targetTable, db);
-                    
-                    RowDecorator trgtDec = makeTargetRowDecorator();
-                    trgtDec.setRow(newrow);
-                    populateDefaultValues(db, _targetTable, _targetTableId, trgtDec);
-                    if(_populateSequence) {
-                        _populateSequence = populateSequenceColumns(db, _targetTable, newrow);
-                    }
-                    _targetTable.addRow(newrow);
-                    rowId = newrow.getIdentifier();
-                    if (rowId == ExternalTable.UNKNOWN_ROWID){
-                        exTblCnt++;
-                    }else{
-                        rowcount.add(rowId);                        
-                    }
-                } else {
-                    // UPDATE: replace old row with new row
-                    newrow = new SimpleRow(targetRow);
-                    colids = this.getUpdateColumnIterator();
-                    values = this.getUpdateValueIterator();
-                    prepareRow(newrow, colids, values, dec, _targetTable, db);
-                    if (_isExternalDBTable) {
-                        ((ExternalDatabaseTable) _targetTable).updateRow(targetRow, newrow, _columnsForUpdate);
-                        
-                        rowId = newrow.getIdentifier();                        
-                        if (rowId == ExternalTable.UNKNOWN_ROWID){
-                            exTblCnt++;
-                        }else{
-                            rowcount.add(rowId);                        
-                        }                        
-                    } else {
-                        updateGeneratedValues(db, _targetTable, _targetTableId, newrow);
-                        if (!targetRow.equals(newrow)) {
-                            _targetTable.updateRow(targetRow, newrow);
-                            updateOrSetNullChildRows(db, _targetTable, targetRow, newrow);
-                            
-                            rowId = newrow.getIdentifier();
-                            if (rowId == ExternalTable.UNKNOWN_ROWID){
-                                exTblCnt++;
-                            }else{
-                                rowcount.add(rowId);                        
-                            }
-                        }
+            if (mergeOnKey) {
+                exTblCnt += mergeOnKey(db, dec, sourceColsUsedInCondition, uniqueSourceRowSet, rowcount);
+            } else {
+                while (joinedRowIter.hasNext()) {
+                    // Since we createrd a LOJ assume the the joined row has
+                    // left table's row should be at index(0)
+                    // and right table's row at index(1)
+                    joinRow = (JoinedRow) joinedRowIter.next();
+                    dec.setRow(joinedRowIter.currentIndex(), joinRow);
+
+                    // check for unstable/duplicate row set in source table
+                    if (hasDuplicateRow(dec, sourceColsUsedInCondition, uniqueSourceRowSet)) {
+                        throw new AxionException(
+                            "Unable to get a stable set of rows in the source tables...");
                     }
+                    exTblCnt += mergeRow(db, dec, joinRow, ttColCount, rowcount);
                 }
-                commitIfRequired(db);
             }
         } finally {
             //cleanup if a view exist.
@@ -326,6 +275,222 @@ public class UpsertCommand extends ChildTableUpdater {
         return _dec;
     }
     
+    /**
+     * Finds the source and target columns of the equalities making up my merge condition,
+     * returning false if it has anything else, or a column whose values can't be
+     * matched by hashing.
+     */
+    @SuppressWarnings("unchecked")
+    private boolean findMergeKey() throws AxionException {
+        if (_isExternalDBTable || _sourceTable.getName().equals(_targetTable.getName())) {
+            return false;
+        }
+
+        Set nodes = AxionQueryOptimizer.flatConditionTree(_condition);
+        int size = nodes.size();
+        _sourceKeyColumns = new int[size];
+        _targetKeyColumns = new int[size];
+        _targetKeyColumnIds = new ArrayList(size);
+        _keyTypes = new DataType[size];
+
+        int i = 0;
+        for (Iterator iter = nodes.iterator(); iter.hasNext(); i++) {
+            Object node = iter.next();
+            if (!(node instanceof EqualFunction) || !((EqualFunction) node).isColumnColumn()) {
+                return false;
+            }
+            EqualFunction fn = (EqualFunction) node;
+            ColumnIdentifier source = (ColumnIdentifier) fn.getArgument(0);
+            ColumnIdentifier target = (ColumnIdentifier) fn.getArgument(1);
+            if (isColumnOf(source, _targetTable) && isColumnOf(target, _sourceTable)) {
+                source = target;
+                target = (ColumnIdentifier) fn.getArgument(0);
+            } else if (!isColumnOf(source, _sourceTable) || !isColumnOf(target, _targetTable)) {
+                return false;
+            }
+
+            _keyTypes[i] = fn.getArgument(0).getDataType();
+            if (!Utils.isHashable(source.getDataType()) || !Utils.isHashable(target.getDataType())) {
+                return false;
+            }
+            _sourceKeyColumns[i] = _sourceTable.getColumnIndex(source.getName());
+            _targetKeyColumns[i] = _targetTable.getColumnIndex(target.getName());
+            _targetKeyColumnIds.add(target);
+        }
+        return size > 0;
+    }
+
+    private boolean isColumnOf(ColumnIdentifier col, Table table) {
+        return col.getTableIdentifier().getTableName().equals(table.getName()) && table.hasColumn(col);
+    }
+
+    /**
+     * Returns the key of <i>row </i>, with the values at <i>columns </i> converted to my
+     * key types, or <code>null</code> if one of them is null or can't be converted, as
+     * the row then matches no other.
+     */
+    private Object makeKey(Row row, int[] columns) {
+        Object[] values = new Object[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            Object val = row.get(columns[i]);
+            if (null == val) {
+                return null;
+            }
+            try {
+                values[i] = _keyTypes[i].convert(val);
+            } catch (AxionException e) {
+                return null;
+            }
+        }
+        return Utils.toHashKey(values);
+    }
+
+    /**
+     * Reads my source table once, merging each row with the target row that has its key,
+     * and returns the number of rows of an external table changed.
+     */
+    private int mergeOnKey(Database db, RowDecorator dec, Set sourceColsUsedInCondition, Set uniqueSourceRowSet, IntSet rowcount)
+            throws AxionException {
+        // look source rows up through an index until there are enough of them that
+        // reading the whole target once is cheaper
+        int lookups = AbstractBaseTable.getIndexLookupLimit(_targetTable, _targetTable.getColumn(_targetKeyColumns[0]));
+
+        Map targetKeys = null;
+        int exTblCnt = 0;
+        int ttColCount = _targetTable.getColumnCount();
+        int index = 0;
+        for (RowIterator iter = _sourceTable.getRowIterator(true); iter.hasNext(); index++) {
+            if (index == lookups) {
+                targetKeys = makeTargetKeyMap();
+            }
+            Row sourceRow = iter.next();
+            JoinedRow joinRow = new JoinedRow();
+            joinRow.addRow(sourceRow);
+
+            // a row inserted for an earlier source row may match too, but only if that
+            // source row had the same key, which is then rejected as a duplicate
+            Row targetRow = null;
+            Object key = makeKey(sourceRow, _sourceKeyColumns);
+            if (null != key && null != targetKeys) {
+                Integer rowid = (Integer) targetKeys.get(key);
+                if (MULTIPLE_ROWS.equals(rowid)) {
+                    throw new AxionException("Unable to get a stable set of rows in the source tables...");
+                }
+                targetRow = (null == rowid) ? null : _targetTable.getRow(rowid.intValue());
+            } else if (null != key) {
+                List values = (key instanceof List) ? (List) key : Arrays.asList(new Object[] { key});
+                RowIterator matching = _targetTable.getMatchingRows(_targetKeyColumnIds, values, true);
+                targetRow = matching.hasNext() ? matching.next() : null;
+                if (matching.hasNext()) {
+                    throw new AxionException("Unable to get a stable set of rows in the source tables...");
+                }
+            }
+            joinRow.addRow(null == targetRow ? new SimpleRow(ttColCount) : targetRow);
+            dec.setRow(index, joinRow);
+
+            // check for unstable/duplicate row set in source table
+            if (hasDuplicateRow(dec, sourceColsUsedInCondition, uniqueSourceRowSet)) {
+                throw new AxionException("Unable to get a stable set of rows in the source tables...");
+            }
+            exTblCnt += mergeRow(db, dec, joinRow, ttColCount, rowcount);
+        }
+        return exTblCnt;
+    }
+
+    /**
+     * Reads my target table once, returning a map from the key of each row to its id, or
+     * to {@link #MULTIPLE_ROWS}when more than one row has it.
+     */
+    @SuppressWarnings("unchecked")
+    private Map makeTargetKeyMap() throws AxionException {
+        Map keys = new HashMap();
+        for (RowIterator iter = _targetTable.getRowIterator(true); iter.hasNext();) {
+            Row row = iter.next();
+            Object key = makeKey(row, _targetKeyColumns);
+            if (null != key && null != keys.put(key, ValuePool.getInt(row.getIdentifier()))) {
+                keys.put(key, MULTIPLE_ROWS);
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Merges a source row, joined to its matching target row or to a row of nulls, and
+     * returns the number of rows of an external table changed.
+     */
+    private int mergeRow(Database db, RowDecorator dec, JoinedRow joinRow, int ttColCount, IntSet rowcount) throws AxionException {
+        Iterator colids;
+        Iterator values;
+        Row newrow;
+        int rowId = -1;
+        int exTblCnt = 0;
+
+        Row sourceRow = joinRow.getRow(0); // get source table row
+        Row targetRow = joinRow.getRow(1); // get target table row
+
+        // if current row match exception when condition process else
+        if (_exceptionWhenClause != null
+            && _exceptionWhenClause.insertMatchingRow(db, dec, sourceRow)) {
+            return exTblCnt; // pick next row
+        }
+
+        // check for null in columns that are participating in merge condition
+        // if true then it's an insert
+        // else we have matching row in the target table , so it's an update
+        if (isNullRow(targetRow)) {
+            // INSERT: add sourceRow to targetTable
+            newrow = new SimpleRow(ttColCount);
+            colids = this.getInsertColumnIterator();
+            values = this.getInsertValueIterator();
+            prepareRow(newrow, colids, values, dec, _targetTable, db);
+            
+            RowDecorator trgtDec = makeTargetRowDecorator();
+            trgtDec.setRow(newrow);
+            populateDefaultValues(db, _targetTable, _targetTableId, trgtDec);
+            if(_populateSequence) {
+                _populateSequence = populateSequenceColumns(db, _targetTable, newrow);
+            }
+            _targetTable.addRow(newrow);
+            rowId = newrow.getIdentifier();
+            if (rowId == ExternalTable.UNKNOWN_ROWID){
+                exTblCnt++;
+            }else{
+                rowcount.add(rowId);                        
+            }
+        } else {
+            // UPDATE: replace old row with new row
+            newrow = new SimpleRow(targetRow);
+            colids = this.getUpdateColumnIterator();
+            values = this.getUpdateValueIterator();
+            prepareRow(newrow, colids, values, dec, _targetTable, db);
+            if (_isExternalDBTable) {
+                ((ExternalDatabaseTable) _targetTable).updateRow(targetRow, newrow, _columnsForUpdate);
+                
+                rowId = newrow.getIdentifier();                        
+                if (rowId == ExternalTable.UNKNOWN_ROWID){
+                    exTblCnt++;
+                }else{
+                    rowcount.add(rowId);                        
+                }                        
+            } else {
+                updateGeneratedValues(db, _targetTable, _targetTableId, newrow);
+                if (!targetRow.equals(newrow)) {
+                    _targetTable.updateRow(targetRow, newrow);
+                    updateOrSetNullChildRows(db, _targetTable, targetRow, newrow);
+                    
+                    rowId = newrow.getIdentifier();
+                    if (rowId == ExternalTable.UNKNOWN_ROWID){
+                        exTblCnt++;
+                    }else{
+                        rowcount.add(rowId);                        
+                    }
+                }
+            }
+        }
+        commitIfRequired(db);
+        return exTblCnt;
+    }
+
     private void commitIfRequired(Database db) throws AxionException {
         if (getCommitSize(db) == 0) {
             return;
@@ -371,23 +536,14 @@ public class UpsertCommand extends ChildTableUpdater {
     @SuppressWarnings("unchecked")
     private boolean hasDuplicateRow(RowDecorator dec, Set sourceColsUsedInCondition,
             Set uniqueSourceRowSet) throws AxionException {
-        Row row = new SimpleRow(dec.getRowIndex(), sourceColsUsedInCondition.size());
+        // keyed by the values of the source columns in the merge condition only
+        Object[] key = new Object[sourceColsUsedInCondition.size()];
         int i = 0;
-        boolean found = false;
-
         for (Iterator colids = sourceColsUsedInCondition.iterator(); colids.hasNext();) {
             Selectable colid = (Selectable) (colids.next());
-            Object val = colid.evaluate(dec);
-            row.set(i++, val);
+            key[i++] = colid.evaluate(dec);
         }
-
-        if (uniqueSourceRowSet.contains(row)) {
-            found = true;
-        } else {
-            uniqueSourceRowSet.add(row);
-        }
-
-        return found;
+        return !uniqueSourceRowSet.add(Arrays.asList(key));
     }
 
     private boolean isNullRow(Row row) {
@@ -523,6 +679,11 @@ public class UpsertCommand extends ChildTableUpdater {
     private boolean _populateSequence = true;
     private boolean _isExternalDBTable = false;
 
+    private DataType[] _keyTypes;
+    private int[] _sourceKeyColumns;
+    private int[] _targetKeyColumns;
+    private List _targetKeyColumnIds;
+
     private SubSelectCommand _selectCommand;
     private Table _sourceTable;
     private TableIdentifier _sourceTableId;
@@ -535,4 +696,7 @@ public class UpsertCommand extends ChildTableUpdater {
     private String _usingSubSelectAlias;
     private List _valuesForInsert;
     private List _valuesForUpdate = new ArrayList();
+
+    /** Marks a key that more than one target row has. */
+    private static final Integer MULTIPLE_ROWS = Integer.valueOf(-1);
 }
@@ -42,6 +42,8 @@ package org.axiondb.engine.indexes;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
 import java.util.ListIterator;
 
@@ -198,6 +200,45 @@ public abstract class BaseArrayIndex extends BaseIndex implements Index {
         }
     }
 
+    /**
+     * When I am empty, sorts the non-null keys of the given rows once and appends them
+     * to my lists, rather than shifting each key into place one at a time.
+     */
+    public void populate(Table table, RowIterator rows) throws AxionException {
+        if (!_rowIds.isEmpty()) {
+            super.populate(table, rows);
+            return;
+        }
+        int colnum = table.getColumnIndex(getIndexedColumn().getName());
+        List entries = new ArrayList();
+        while (rows.hasNext()) {
+            Row row = rows.next();
+            if (row != null && null != row.get(colnum)) {
+                // null values aren't indexed
+                entries.add(new Entry(row.get(colnum), row.getIdentifier()));
+            }
+        }
+        Entry[] sorted = (Entry[]) entries.toArray(new Entry[entries.size()]);
+        entries = null;
+        Arrays.sort(sorted, new Comparator() {
+            public int compare(Object x, Object y) {
+                return getComparator().compare(((Entry) x)._key, ((Entry) y)._key);
+            }
+        });
+
+        List keys = new ArrayList(sorted.length);
+        IntList rowids = new ArrayIntList(sorted.length);
+        for (int i = 0; i < sorted.length; i++) {
+            if (isUnique() && i > 0 && getComparator().compare(sorted[i - 1]._key, sorted[i]._key) == 0) {
+                throw new AxionException("Expected " + getIndexedColumn() + " to be unique, found " + sorted[i]._key + " already.");
+            }
+            keys.add(sorted[i]._key);
+            rowids.add(sorted[i]._rowId);
+        }
+        getKeyList().addAll(keys);
+        _rowIds.addAll(rowids);
+    }
+
     public void rowInserted(RowEvent event) throws AxionException {
         int colnum = event.getTable().getColumnIndex(getIndexedColumn().getName());
         Object key = event.getNewRow().get(colnum);
@@ -267,5 +308,16 @@ public abstract class BaseArrayIndex extends BaseIndex implements Index {
 
     protected abstract void removeKeyAt(int index) throws AxionException;
 
+    /** A key and the row it indexes, as sorted by {@link BaseArrayIndex#populate}. */
+    private static final class Entry {
+        Entry(Object key, int rowid) {
+            _key = key;
+            _rowId = rowid;
+        }
+
+        final Object _key;
+        final int _rowId;
+    }
+
     private IntList _rowIds = new ArrayIntList();
 }
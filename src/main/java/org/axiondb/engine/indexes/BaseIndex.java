@@ -41,7 +41,9 @@
 package org.axiondb.engine.indexes;
 
 import java.io.File;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.List;
 
 import org.axiondb.AxionException;
 import org.axiondb.Column;
@@ -49,9 +51,12 @@ import org.axiondb.DataType;
 import org.axiondb.Function;
 import org.axiondb.Index;
 import org.axiondb.IndexLoader;
+import org.axiondb.Row;
 import org.axiondb.RowIterator;
 import org.axiondb.RowSource;
+import org.axiondb.Table;
 import org.axiondb.event.BaseTableModificationListener;
+import org.axiondb.event.RowInsertedEvent;
 import org.axiondb.event.TableModificationListener;
 
 /**
@@ -73,6 +78,10 @@ public abstract class BaseIndex extends BaseTableModificationListener implements
         return _col;
     }
 
+    public List getIndexedColumns() {
+        return Collections.singletonList(_col);
+    }
+
     public abstract IndexLoader getIndexLoader();
 
     public abstract RowIterator getInorderRowIterator(RowSource source) throws AxionException;
@@ -87,6 +96,15 @@ public abstract class BaseIndex extends BaseTableModificationListener implements
         return _isUnique;
     }
 
+    public void populate(Table table, RowIterator rows) throws AxionException {
+        while (rows.hasNext()) {
+            Row row = rows.next();
+            if (row != null) {
+                rowInserted(new RowInsertedEvent(table, null, row));
+            }
+        }
+    }
+
     public abstract void save(File dataDirectory) throws AxionException;
 
     public abstract void saveAfterTruncate(File dataDirectory) throws AxionException;
@@ -0,0 +1,301 @@
+/*
+ * 
+ * =======================================================================
+ * Copyright (c) 2002-2005 Axion Development Team.  All rights reserved.
+ *  
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions 
+ * are met:
+ * 
+ * 1. Redistributions of source code must retain the above 
+ *    copyright notice, this list of conditions and the following 
+ *    disclaimer. 
+ *   
+ * 2. Redistributions in binary form must reproduce the above copyright 
+ *    notice, this list of conditions and the following disclaimer in 
+ *    the documentation and/or other materials provided with the 
+ *    distribution. 
+ *   
+ * 3. The names "Tigris", "Axion", nor the names of its contributors may 
+ *    not be used to endorse or promote products derived from this 
+ *    software without specific prior written permission. 
+ *  
+ * 4. Products derived from this software may not be called "Axion", nor 
+ *    may "Tigris" or "Axion" appear in their names without specific prior
+ *    written permission.
+ *   
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT 
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, 
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT 
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * =======================================================================
+ */
+
+package org.axiondb.engine.indexes;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.commons.collections.primitives.ArrayIntList;
+import org.apache.commons.collections.primitives.IntList;
+import org.apache.commons.collections.primitives.IntListIterator;
+import org.axiondb.AxionException;
+import org.axiondb.Column;
+import org.axiondb.DataType;
+import org.axiondb.Function;
+import org.axiondb.IndexLoader;
+import org.axiondb.Row;
+import org.axiondb.RowIterator;
+import org.axiondb.RowSource;
+import org.axiondb.Table;
+import org.axiondb.engine.CompositeBTreeIndexLoader;
+import org.axiondb.engine.rowiterators.EmptyRowIterator;
+import org.axiondb.engine.rowiterators.LazyRowRowIterator;
+import org.axiondb.event.RowEvent;
+import org.axiondb.event.TableModificationListener;
+import org.axiondb.functions.EqualFunction;
+import org.axiondb.util.ObjectBTree;
+
+/**
+ * A {@link BaseBTreeIndex B-Tree index} over two or more columns. Keys are
+ * <code>Object[]</code>s holding the column values in index order, compared column by
+ * column with <code>null</code>s first. A lookup key may be shorter than the stored keys,
+ * in which case it matches every key that starts with it, so equality on any leading
+ * prefix of the columns can be answered from the index.
+ * 
+ * @version  
+ */
+public class CompositeBTreeIndex extends BaseBTreeIndex implements TableModificationListener {
+
+    public CompositeBTreeIndex(String name, List columns, boolean unique) throws AxionException {
+        this(name, columns, unique, null);
+    }
+
+    @SuppressWarnings("unchecked")
+    public CompositeBTreeIndex(String name, List columns, boolean unique, File dataDirectory) throws AxionException {
+        super(name, (Column) columns.get(0), unique);
+        _columns = Collections.unmodifiableList(new ArrayList(columns));
+        _types = new DataType[_columns.size()];
+        for (int i = 0; i < _types.length; i++) {
+            _types[i] = ((Column) _columns.get(i)).getDataType();
+        }
+        try {
+            _tree = new ObjectBTree(dataDirectory, getName(), 1000, new KeyComparator(_types));
+        } catch (IOException e) {
+            throw new AxionException("Unable to create index file", e);
+        } catch (ClassNotFoundException e) {
+            throw new AxionException("Unable to create index file", e);
+        }
+    }
+
+    public final void changeRowId(Table table, Row row, int oldId, int newId) throws AxionException {
+        try {
+            _tree.replaceId(makeKey(table, row), oldId, newId);
+        } catch (IOException e) {
+            throw new AxionException("Unable to change row id", e);
+        } catch (ClassNotFoundException e) {
+            throw new AxionException("Unable to change row id", e);
+        }
+    }
+
+    public final ObjectBTree getBTree() {
+        return _tree;
+    }
+
+    public List getIndexedColumns() {
+        return _columns;
+    }
+
+    public IndexLoader getIndexLoader() {
+        return LOADER;
+    }
+
+    public final RowIterator getInorderRowIterator(RowSource source) throws AxionException {
+        IntListIterator resultIds = null;
+        try {
+            resultIds = _tree.inorderIterator();
+        } catch (IOException e) {
+            throw new AxionException("Unable to retrieve values from index" + getName(), e);
+        } catch (ClassNotFoundException e) {
+            throw new AxionException("Unable to retrieve values from index" + getName(), e);
+        }
+
+        return new LazyRowRowIterator(source, resultIds, _tree.size());
+    }
+
+    /**
+     * Returns the rows whose leading column is equal to <i>value</i>.
+     */
+    public final RowIterator getRowIterator(RowSource source, Function function, Object value) throws AxionException {
+        if (!(function instanceof EqualFunction)) {
+            throw new AxionException("Unsupported function " + function);
+        }
+        return getRowIterator(source, Collections.singletonList(value));
+    }
+
+    /**
+     * Returns the rows whose leading columns are equal to the given <i>values</i>, in
+     * index order. Since <code>null</code> equals nothing, a <code>null</code> value
+     * matches no rows.
+     */
+    public final RowIterator getRowIterator(RowSource source, List values) throws AxionException {
+        if (values.isEmpty() || values.size() > _types.length) {
+            throw new AxionException("Expected between 1 and " + _types.length + " values for index " + getName() + ", found " + values.size());
+        }
+
+        Object[] key = new Object[values.size()];
+        for (int i = 0; i < key.length; i++) {
+            key[i] = _types[i].convert(values.get(i));
+            if (null == key[i]) {
+                return EmptyRowIterator.INSTANCE;
+            }
+        }
+
+        ArrayIntList ids = new ArrayIntList();
+        try {
+            if (isUnique() && key.length == _types.length) {
+                Integer result = _tree.get(key);
+                if (result != null) {
+                    ids.add(result.intValue());
+                }
+            } else {
+                // copy the ids so later changes to the tree don't disturb the iterator
+                for (IntListIterator resultIds = _tree.getAll(key); resultIds.hasNext();) {
+                    ids.add(resultIds.next());
+                }
+            }
+        } catch (IOException e) {
+            throw new AxionException("Unable to retrieve values from index" + getName(), e);
+        } catch (ClassNotFoundException e) {
+            throw new AxionException("Unable to retrieve values from index" + getName(), e);
+        }
+
+        if (ids.isEmpty()) {
+            return EmptyRowIterator.INSTANCE;
+        }
+        return new LazyRowRowIterator(source, ids.listIterator(), ids.size());
+    }
+
+    // TABLE MODIFICATION LISTENER
+    public final void rowDeleted(RowEvent event) throws AxionException {
+        Object[] key = makeKey(event.getTable(), event.getOldRow());
+        try {
+            _tree.delete(key, event.getOldRow().getIdentifier());
+        } catch (IOException e) {
+            throw new AxionException("Unable to delete from index " + getName(), e);
+        } catch (ClassNotFoundException e) {
+            throw new AxionException("Unable to delete from index " + getName(), e);
+        }
+    }
+
+    /**
+     * When I am empty, {@link ObjectBTree#bulkLoad bulk loads}my tree from the given
+     * rows rather than inserting them one at a time.
+     */
+    public void populate(Table table, RowIterator rows) throws AxionException {
+        if (_tree.size() != 0) {
+            super.populate(table, rows);
+            return;
+        }
+        List keys = new ArrayList();
+        IntList rowids = new ArrayIntList();
+        while (rows.hasNext()) {
+            Row row = rows.next();
+            if (row != null) {
+                keys.add(makeKey(table, row));
+                rowids.add(row.getIdentifier());
+            }
+        }
+        try {
+            _tree.bulkLoad(keys, rowids);
+        } catch (IOException e) {
+            throw new AxionException("Unable to populate index " + getName(), e);
+        } catch (ClassNotFoundException e) {
+            throw new AxionException("Unable to populate index " + getName(), e);
+        }
+    }
+
+    public final void rowInserted(RowEvent event) throws AxionException {
+        Object[] key = makeKey(event.getTable(), event.getNewRow());
+        try {
+            _tree.insert(key, event.getNewRow().getIdentifier());
+        } catch (IOException e) {
+            throw new AxionException("Unable to insert into index " + getName(), e);
+        } catch (ClassNotFoundException e) {
+            throw new AxionException("Unable to insert into index " + getName(), e);
+        }
+    }
+
+    public final void rowUpdated(RowEvent event) throws AxionException {
+        rowDeleted(event);
+        rowInserted(event);
+    }
+
+    /**
+     * Only equality on a leading prefix of my columns can be answered from my keys.
+     */
+    public boolean supportsFunction(Function fn) {
+        return fn instanceof EqualFunction;
+    }
+
+    public void truncate() throws AxionException {
+        _tree.truncate();
+    }
+
+    private Object[] makeKey(Table table, Row row) throws AxionException {
+        Object[] key = new Object[_types.length];
+        for (int i = 0; i < key.length; i++) {
+            key[i] = row.get(table.getColumnIndex(((Column) _columns.get(i)).getName()));
+        }
+        return key;
+    }
+
+    /**
+     * Orders <code>Object[]</code> keys column by column, <code>null</code>s first,
+     * treating a key as equal to any longer key it is a prefix of.
+     */
+    private static final class KeyComparator implements Comparator {
+        KeyComparator(DataType[] types) {
+            _types = types;
+        }
+
+        public int compare(Object left, Object right) {
+            Object[] x = (Object[]) left;
+            Object[] y = (Object[]) right;
+            for (int i = 0, I = Math.min(x.length, y.length); i < I; i++) {
+                if (null == x[i]) {
+                    if (null != y[i]) {
+                        return -1;
+                    }
+                } else if (null == y[i]) {
+                    return 1;
+                } else {
+                    int result = _types[i].compare(x[i], y[i]);
+                    if (result != 0) {
+                        return result;
+                    }
+                }
+            }
+            return 0;
+        }
+
+        private final DataType[] _types;
+    }
+
+    private static final IndexLoader LOADER = new CompositeBTreeIndexLoader();
+
+    private final List _columns;
+    private final DataType[] _types;
+    private ObjectBTree _tree = null;
+}
@@ -44,6 +44,7 @@ import java.io.File;
 import java.io.IOException;
 
 import org.apache.commons.collections.primitives.ArrayIntList;
+import org.apache.commons.collections.primitives.IntList;
 import org.apache.commons.collections.primitives.IntListIterator;
 import org.axiondb.AxionException;
 import org.axiondb.Column;
@@ -208,6 +209,34 @@ public class IntBTreeIndex extends BaseBTreeIndex implements TableModificationLi
         return new LazyRowRowIterator(source, ids.listIterator(), ids.size());
     }
 
+    /**
+     * When I am empty, {@link IntBTree#bulkLoad bulk loads}my tree from the given rows
+     * rather than inserting them one at a time.
+     */
+    public void populate(Table table, RowIterator rows) throws AxionException {
+        if (_tree.size() != 0) {
+            super.populate(table, rows);
+            return;
+        }
+        int colIndex = table.getColumnIndex(getIndexedColumn().getName());
+        IntList keys = new ArrayIntList();
+        IntList rowids = new ArrayIntList();
+        while (rows.hasNext()) {
+            Row row = rows.next();
+            if (row != null) {
+                Integer value = (Integer) row.get(colIndex);
+                keys.add((value == null) ? NullObject.INSTANCE.intValue() : value.intValue());
+                rowids.add(row.getIdentifier());
+            }
+        }
+        try {
+            _tree.bulkLoad(keys, rowids);
+        } catch (Exception e) {
+            String msg = "Unable to populate index " + getName() + " due to " + e.getMessage();
+            throw new AxionException(msg, e);
+        }
+    }
+
     public void rowDeleted(RowEvent event) throws AxionException {
         String colName = getIndexedColumn().getName();
         int colIndex = event.getTable().getColumnIndex(colName);
@@ -42,8 +42,11 @@ package org.axiondb.engine.indexes;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.apache.commons.collections.primitives.ArrayIntList;
+import org.apache.commons.collections.primitives.IntList;
 import org.apache.commons.collections.primitives.IntListIterator;
 import org.axiondb.AxionException;
 import org.axiondb.Column;
@@ -193,6 +196,35 @@ public class ObjectBTreeIndex extends BaseBTreeIndex implements TableModificatio
         return new LazyRowRowIterator(source, ids.listIterator(), ids.size());
     }
 
+    /**
+     * When I am empty, {@link ObjectBTree#bulkLoad bulk loads}my tree from the given
+     * rows rather than inserting them one at a time.
+     */
+    public void populate(Table table, RowIterator rows) throws AxionException {
+        if (_tree.size() != 0) {
+            super.populate(table, rows);
+            return;
+        }
+        int colIndex = table.getColumnIndex(getIndexedColumn().getName());
+        List keys = new ArrayList();
+        IntList rowids = new ArrayIntList();
+        while (rows.hasNext()) {
+            Row row = rows.next();
+            if (row != null) {
+                Object value = row.get(colIndex);
+                keys.add((value == null) ? getNullKey() : value);
+                rowids.add(row.getIdentifier());
+            }
+        }
+        try {
+            _tree.bulkLoad(keys, rowids);
+        } catch (IOException e) {
+            throw new AxionException("Unable to populate index " + getName(), e);
+        } catch (ClassNotFoundException e) {
+            throw new AxionException("Unable to populate index " + getName(), e);
+        }
+    }
+
     public final void rowDeleted(RowEvent event) throws AxionException {
         String colName = getIndexedColumn().getName();
         int colIndex = event.getTable().getColumnIndex(colName);
@@ -0,0 +1,260 @@
+/*
+ * 
+ * =======================================================================
+ * Copyright (c) 2002-2005 Axion Development Team.  All rights reserved.
+ *  
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions 
+ * are met:
+ * 
+ * 1. Redistributions of source code must retain the above 
+ *    copyright notice, this list of conditions and the following 
+ *    disclaimer. 
+ *   
+ * 2. Redistributions in binary form must reproduce the above copyright 
+ *    notice, this list of conditions and the following disclaimer in 
+ *    the documentation and/or other materials provided with the 
+ *    distribution. 
+ *   
+ * 3. The names "Tigris", "Axion", nor the names of its contributors may 
+ *    not be used to endorse or promote products derived from this 
+ *    software without specific prior written permission. 
+ *  
+ * 4. Products derived from this software may not be called "Axion", nor 
+ *    may "Tigris" or "Axion" appear in their names without specific prior
+ *    written permission.
+ *   
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT 
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, 
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT 
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * =======================================================================
+ */
+
+package org.axiondb.engine.indexes;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.collections.primitives.ArrayIntList;
+import org.apache.commons.collections.primitives.IntList;
+import org.apache.commons.collections.primitives.IntListIterator;
+import org.axiondb.AxionException;
+import org.axiondb.Column;
+import org.axiondb.Function;
+import org.axiondb.Index;
+import org.axiondb.IndexLoader;
+import org.axiondb.Row;
+import org.axiondb.RowIterator;
+import org.axiondb.RowSource;
+import org.axiondb.Table;
+import org.axiondb.engine.PagedBTreeIndexLoader;
+import org.axiondb.engine.rowiterators.EmptyRowIterator;
+import org.axiondb.engine.rowiterators.LazyRowRowIterator;
+import org.axiondb.event.RowEvent;
+import org.axiondb.functions.ComparisonFunction;
+import org.axiondb.functions.EqualFunction;
+import org.axiondb.functions.GreaterThanFunction;
+import org.axiondb.functions.GreaterThanOrEqualFunction;
+import org.axiondb.functions.IsNotNullFunction;
+import org.axiondb.functions.IsNullFunction;
+import org.axiondb.functions.LessThanFunction;
+import org.axiondb.functions.LessThanOrEqualFunction;
+import org.axiondb.util.NullObject;
+import org.axiondb.util.PagedBTree;
+
+/**
+ * A {@link BaseBTreeIndex B-Tree index}whose nodes are stored as fixed-size pages of a
+ * single file and cached in a bounded buffer pool. See {@link PagedBTree}.
+ * 
+ * @version  
+ */
+public class PagedBTreeIndex extends BaseBTreeIndex {
+
+    public PagedBTreeIndex(String name, Column column, boolean unique) throws AxionException {
+        this(name, column, unique, null);
+    }
+
+    public PagedBTreeIndex(String name, Column column, boolean unique, File dataDirectory) throws AxionException {
+        this(name, column, unique, DEFAULT_PAGE_SIZE, DEFAULT_POOL_SIZE, dataDirectory);
+    }
+
+    public PagedBTreeIndex(String name, Column column, boolean unique, int pageSize, int poolSize, File dataDirectory)
+            throws AxionException {
+        super(name, column, unique);
+        try {
+            File file = (dataDirectory == null) ? null : getPageFile(dataDirectory);
+            _tree = new PagedBTree(file, pageSize, poolSize, getDataType());
+        } catch (IOException e) {
+            throw new AxionException("Unable to create index file", e);
+        }
+    }
+
+    public final void changeRowId(Table table, Row row, int oldId, int newId) throws AxionException {
+        try {
+            int colnum = table.getColumnIndex(getIndexedColumn().getName());
+            _tree.replaceId(toKey(row.get(colnum)), oldId, newId);
+        } catch (IOException e) {
+            throw new AxionException("Unable to change row id", e);
+        }
+    }
+
+    public final PagedBTree getBTree() {
+        return _tree;
+    }
+
+    public IndexLoader getIndexLoader() {
+        return LOADER;
+    }
+
+    public final RowIterator getInorderRowIterator(RowSource source) throws AxionException {
+        try {
+            IntListIterator resultIds = _tree.inorderIterator();
+            return new LazyRowRowIterator(source, resultIds, _tree.size());
+        } catch (IOException e) {
+            throw new AxionException("Unable to retrieve values from index" + getName(), e);
+        }
+    }
+
+    public File getPageFile(File dataDirectory) {
+        return new File(dataDirectory, getName().toUpperCase() + ".PAGES");
+    }
+
+    public final RowIterator getRowIterator(RowSource source, Function function, Object value) throws AxionException {
+        IntListIterator resultIds = null;
+        try {
+            if (function instanceof ComparisonFunction) {
+                Object convertedValue = getDataType().convert(value);
+                if (null == convertedValue) {
+                    // null fails all comparisions I support
+                    return EmptyRowIterator.INSTANCE;
+                }
+
+                if (function instanceof EqualFunction) {
+                    if (isUnique()) {
+                        Integer result = _tree.get(convertedValue);
+                        if (result == null) {
+                            return EmptyRowIterator.INSTANCE;
+                        }
+                        ArrayIntList ids = new ArrayIntList(1);
+                        ids.add(result.intValue());
+                        return new LazyRowRowIterator(source, ids.listIterator(), 1);
+                    }
+                    resultIds = _tree.getAll(convertedValue);
+                } else if (function instanceof LessThanFunction) {
+                    resultIds = _tree.getAllTo(convertedValue);
+                } else if (function instanceof LessThanOrEqualFunction) {
+                    resultIds = _tree.getAllTo(getDataType().successor(convertedValue));
+                } else if (function instanceof GreaterThanFunction) {
+                    resultIds = _tree.getAllFrom(getDataType().successor(convertedValue));
+                } else if (function instanceof GreaterThanOrEqualFunction) {
+                    resultIds = _tree.getAllFrom(convertedValue);
+                } else {
+                    throw new AxionException("Unsupported function " + function);
+                }
+            } else if (function instanceof IsNotNullFunction) {
+                resultIds = _tree.getAllExcludingNull();
+            } else if (function instanceof IsNullFunction) {
+                resultIds = _tree.getAll(NullObject.INSTANCE);
+            } else {
+                throw new AxionException("Unsupported function " + function);
+            }
+        } catch (IOException e) {
+            throw new AxionException("Unable to retrieve values from index" + getName(), e);
+        }
+
+        // the tree hands back a private copy of the matching ids, so there is no
+        // concurrent modification issue here
+        ArrayIntList ids = new ArrayIntList();
+        while (resultIds.hasNext()) {
+            ids.add(resultIds.next());
+        }
+        return new LazyRowRowIterator(source, ids.listIterator(), ids.size());
+    }
+
+    public String getType() {
+        return Index.PAGED_BTREE;
+    }
+
+    public final void rowDeleted(RowEvent event) throws AxionException {
+        int colIndex = event.getTable().getColumnIndex(getIndexedColumn().getName());
+        Object key = toKey(event.getOldRow().get(colIndex));
+        try {
+            _tree.delete(key, event.getOldRow().getIdentifier());
+        } catch (IOException e) {
+            throw new AxionException("Unable to delete from index " + getName(), e);
+        }
+    }
+
+    /**
+     * When I am empty, {@link PagedBTree#bulkLoad bulk loads}my tree from the given rows
+     * rather than inserting them one at a time.
+     */
+    public void populate(Table table, RowIterator rows) throws AxionException {
+        if (_tree.size() != 0) {
+            super.populate(table, rows);
+            return;
+        }
+        int colIndex = table.getColumnIndex(getIndexedColumn().getName());
+        List keys = new ArrayList();
+        IntList rowids = new ArrayIntList();
+        while (rows.hasNext()) {
+            Row row = rows.next();
+            if (row != null) {
+                keys.add(toKey(row.get(colIndex)));
+                rowids.add(row.getIdentifier());
+            }
+        }
+        try {
+            _tree.bulkLoad(keys, rowids);
+        } catch (IOException e) {
+            throw new AxionException("Unable to populate index " + getName(), e);
+        }
+    }
+
+    // TABLE MODIFICATION LISTENER
+    public final void rowInserted(RowEvent event) throws AxionException {
+        int colIndex = event.getTable().getColumnIndex(getIndexedColumn().getName());
+        Object key = toKey(event.getNewRow().get(colIndex));
+        try {
+            _tree.insert(key, event.getNewRow().getIdentifier());
+        } catch (IOException e) {
+            throw new AxionException("Unable to insert into index " + getName(), e);
+        }
+    }
+
+    public final void rowUpdated(RowEvent event) throws AxionException {
+        rowDeleted(event);
+        rowInserted(event);
+    }
+
+    public void truncate() throws AxionException {
+        try {
+            _tree.truncate();
+        } catch (IOException e) {
+            throw new AxionException("Unable to truncate index " + getName(), e);
+        }
+    }
+
+    private Object toKey(Object value) {
+        return (value == null) ? NullObject.INSTANCE : value;
+    }
+
+    /** Default page size in bytes. */
+    public static final int DEFAULT_PAGE_SIZE = 8192;
+    /** Default number of pages held in the buffer pool. */
+    public static final int DEFAULT_POOL_SIZE = 256;
+
+    private static final IndexLoader LOADER = new PagedBTreeIndexLoader();
+
+    private PagedBTree _tree = null;
+}
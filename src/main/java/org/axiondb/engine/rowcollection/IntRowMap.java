@@ -184,12 +184,7 @@ public class IntRowMap extends IntHashMap {
     }
 
     public void populateIndex(Table table, Index index) throws AxionException {
-        for (RowIterator i = rowValues().rowIterator(); i.hasNext();) {
-            Row row = i.next();
-            if (row != null) {
-                index.rowInserted(new RowInsertedEvent(table, null, row));
-            }
-        }
+        index.populate(table, rowValues().rowIterator());
     }
 
     /**
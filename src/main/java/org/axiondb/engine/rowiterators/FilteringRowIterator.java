@@ -45,6 +45,7 @@ import org.axiondb.Row;
 import org.axiondb.RowDecorator;
 import org.axiondb.RowIterator;
 import org.axiondb.Selectable;
+import org.axiondb.engine.visitors.CompileSelectableVisitor;
 
 /**
  * A {@link DelegatingRowIterator} that only returns {@link Row}s
@@ -73,15 +74,24 @@ public class FilteringRowIterator extends AbstractAcceptingRowIterator {
     protected boolean acceptable(int rowindex, Row row) throws AxionException {
         // ISO/IEC 9075-2:2003, Section 7.8, General Rule 2 - filter is applied if condition
         // evaluates to true; null evaluation thus maps to false.
-        Boolean result = (Boolean) _where.evaluate(decorate(rowindex,row)); 
+        Boolean result = (Boolean) getCompiledWhere().evaluate(decorate(rowindex,row)); 
         return (result == null) ? false : result.booleanValue();
     }
 
+    // Compiled on first use, once the decorator's field map is complete
+    private Selectable getCompiledWhere() throws AxionException {
+        if (_compiledWhere == null) {
+            _compiledWhere = new CompileSelectableVisitor(_decorator).visit(_where);
+        }
+        return _compiledWhere;
+    }
+
     private RowDecorator decorate(int rowindex, Row row) {
         _decorator.setRow(rowindex,row);
         return _decorator;
     }
     
+    private Selectable _compiledWhere = null;
     private RowDecorator _decorator = null;
     private Selectable _where = null;
 }
@@ -41,12 +41,13 @@
 package org.axiondb.engine.rowiterators;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.Comparator;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.SortedMap;
 import java.util.TreeMap;
 
 import org.axiondb.AxionException;
@@ -62,9 +63,18 @@ import org.axiondb.engine.visitors.FindAggregateFunctionVisitor;
 import org.axiondb.functions.AggregateFunction;
 import org.axiondb.functions.ConcreteFunction;
 import org.axiondb.util.ComparatorChain;
+import org.axiondb.util.Utils;
 
 /**
  * Processes a "raw" iterator to implement GROUP BY functionality.
+ * <p>
+ * Each group keeps only its first row and one accumulator per aggregate function
+ * (see {@link AggregateFunction#accumulate}), so memory is proportional to the number
+ * of groups rather than the number of rows. Rows that are not already sorted on the
+ * group by columns are grouped in a hash table, and only the resulting groups are
+ * sorted. Values of types whose equal values may differ in representation (e.g.
+ * <code>1.0</code> and <code>1.00</code> as numerics) are grouped by comparison
+ * instead.
  * 
  * @version  
  * @author Rahul Dwivedi
@@ -85,30 +95,33 @@ public class GroupedRowIterator extends DelegatingRowIterator {
         _having = having;
         _where = where;
         _orderByNodes = orderBy;
-        _aggrFnValueCache = new HashMap(_selected.size());
-
-        SortedMap groupedRowMap = null;
-        // If rows are not sorted then we need to sort them
-        if (!isEmptyGroupBy() && sort) {
-            groupedRowMap = doSort(rows);
-        }
 
         // Determine in advance whether elements of Selectable list is an aggregate
         // function, so that we don't have to determines while making row for each group.
         // Keep the last element of the array reserved for having clause.
         _isAggregateFunction = new boolean[_selected.size() + 1];
+        _aggregates = new ArrayList();
         for (int i = 0, I = _selected.size();  i < I; i++) {
             _isAggregateFunction[i] = isAggregateFunction(_selected.get(i));
+            if (_isAggregateFunction[i]) {
+                collectAggregateFunctions((ConcreteFunction) _selected.get(i));
+            }
         }
         _isAggregateFunction[_selected.size()] = isAggregateFunction(_having);
+        if (_isAggregateFunction[_selected.size()]) {
+            collectAggregateFunctions((ConcreteFunction) _having);
+        }
 
-        List grList = null;
-        if (groupedRowMap == null) {
-            grList = makeGroupRows(rows);
+        List groups = null;
+        // If rows are not sorted then we need to hash them
+        if (sort && rows instanceof ParallelScanRowIterator && isParallelSafe()) {
+            groups = groupPartitions((ParallelScanRowIterator) rows);
+        } else if (!isEmptyGroupBy() && sort) {
+            groups = groupUnsortedRows(rows);
         } else {
-            grList = makeGroupRows(groupedRowMap);
+            groups = groupSortedRows(rows);
         }
-        setDelegate(new ListRowIterator(grList));
+        setDelegate(new ListRowIterator(makeGroupRows(groups)));
     }
 
     public GroupedRowIterator(RowIterator rows, Map fieldMap, List groupBy, List selected, Selectable having, List orderBy) throws AxionException {
@@ -141,65 +154,52 @@ public class GroupedRowIterator extends DelegatingRowIterator {
     }
 
     // Returns true if the HAVING node evaluates to true
-    private boolean acceptable(RowIterator currGroupRowIter, RowDecorator dec) throws AxionException {
+    private boolean acceptable(Group group, RowDecorator dec) throws AxionException {
         if (_having == null) {
             return true;
         }
 
+        Boolean result = null;
         if (_isAggregateFunction[_selected.size()]) {
-            Object val = evaluateAggregateFunction(dec, (ConcreteFunction) _having, currGroupRowIter);
-            return ((Boolean) val).booleanValue();
+            result = (Boolean) evaluateAggregateFunction(dec, (ConcreteFunction) _having, group);
+        } else {
+            result = (Boolean) _having.evaluate(dec);
         }
-        
+
         // ISO/IEC 9075-2:2003, Section 7.10, General Rule 1 - clause is applied if having condition
         // evaluates to true; null evaluation thus maps to false.
-        Boolean result = (Boolean) _having.evaluate(dec); 
         return (result == null) ? false : result.booleanValue();
     }
 
-    private void addToCurrentGroup(RowDecorator dec, Row row, List currGroup) throws AxionException {
+    // Returns true if the row is to be grouped, i.e., if the WHERE node is null or evaluates to true
+    private boolean acceptable(RowDecorator dec, Row row) throws AxionException {
         if (_where == null) {
-            currGroup.add(row);
-            return;
+            return true;
         }
 
-        // Else add to current group if WHERE node is null or evaluates to true
         dec.setRow(row);
-        
-        Boolean result = (Boolean) _where.evaluate(dec); 
-        if (result != null && result.booleanValue()) {
-            currGroup.add(row);
-        }
+        Boolean result = (Boolean) _where.evaluate(dec);
+        return result != null && result.booleanValue();
     }
 
-    // Collect rows for each group, groups will be maintained in natual sort order.
-    private SortedMap doSort(RowIterator rows) throws AxionException {
-        ComparatorChain sortChain = generateOrderChain();
-        SortedMap groupedRows = new TreeMap(sortChain);
-        RowDecorator dec = new RowDecorator(_colIdToFieldMap);
-        while (rows.hasNext()) {
-            Row row = rows.next();
-            List currGroup = (List) groupedRows.get(row);
-            if (currGroup == null) {
-                currGroup = new ArrayList();
-                groupedRows.put(row, currGroup);
+    private void collectAggregateFunctions(ConcreteFunction fn) {
+        if (fn instanceof AggregateFunction) {
+            if (!_aggregates.contains(fn)) {
+                _aggregates.add(fn);
+            }
+        } else {
+            for (int i = 0, I = fn.getArgumentCount(); i < I; i++) {
+                Object arg = fn.getArgument(i);
+                if (arg instanceof ConcreteFunction) {
+                    collectAggregateFunctions((ConcreteFunction) arg);
+                }
             }
-            addToCurrentGroup(dec, row, currGroup);
         }
-        _preSorted = false;
-        return groupedRows;
     }
 
-    private Object evaluateAggregateFunction(RowDecorator dec, ConcreteFunction fn, RowIterator rows) throws AxionException {
+    private Object evaluateAggregateFunction(RowDecorator dec, ConcreteFunction fn, Group group) throws AxionException {
         if (fn instanceof AggregateFunction) {
-            rows.reset();
-            AggregateFunction vfn = (AggregateFunction) fn;
-            Object val = _aggrFnValueCache.get(vfn);
-            if (val == null) {
-                val = vfn.evaluate(new RowIteratorRowDecoratorIterator(rows, dec));
-                _aggrFnValueCache.put(vfn, val);
-            }
-            return val;
+            return group.getValue(_aggregates.indexOf(fn));
         } else {
             // Aggregate function might have been nested with another aggregate or scalar
             // function
@@ -209,14 +209,11 @@ public class GroupedRowIterator extends DelegatingRowIterator {
                 fnArgs.add(i, arg); // Keep original selectables
                 if (arg instanceof ConcreteFunction) {
                     ConcreteFunction innerFn = (ConcreteFunction) arg;
-                    Object val = evaluateAggregateFunction(dec, innerFn, rows);
+                    Object val = evaluateAggregateFunction(dec, innerFn, group);
                     fn.setArgument(i, new Literal(val, ((ConcreteFunction) arg).getDataType()));
                 }
             }
             
-            if(dec.getRow() == null) {
-                dec.setRow(rows.first());
-            }
             Object val = fn.evaluate(dec);
             for (int i = 0, I = fn.getArgumentCount();  i < I; i++) {
                 fn.setArgument(i, (Selectable) fnArgs.get(i)); // Reset func argument
@@ -237,6 +234,130 @@ public class GroupedRowIterator extends DelegatingRowIterator {
         return chain;
     }
 
+    // This assumes rows are sorted.
+    private List groupSortedRows(RowIterator rows) throws AxionException {
+        List groups = new ArrayList();
+        RowDecorator dec = new RowDecorator(_colIdToFieldMap);
+        Comparator comparator = isEmptyGroupBy() ? null : generateOrderChain();
+
+        Group currGroup = null;
+        while (rows.hasNext()) {
+            Row row = rows.next();
+            if (acceptable(dec, row)) {
+                // Once the group by columns change we have a new group
+                if (currGroup == null || (comparator != null && comparator.compare(currGroup.getRow(), row) != 0)) {
+                    currGroup = new Group(row, _aggregates);
+                    groups.add(currGroup);
+                }
+                dec.setRow(row);
+                currGroup.accumulate(dec);
+            }
+        }
+
+        // Without GROUP BY there is always exactly one group, even if it has no rows.
+        if (currGroup == null && isEmptyGroupBy()) {
+            groups.add(new Group(null, _aggregates));
+        }
+        return groups;
+    }
+
+    // Group each range of a parallel scan on its own thread, then merge the groups of
+    // each range, in range order, into those of the ranges before it.
+    private List groupPartitions(ParallelScanRowIterator rows) throws AxionException {
+        final Map groupMap = newGroupMap();
+        rows.runPartitions(new ParallelScanRowIterator.PartitionTask() {
+            public Object run(RowIterator partition) throws AxionException {
+                return hashRows(partition);
+            }
+
+            public void merge(Object partial) throws AxionException {
+                for (Iterator iter = ((Map) partial).entrySet().iterator(); iter.hasNext();) {
+                    Map.Entry entry = (Map.Entry) iter.next();
+                    Group group = (Group) groupMap.get(entry.getKey());
+                    if (group == null) {
+                        groupMap.put(entry.getKey(), entry.getValue());
+                    } else {
+                        group.merge((Group) entry.getValue());
+                    }
+                }
+            }
+        });
+
+        List groups = new ArrayList(groupMap.values());
+        if (isEmptyGroupBy()) {
+            if (groups.isEmpty()) {
+                groups.add(new Group(null, _aggregates));
+            }
+            return groups;
+        }
+        return sortGroups(groups);
+    }
+
+    // Collect an accumulator for each group, groups will be sorted in natural sort order.
+    private List groupUnsortedRows(RowIterator rows) throws AxionException {
+        return sortGroups(new ArrayList(hashRows(rows).values()));
+    }
+
+    // Returns the groups of the given rows, keyed by GroupKey in order of first appearance
+    // if the group by values can be hashed, else keyed by their first row in sort order
+    private Map hashRows(RowIterator rows) throws AxionException {
+        Map groupMap = newGroupMap();
+        RowDecorator dec = new RowDecorator(_colIdToFieldMap);
+        int keyCount = _groupByCols.size();
+        boolean hashable = isHashable();
+
+        while (rows.hasNext()) {
+            Row row = rows.next();
+            if (acceptable(dec, row)) {
+                dec.setRow(row);
+                Object groupKey = row;
+                if (hashable) {
+                    Object[] key = new Object[keyCount];
+                    for (int i = 0; i < keyCount; i++) {
+                        key[i] = ((Selectable) _groupByCols.get(i)).evaluate(dec);
+                    }
+                    groupKey = new GroupKey(key);
+                }
+
+                Group currGroup = (Group) groupMap.get(groupKey);
+                if (currGroup == null) {
+                    currGroup = new Group(row, _aggregates);
+                    groupMap.put(groupKey, currGroup);
+                }
+                currGroup.accumulate(dec);
+            }
+        }
+        return groupMap;
+    }
+
+    /**
+     * Returns true if equal values of every group by column are also equal as objects,
+     * so that they can be grouped in a hash table.
+     */
+    private boolean isHashable() {
+        for (int i = 0, I = _groupByCols.size(); i < I; i++) {
+            if (!Utils.isHashable(((Selectable) _groupByCols.get(i)).getDataType())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Map newGroupMap() {
+        return isHashable() ? new LinkedHashMap() : new TreeMap(generateOrderChain());
+    }
+
+    private List sortGroups(List groups) {
+        final Comparator sortChain = generateOrderChain();
+        Collections.sort(groups, new Comparator() {
+            public int compare(Object left, Object right) {
+                return sortChain.compare(((Group) left).getRow(), ((Group) right).getRow());
+            }
+        });
+        _preSorted = false;
+        return groups;
+    }
+
     private boolean isAggregateFunction(Object sel) {
         if (sel instanceof ConcreteFunction) {
             FindAggregateFunctionVisitor findAggr = new FindAggregateFunctionVisitor();
@@ -260,27 +381,30 @@ public class GroupedRowIterator extends DelegatingRowIterator {
         return false;
     }
 
-    private boolean isEmptyGroupBy() {
-        return (_groupByCols == null || _groupByCols.isEmpty());
+    // True if the group by columns and aggregate arguments can be evaluated on many threads
+    private boolean isParallelSafe() {
+        for (int i = 0, I = _groupByCols.size(); i < I; i++) {
+            if (!ParallelScanRowIterator.isParallelSafe((Selectable) _groupByCols.get(i))) {
+                return false;
+            }
+        }
+        for (int i = 0, I = _aggregates.size(); i < I; i++) {
+            if (!ParallelScanRowIterator.isParallelSafe((Selectable) _aggregates.get(i))) {
+                return false;
+            }
+        }
+        return _where == null;
     }
 
-    private Row makeGroupRow(List currGroup, RowDecorator dec, Row row) throws AxionException {
-        List myCurrGroup = new ArrayList(currGroup);
-        RowIterator currGroupRowIter = new ListRowIterator(myCurrGroup);
-
-        dec.setRow(row);
-        _aggrFnValueCache.clear();
-        if (acceptable(currGroupRowIter, dec)) {
-            return makeGroupRow(currGroupRowIter, dec);
-        }
-        return null;
+    private boolean isEmptyGroupBy() {
+        return (_groupByCols == null || _groupByCols.isEmpty());
     }
 
-    private Row makeGroupRow(RowIterator currGroupRowIter, RowDecorator dec) throws AxionException {
+    private Row makeGroupRow(Group group, RowDecorator dec) throws AxionException {
         SimpleRow rowOut = new SimpleRow(_selected.size());
         for (int i = 0, I = _selected.size(); i < I; i++) {
             if (_isAggregateFunction[i]) {
-                rowOut.set(i, evaluateAggregateFunction(dec, (ConcreteFunction) _selected.get(i), currGroupRowIter));
+                rowOut.set(i, evaluateAggregateFunction(dec, (ConcreteFunction) _selected.get(i), group));
             } else {
                 rowOut.set(i, ((Selectable) _selected.get(i)).evaluate(dec));
             }
@@ -288,79 +412,83 @@ public class GroupedRowIterator extends DelegatingRowIterator {
         return rowOut;
     }
 
-    // This assumes rows are sorted.
-    private List makeGroupRows(RowIterator rows) throws AxionException {
-        if (_groupByCols != null && !_groupByCols.isEmpty() && !rows.hasNext()) {
-            return Collections.EMPTY_LIST;
+    private List makeGroupRows(List groups) throws AxionException {
+        List groupedRows = new ArrayList(groups.size());
+        RowDecorator dec = new RowDecorator(_colIdToFieldMap);
+        for (int i = 0, I = groups.size(); i < I; i++) {
+            Group group = (Group) groups.get(i);
+            dec.setRow(group.getRow());
+            // as before, HAVING filters only the groups of a GROUP BY
+            if (isEmptyGroupBy() || acceptable(group, dec)) {
+                groupedRows.add(makeGroupRow(group, dec));
+            }
         }
+        return groupedRows;
+    }
 
-        List comparators = new ArrayList();
-        if (_groupByCols != null && !_groupByCols.isEmpty()) {
-            RowDecorator dec = new RowDecorator(_colIdToFieldMap);
-            for (int i = 0,  I = _groupByCols.size(); i < I; i++) {
-                comparators.add(new RowComparator((Selectable) _groupByCols.get(i), dec));
+    /** The first row of a group and the accumulated state of each aggregate function. */
+    private static final class Group {
+        Group(Row row, List aggregates) throws AxionException {
+            _row = row;
+            _aggregates = aggregates;
+            _accumulators = new Object[aggregates.size()];
+            for (int i = 0; i < _accumulators.length; i++) {
+                _accumulators[i] = ((AggregateFunction) aggregates.get(i)).init();
             }
         }
 
-        List groupedRows = new ArrayList();
-        ArrayList currGroup = new ArrayList();
-        RowDecorator dec = new RowDecorator(_colIdToFieldMap);
+        void accumulate(RowDecorator dec) throws AxionException {
+            for (int i = 0; i < _accumulators.length; i++) {
+                _accumulators[i] = ((AggregateFunction) _aggregates.get(i)).accumulate(_accumulators[i], dec);
+            }
+        }
 
-        Row lastRow = null;
-        if (rows.hasNext() && !comparators.isEmpty()) {
-            lastRow = rows.next();
-            addToCurrentGroup(dec, lastRow, currGroup);
-            while (rows.hasNext()) {
-                Row row = rows.next();
-                for (int i = 0, I = comparators.size(); i < I && !currGroup.isEmpty(); i++) {
-                    RowComparator comp = (RowComparator) comparators.get(i);
-
-                    // Once we have a group we can apply group by aggregate function
-                    if (comp.compare(lastRow, row) != 0) {
-                        Row groupdRow = makeGroupRow(currGroup, dec, lastRow);
-                        if (groupdRow != null) {
-                            groupedRows.add(groupdRow);
-                        }
-                        currGroup.clear();
-                        break;
-                    }
-                }
-                addToCurrentGroup(dec, row, currGroup);
-                lastRow = row;
+        void merge(Group that) throws AxionException {
+            for (int i = 0; i < _accumulators.length; i++) {
+                _accumulators[i] = ((AggregateFunction) _aggregates.get(i)).merge(_accumulators[i], that._accumulators[i]);
             }
-            // Make group row if any pending group exists.
-            Row groupdRow = makeGroupRow(currGroup, dec, lastRow);
-            if (groupdRow != null) {
-                groupedRows.add(groupdRow);
+        }
+
+        Row getRow() {
+            return _row;
+        }
+
+        Object getValue(int i) throws AxionException {
+            if (_values == null) {
+                _values = new Object[_accumulators.length];
+                for (int j = 0; j < _accumulators.length; j++) {
+                    _values[j] = ((AggregateFunction) _aggregates.get(j)).finish(_accumulators[j]);
+                }
             }
-        } else {
-            groupedRows.add(makeGroupRow(rows, dec));
+            return _values[i];
         }
-        
-        return groupedRows;
+
+        private Object[] _accumulators;
+        private List _aggregates;
+        private Row _row;
+        private Object[] _values;
     }
 
-    private List makeGroupRows(SortedMap groupedRowMap) throws AxionException {
-        if (_groupByCols != null && groupedRowMap.isEmpty()) {
-            return Collections.EMPTY_LIST;
+    /** The values of the group by columns for a row, usable as a hash key. */
+    private static final class GroupKey {
+        GroupKey(Object[] values) {
+            _values = values;
+            _hashCode = Arrays.hashCode(values);
         }
 
-        List groupedRows = new ArrayList();
-        List currGroup = new ArrayList();
-        RowDecorator dec = new RowDecorator(_colIdToFieldMap);
+        public boolean equals(Object that) {
+            return that instanceof GroupKey && Arrays.equals(_values, ((GroupKey) that)._values);
+        }
 
-        Iterator iter = groupedRowMap.values().iterator();
-        while (iter.hasNext()) {
-            currGroup = (List) iter.next();
-            Row groupdRow = makeGroupRow(currGroup, dec, (Row) currGroup.get(0));
-            if (groupdRow != null) {
-                groupedRows.add(groupdRow);
-            }
+        public int hashCode() {
+            return _hashCode;
         }
-        return groupedRows;
+
+        private int _hashCode;
+        private Object[] _values;
     }
 
-    private Map _aggrFnValueCache;
+    private List _aggregates;
     private Map _colIdToFieldMap;
     private List _groupByCols;
     private Selectable _having;
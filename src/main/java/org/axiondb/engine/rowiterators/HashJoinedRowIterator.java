@@ -0,0 +1,137 @@
+/*
+ * 
+ * =======================================================================
+ * Copyright (c) 2002-2005 Axion Development Team.  All rights reserved.
+ *  
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions 
+ * are met:
+ * 
+ * 1. Redistributions of source code must retain the above 
+ *    copyright notice, this list of conditions and the following 
+ *    disclaimer. 
+ *   
+ * 2. Redistributions in binary form must reproduce the above copyright 
+ *    notice, this list of conditions and the following disclaimer in 
+ *    the documentation and/or other materials provided with the 
+ *    distribution. 
+ *   
+ * 3. The names "Tigris", "Axion", nor the names of its contributors may 
+ *    not be used to endorse or promote products derived from this 
+ *    software without specific prior written permission. 
+ *  
+ * 4. Products derived from this software may not be called "Axion", nor 
+ *    may "Tigris" or "Axion" appear in their names without specific prior
+ *    written permission.
+ *   
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT 
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, 
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT 
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * =======================================================================
+ */
+
+package org.axiondb.engine.rowiterators;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.axiondb.AxionException;
+import org.axiondb.DataType;
+import org.axiondb.Row;
+import org.axiondb.RowIterator;
+import org.axiondb.util.Utils;
+
+/**
+ * A Hash Join is performed by reading the right subtree once into a hash table keyed
+ * by its join column, and then doing a scan over the left subtree and for each row in
+ * it looking up the rows of the right subtree with an equal join column. It can only be
+ * used for an equality between a column of each subtree, but unlike an
+ * {@link IndexNestedLoopJoinedRowIterator}it needs no index on either, and reads each
+ * subtree only once. The right subtree should be the smaller one, as it is held in
+ * memory.
+ * <p>
+ * Join column values are converted to a common key type before they are compared, as
+ * an {@link org.axiondb.functions.EqualFunction}would. Only types whose values are equal
+ * exactly when they compare equal can be hashed; see {@link Utils#isHashable}.
+ * 
+ * @version  
+ */
+public class HashJoinedRowIterator extends AbstractJoinedRowIterator {
+
+    public HashJoinedRowIterator(RowIterator left, int leftJoinColumn, RowIterator right, int rightJoinColumn, int rightColumnCount,
+            DataType keyType, boolean rightOuter, boolean swapLeftAndRight) throws AxionException {
+        setLeftRowIterator(left);
+        _joinColumnInLeft = leftJoinColumn;
+        _rightRowIterator = right;
+        _joinColumnInRight = rightJoinColumn;
+        _keyType = keyType;
+        setRightSideColumnCount(rightColumnCount);
+        setRightOuter(rightOuter);
+        setSwapLeftAndRight(swapLeftAndRight);
+    }
+
+    protected RowIterator generateRightRowIterator() throws AxionException {
+        if (null == _hashTable) {
+            buildHashTable();
+        }
+        Object key = toKey(getLeftRowIterator().current().get(_joinColumnInLeft));
+        List rows = (null == key) ? null : (List) _hashTable.get(key);
+        return (null == rows) ? EmptyRowIterator.INSTANCE : new ListRowIterator(rows);
+    }
+
+    public void reset() throws AxionException {
+        // the right subtree may be correlated, so read it again
+        _rightRowIterator.reset();
+        _hashTable = null;
+        super.reset();
+    }
+
+    public String toString() {
+        return "HashJoin(" + super.toString() + ")";
+    }
+
+    @SuppressWarnings("unchecked")
+    private void buildHashTable() throws AxionException {
+        _hashTable = new HashMap();
+        while (_rightRowIterator.hasNext()) {
+            Row row = _rightRowIterator.next();
+            Object key = toKey(row.get(_joinColumnInRight));
+            if (null != key) {
+                List rows = (List) _hashTable.get(key);
+                if (null == rows) {
+                    rows = new ArrayList(1);
+                    _hashTable.put(key, rows);
+                }
+                rows.add(row);
+            }
+        }
+    }
+
+    private Object toKey(Object value) {
+        if (null == value) {
+            return null;
+        }
+        try {
+            return _keyType.convert(value);
+        } catch (AxionException e) {
+            // not comparable, so it can't match anything
+            return null;
+        }
+    }
+
+    private Map _hashTable = null;
+    private int _joinColumnInLeft;
+    private int _joinColumnInRight;
+    private DataType _keyType;
+    private RowIterator _rightRowIterator = null;
+}
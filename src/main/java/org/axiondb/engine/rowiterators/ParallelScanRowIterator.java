@@ -0,0 +1,436 @@
+/*
+ * 
+ * =======================================================================
+ * Copyright (c) 2002-2005 Axion Development Team.  All rights reserved.
+ *  
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions 
+ * are met:
+ * 
+ * 1. Redistributions of source code must retain the above 
+ *    copyright notice, this list of conditions and the following 
+ *    disclaimer. 
+ *   
+ * 2. Redistributions in binary form must reproduce the above copyright 
+ *    notice, this list of conditions and the following disclaimer in 
+ *    the documentation and/or other materials provided with the 
+ *    distribution. 
+ *   
+ * 3. The names "Tigris", "Axion", nor the names of its contributors may 
+ *    not be used to endorse or promote products derived from this 
+ *    software without specific prior written permission. 
+ *  
+ * 4. Products derived from this software may not be called "Axion", nor 
+ *    may "Tigris" or "Axion" appear in their names without specific prior
+ *    written permission.
+ *   
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT 
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, 
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT 
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * =======================================================================
+ */
+
+package org.axiondb.engine.rowiterators;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.axiondb.AxionException;
+import org.axiondb.ColumnIdentifier;
+import org.axiondb.Literal;
+import org.axiondb.RangeScannableTable;
+import org.axiondb.Row;
+import org.axiondb.RowDecorator;
+import org.axiondb.RowIterator;
+import org.axiondb.Selectable;
+import org.axiondb.functions.ABSFunction;
+import org.axiondb.functions.AndFunction;
+import org.axiondb.functions.AverageFunction;
+import org.axiondb.functions.ConcatFunction;
+import org.axiondb.functions.ConcreteFunction;
+import org.axiondb.functions.CountFunction;
+import org.axiondb.functions.EqualFunction;
+import org.axiondb.functions.GreaterThanFunction;
+import org.axiondb.functions.GreaterThanOrEqualFunction;
+import org.axiondb.functions.InFunction;
+import org.axiondb.functions.IsNotNullFunction;
+import org.axiondb.functions.IsNullFunction;
+import org.axiondb.functions.LTrimFunction;
+import org.axiondb.functions.LengthFunction;
+import org.axiondb.functions.LessThanFunction;
+import org.axiondb.functions.LessThanOrEqualFunction;
+import org.axiondb.functions.LowerFunction;
+import org.axiondb.functions.MaxFunction;
+import org.axiondb.functions.MinFunction;
+import org.axiondb.functions.ModFunction;
+import org.axiondb.functions.NotEqualFunction;
+import org.axiondb.functions.NotFunction;
+import org.axiondb.functions.NotInFunction;
+import org.axiondb.functions.OrFunction;
+import org.axiondb.functions.RTrimFunction;
+import org.axiondb.functions.SubstringFunction;
+import org.axiondb.functions.SumFunction;
+import org.axiondb.functions.TrimFunction;
+import org.axiondb.functions.UpperFunction;
+import org.axiondb.util.ExceptionConverter;
+
+/**
+ * A {@link RowIterator} over the rows of a {@link RangeScannableTable} that match a
+ * condition, reading and filtering ranges of row identifiers on several threads at once.
+ * Rows are returned in the same order as a serial scan of the table would return them.
+ * <p>
+ * At most <i>parallelism </i> ranges are scanned at a time, just ahead of the reader, so memory
+ * use is bounded however large the table is. {@link #runPartitions} runs other work,
+ * such as partial aggregation, over the same ranges. All scans share one pool with a
+ * thread per processor.
+ * 
+ * @version  
+ */
+public class ParallelScanRowIterator extends BaseRowIterator {
+
+    /** Work done over the matching rows of each range, whose results are then merged. */
+    public interface PartitionTask {
+        /** Returns a partial result for the rows of one range; called from many threads. */
+        Object run(RowIterator rows) throws AxionException;
+
+        /** Folds a partial result into the final one; called in range order. */
+        void merge(Object partial) throws AxionException;
+    }
+
+    public ParallelScanRowIterator(RangeScannableTable table, int rowIdLimit, Map fieldMap, Selectable where, int parallelism) {
+        _table = table;
+        _rangeCount = (rowIdLimit + RANGE_SIZE - 1) / RANGE_SIZE;
+        _fieldMap = fieldMap;
+        _where = where;
+        _parallelism = parallelism;
+    }
+
+    /**
+     * Cancels the ranges still being scanned, interrupting their threads, and waits for
+     * them to stop. I may be {@link #reset}and read again afterwards.
+     */
+    public void close() {
+        synchronized (_taskLock) {
+            _generation++;
+        }
+        cancel(_pending.values().iterator());
+        _pending.clear();
+        awaitRunningTasks();
+    }
+
+    /**
+     * Returns true if the given {@link Selectable} may be evaluated by several threads at
+     * once: it is built only from columns, literals and functions that keep no state
+     * between rows. Aggregate functions qualify as each thread accumulates separately.
+     */
+    public static boolean isParallelSafe(Selectable sel) {
+        if (sel == null || sel instanceof ColumnIdentifier || sel instanceof Literal) {
+            return true;
+        }
+        if (STATELESS_FUNCTIONS.contains(sel.getClass())) {
+            ConcreteFunction fn = (ConcreteFunction) sel;
+            for (int i = 0, I = fn.getArgumentCount(); i < I; i++) {
+                if (!isParallelSafe(fn.getArgument(i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Runs the given task over the matching rows of each range on my threads, merging
+     * the partial results in range order on the calling thread.
+     */
+    public void runPartitions(PartitionTask task) throws AxionException {
+        LinkedList running = new LinkedList();
+        try {
+            for (int range = 0; range < _rangeCount || !running.isEmpty();) {
+                while (range < _rangeCount && running.size() < _parallelism) {
+                    running.add(submit(task, range++));
+                }
+                task.merge(await((Future) running.removeFirst()));
+            }
+        } finally {
+            if (!running.isEmpty()) {
+                synchronized (_taskLock) {
+                    _generation++;
+                }
+                cancel(running.iterator());
+                awaitRunningTasks();
+            }
+        }
+    }
+
+    public Row current() {
+        if (!hasCurrent()) {
+            throw new NoSuchElementException("No current row.");
+        }
+        return _current;
+    }
+
+    public int currentIndex() {
+        return _currentIndex;
+    }
+
+    public boolean hasCurrent() {
+        return null != _current;
+    }
+
+    public boolean hasNext() {
+        try {
+            return advance();
+        } catch (AxionException e) {
+            throw ExceptionConverter.convertToRuntimeException(e);
+        }
+    }
+
+    public boolean hasPrevious() {
+        return _nextIndex > 0;
+    }
+
+    public Row next() throws AxionException {
+        if (!advance()) {
+            throw new NoSuchElementException("No next row");
+        }
+        _currentIndex = _nextIndex++;
+        return _current = (Row) _rows.get(_pos++);
+    }
+
+    public int nextIndex() {
+        return _nextIndex;
+    }
+
+    public Row previous() throws AxionException {
+        if (!retreat()) {
+            throw new NoSuchElementException("No previous row");
+        }
+        _currentIndex = --_nextIndex;
+        return _current = (Row) _rows.get(--_pos);
+    }
+
+    public int previousIndex() {
+        return _nextIndex - 1;
+    }
+
+    public void reset() {
+        close();
+        _submitted = -1;
+        _range = -1;
+        _rows = Collections.EMPTY_LIST;
+        _pos = 0;
+        _current = null;
+        _currentIndex = -1;
+        _nextIndex = 0;
+    }
+
+    public String toString() {
+        return "ParallelScan(" + _table.getName() + ",parallelism=" + _parallelism + ")" + (_where == null ? "" : "(" + _where + ")");
+    }
+
+    // Blocks until no task of mine is running
+    private void awaitRunningTasks() {
+        boolean interrupted = false;
+        synchronized (_taskLock) {
+            while (_running > 0) {
+                try {
+                    _taskLock.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Moves past exhausted ranges, returning false if there are no more rows
+    private boolean advance() throws AxionException {
+        while (_pos >= _rows.size()) {
+            if (_range + 1 >= _rangeCount) {
+                return false;
+            }
+            _range++;
+            for (int i = Math.max(_range, _submitted + 1), I = Math.min(_range + _parallelism, _rangeCount); i < I; i++) {
+                _pending.put(Integer.valueOf(i), submit(COLLECT_ROWS, i));
+                _submitted = i;
+            }
+            _rows = loadRange(_range);
+            _pos = 0;
+        }
+        return true;
+    }
+
+    // Moves back before empty ranges, returning false if there are no previous rows
+    private boolean retreat() throws AxionException {
+        while (_pos <= 0) {
+            if (_range <= 0) {
+                return false;
+            }
+            _range--;
+            _rows = loadRange(_range);
+            _pos = _rows.size();
+        }
+        return true;
+    }
+
+    private List loadRange(int range) throws AxionException {
+        Future future = (Future) _pending.remove(Integer.valueOf(range));
+        if (future != null) {
+            return (List) await(future);
+        }
+        return (List) COLLECT_ROWS.run(getRangeRows(range));
+    }
+
+    private RowIterator getRangeRows(int range) throws AxionException {
+        RowIterator rows = _table.getRowIterator(range * RANGE_SIZE, (range + 1) * RANGE_SIZE);
+        if (_where != null) {
+            rows = new FilteringRowIterator(rows, new RowDecorator(_fieldMap), _where);
+        }
+        return rows;
+    }
+
+    private Future submit(final PartitionTask task, final int range) {
+        final int generation;
+        synchronized (_taskLock) {
+            generation = _generation;
+        }
+        return getExecutor().submit(new Callable() {
+            public Object call() throws Exception {
+                synchronized (_taskLock) {
+                    if (generation != _generation) {
+                        // closed before I started
+                        return null;
+                    }
+                    _running++;
+                }
+                try {
+                    return task.run(getRangeRows(range));
+                } finally {
+                    synchronized (_taskLock) {
+                        _running--;
+                        _taskLock.notifyAll();
+                    }
+                }
+            }
+        });
+    }
+
+    private static Object await(Future future) throws AxionException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            throw new AxionException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof AxionException) {
+                throw (AxionException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new AxionException(cause);
+        }
+    }
+
+    private static void cancel(Iterator futures) {
+        while (futures.hasNext()) {
+            ((Future) futures.next()).cancel(true);
+        }
+    }
+
+    private static synchronized ExecutorService getExecutor() {
+        if (_executor == null) {
+            int threads = Runtime.getRuntime().availableProcessors();
+            _executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+                private final AtomicInteger _count = new AtomicInteger();
+
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "Axion parallel scan " + _count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return _executor;
+    }
+
+    /** The number of row identifiers in each range. */
+    private static final int RANGE_SIZE = 8192;
+
+    /**
+     * Functions whose evaluation only reads their arguments. Arithmetic is left out, as
+     * it sets its result type from each row it evaluates.
+     */
+    private static final Set STATELESS_FUNCTIONS = new HashSet();
+    static {
+        Class[] stateless = { EqualFunction.class, NotEqualFunction.class, GreaterThanFunction.class,
+                GreaterThanOrEqualFunction.class, LessThanFunction.class, LessThanOrEqualFunction.class,
+                AndFunction.class, OrFunction.class, NotFunction.class, IsNullFunction.class,
+                IsNotNullFunction.class, InFunction.class, NotInFunction.class, ModFunction.class,
+                ABSFunction.class, UpperFunction.class, LowerFunction.class, LengthFunction.class,
+                ConcatFunction.class, SubstringFunction.class, TrimFunction.class, LTrimFunction.class,
+                RTrimFunction.class, CountFunction.class, SumFunction.class, MinFunction.class,
+                MaxFunction.class, AverageFunction.class};
+        for (int i = 0; i < stateless.length; i++) {
+            STATELESS_FUNCTIONS.add(stateless[i]);
+        }
+    }
+
+    /** Collects the rows of a range into a list. */
+    private static final PartitionTask COLLECT_ROWS = new PartitionTask() {
+        public Object run(RowIterator rows) throws AxionException {
+            List list = new ArrayList();
+            while (rows.hasNext()) {
+                list.add(rows.next());
+            }
+            return list;
+        }
+
+        public void merge(Object partial) {
+        }
+    };
+
+    private static ExecutorService _executor;
+
+    private Row _current = null;
+    private int _currentIndex = -1;
+    private Map _fieldMap;
+    private int _generation = 0;
+    private int _nextIndex = 0;
+    private int _parallelism;
+    private Map _pending = new HashMap();
+    private int _pos = 0;
+    private int _range = -1;
+    private int _rangeCount;
+    private List _rows = Collections.EMPTY_LIST;
+    private int _running = 0;
+    private int _submitted = -1;
+    private RangeScannableTable _table;
+    private Object _taskLock = new Object();
+    private Selectable _where;
+}
@@ -0,0 +1,89 @@
+/*
+ * 
+ * =======================================================================
+ * Copyright (c) 2002-2005 Axion Development Team.  All rights reserved.
+ *  
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions 
+ * are met:
+ * 
+ * 1. Redistributions of source code must retain the above 
+ *    copyright notice, this list of conditions and the following 
+ *    disclaimer. 
+ *   
+ * 2. Redistributions in binary form must reproduce the above copyright 
+ *    notice, this list of conditions and the following disclaimer in 
+ *    the documentation and/or other materials provided with the 
+ *    distribution. 
+ *   
+ * 3. The names "Tigris", "Axion", nor the names of its contributors may 
+ *    not be used to endorse or promote products derived from this 
+ *    software without specific prior written permission. 
+ *  
+ * 4. Products derived from this software may not be called "Axion", nor 
+ *    may "Tigris" or "Axion" appear in their names without specific prior
+ *    written permission.
+ *   
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT 
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, 
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT 
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * =======================================================================
+ */
+
+package org.axiondb.engine.rowiterators;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.axiondb.AxionException;
+import org.axiondb.BindVariable;
+import org.axiondb.Literal;
+import org.axiondb.RowIterator;
+import org.axiondb.RowSource;
+import org.axiondb.engine.indexes.CompositeBTreeIndex;
+
+/**
+ * A {@link DelegatingRowIterator} that wraps a prefix lookup into a
+ * {@link CompositeBTreeIndex}, and that can be {@link #reset reset} to recreate the
+ * iterator for new {@link BindVariable bound values}.
+ * 
+ * @see RebindableIndexedRowIterator
+ * @version  
+ */
+public class RebindableCompositeIndexedRowIterator extends DelegatingRowIterator {
+    /**
+     * @param literals the {@link Literal}s, some of which may be {@link BindVariable}s,
+     *        to match against the leading columns of <i>index</i>
+     */
+    public RebindableCompositeIndexedRowIterator(CompositeBTreeIndex index, RowSource table, List literals) throws AxionException {
+        super(getRowIterator(index, table, literals));
+        _index = index;
+        _table = table;
+        _literals = literals;
+    }
+
+    public void reset() throws AxionException {
+        setDelegate(getRowIterator(_index, _table, _literals));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static RowIterator getRowIterator(CompositeBTreeIndex index, RowSource table, List literals) throws AxionException {
+        List values = new ArrayList(literals.size());
+        for (int i = 0, I = literals.size(); i < I; i++) {
+            values.add(((Literal) literals.get(i)).evaluate());
+        }
+        return index.getRowIterator(table, values);
+    }
+
+    private CompositeBTreeIndex _index;
+    private RowSource _table;
+    private List _literals;
+}
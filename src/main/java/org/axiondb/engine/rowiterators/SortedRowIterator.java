@@ -39,21 +39,38 @@
  */
 package org.axiondb.engine.rowiterators;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Set;
 
 import org.apache.commons.collections.primitives.ArrayIntList;
 import org.apache.commons.collections.primitives.IntList;
 import org.axiondb.AxionException;
+import org.axiondb.DataType;
 import org.axiondb.OrderNode;
 import org.axiondb.Row;
 import org.axiondb.RowComparator;
 import org.axiondb.RowDecorator;
 import org.axiondb.RowIterator;
 import org.axiondb.RowSource;
+import org.axiondb.engine.rows.SimpleRow;
+import org.axiondb.io.AxionFileSystem;
+import org.axiondb.types.AnyType;
+import org.axiondb.types.LOBType;
 import org.axiondb.util.ComparatorChain;
 
 /**
@@ -83,6 +100,46 @@ public abstract class SortedRowIterator extends DelegatingRowIterator {
         return comparator;
     }
     
+    /**
+     * Roughly estimates the bytes <i>row </i> and its values take up in memory, for
+     * keeping a sort within its buffer.
+     */
+    public static long estimateSize(Row row) {
+        long size = ROW_SIZE;
+        for (int i = 0, I = row.size(); i < I; i++) {
+            Object value = row.get(i);
+            size += REFERENCE_SIZE;
+            if (value instanceof String) {
+                size += STRING_SIZE + 2L * ((String) value).length();
+            } else if (value instanceof byte[]) {
+                size += ARRAY_SIZE + ((byte[]) value).length;
+            } else if (value instanceof BigDecimal || value instanceof BigInteger) {
+                size += BIG_NUMBER_SIZE;
+            } else if (value != null) {
+                size += VALUE_SIZE;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Roughly estimates the bytes a row of values of the given types takes up in memory,
+     * before there are any rows to measure. Strings are taken to be as long as their
+     * display size, up to 256 characters.
+     */
+    public static long estimateSize(DataType[] types) {
+        long size = ROW_SIZE;
+        for (int i = 0; i < types.length; i++) {
+            size += REFERENCE_SIZE;
+            if (types[i] != null && String.class.getName().equals(types[i].getPreferredValueClassName())) {
+                size += STRING_SIZE + 2L * Math.max(0, Math.min(types[i].getColumnDisplaySize(), MAX_ESTIMATED_LENGTH));
+            } else {
+                size += VALUE_SIZE;
+            }
+        }
+        return size;
+    }
+
     public static class MergeSort extends SortedRowIterator {
 
         public MergeSort(RowIterator unsortedRows, Comparator comparator) throws AxionException {
@@ -145,6 +202,486 @@ public abstract class SortedRowIterator extends DelegatingRowIterator {
         }
     }
 
+    /**
+     * Keeps only the first <i>n </i> rows in sort order, as needed for
+     * <code>ORDER BY ... LIMIT</code>, using a bounded heap. Ties keep their input
+     * order, so the rows are the same as the first <i>n </i> rows of {@link MergeSort}.
+     */
+    public static class TopNSort extends SortedRowIterator {
+
+        public TopNSort(RowIterator unsortedRows, Comparator comparator, int n) throws AxionException {
+            List sortedList = getTopRowList(unsortedRows, new SequencedComparator(comparator), n);
+            this.setDelegate(new ListRowIterator(sortedList));
+            _n = n;
+        }
+
+        public TopNSort(RowIterator unsortedRows, List orderNodes, RowDecorator rowDecorator, int n) throws AxionException {
+            this(unsortedRows, buildComparatorChain(orderNodes, rowDecorator), n);
+            _keyString = orderNodes.toString();
+        }
+
+        public String toString() {
+            return "TopNSort (key=" + _keyString + ",n=" + _n + ")";
+        }
+
+        private List getTopRowList(RowIterator unsortedRows, final SequencedComparator comparator, int n) throws AxionException {
+            // the heap is ordered worst first, so the head is the row to evict
+            PriorityQueue heap = new PriorityQueue(Math.max(1, Math.min(n, 1024)), Collections.reverseOrder(comparator));
+            for (int seq = 0; n > 0 && unsortedRows.hasNext(); seq++) {
+                SequencedRow candidate = new SequencedRow(unsortedRows.next(), seq);
+                if (heap.size() < n) {
+                    heap.add(candidate);
+                } else if (comparator.compare(candidate, heap.peek()) < 0) {
+                    heap.poll();
+                    heap.add(candidate);
+                }
+            }
+
+            Object[] top = heap.toArray();
+            Arrays.sort(top, comparator);
+            List list = new ArrayList(top.length);
+            for (int i = 0; i < top.length; i++) {
+                list.add(((SequencedRow) top[i])._row);
+            }
+            return list;
+        }
+
+        private int _n;
+    }
+
+    /** A row tagged with its position in the unsorted input. */
+    private static class SequencedRow {
+        SequencedRow(Row row, int seq) {
+            _row = row;
+            _seq = seq;
+        }
+
+        private Row _row;
+        private int _seq;
+    }
+
+    /** Orders {@link SequencedRow}s by row, then by input position. */
+    private static class SequencedComparator implements Comparator {
+        SequencedComparator(Comparator comparator) {
+            _comparator = comparator;
+        }
+
+        public int compare(Object a, Object b) {
+            SequencedRow left = (SequencedRow) a;
+            SequencedRow right = (SequencedRow) b;
+            int result = _comparator.compare(left._row, right._row);
+            return result != 0 ? result : (left._seq < right._seq ? -1 : (left._seq == right._seq ? 0 : 1));
+        }
+
+        private Comparator _comparator;
+    }
+
+    /**
+     * Sorts about <i>bufferSize </i> bytes of rows at a time in memory (as
+     * {@link #estimateSize(Row) estimated}), spilling each sorted run
+     * to a temporary file (using the column {@link DataType}s to write the values) and
+     * lazily merging the runs back together. When all rows fit in a single run, or the
+     * rows cannot be written by the given types (e.g. LOB or untyped columns), this behaves like
+     * {@link MergeSort}.
+     * <p>
+     * The run files are deleted as soon as the merge has been read to the end; reading
+     * the rows again (after a {@link #reset}) sorts the underlying rows again. Runs of
+     * a merge that is dropped before its end are deleted by the next sort that spills
+     * once the merge has been garbage collected, or else when the VM exits.
+     * <p>
+     * Once spilled, the rows can only be read forwards: keeping them all to move
+     * backwards would defeat the spill, and re-merging up to each earlier row would make
+     * every step backwards read the runs again.
+     */
+    public static class ExternalMergeSort extends SortedRowIterator {
+
+        public ExternalMergeSort(RowIterator unsortedRows, Comparator comparator, DataType[] types, long bufferSize, File tempDir)
+                throws AxionException {
+            List run = readRun(unsortedRows, bufferSize);
+            if (!unsortedRows.hasNext() || !isSpillable(types, run)) {
+                while (unsortedRows.hasNext()) {
+                    run.add(unsortedRows.next());
+                }
+                Collections.sort(run, comparator);
+                this.setDelegate(new ListRowIterator(run));
+            } else {
+                _unsortedRows = unsortedRows;
+                _comparator = comparator;
+                _types = types;
+                _bufferSize = bufferSize;
+                _tempDir = tempDir;
+                RunSet.deleteAbandoned();
+                RunSet runs = new RunSet(writeRuns(run));
+                MergingRowIterator merge = new MergingRowIterator(runs, comparator, types, this);
+                runs.track(merge);
+                this.setDelegate(merge);
+            }
+        }
+
+        public ExternalMergeSort(RowIterator unsortedRows, List orderNodes, RowDecorator rowDecorator, DataType[] types, long bufferSize,
+                File tempDir) throws AxionException {
+            this(unsortedRows, buildComparatorChain(orderNodes, rowDecorator), types, bufferSize, tempDir);
+            _keyString = orderNodes.toString();
+        }
+
+        public String toString() {
+            return "ExternalMergeSort (key=" + _keyString + ")";
+        }
+
+        /** Sorts the underlying rows again, once the runs of an earlier pass are gone. */
+        List respill() throws AxionException {
+            _unsortedRows.reset();
+            return writeRuns(readRun(_unsortedRows, _bufferSize));
+        }
+
+        /** Spills <i>run </i> and the rest of the unsorted rows as sorted runs. */
+        @SuppressWarnings("unchecked")
+        private List writeRuns(List run) throws AxionException {
+            List runs = new ArrayList();
+            while (!run.isEmpty()) {
+                Collections.sort(run, _comparator);
+                runs.add(writeRun(new ListRowIterator(run), _types, _tempDir));
+                run = readRun(_unsortedRows, _bufferSize);
+            }
+            while (runs.size() > MAX_MERGE_WIDTH) {
+                runs = mergeRuns(runs, _comparator, _types, _tempDir);
+            }
+            return runs;
+        }
+
+        private static boolean isSpillable(DataType[] types, List run) {
+            if (types == null || run.isEmpty() || ((Row) run.get(0)).size() != types.length) {
+                return false;
+            }
+            for (int i = 0; i < types.length; i++) {
+                if (types[i] == null || types[i] instanceof AnyType || types[i] instanceof LOBType) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /** Reads rows until they fill <i>bufferSize </i> bytes, but at least one row. */
+        private static List readRun(RowIterator rows, long bufferSize) throws AxionException {
+            List run = new ArrayList();
+            for (long size = 0; size < bufferSize && rows.hasNext();) {
+                Row row = rows.next();
+                run.add(row);
+                size += estimateSize(row);
+            }
+            return run;
+        }
+
+        private static List mergeRuns(List runs, Comparator comparator, DataType[] types, File tempDir) throws AxionException {
+            List merged = new ArrayList();
+            for (int i = 0, I = runs.size(); i < I; i += MAX_MERGE_WIDTH) {
+                List group = runs.subList(i, Math.min(i + MAX_MERGE_WIDTH, I));
+                RunSet set = new RunSet(new ArrayList(group));
+                MergingRowIterator iter = new MergingRowIterator(set, comparator, types, null);
+                merged.add(writeRun(iter, types, tempDir));
+                iter.close();
+                set.delete();
+            }
+            return merged;
+        }
+
+        private static SortRun writeRun(RowIterator rows, DataType[] types, File tempDir) throws AxionException {
+            File file = null;
+            DataOutputStream out = null;
+            int count = 0;
+            try {
+                file = File.createTempFile("axion", ".sort", tempDir);
+                file.deleteOnExit();
+                out = FS.createBufferedDOS(file);
+                while (rows.hasNext()) {
+                    Row row = rows.next();
+                    out.writeInt(row.getIdentifier());
+                    for (int i = 0; i < types.length; i++) {
+                        types[i].write(row.get(i), out);
+                    }
+                    count++;
+                }
+            } catch (IOException e) {
+                if (file != null) {
+                    file.delete();
+                }
+                throw new AxionException(e);
+            } finally {
+                FS.closeOutputStream(out);
+            }
+            return new SortRun(file, count);
+        }
+
+        /** Upper bound on the number of runs merged at once. */
+        private static final int MAX_MERGE_WIDTH = 64;
+
+        private Comparator _comparator;
+        private long _bufferSize;
+        private File _tempDir;
+        private DataType[] _types;
+        private RowIterator _unsortedRows;
+    }
+
+    /**
+     * The runs a {@link MergingRowIterator} reads, which may be deleted and replaced
+     * while it is in use.
+     */
+    private static class RunSet {
+        RunSet(List runs) {
+            _runs = runs;
+        }
+
+        /** Deletes the runs of every tracked merge that has been garbage collected. */
+        static void deleteAbandoned() {
+            for (Reference ref = (Reference) ABANDONED.poll(); ref != null; ref = (Reference) ABANDONED.poll()) {
+                ref._runs.delete();
+                TRACKED.remove(ref);
+            }
+        }
+
+        synchronized void delete() {
+            if (null != _runs) {
+                for (int i = 0, I = _runs.size(); i < I; i++) {
+                    ((SortRun) _runs.get(i)).delete();
+                }
+                _runs = null;
+            }
+        }
+
+        synchronized List getRuns() {
+            return _runs;
+        }
+
+        synchronized boolean isDeleted() {
+            return null == _runs;
+        }
+
+        synchronized void setRuns(List runs) {
+            _runs = runs;
+        }
+
+        /** Deletes my runs once <i>merge </i> has been garbage collected. */
+        @SuppressWarnings("unchecked")
+        void track(MergingRowIterator merge) {
+            TRACKED.add(new Reference(merge, this));
+        }
+
+        private static class Reference extends PhantomReference {
+            @SuppressWarnings("unchecked")
+            Reference(MergingRowIterator merge, RunSet runs) {
+                super(merge, ABANDONED);
+                _runs = runs;
+            }
+
+            private RunSet _runs;
+        }
+
+        private static final ReferenceQueue ABANDONED = new ReferenceQueue();
+        /** Keeps the references reachable until their merge has been collected. */
+        private static final Set TRACKED = Collections.synchronizedSet(new HashSet());
+
+        private List _runs;
+    }
+
+    /** A sorted run of rows spilled to a temporary file. */
+    private static class SortRun {
+        SortRun(File file, int size) {
+            _file = file;
+            _size = size;
+        }
+
+        void delete() {
+            _file.delete();
+        }
+
+        DataInputStream open() throws AxionException {
+            return FS.openBufferedDIS(_file);
+        }
+
+        int size() {
+            return _size;
+        }
+
+        private File _file;
+        private int _size;
+    }
+
+    /** The head row of a {@link SortRun}, ordered by row then by run. */
+    private static class RunCursor {
+        RunCursor(int run, DataInputStream in, int remaining) {
+            _run = run;
+            _in = in;
+            _remaining = remaining;
+        }
+
+        boolean advance(DataType[] types) throws AxionException {
+            if (_remaining == 0) {
+                FS.closeInputStream(_in);
+                return false;
+            }
+            try {
+                int id = _in.readInt();
+                Object[] values = new Object[types.length];
+                for (int i = 0; i < types.length; i++) {
+                    values[i] = types[i].read(_in);
+                }
+                _row = new SimpleRow(values);
+                _row.setIdentifier(id);
+            } catch (IOException e) {
+                throw new AxionException(e);
+            }
+            _remaining--;
+            return true;
+        }
+
+        void close() {
+            FS.closeInputStream(_in);
+        }
+
+        private DataInputStream _in;
+        private int _remaining;
+        private Row _row;
+        private int _run;
+    }
+
+    /**
+     * Lazily merges a list of {@link SortRun}s. The rows can only be read forwards,
+     * though a {@link #reset} reads them again from the start.
+     */
+    private static class MergingRowIterator extends BaseRowIterator {
+        /**
+         * @param sort the sort to {@link ExternalMergeSort#respill respill}, if the runs
+         *        are to be deleted once read to the end, or null to keep them
+         */
+        MergingRowIterator(RunSet runs, final Comparator comparator, DataType[] types, ExternalMergeSort sort) throws AxionException {
+            _runs = runs;
+            _sort = sort;
+            _types = types;
+            _heap = new PriorityQueue(Math.max(1, runs.getRuns().size()), new Comparator() {
+                public int compare(Object a, Object b) {
+                    RunCursor left = (RunCursor) a;
+                    RunCursor right = (RunCursor) b;
+                    int result = comparator.compare(left._row, right._row);
+                    return result != 0 ? result : left._run - right._run;
+                }
+            });
+            open();
+        }
+
+        public Row current() {
+            if (!_hasCurrent) {
+                throw new NoSuchElementException("No current row.");
+            }
+            return _current;
+        }
+
+        public int currentIndex() {
+            if (!_hasCurrent) {
+                throw new NoSuchElementException("No current row.");
+            }
+            return _currentIndex;
+        }
+
+        public boolean hasCurrent() {
+            return _hasCurrent;
+        }
+
+        public boolean hasNext() {
+            return !_heap.isEmpty();
+        }
+
+        public boolean hasPrevious() {
+            return _nextIndex > 0;
+        }
+
+        public Row next() throws AxionException {
+            if (!_heap.isEmpty()) {
+                RunCursor cursor = (RunCursor) _heap.poll();
+                _current = cursor._row;
+                if (cursor.advance(_types)) {
+                    _heap.add(cursor);
+                } else if (_heap.isEmpty() && null != _sort) {
+                    // every run has been read to the end
+                    _runs.delete();
+                }
+            } else {
+                throw new NoSuchElementException("No next row");
+            }
+            _currentIndex = _nextIndex++;
+            _hasCurrent = true;
+            return _current;
+        }
+
+        public int nextIndex() {
+            return _nextIndex;
+        }
+
+        public Row previous() throws AxionException {
+            if (!hasPrevious()) {
+                throw new NoSuchElementException("No previous row");
+            }
+            throw new AxionException("Rows sorted on disk cannot be read backwards; raise database.sortbuffersize to sort them in memory");
+        }
+
+        public int previousIndex() {
+            return _nextIndex - 1;
+        }
+
+        public void reset() throws AxionException {
+            close();
+            open();
+        }
+
+        public int size() {
+            return _size;
+        }
+
+        void close() {
+            while (!_heap.isEmpty()) {
+                ((RunCursor) _heap.poll()).close();
+            }
+            _current = null;
+            _hasCurrent = false;
+            _currentIndex = -1;
+            _nextIndex = 0;
+        }
+
+        private void open() throws AxionException {
+            if (_runs.isDeleted()) {
+                _runs.setRuns(_sort.respill());
+            }
+            List runs = _runs.getRuns();
+            _size = 0;
+            for (int i = 0, I = runs.size(); i < I; i++) {
+                SortRun run = (SortRun) runs.get(i);
+                _size += run.size();
+                RunCursor cursor = new RunCursor(i, run.open(), run.size());
+                if (cursor.advance(_types)) {
+                    _heap.add(cursor);
+                }
+            }
+        }
+
+        private Row _current;
+        private int _currentIndex = -1;
+        private boolean _hasCurrent = false;
+        private PriorityQueue _heap;
+        private int _nextIndex = 0;
+        private RunSet _runs;
+        private int _size;
+        private ExternalMergeSort _sort;
+        private DataType[] _types;
+    }
+
+    private static final int ARRAY_SIZE = 16;
+    private static final int BIG_NUMBER_SIZE = 64;
+    private static final int MAX_ESTIMATED_LENGTH = 256;
+    private static final int REFERENCE_SIZE = 8;
+    private static final int ROW_SIZE = 40;
+    private static final int STRING_SIZE = 40;
+    private static final int VALUE_SIZE = 24;
+
+    private static AxionFileSystem FS = new AxionFileSystem();
     protected String _keyString = "";
     protected RowIterator _rowIter = null;
 }
@@ -40,10 +40,12 @@
 
 package org.axiondb.engine.tables;
 
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 
 import org.axiondb.AxionException;
+import org.axiondb.Column;
 import org.axiondb.Constraint;
 import org.axiondb.ConstraintViolationException;
 import org.axiondb.Literal;
@@ -51,6 +53,7 @@ import org.axiondb.RowDecorator;
 import org.axiondb.RowIterator;
 import org.axiondb.Selectable;
 import org.axiondb.Table;
+import org.axiondb.engine.commands.AxionQueryOptimizer;
 import org.axiondb.engine.rowiterators.FilteringRowIterator;
 import org.axiondb.event.BaseTableModificationPublisher;
 import org.axiondb.event.RowEvent;
@@ -66,20 +69,68 @@ import org.axiondb.functions.EqualFunction;
  */
 public abstract class AbstractBaseTable extends BaseTableModificationPublisher implements Table {
 
+    /**
+     * Returns the row count of <code>table</code> as estimated by
+     * {@link #getRowCountEstimate}, if it offers one, or else its row count.
+     */
+    public static int estimateRowCount(Table table) {
+        if (table instanceof AbstractBaseTable) {
+            return ((AbstractBaseTable) table).getRowCountEstimate();
+        }
+        return table.getRowCount();
+    }
+
+    /**
+     * Returns how many keys can be looked up one at a time through an index on
+     * <i>column </i> before reading all of <i>table </i> once becomes cheaper, or 0 if
+     * <i>column </i> isn't indexed.
+     */
+    public static int getIndexLookupLimit(Table table, Column column) {
+        if (!table.isColumnIndexed(column)) {
+            return 0;
+        }
+        // an estimate, as the exact count may read all of the table or count as a read of it
+        return estimateRowCount(table) / INDEX_LOOKUP_COST;
+    }
+
+    /**
+     * Returns an estimate of my row count that is cheap to find, for planning. Unlike
+     * {@link #getRowCount}, this neither has to read all of me nor counts as reading
+     * all of me. By default it is my row count.
+     */
+    public int getRowCountEstimate() {
+        return getRowCount();
+    }
+
+    @SuppressWarnings("unchecked")
     public RowIterator getMatchingRows(List selectables, List values, boolean readOnly) throws AxionException {
         if (null == selectables || selectables.isEmpty()) {
             return getRowIterator(readOnly);
         }
 
-        RowIterator baseIterator = null;
-        Selectable filter = null;
+        List functions = new ArrayList(selectables.size());
         for (int i = 0, I = selectables.size(); i < I; i++) {
-            Selectable sel = (Selectable) selectables.get(i);
-            Object val = values.get(i);
-
             EqualFunction function = new EqualFunction();
-            function.addArgument(sel);
-            function.addArgument(new Literal(val));
+            function.addArgument((Selectable) selectables.get(i));
+            function.addArgument(new Literal(values.get(i)));
+            functions.add(function);
+        }
+
+        // a composite index over several of the columns narrows the most
+        RowIterator baseIterator = null;
+        AndFunction lookup = AxionQueryOptimizer.findCompositeIndexLookup(null, this, functions);
+        if (null != lookup && lookup.getArgumentCount() > 1) {
+            baseIterator = getIndexedRows(lookup, readOnly);
+            if (baseIterator != null) {
+                for (int i = 0, I = lookup.getArgumentCount(); i < I; i++) {
+                    functions.remove(lookup.getArgument(i));
+                }
+            }
+        }
+
+        Selectable filter = null;
+        for (int i = 0, I = functions.size(); i < I; i++) {
+            EqualFunction function = (EqualFunction) functions.get(i);
 
             if (null == baseIterator) {
                 baseIterator = getIndexedRows(function, readOnly);
@@ -89,13 +140,19 @@ public abstract class AbstractBaseTable extends BaseTableModificationPublisher i
             }
 
             if (function != null) {
-                if (null == filter) {
-                    filter = function;
-                } else {
-                    AndFunction fn = new AndFunction();
-                    fn.addArgument(filter);
-                    fn.addArgument(function);
-                    filter = fn;
+                filter = and(filter, function);
+            }
+        }
+
+        if (null == baseIterator && null != lookup) {
+            // only the leading column of a composite index is bound
+            baseIterator = getIndexedRows(lookup, readOnly);
+            if (baseIterator != null) {
+                filter = null;
+                for (int i = 0, I = functions.size(); i < I; i++) {
+                    if (functions.get(i) != lookup.getArgument(0)) {
+                        filter = and(filter, (Selectable) functions.get(i));
+                    }
                 }
             }
         }
@@ -109,6 +166,16 @@ public abstract class AbstractBaseTable extends BaseTableModificationPublisher i
         }
         return baseIterator;
     }
+
+    private static Selectable and(Selectable filter, Selectable function) {
+        if (null == filter) {
+            return function;
+        }
+        AndFunction fn = new AndFunction();
+        fn.addArgument(filter);
+        fn.addArgument(function);
+        return fn;
+    }
     
     public void migrate() throws AxionException{
     }
@@ -158,5 +225,7 @@ public abstract class AbstractBaseTable extends BaseTableModificationPublisher i
         return false;
     }
 
+    /** Roughly how many rows a scan reads in the time an index lookup takes. */
+    private static final int INDEX_LOOKUP_COST = 16;
     
 }
@@ -42,6 +42,7 @@ package org.axiondb.engine.tables;
 
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FilenameFilter;
 import java.io.IOException;
@@ -68,13 +69,16 @@ import org.axiondb.RowCollection;
 import org.axiondb.RowIterator;
 import org.axiondb.Sequence;
 import org.axiondb.TableFactory;
+import org.axiondb.engine.rowcollection.IntRowMap;
 import org.axiondb.engine.rowiterators.BaseRowIterator;
 import org.axiondb.event.RowEvent;
 import org.axiondb.event.RowInsertedEvent;
 import org.axiondb.io.AxionFileSystem;
 import org.axiondb.io.BufferedDataInputStream;
 import org.axiondb.io.BufferedDataOutputStream;
+import org.axiondb.io.ChannelReaderPool;
 import org.axiondb.io.FileUtil;
+import org.axiondb.io.MappedFile;
 import org.axiondb.types.LOBType;
 import org.axiondb.util.ExceptionConverter;
 
@@ -95,6 +99,13 @@ public abstract class BaseDiskTable extends BaseTable {
         super(name);
         _dbdir = db.getDBDirectory();
         _readOnly = db.isReadOnly();
+        Object readMode = db.getGlobalVariable(Database.READ_MODE + "." + name);
+        if (readMode == null) {
+            readMode = db.getGlobalVariable(Database.READ_MODE);
+        }
+        if (readMode != null) {
+            setReadMode(readMode.toString());
+        }
         createOrLoadTableFiles(name, db, factory);
     }
 
@@ -127,6 +138,12 @@ public abstract class BaseDiskTable extends BaseTable {
 
     public void applyInserts(RowCollection rows) throws AxionException {
         synchronized (this) {
+            if (isBulkInsert(rows)) {
+                applyInsertsToRows(rows.rowIterator());
+                rebuildIndices();
+                return;
+            }
+
             // apply to the indices one at a time, as its more memory-friendly
             for (Iterator indexIter = getIndices(); indexIter.hasNext();) {
                 Index index = (Index) (indexIter.next());
@@ -148,21 +165,80 @@ public abstract class BaseDiskTable extends BaseTable {
         }
     }
 
+    /**
+     * Re-applies a committed change recovered from a write-ahead log. The change may
+     * already have reached my files before a crash, so each part is applied only as far
+     * as it is still missing: deletes and updates are skipped for rows that no longer
+     * exist, and an inserted row whose identifier is already in use is rewritten in
+     * place. Inserted rows keep the identifiers they were given when first inserted.
+     */
+    public void redo(IntCollection deletedRowIds, RowCollection updatedRows, RowCollection insertedRows) throws AxionException {
+        synchronized (this) {
+            IntList deletes = new ArrayIntList(deletedRowIds.size());
+            for (IntIterator iter = deletedRowIds.iterator(); iter.hasNext();) {
+                int rowid = iter.next();
+                if (isLiveRow(rowid)) {
+                    deletes.add(rowid);
+                }
+            }
+            if (!deletes.isEmpty()) {
+                applyDeletes(deletes);
+            }
+
+            IntRowMap updates = new IntRowMap();
+            for (RowIterator iter = updatedRows.rowIterator(); iter.hasNext();) {
+                Row row = iter.next();
+                if (isLiveRow(row.getIdentifier())) {
+                    updates.putRow(row.getIdentifier(), row);
+                }
+            }
+
+            IntRowMap inserts = new IntRowMap();
+            for (RowIterator iter = insertedRows.rowIterator(); iter.hasNext();) {
+                Row row = iter.next();
+                if (isLiveRow(row.getIdentifier())) {
+                    updates.putRow(row.getIdentifier(), row);
+                } else {
+                    inserts.putRow(row.getIdentifier(), row);
+                }
+            }
+
+            if (!updates.isEmpty()) {
+                applyUpdates(updates.rowValues());
+            }
+            if (!inserts.isEmpty()) {
+                for (Iterator indexIter = getIndices(); indexIter.hasNext();) {
+                    Index index = (Index) (indexIter.next());
+                    for (RowIterator iter = inserts.rowIterator(); iter.hasNext();) {
+                        index.rowInserted(new RowInsertedEvent(this, null, iter.next()));
+                    }
+                    saveIndex(index);
+                }
+                redoInsertsToRows(inserts.rowIterator());
+            }
+        }
+    }
+
     @Override
-    public void checkpoint() throws AxionException {
+    public synchronized void checkpoint() throws AxionException {
         super.checkpoint();
-        DataOutputStream out = null;
-        try {
-            if (getSequence() != null) {
-                File seqFile = getTableFile(SEQ_FILE_EXT);
-                out = FS.createDataOutputSteam(seqFile);
+        if (getSequence() != null) {
+            // written aside and renamed into place, so that a crash can't leave it torn
+            File tmpFile = getTableFile(SEQ_FILE_EXT + TMP_FILE_EXT);
+            DataOutputStream out = null;
+            try {
+                out = FS.createDataOutputSteam(tmpFile);
                 getSequence().write(out);
+                out.writeInt(getSequence().getCacheSize());
+                out.close();
+                out = null;
+            } catch (IOException e) {
+                String msg = "Unable to persist sequence file";
+                throw new AxionException(msg);
+            } finally {
+                FS.closeOutputStream(out);
             }
-        } catch (IOException e) {
-            String msg = "Unable to persist sequence file";
-            throw new AxionException(msg);
-        } finally {
-            FS.closeOutputStream(out);
+            FileUtil.replace(tmpFile, getTableFile(SEQ_FILE_EXT));
         }
     }
 
@@ -175,9 +251,10 @@ public abstract class BaseDiskTable extends BaseTable {
     }
 
     public void freeRowId(int id) {
+        // only the id handed out last can be taken back; any other stays unused
         if (_freeIdPos >= 0 && id == _freeIds.get(_freeIdPos)) {
             _freeIdPos--;
-        } else if (_nextFreeId > getPidxList().size() - 1) {
+        } else if (id == _nextFreeId && _nextFreeId > getPidxList().size() - 1) {
             _nextFreeId--;
         }
     }
@@ -251,13 +328,16 @@ public abstract class BaseDiskTable extends BaseTable {
         return _rowCount;
     }
 
+    /**
+     * Returns how rows are read from my data file, one of {@link #READ_MODE_CHANNEL},
+     * {@link #READ_MODE_STREAM}or {@link #READ_MODE_MMAP}.
+     */
+    public String getReadMode() {
+        return _readMode;
+    }
+
     public void populateIndex(Index index) throws AxionException {
-        for (int i = 0, I = getPidxList().size(); i < I; i++) {
-            long ptr = getPidxList().get(i);
-            if (ptr != INVALID_OFFSET) {
-                index.rowInserted(new RowInsertedEvent(this, null, getRowByOffset(i, ptr)));
-            }
-        }
+        index.populate(this, getRowIterator());
 
         File indexDir = new File(_indexRootDir, index.getName());
         if (!indexDir.exists()) {
@@ -312,6 +392,25 @@ public abstract class BaseDiskTable extends BaseTable {
         rename(oldName, newName, null);
     }
 
+    /**
+     * Sets how rows are read from my data file. {@link #READ_MODE_STREAM}serializes all
+     * readers on a single seekable stream; {@link #READ_MODE_CHANNEL}gives each
+     * concurrent reader its own buffer over positional channel reads;
+     * {@link #READ_MODE_MMAP}maps the data and .pidx files into memory, which suits
+     * read-mostly tables. The mode takes effect for files opened after this call.
+     */
+    public void setReadMode(String mode) throws AxionException {
+        if (READ_MODE_STREAM.equalsIgnoreCase(mode)) {
+            _readMode = READ_MODE_STREAM;
+        } else if (READ_MODE_CHANNEL.equalsIgnoreCase(mode)) {
+            _readMode = READ_MODE_CHANNEL;
+        } else if (READ_MODE_MMAP.equalsIgnoreCase(mode)) {
+            _readMode = READ_MODE_MMAP;
+        } else {
+            throw new AxionException("Unrecognized read mode " + mode);
+        }
+    }
+
     @Override
     public void setSequence(Sequence seq) throws AxionException {
         super.setSequence(seq);
@@ -371,6 +470,17 @@ public abstract class BaseDiskTable extends BaseTable {
     }
 
     protected void closeFiles() {
+        synchronized (this) {
+            if (null != _readerPool) {
+                _readerPool.close();
+                _readerPool = null;
+            }
+            if (null != _mappedDataFile) {
+                _mappedDataFile.close();
+                _mappedDataFile = null;
+            }
+        }
+
         if (null != _readStream) {
             try {
                 _readStream.close();
@@ -436,6 +546,28 @@ public abstract class BaseDiskTable extends BaseTable {
 
     protected abstract File getLobDir();
 
+    /**
+     * Returns the pool of positional readers used when my {@link #getReadMode read mode}is
+     * {@link #READ_MODE_CHANNEL}.
+     */
+    protected synchronized ChannelReaderPool getReaderPool() {
+        if (null == _readerPool) {
+            _readerPool = new ChannelReaderPool(getDataFile());
+        }
+        return _readerPool;
+    }
+
+    /**
+     * Returns my data file mapped into memory, used when my {@link #getReadMode read mode}is
+     * {@link #READ_MODE_MMAP}.
+     */
+    protected synchronized MappedFile getMappedDataFile() {
+        if (null == _mappedDataFile) {
+            _mappedDataFile = new MappedFile(getDataFile());
+        }
+        return _mappedDataFile;
+    }
+
     protected synchronized BufferedDataOutputStream getOutputStream() throws AxionException {
         if (!isReadOnly() && null == _writeStream) {
             _writeStream = FS.openBufferedDOSAppend(getDataFile(), 1024);
@@ -610,6 +742,99 @@ public abstract class BaseDiskTable extends BaseTable {
         };
     }
 
+    /**
+     * Returns an unmodifiable {@link RowIterator} over my rows whose identifiers are at
+     * least <i>fromId </i> and less than <i>toId </i>.
+     */
+    public RowIterator getRowIterator(final int fromId, int toId) throws AxionException {
+        final AxionFileSystem.PidxList pidx = getPidxList();
+        final int limit = Math.max(fromId, Math.min(toId, pidx.size()));
+        final long[] offsets = new long[limit - fromId];
+        pidx.get(fromId, offsets);
+        return new BaseRowIterator() {
+
+            Row _current = null;
+            int _currentIndex = -1;
+            int _nextId = fromId;
+            int _nextIndex = 0;
+
+            public Row current() {
+                if (!hasCurrent()) {
+                    throw new NoSuchElementException("No current row.");
+                }
+                return _current;
+            }
+
+            public int currentIndex() {
+                return _currentIndex;
+            }
+
+            public boolean hasCurrent() {
+                return null != _current;
+            }
+
+            public boolean hasNext() {
+                return findNextId() != -1;
+            }
+
+            public boolean hasPrevious() {
+                return _nextIndex > 0;
+            }
+
+            public Row next() throws AxionException {
+                int id = findNextId();
+                if (id == -1) {
+                    throw new NoSuchElementException("No next row");
+                }
+                _nextId = id + 1;
+                _currentIndex = _nextIndex++;
+                return _current = getRowByOffset(id, offsets[id - fromId]);
+            }
+
+            public int nextIndex() {
+                return _nextIndex;
+            }
+
+            public Row previous() throws AxionException {
+                int id = _nextId - 1;
+                while (id >= fromId && offsets[id - fromId] == INVALID_OFFSET) {
+                    id--;
+                }
+                if (id < fromId) {
+                    throw new NoSuchElementException("No previous row");
+                }
+                _nextId = id;
+                _currentIndex = --_nextIndex;
+                return _current = getRowByOffset(id, offsets[id - fromId]);
+            }
+
+            public int previousIndex() {
+                return _nextIndex - 1;
+            }
+
+            public void reset() {
+                _current = null;
+                _currentIndex = -1;
+                _nextId = fromId;
+                _nextIndex = 0;
+            }
+
+            @Override
+            public String toString() {
+                return "DiskTable(" + getName() + ")[" + fromId + "," + limit + ")";
+            }
+
+            private int findNextId() {
+                for (int id = _nextId; id < limit; id++) {
+                    if (offsets[id - fromId] != INVALID_OFFSET) {
+                        return id;
+                    }
+                }
+                return -1;
+            }
+        };
+    }
+
     protected abstract Row getRowByOffset(int idToAssign, long ptr) throws AxionException;
 
     protected File getTableFile(String extension) {
@@ -620,6 +845,14 @@ public abstract class BaseDiskTable extends BaseTable {
         return _readOnly;
     }
 
+    protected boolean isMappedReadMode() {
+        return READ_MODE_MMAP.equals(_readMode);
+    }
+
+    protected boolean isStreamReadMode() {
+        return READ_MODE_STREAM.equals(_readMode);
+    }
+
     protected void initFiles(File basedir, boolean datafilesonly) throws AxionException {
         if (!datafilesonly) {
             _dir = basedir;
@@ -642,13 +875,27 @@ public abstract class BaseDiskTable extends BaseTable {
     }
 
     protected synchronized AxionFileSystem.PidxList parsePidxFile(File pidxFile) throws AxionException {
-        return FS.parseLongPidxList(pidxFile, _readOnly);
+        return FS.parseLongPidxList(pidxFile, _readOnly, isMappedReadMode());
     }
 
     protected void parseTableProperties(ObjectInputStream in) throws AxionException {
         // Allow sub class to read extra meta info
     }
 
+    /**
+     * Makes my readers drop whatever part of my data file they have buffered or mapped,
+     * after rows already written to it have been overwritten in place or the file has
+     * been cut back.
+     */
+    protected synchronized void invalidateReaders() throws IOException, AxionException {
+        getInputStream().reset();
+        getReaderPool().invalidate();
+        if (null != _mappedDataFile) {
+            _mappedDataFile.close();
+            _mappedDataFile = null;
+        }
+    }
+
     protected abstract void reloadFilesAfterTruncate() throws AxionException;
 
     protected void renameTableFiles(String oldName, String name) {
@@ -734,6 +981,7 @@ public abstract class BaseDiskTable extends BaseTable {
                     if (rowid > getPidxList().size() - 1) {
                         throw new AxionException("Can't delete non-existent row");
                     }
+                    rowImageReleased(getPidxList().get(rowid));
                     getPidxList().set(rowid, INVALID_OFFSET);
                     //_freeIds.add(rowid);
                     _rowCount--;
@@ -753,10 +1001,23 @@ public abstract class BaseDiskTable extends BaseTable {
             BufferedDataOutputStream out = getOutputStream();
             while (rows.hasNext()) {
                 Row row = rows.next();
+                int rowid = row.getIdentifier();
                 _rowCount++;
-                if (!_freeIds.isEmpty() && _freeIdPos > -1) {
-                    getPidxList().set(_freeIds.removeElementAt(0), out.getPos());
-                    _freeIdPos--;
+                int freeIndex = _freeIds.indexOf(rowid);
+                if (freeIndex != -1) {
+                    _freeIds.removeElementAt(freeIndex);
+                    if (freeIndex <= _freeIdPos) {
+                        _freeIdPos--;
+                    }
+                }
+
+                // ids skipped over belong to rows another transaction has yet to apply,
+                // or to rows that were taken back out before they were applied
+                while (getPidxList().size() < rowid) {
+                    getPidxList().add(INVALID_OFFSET);
+                }
+                if (rowid < getPidxList().size()) {
+                    getPidxList().set(rowid, out.getPos());
                 } else {
                     getPidxList().add(out.getPos());
                 }
@@ -769,6 +1030,49 @@ public abstract class BaseDiskTable extends BaseTable {
             _writeStream.flush();
             _pidx.flush();
             writeFridFile();
+            if (_nextFreeId < getPidxList().size()) {
+                _nextFreeId = -1;
+            }
+        } catch (IOException e) {
+            throw new AxionException("Error writing data.", e);
+        }
+    }
+
+    private boolean isLiveRow(int rowid) {
+        return rowid < getPidxList().size() && getPidxList().get(rowid) != INVALID_OFFSET;
+    }
+
+    private void redoInsertsToRows(RowIterator rows) throws AxionException {
+        try {
+            BufferedDataOutputStream out = getOutputStream();
+            while (rows.hasNext()) {
+                Row row = rows.next();
+                int rowid = row.getIdentifier();
+                int freeIndex = _freeIds.indexOf(rowid);
+                if (freeIndex != -1) {
+                    _freeIds.removeElementAt(freeIndex);
+                }
+
+                // ids skipped over by the original inserts were handed out to rows
+                // that were later rolled back, so they are free
+                while (getPidxList().size() < rowid) {
+                    _freeIds.add(getPidxList().size());
+                    getPidxList().add(INVALID_OFFSET);
+                }
+
+                if (rowid < getPidxList().size()) {
+                    getPidxList().set(rowid, out.getPos());
+                } else {
+                    getPidxList().add(out.getPos());
+                }
+                writeRow(out, row);
+                _rowCount++;
+            }
+
+            _writeStream.flush();
+            _pidx.flush();
+            writeFridFile();
+            _freeIdPos = -1;
             _nextFreeId = -1;
         } catch (IOException e) {
             throw new AxionException("Error writing data.", e);
@@ -784,6 +1088,7 @@ public abstract class BaseDiskTable extends BaseTable {
                     throw new AxionException("Can't update non-existent row");
                 }
                 // update the slot in the pidx file to point to the new data
+                rowImageReleased(getPidxList().get(row.getIdentifier()));
                 getPidxList().set(row.getIdentifier(), out.getPos());
                 writeRow(out, row);
 
@@ -794,6 +1099,7 @@ public abstract class BaseDiskTable extends BaseTable {
             _writeStream.flush();
             _pidx.flush();
             getInputStream().reset();
+            getReaderPool().invalidate();
         } catch (IOException e) {
             throw new AxionException("Error writing data.", e);
         }
@@ -875,6 +1181,11 @@ public abstract class BaseDiskTable extends BaseTable {
                 in = FS.openDataInputSteam(seqFile);
                 Sequence seq = new Sequence();
                 seq.read(in);
+                try {
+                    seq.setCacheSize(in.readInt());
+                } catch (EOFException e) {
+                    // written by an older version without the cache size
+                }
                 super.setSequence(seq);
             } catch (Exception e) {
                 throw new AxionException("Unable to read sequence file", e);
@@ -914,6 +1225,13 @@ public abstract class BaseDiskTable extends BaseTable {
         }
     }
 
+    /**
+     * Called while a row's image at <code>ptr</code> in my data file is being replaced
+     * by a newer one or deleted, so that its space is no longer in use.
+     */
+    protected void rowImageReleased(long ptr) {
+    }
+
     protected void resetLobColumns() throws AxionException {
         for (int i = 0, I = getColumnCount(); i < I; i++) {
             Column col = getColumn(i);
@@ -952,7 +1270,14 @@ public abstract class BaseDiskTable extends BaseTable {
     protected static final String META_FILE_EXT = ".META";
     protected static final String PIDX_FILE_EXT = ".PIDX";
     protected static final String SEQ_FILE_EXT = ".SEQ";
+    private static final String TMP_FILE_EXT = ".TMP";
     protected static final String TYPE_FILE_EXT = ".TYPE";
+    /** Read rows through one shared, synchronized stream. */
+    public static final String READ_MODE_STREAM = "stream";
+    /** Read rows through per-reader buffers over positional channel reads. */
+    public static final String READ_MODE_CHANNEL = "channel";
+    /** Read rows and row offsets from memory-mapped data and .pidx files. */
+    public static final String READ_MODE_MMAP = "mmap";
     /** The name of my ".data" file. */
     protected File _dataFile = null;
     protected File _dbdir = null;
@@ -963,6 +1288,9 @@ public abstract class BaseDiskTable extends BaseTable {
     /** List of offsets into the .data file, by row id. */
     private AxionFileSystem.PidxList _pidx = null;
     protected boolean _readOnly = false;
+    private String _readMode = READ_MODE_CHANNEL;
+    private ChannelReaderPool _readerPool = null;
+    private MappedFile _mappedDataFile = null;
     protected int _rowCount = 0;
     /** The directory in which my data are stored. */
     private File _dir = null;
@@ -40,29 +40,39 @@
 
 package org.axiondb.engine.tables;
 
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.NoSuchElementException;
 import java.util.Properties;
 import java.util.Set;
 
 import org.apache.commons.collections.primitives.ArrayIntList;
+import org.apache.commons.collections.primitives.IntCollection;
 import org.axiondb.AxionException;
 import org.axiondb.Column;
 import org.axiondb.DataType;
 import org.axiondb.Database;
 import org.axiondb.ExternalTable;
 import org.axiondb.Row;
+import org.axiondb.RowCollection;
+import org.axiondb.RowIterator;
 import org.axiondb.TableFactory;
 import org.axiondb.TableOrganizationContext;
+import org.axiondb.engine.rowiterators.BaseRowIterator;
 import org.axiondb.io.BufferedDataInputStream;
 import org.axiondb.io.BufferedDataOutputStream;
 import org.axiondb.io.FileUtil;
+import org.axiondb.io.AxionFileSystem.PidxList;
 import org.axiondb.types.CharacterType;
 import org.axiondb.types.LOBType;
 import org.axiondb.types.ObjectType;
 import org.axiondb.types.StringType;
+import org.axiondb.util.ExceptionConverter;
 
 /**
  * Base Flatfile Table<br>
@@ -85,6 +95,10 @@ public abstract class BaseFlatfileTable extends BaseDiskTable implements Externa
     protected static final String PROP_ROWSTOSKIP = "ROWSTOSKIP";
     protected static final String PROP_MAXFAULTS = "MAXFAULTS";
     protected static final String PROP_TRIMWHITESPACE = "TRIMWHITESPACE";
+    protected static final String PROP_LAZYLOAD = "LAZYLOAD";
+
+    /** Number of records located beyond the one asked for, when loading lazily. */
+    private static final int LOCATE_BATCH_SIZE = 1024;
 
     private static final Set PROPERTY_KEYS = new HashSet(4);
 
@@ -96,6 +110,7 @@ public abstract class BaseFlatfileTable extends BaseDiskTable implements Externa
         PROPERTY_KEYS.add(PROP_ROWSTOSKIP);
         PROPERTY_KEYS.add(PROP_MAXFAULTS);
         PROPERTY_KEYS.add(PROP_TRIMWHITESPACE);
+        PROPERTY_KEYS.add(PROP_LAZYLOAD);
         PROPERTY_KEYS.add(ExternalTable.PROP_LOADTYPE);
     }
 
@@ -114,6 +129,91 @@ public abstract class BaseFlatfileTable extends BaseDiskTable implements Externa
         super.addColumn(col, metaUpdateNeeded);
     }
 
+    public void applyInserts(RowCollection rows) throws AxionException {
+        locateAllRecords();
+        super.applyInserts(rows);
+    }
+
+    public void applyUpdates(RowCollection rows) throws AxionException {
+        locateAllRecords();
+        super.applyUpdates(rows);
+    }
+
+    public void redo(IntCollection deletedRowIds, RowCollection updatedRows, RowCollection insertedRows) throws AxionException {
+        locateAllRecords();
+        super.redo(deletedRowIds, updatedRows, insertedRows);
+    }
+
+    public void checkpoint() throws AxionException {
+        super.checkpoint();
+        synchronized (this) {
+            if (_lazyLoadStateChanged) {
+                try {
+                    getPidxList().flush();
+                } catch (IOException e) {
+                    throw new AxionException("Error writing data.", e);
+                }
+                writeFridFile();
+                writeMetaFile();
+                _lazyLoadStateChanged = false;
+            }
+        }
+    }
+
+    public int getNextRowId() {
+        try {
+            locateAllRecords();
+        } catch (AxionException e) {
+            throw ExceptionConverter.convertToRuntimeException(e);
+        }
+        return super.getNextRowId();
+    }
+
+    public Row getRow(int id) throws AxionException {
+        if (id >= getPidxList().size()) {
+            locateRecords(id);
+        }
+        return super.getRow(id);
+    }
+
+    public int getRowCount() {
+        try {
+            locateAllRecords();
+        } catch (AxionException e) {
+            throw ExceptionConverter.convertToRuntimeException(e);
+        }
+        return super.getRowCount();
+    }
+
+    /**
+     * Returns my row count without locating every record of a lazily loaded file: the
+     * records not yet located are counted as their share of the file, at the average
+     * length of those that have been. At most a batch of records is located, when none
+     * has been yet.
+     */
+    public int getRowCountEstimate() {
+        try {
+            synchronized (this) {
+                if (!_lazyLoad || EOF == _unlocatedOffset) {
+                    return super.getRowCount();
+                }
+                if (getPidxList().size() == 0) {
+                    locateRecords(0);
+                    if (EOF == _unlocatedOffset) {
+                        return super.getRowCount();
+                    }
+                }
+                // the skipped rows count towards the average, which only overestimates it
+                long located = getPidxList().size();
+                long remaining = FileUtil.getLength(getDataFile()) - _unlocatedOffset;
+                long estimate = super.getRowCount() + remaining * located / Math.max(1, _unlocatedOffset);
+                return (int) Math.min(Integer.MAX_VALUE, estimate);
+            }
+        } catch (Exception e) {
+            throw ExceptionConverter.convertToRuntimeException(e);
+        }
+    }
+
     /**
      * Loads external data using the given properties table - should be called only once
      * by the table factory.
@@ -319,6 +419,11 @@ public abstract class BaseFlatfileTable extends BaseDiskTable implements Externa
     }
 
     protected void initializeTable() throws AxionException {
+        if (_lazyLoad) {
+            initializeLazyLoad();
+            return;
+        }
+
         try {
             int faultCount = 0;
             _rowCount = 0;
@@ -363,6 +468,274 @@ public abstract class BaseFlatfileTable extends BaseDiskTable implements Externa
         }
     }
 
+    /**
+     * Prepares to locate my records as they are first needed rather than walking the
+     * whole data file now. Records are then parsed only when read, so a malformed
+     * record is not counted as a fault until a scan reaches it.
+     */
+    protected void initializeLazyLoad() throws AxionException {
+        try {
+            _rowCount = 0;
+            _faultCount = 0;
+            long fileOffset = ignoreRowsToSkip();
+            _unlocatedOffset = isPastLastRecord(fileOffset, FileUtil.getLength(getDataFile())) ? EOF : fileOffset;
+            _locatedCount = getPidxList().size();
+            _lazyLoadStateChanged = true;
+        } catch (IOException e) {
+            throw new AxionException(e);
+        }
+    }
+
+    /**
+     * Returns <code>true</code> if my subclass persists the state needed to resume
+     * locating records lazily after the table is reopened.
+     */
+    protected boolean isLazyLoadSupported() {
+        return false;
+    }
+
+    /**
+     * Adds the offsets of my unlocated records to the pidx list until it holds the
+     * record with the given identifier plus a batch beyond it, or until every record
+     * has been located when <i>rowId </i> is negative.
+     */
+    protected synchronized void locateRecords(int rowId) throws AxionException {
+        if (!_lazyLoad || EOF == _unlocatedOffset) {
+            return;
+        }
+
+        try {
+            PidxList pidx = getPidxList();
+            if (pidx.size() != _locatedCount) {
+                // offsets were flushed after the meta file was last written
+                _unlocatedOffset = skipRecords(pidx.size());
+            }
+
+            final long fileLength = FileUtil.getLength(getDataFile());
+            final long limit = (rowId < 0) ? Long.MAX_VALUE : (long) rowId + LOCATE_BATCH_SIZE;
+            long fileOffset = _unlocatedOffset;
+            BufferedDataInputStream data = getInputStream();
+            synchronized (data) {
+                while (pidx.size() <= limit && !isPastLastRecord(fileOffset, fileLength)) {
+                    pidx.add(fileOffset);
+                    _rowCount++;
+                    fileOffset = skipRecord(data, fileOffset);
+                }
+            }
+
+            _unlocatedOffset = isPastLastRecord(fileOffset, fileLength) ? EOF : fileOffset;
+            _locatedCount = pidx.size();
+            _lazyLoadStateChanged = true;
+        } catch (AxionException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new AxionException(e);
+        }
+    }
+
+    protected void locateAllRecords() throws AxionException {
+        if (_lazyLoad && EOF != _unlocatedOffset) {
+            locateRecords(-1);
+        }
+    }
+
+    /**
+     * Positions past the record starting at the given offset without parsing it, and
+     * returns the offset of the next record or {@link #EOF}.
+     */
+    protected long skipRecord(BufferedDataInputStream data, long fileOffset) throws AxionException {
+        int recLength = nextLineLength(fileOffset);
+        return (EOF == recLength) ? EOF : fileOffset + recLength;
+    }
+
+    protected void readLazyLoadState(ObjectInputStream in) throws IOException {
+        try {
+            _lazyLoad = in.readBoolean();
+            _unlocatedOffset = in.readLong();
+            _locatedCount = in.readInt();
+            _faultCount = in.readLong();
+        } catch (EOFException ex) {
+            // Goes here if metadata from an older version is parsed - ignore.
+        }
+    }
+
+    protected void writeLazyLoadState(ObjectOutputStream out) throws IOException {
+        out.writeBoolean(_lazyLoad);
+        out.writeLong(_unlocatedOffset);
+        out.writeInt(_lazyLoad ? getPidxList().size() : 0);
+        out.writeLong(_faultCount);
+    }
+
+    protected RowIterator getRowIterator() throws AxionException {
+        if (!_lazyLoad) {
+            return super.getRowIterator();
+        }
+
+        return new BaseRowIterator() {
+            private Row _current = null;
+            private int _currentIndex = -1;
+            private int _nextIndex = 0;
+            private int _nextId = 0;
+            private Row _nextRow = null;
+
+            public Row current() {
+                if (!hasCurrent()) {
+                    throw new NoSuchElementException("No current row.");
+                }
+                return _current;
+            }
+
+            public int currentIndex() {
+                return _currentIndex;
+            }
+
+            public boolean hasCurrent() {
+                return null != _current;
+            }
+
+            public boolean hasNext() {
+                if (null == _nextRow) {
+                    try {
+                        _nextRow = findNextRow();
+                    } catch (AxionException e) {
+                        throw ExceptionConverter.convertToRuntimeException(e);
+                    }
+                }
+                return null != _nextRow;
+            }
+
+            public boolean hasPrevious() {
+                return _nextIndex > 0;
+            }
+
+            public Row next() throws AxionException {
+                if (!hasNext()) {
+                    throw new NoSuchElementException("No next row");
+                }
+                _current = _nextRow;
+                _nextRow = null;
+                _nextId = _current.getIdentifier() + 1;
+                _currentIndex = _nextIndex++;
+                return _current;
+            }
+
+            public int nextIndex() {
+                return _nextIndex;
+            }
+
+            public Row previous() throws AxionException {
+                if (!hasPrevious()) {
+                    throw new NoSuchElementException("No previous row");
+                }
+                for (int id = _nextId - 1; id >= 0; id--) {
+                    Row row = readRecord(id);
+                    if (null != row) {
+                        _nextRow = _current = row;
+                        _nextId = id;
+                        _currentIndex = --_nextIndex;
+                        return _current;
+                    }
+                }
+                throw new NoSuchElementException("No previous row");
+            }
+
+            public int previousIndex() {
+                return _nextIndex - 1;
+            }
+
+            public void remove() throws AxionException {
+                if (-1 == _currentIndex) {
+                    throw new IllegalStateException("No current row.");
+                }
+                deleteRow(_current);
+                _nextIndex--;
+                _currentIndex = -1;
+            }
+
+            public void reset() {
+                _current = null;
+                _currentIndex = -1;
+                _nextIndex = 0;
+                _nextId = 0;
+                _nextRow = null;
+            }
+
+            public void set(Row row) throws AxionException {
+                if (-1 == _currentIndex) {
+                    throw new IllegalStateException("No current row.");
+                }
+                updateRow(_current, row);
+            }
+
+            public String toString() {
+                return "FlatfileTable(" + getName() + ")";
+            }
+
+            private Row findNextRow() throws AxionException {
+                for (int id = _nextId;; id++) {
+                    if (id >= getPidxList().size()) {
+                        locateRecords(id);
+                        if (id >= getPidxList().size()) {
+                            return null;
+                        }
+                    }
+                    Row row = readRecord(id);
+                    if (null != row) {
+                        return row;
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Reads the record with the given identifier, returning <code>null</code> if it has
+     * been deleted or cannot be parsed. A record that cannot be parsed is marked invalid
+     * and counted against my fault tolerance threshold.
+     */
+    private Row readRecord(int id) throws AxionException {
+        long ptr = getPidxList().get(id);
+        if (INVALID_OFFSET == ptr) {
+            return null;
+        }
+
+        try {
+            return getRowByOffset(id, ptr);
+        } catch (AxionException e) {
+            synchronized (this) {
+                if (INVALID_OFFSET != getPidxList().get(id)) {
+                    getPidxList().set(id, INVALID_OFFSET);
+                    _freeIds.add(id);
+                    _rowCount--;
+                    _lazyLoadStateChanged = true;
+
+                    if (++_faultCount > _maxFaults) {
+                        String msg = "Fault tolerance threshold (" + _maxFaults + ") exceeded for table " + getName() + ". ";
+                        throw new AxionException(msg + e.getMessage(), e);
+                    }
+                }
+            }
+            return null;
+        }
+    }
+
+    private boolean isPastLastRecord(long fileOffset, long fileLength) {
+        // XXX: In case _lineSep holds multiple record delimiter we may have issue here ?
+        return EOF == fileOffset || (fileOffset + _lineSep.length() >= fileLength - 1);
+    }
+
+    private long skipRecords(int count) throws AxionException, IOException {
+        final long fileLength = FileUtil.getLength(getDataFile());
+        long fileOffset = ignoreRowsToSkip();
+        BufferedDataInputStream data = getInputStream();
+        synchronized (data) {
+            for (int i = 0; i < count && !isPastLastRecord(fileOffset, fileLength); i++) {
+                fileOffset = skipRecord(data, fileOffset);
+            }
+        }
+        return fileOffset;
+    }
+
     abstract protected boolean isEndOfRecord(int recLength, int nextChar, BufferedDataInputStream data) throws IOException;
 
     protected boolean isEOF(int nextChar) {
@@ -508,6 +881,9 @@ public abstract class BaseFlatfileTable extends BaseDiskTable implements Externa
 
             String trimWhiteSpaceStr = props.getProperty(PROP_TRIMWHITESPACE,"false");
             _trimWhiteSpace = Boolean.valueOf(trimWhiteSpaceStr).booleanValue();
+
+            String lazyLoadStr = props.getProperty(PROP_LAZYLOAD, "false");
+            _lazyLoad = isLazyLoadSupported() && Boolean.valueOf(lazyLoadStr).booleanValue();
         }
 
         public void updateProperties() {
@@ -520,6 +896,7 @@ public abstract class BaseFlatfileTable extends BaseDiskTable implements Externa
             setProperty(PROP_MAXFAULTS, Long.toString(_maxFaults));
             setProperty(PROP_CREATE_IF_NOT_EXIST, Boolean.toString(_isCreateDataFileIfNotExist));
 	    setProperty(PROP_TRIMWHITESPACE,Boolean.toString(_trimWhiteSpace));
+            setProperty(PROP_LAZYLOAD, Boolean.toString(_lazyLoad));
         }
 
         public Set getRequiredPropertyKeys() {
@@ -534,6 +911,14 @@ public abstract class BaseFlatfileTable extends BaseDiskTable implements Externa
     protected long _maxFaults = Long.MAX_VALUE;
     protected boolean _isCreateDataFileIfNotExist = true;
     protected boolean _trimWhiteSpace = false;
-
     protected String _lineSep;
+
+    // The lazy load state may be read from the meta file while my superclass is being
+    // constructed, so these fields must not have initializers.
+    protected boolean _lazyLoad;
+    /** Offset of the first record not yet in the pidx list, or {@link #EOF}. */
+    private long _unlocatedOffset;
+    private int _locatedCount;
+    private long _faultCount;
+    private boolean _lazyLoadStateChanged;
 }
@@ -82,6 +82,8 @@ import org.axiondb.constraints.PrimaryKeyConstraint;
 import org.axiondb.constraints.UniqueConstraint;
 import org.axiondb.engine.TransactableTableImpl;
 import org.axiondb.engine.rowcollection.RowCollections;
+import org.axiondb.engine.indexes.CompositeBTreeIndex;
+import org.axiondb.engine.rowiterators.RebindableCompositeIndexedRowIterator;
 import org.axiondb.engine.rowiterators.RebindableIndexedRowIterator;
 import org.axiondb.engine.rowiterators.UnmodifiableRowIterator;
 import org.axiondb.event.ColumnEvent;
@@ -91,7 +93,9 @@ import org.axiondb.event.RowEvent;
 import org.axiondb.event.RowInsertedEvent;
 import org.axiondb.event.RowUpdatedEvent;
 import org.axiondb.event.TableModificationListener;
+import org.axiondb.functions.AndFunction;
 import org.axiondb.functions.ComparisonFunction;
+import org.axiondb.functions.EqualFunction;
 import org.axiondb.types.LOBType;
 import org.axiondb.util.ValuePool;
 
@@ -337,10 +341,15 @@ public abstract class BaseTable extends AbstractBaseTable {
         this.removeTableModificationListener(index);
     }
 
+    /**
+     * Returns the single-column index on <i>column</i>, if any. Multi-column indices
+     * are only used for lookups on their leading columns, see
+     * {@link #getIndexedRows(Selectable,boolean)}.
+     */
     public Index getIndexForColumn(Column column) {
         for (int i = 0, I = _indices.size(); i < I; i ++) {
             Index index = (Index) _indices.get(i);
-            if (column.equals(index.getIndexedColumn())) {
+            if (column.equals(index.getIndexedColumn()) && !(index instanceof CompositeBTreeIndex)) {
                 return index;
             }
         }
@@ -348,13 +357,7 @@ public abstract class BaseTable extends AbstractBaseTable {
     }
 
     public boolean isColumnIndexed(Column column) {
-        for (int i = 0, I = _indices.size(); i < I; i ++) {
-            Index index = (Index) _indices.get(i);
-            if (column.equals(index.getIndexedColumn())) {
-                return true;
-            }
-        }
-        return false;
+        return null != getIndexForColumn(column);
     }
 
     public RowIterator getIndexedRows(Selectable node, boolean readOnly) throws AxionException {
@@ -569,6 +572,20 @@ public abstract class BaseTable extends AbstractBaseTable {
         }
     }
 
+    /**
+     * Returns true if <i>rows</i> should be bulk loaded: written first, with my indices
+     * then rebuilt from the whole table instead of taking the new keys one at a time.
+     * That is the cheaper way once the new rows outnumber the ones I already have.
+     */
+    protected boolean isBulkInsert(RowCollection rows) {
+        return !_indices.isEmpty() && rows.size() >= BULK_INSERT_MIN_ROWS && rows.size() > getRowCount();
+    }
+
+    protected void rebuildIndices() throws AxionException {
+        truncateIndices();
+        recreateIndices();
+    }
+
     private RowIterator getIndexedRows(RowSource source, Selectable node) throws AxionException {
         if (node instanceof ComparisonFunction) {
             // attempting to map comparison function to existing index
@@ -611,6 +628,8 @@ public abstract class BaseTable extends AbstractBaseTable {
             if (index != null) {
                 return index.getInorderRowIterator(source);
             }
+        } else if (node instanceof AndFunction) { // leading columns of a composite index
+            return getCompositeIndexedRows(source, (AndFunction) node);
         } else if (node instanceof Function) { // IS NULL and IS NOT NULL
             Function function = (Function) node;
             if (function.getArgumentCount() != 1) {
@@ -639,6 +658,58 @@ public abstract class BaseTable extends AbstractBaseTable {
         return null; // No matching index found
     }
 
+    /**
+     * Maps an AND of column = literal comparisons onto a {@link CompositeBTreeIndex}
+     * whose leading columns are exactly the compared columns.
+     */
+    @SuppressWarnings("unchecked")
+    private RowIterator getCompositeIndexedRows(RowSource source, Function node) throws AxionException {
+        int count = node.getArgumentCount();
+        Map literals = new HashMap(count);
+        boolean hasBindVariable = false;
+        for (int i = 0; i < count; i++) {
+            Selectable arg = node.getArgument(i);
+            if (!(arg instanceof EqualFunction) || !((ComparisonFunction) arg).isColumnLiteral()) {
+                return null;
+            }
+            Function function = (Function) arg;
+            int colPos = (function.getArgument(0) instanceof ColumnIdentifier) ? 0 : 1;
+            Column column = getColumn(function.getArgument(colPos).getName());
+            if (null == column) {
+                return null;
+            }
+            Literal literal = (Literal) function.getArgument(1 - colPos);
+            hasBindVariable |= (literal instanceof BindVariable);
+            literals.put(column.getName(), literal);
+        }
+        if (literals.size() != count) {
+            return null;
+        }
+
+        for (int i = 0, I = _indices.size(); i < I; i++) {
+            Index index = (Index) _indices.get(i);
+            List columns = index.getIndexedColumns();
+            if (index instanceof CompositeBTreeIndex && columns.size() >= count) {
+                List prefix = new ArrayList(count);
+                for (int j = 0; j < count && literals.containsKey(((Column) columns.get(j)).getName()); j++) {
+                    prefix.add(literals.get(((Column) columns.get(j)).getName()));
+                }
+                if (prefix.size() == count) {
+                    CompositeBTreeIndex composite = (CompositeBTreeIndex) index;
+                    if (hasBindVariable) {
+                        return new RebindableCompositeIndexedRowIterator(composite, source, prefix);
+                    }
+                    List values = new ArrayList(count);
+                    for (int j = 0; j < count; j++) {
+                        values.add(((Literal) prefix.get(j)).evaluate());
+                    }
+                    return composite.getRowIterator(source, values);
+                }
+            }
+        }
+        return null;
+    }
+
     private String _name;
     private String _type;
     private List _cols = new ArrayList();
@@ -651,4 +722,5 @@ public abstract class BaseTable extends AbstractBaseTable {
     private Sequence _sequence;
 
     private static Logger _log = Logger.getLogger(BaseTable.class.getName());
+    private static final int BULK_INSERT_MIN_ROWS = 1000;
 }
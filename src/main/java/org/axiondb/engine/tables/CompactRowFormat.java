@@ -0,0 +1,352 @@
+/*
+ * 
+ * =======================================================================
+ * Copyright (c) 2002-2005 Axion Development Team.  All rights reserved.
+ *  
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions 
+ * are met:
+ * 
+ * 1. Redistributions of source code must retain the above 
+ *    copyright notice, this list of conditions and the following 
+ *    disclaimer. 
+ *   
+ * 2. Redistributions in binary form must reproduce the above copyright 
+ *    notice, this list of conditions and the following disclaimer in 
+ *    the documentation and/or other materials provided with the 
+ *    distribution. 
+ *   
+ * 3. The names "Tigris", "Axion", nor the names of its contributors may 
+ *    not be used to endorse or promote products derived from this 
+ *    software without specific prior written permission. 
+ *  
+ * 4. Products derived from this software may not be called "Axion", nor 
+ *    may "Tigris" or "Axion" appear in their names without specific prior
+ *    written permission.
+ *   
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT 
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, 
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT 
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * =======================================================================
+ */
+
+package org.axiondb.engine.tables;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import org.axiondb.AxionException;
+import org.axiondb.DataType;
+import org.axiondb.Row;
+import org.axiondb.engine.rows.BaseRow;
+import org.axiondb.types.BigIntType;
+import org.axiondb.types.ByteType;
+import org.axiondb.types.CharacterType;
+import org.axiondb.types.CharacterVaryingType;
+import org.axiondb.types.IntegerType;
+import org.axiondb.types.ShortType;
+import org.axiondb.types.StringType;
+import org.axiondb.types.UnsignedByteType;
+import org.axiondb.types.UnsignedIntegerType;
+import org.axiondb.types.UnsignedShortType;
+import org.axiondb.util.ExceptionConverter;
+
+/**
+ * Reads and writes rows in the compact on-disk format of a {@link DiskTable}. Each row
+ * is written as:
+ * <ul>
+ * <li>the varint length of the rest of the row</li>
+ * <li>the varint number of columns written</li>
+ * <li>one byte holding the width (1, 2 or 4 bytes) of the column offsets</li>
+ * <li>a bitmap with a bit set for each null column</li>
+ * <li>for each column, the offset just past its value</li>
+ * <li>the values of the non-null columns</li>
+ * </ul>
+ * Integer columns are written as zig-zag varints, character columns as UTF-8 without a
+ * length limit, and all other columns as their {@link DataType} writes them. Rows are
+ * read into a buffer and each column is only decoded when it is first asked for.
+ * 
+ * @version  
+ */
+public final class CompactRowFormat {
+
+    public CompactRowFormat(DataType[] types) {
+        _types = types;
+        _codecs = new int[types.length];
+        for (int i = 0; i < types.length; i++) {
+            _codecs[i] = getCodec(types[i]);
+        }
+    }
+
+    public int getColumnCount() {
+        return _types.length;
+    }
+
+    /** Reads the row <code>in</code> is positioned at. */
+    public Row read(int id, DataInput in) throws IOException {
+        byte[] data = new byte[(int) readVarLong(in)];
+        in.readFully(data);
+        return new EncodedRow(id, data);
+    }
+
+    /**
+     * Reads the length header of the row <code>in</code> is positioned at, and returns
+     * the number of bytes the whole row takes up.
+     */
+    static int readLength(DataInput in) throws IOException {
+        long length = readVarLong(in);
+        return (int) (sizeOfVarLong(length) + length);
+    }
+
+    /** Writes <code>row</code>. */
+    public synchronized void write(Row row, DataOutput out) throws IOException {
+        int count = _types.length;
+        int[] ends = new int[count];
+        byte[] nulls = new byte[(count + 7) / 8];
+
+        _values.reset();
+        for (int i = 0; i < count; i++) {
+            Object value = row.get(i);
+            if (null == value) {
+                nulls[i >> 3] |= (1 << (i & 7));
+            } else {
+                writeValue(i, value);
+            }
+            ends[i] = _values.size();
+        }
+
+        int size = _values.size();
+        int width = (size <= 0xFF) ? 1 : ((size <= 0xFFFF) ? 2 : 4);
+        long length = sizeOfVarLong(count) + 1 + nulls.length + (long) width * count + size;
+
+        writeVarLong(out, length);
+        writeVarLong(out, count);
+        out.writeByte(width);
+        out.write(nulls);
+        for (int i = 0; i < count; i++) {
+            switch (width) {
+                case 1:
+                    out.writeByte(ends[i]);
+                    break;
+                case 2:
+                    out.writeShort(ends[i]);
+                    break;
+                default:
+                    out.writeInt(ends[i]);
+            }
+        }
+        out.write(_values.getBuffer(), 0, size);
+    }
+
+    private void writeValue(int column, Object value) throws IOException {
+        try {
+            switch (_codecs[column]) {
+                case CODEC_INTEGER:
+                    writeVarLong(_valuesOut, zigzag(((Number) _types[column].convert(value)).longValue()));
+                    break;
+                case CODEC_STRING:
+                    _valuesOut.write(value.toString().getBytes(UTF8));
+                    break;
+                default:
+                    _types[column].write(value, _valuesOut);
+            }
+        } catch (AxionException e) {
+            throw new IOException(e.getMessage());
+        }
+    }
+
+    private Object readValue(int column, byte[] data, int start, int end) throws IOException {
+        switch (_codecs[column]) {
+            case CODEC_INTEGER:
+                return toInteger(_types[column], unzigzag(readVarLong(data, start)));
+            case CODEC_STRING:
+                return new String(data, start, end - start, UTF8);
+            default:
+                return _types[column].read(new DataInputStream(new ByteArrayInputStream(data, start, end - start)));
+        }
+    }
+
+    private static int getCodec(DataType type) {
+        Class clazz = type.getClass();
+        if (clazz == IntegerType.class || clazz == BigIntType.class || clazz == ShortType.class || clazz == ByteType.class
+            || clazz == UnsignedIntegerType.class || clazz == UnsignedShortType.class || clazz == UnsignedByteType.class) {
+            return CODEC_INTEGER;
+        } else if (clazz == StringType.class || clazz == CharacterType.class || clazz == CharacterVaryingType.class) {
+            return CODEC_STRING;
+        }
+        return CODEC_DATATYPE;
+    }
+
+    // Boxes a value the way the given type's read method would
+    private static Object toInteger(DataType type, long value) {
+        Class clazz = type.getClass();
+        if (clazz == IntegerType.class || clazz == UnsignedShortType.class) {
+            return Integer.valueOf((int) value);
+        } else if (clazz == ShortType.class || clazz == UnsignedByteType.class) {
+            return Short.valueOf((short) value);
+        } else if (clazz == ByteType.class) {
+            return Byte.valueOf((byte) value);
+        }
+        return Long.valueOf(value);
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static int sizeOfVarLong(long value) {
+        int size = 1;
+        while ((value & ~0x7FL) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    private static void writeVarLong(DataOutput out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long readVarLong(DataInput in) throws IOException {
+        long value = 0;
+        for (int shift = 0;; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+    }
+
+    private static long readVarLong(byte[] data, int pos) {
+        long value = 0;
+        for (int shift = 0;; shift += 7) {
+            int b = data[pos++];
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+    }
+
+    /**
+     * A row that decodes its columns from the encoded row as they are asked for. Rows are
+     * shared through the row cache and parallel scans, so decoding a column, and
+     * dropping the encoded row once all are decoded, is done under the row's lock.
+     */
+    private class EncodedRow extends BaseRow {
+        public EncodedRow(int id, byte[] data) {
+            setIdentifier(id);
+            _data = data;
+            _fields = new Object[_types.length];
+            _decoded = new boolean[_types.length];
+
+            int pos = 0;
+            long count = 0;
+            for (int shift = 0;; shift += 7) {
+                int b = data[pos++];
+                count |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    break;
+                }
+            }
+            _count = (int) count;
+            _width = data[pos++];
+            _nullsStart = pos;
+            _endsStart = _nullsStart + (_count + 7) / 8;
+            _valuesStart = _endsStart + _width * _count;
+        }
+
+        public synchronized Object get(int i) {
+            if (!_decoded[i]) {
+                Object value = null;
+                // columns added after the row was written are null
+                if (i < _count && (_data[_nullsStart + (i >> 3)] & (1 << (i & 7))) == 0) {
+                    try {
+                        value = readValue(i, _data, _valuesStart + ((i == 0) ? 0 : getEnd(i - 1)), _valuesStart + getEnd(i));
+                    } catch (IOException e) {
+                        throw ExceptionConverter.convertToRuntimeException(e);
+                    }
+                }
+                set(i, value);
+            }
+            return _fields[i];
+        }
+
+        public synchronized void set(int i, Object val) {
+            _fields[i] = val;
+            _hash = 0;
+            if (!_decoded[i]) {
+                _decoded[i] = true;
+                if (++_decodedCount == _fields.length) {
+                    _data = null; // every column has its value, the encoded row isn't needed
+                }
+            }
+        }
+
+        public int size() {
+            return _fields.length;
+        }
+
+        private int getEnd(int i) {
+            int pos = _endsStart + i * _width;
+            switch (_width) {
+                case 1:
+                    return _data[pos] & 0xFF;
+                case 2:
+                    return ((_data[pos] & 0xFF) << 8) | (_data[pos + 1] & 0xFF);
+                default:
+                    return ((_data[pos] & 0xFF) << 24) | ((_data[pos + 1] & 0xFF) << 16) | ((_data[pos + 2] & 0xFF) << 8)
+                        | (_data[pos + 3] & 0xFF);
+            }
+        }
+
+        private byte[] _data;
+        private Object[] _fields;
+        private boolean[] _decoded;
+        private int _decodedCount;
+        private int _count;
+        private int _width;
+        private int _nullsStart;
+        private int _endsStart;
+        private int _valuesStart;
+    }
+
+    /** Lets the encoded values be written without copying them. */
+    private static class ValueBuffer extends ByteArrayOutputStream {
+        public byte[] getBuffer() {
+            return buf;
+        }
+    }
+
+    private static final int CODEC_DATATYPE = 0;
+    private static final int CODEC_INTEGER = 1;
+    private static final int CODEC_STRING = 2;
+    private static final String UTF8 = "UTF-8";
+
+    private DataType[] _types;
+    private int[] _codecs;
+    private ValueBuffer _values = new ValueBuffer();
+    private DataOutputStream _valuesOut = new DataOutputStream(_values);
+}
@@ -0,0 +1,146 @@
+/*
+ * 
+ * =======================================================================
+ * Copyright (c) 2002-2005 Axion Development Team.  All rights reserved.
+ *  
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions 
+ * are met:
+ * 
+ * 1. Redistributions of source code must retain the above 
+ *    copyright notice, this list of conditions and the following 
+ *    disclaimer. 
+ *   
+ * 2. Redistributions in binary form must reproduce the above copyright 
+ *    notice, this list of conditions and the following disclaimer in 
+ *    the documentation and/or other materials provided with the 
+ *    distribution. 
+ *   
+ * 3. The names "Tigris", "Axion", nor the names of its contributors may 
+ *    not be used to endorse or promote products derived from this 
+ *    software without specific prior written permission. 
+ *  
+ * 4. Products derived from this software may not be called "Axion", nor 
+ *    may "Tigris" or "Axion" appear in their names without specific prior
+ *    written permission.
+ *   
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT 
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, 
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT 
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * =======================================================================
+ */
+
+package org.axiondb.engine.tables;
+
+/**
+ * Counts the bytes of a data file that no longer hold a live row, for each fixed-size
+ * segment of the file. A row image becomes dead when its row is updated (and the new
+ * image appended) or deleted; {@link DiskTable#compact} reclaims the space of the
+ * segments with the most dead bytes.
+ * 
+ * @version  
+ */
+final class DeadSpaceMap {
+
+    /**
+     * @param segmentShift the base 2 logarithm of the segment size
+     */
+    DeadSpaceMap(int segmentShift) {
+        _segmentShift = segmentShift;
+    }
+
+    /** Counts <code>length</code> bytes starting at <code>pos</code> as dead. */
+    void add(long pos, long length) {
+        adjust(pos, length, 1);
+    }
+
+    /** Returns the number of dead bytes in the whole file. */
+    long getDeadBytes() {
+        return _total;
+    }
+
+    /** Returns the number of dead bytes in <code>segment</code>. */
+    long getDeadBytes(int segment) {
+        return segment < _dead.length ? _dead[segment] : 0;
+    }
+
+    /**
+     * Returns up to <code>count</code> of the segments below <code>limit</code> that
+     * have dead bytes, those with the most first.
+     */
+    int[] getMostDead(int limit, int count) {
+        int[] found = new int[count];
+        int n = 0;
+        for (int i = 0, I = Math.min(limit, _dead.length); i < I; i++) {
+            if (_dead[i] > 0 && (n < count || _dead[i] > _dead[found[n - 1]])) {
+                int j = (n < count) ? n++ : n - 1;
+                for (; j > 0 && _dead[i] > _dead[found[j - 1]]; j--) {
+                    found[j] = found[j - 1];
+                }
+                found[j] = i;
+            }
+        }
+        int[] result = new int[n];
+        System.arraycopy(found, 0, result, 0, n);
+        return result;
+    }
+
+    /** Returns the segment holding byte <code>pos</code>. */
+    int getSegment(long pos) {
+        return (int) (pos >>> _segmentShift);
+    }
+
+    /** Returns the position of the first byte of <code>segment</code>. */
+    long getStart(int segment) {
+        return ((long) segment) << _segmentShift;
+    }
+
+    /** Counts <code>length</code> bytes starting at <code>pos</code> as live again. */
+    void remove(long pos, long length) {
+        adjust(pos, length, -1);
+    }
+
+    /**
+     * Forgets the dead bytes at or beyond <code>length</code>, after the file is cut
+     * back to that length from <code>oldLength</code>.
+     */
+    void truncate(long length, long oldLength) {
+        if (length < oldLength) {
+            remove(length, oldLength - length);
+        }
+        int count = getSegment(length + (1L << _segmentShift) - 1);
+        if (count < _dead.length) {
+            long[] dead = new long[count];
+            System.arraycopy(_dead, 0, dead, 0, count);
+            _dead = dead;
+        }
+    }
+
+    private void adjust(long pos, long length, int sign) {
+        while (length > 0) {
+            int segment = getSegment(pos);
+            long n = Math.min(length, getStart(segment + 1) - pos);
+            if (segment >= _dead.length) {
+                long[] dead = new long[Math.max(segment + 1, _dead.length * 2)];
+                System.arraycopy(_dead, 0, dead, 0, _dead.length);
+                _dead = dead;
+            }
+            _dead[segment] += sign * n;
+            _total += sign * n;
+            pos += n;
+            length -= n;
+        }
+    }
+
+    private long[] _dead = new long[0];
+    private int _segmentShift;
+    private long _total = 0;
+}
@@ -63,7 +63,7 @@ import org.axiondb.io.BufferedDataOutputStream;
 import org.axiondb.io.FileUtil;
 import org.apache.commons.collections.primitives.ArrayUnsignedIntList;
 import org.axiondb.io.AxionFileSystem.PidxList;
-import org.axiondb.io.CharStreamTokenizer;
+import org.axiondb.io.ByteStreamTokenizer;
 
 
 /**
@@ -139,6 +139,11 @@ public class DelimitedFlatfileTable extends BaseFlatfileTable {
 
     @Override
     protected void initializeTable() throws AxionException {
+        if (_lazyLoad) {
+            initializeLazyLoad();
+            return;
+        }
+
         try {
             int faultCount = 0;
             final long endOffset = FileUtil.getLength(getDataFile());
@@ -181,6 +186,22 @@ public class DelimitedFlatfileTable extends BaseFlatfileTable {
         }
     }
     
+    @Override
+    protected boolean isLazyLoadSupported() {
+        return true;
+    }
+
+    @Override
+    protected long skipRecord(BufferedDataInputStream data, long fileOffset) throws AxionException {
+        try {
+            data.seek(fileOffset);
+            _streamTokenizer.skipLine(data);
+            return data.getPos();
+        } catch (IOException e) {
+            throw new AxionException(e, 22031);
+        }
+    }
+
     public Properties getTableProperties() {
         return context.getTableProperties();
     }
@@ -218,6 +239,7 @@ public class DelimitedFlatfileTable extends BaseFlatfileTable {
             } catch(EOFException ex) {
                 //Goes here if metadata from an older version is parsed - ignore.
             }
+            readLazyLoadState(in);
               
             context = new DelimitedTableOrganizationContext();
             context.updateProperties();
@@ -262,9 +284,9 @@ public class DelimitedFlatfileTable extends BaseFlatfileTable {
                     String val = _dataTypes[i].toString(colValue);
                     if (_isQuoted && val.indexOf(_qualifier) != -1) {
                         // escape the quealifier in the data string.
-                        val = _qPattern.matcher(val).replaceAll(_qualifier + _qualifier);
+                        val = escapeQualifier(val);
                     }
-                    buffer.write(val.getBytes());
+                    writeValue(buffer, val);
                     buffer.write(qualifier);
                 } else {
                     buffer.write(EMPTY_STRING_BYTES); // Write Null column
@@ -292,12 +314,42 @@ public class DelimitedFlatfileTable extends BaseFlatfileTable {
                 out.writeInt(_rowsToSkip);
                 out.writeLong(_maxFaults);
                 out.writeBoolean(_validate);
+                writeLazyLoadState(out);
             }
         } catch (IOException ioex) {
             throw new AxionException("Unable to write meta file for table " + getName(), ioex);
         }
     }
 
+    private String escapeQualifier(String val) {
+        StringBuffer buf = new StringBuffer(val.length() + 8);
+        int from = 0;
+        for (int at; (at = val.indexOf(_qualifier, from)) != -1; from = at + _qualifier.length()) {
+            buf.append(val.substring(from, at)).append(_qualifier).append(_qualifier);
+        }
+        return buf.append(val.substring(from)).toString();
+    }
+
+    /**
+     * Writes the bytes of the given value, copying ASCII values through a reusable buffer
+     * rather than encoding each one.
+     */
+    private void writeValue(BufferedDataOutputStream buffer, String val) throws IOException {
+        int len = val.length();
+        if (_valueBytes.length < len) {
+            _valueBytes = new byte[Math.max(len, _valueBytes.length * 2)];
+        }
+        for (int i = 0; i < len; i++) {
+            char c = val.charAt(i);
+            if (c >= 0x80) {
+                buffer.write(val.getBytes());
+                return;
+            }
+            _valueBytes[i] = (byte) c;
+        }
+        buffer.write(_valueBytes, 0, len);
+    }
+
     private boolean isEscapeRequired(DataType type) {
         switch (type.getJdbcType()) {
             case Types.CHAR:
@@ -387,7 +439,7 @@ public class DelimitedFlatfileTable extends BaseFlatfileTable {
             LINESEP_BYTES = _preferredLineSep.getBytes();
             FIELDSEP_BYTES = _fieldSep.getBytes();
 
-            _streamTokenizer = new CharStreamTokenizer(_fieldSepChar, _lineSepsChar, _qualifierChar, _isQuoted);
+            _streamTokenizer = new ByteStreamTokenizer(_fieldSepChar, _lineSepsChar, _qualifierChar, _isQuoted);
         }
 
         @Override
@@ -422,5 +474,6 @@ public class DelimitedFlatfileTable extends BaseFlatfileTable {
     private boolean _validate = true;
     private DataType[] _dataTypes;
     private int _colCount;
-    private CharStreamTokenizer _streamTokenizer;
+    private ByteStreamTokenizer _streamTokenizer;
+    private byte[] _valueBytes = new byte[80];
 }
\ No newline at end of file
@@ -40,29 +40,43 @@
 
 package org.axiondb.engine.tables;
 
+import java.io.DataInput;
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.channels.ClosedChannelException;
+import java.util.Arrays;
 
 import org.apache.commons.collections.primitives.ArrayIntList;
+import org.apache.commons.collections.primitives.ArrayLongList;
 import org.axiondb.AxionException;
+import org.axiondb.DataType;
 import org.axiondb.Database;
+import org.axiondb.RangeScannableTable;
 import org.axiondb.Row;
 import org.axiondb.Table;
 import org.axiondb.engine.DiskTableFactory;
 import org.axiondb.engine.rows.SimpleRow;
+import org.axiondb.io.AxionFileSystem;
 import org.axiondb.io.BufferedDataInputStream;
 import org.axiondb.io.BufferedDataOutputStream;
+import org.axiondb.io.ChannelReaderPool;
 import org.axiondb.io.FileUtil;
+import org.axiondb.io.MappedDataInput;
 
 /**
- * A disk-resident {@link Table}.
+ * A disk-resident {@link Table}. Rows are stored in the format of
+ * {@link CompactRowFormat}; tables created by older versions keep their original
+ * format until they are rebuilt by <code>DEFRAG TABLE</code>.
  * 
  * @version  
  * @author Chuck Burdick
  * @author Rodney Waldhoff
  * @author Ahimanikya Satapathy
  */
-public final class DiskTable extends BaseDiskTable {
+public final class DiskTable extends BaseDiskTable implements RangeScannableTable {
     
     //------------------------------------------------------------- Constructors
 
@@ -85,6 +99,112 @@ public final class DiskTable extends BaseDiskTable {
         getGlomLobsHelper().glomLobs();
     }
 
+    /**
+     * Prepares to reclaim part of the dead space in my data file, if at least
+     * <code>minDeadPercent</code> percent of the file is dead, without rewriting the
+     * whole file: the rows at the end of the file are copied into the gaps left by
+     * updated and deleted rows in the segment with the most dead space. Returns the
+     * number of bytes that {@link #cutDataFile}can then reclaim, or 0 if there was
+     * nothing to do.
+     * <p>
+     * Rows may be read meanwhile: the gaps hold no row anyone can read, and until the
+     * file is cut each moved row can be read at its old place as well as its new one.
+     */
+    public synchronized long compact(int minDeadPercent) throws AxionException {
+        if (isReadOnly()) {
+            return 0;
+        }
+        if (hasPendingCut()) {
+            return _cutFrom - _cutTo;
+        }
+        DeadSpaceMap deadSpace = getDeadSpaceMap();
+        long end = getDataFileLength();
+        if (deadSpace.getDeadBytes() == 0 || deadSpace.getDeadBytes() * 100 < end * minDeadPercent) {
+            return 0;
+        }
+        if (deadSpace.getDeadBytes() == _stuckDeadBytes && end == _stuckLength) {
+            return 0; // nothing has changed since the last attempt got nowhere
+        }
+
+        // a tail row may not fit in the gaps of the segment with the most dead space,
+        // so try a few more
+        int tail = deadSpace.getSegment(end - 1);
+        int[] victims = deadSpace.getMostDead(tail, MAX_SEGMENTS_TRIED);
+        for (int i = 0; i < Math.max(1, victims.length); i++) {
+            long reclaimed = compact(end, tail, (victims.length == 0) ? -1 : victims[i]);
+            if (reclaimed > 0) {
+                return reclaimed;
+            }
+        }
+        _stuckDeadBytes = deadSpace.getDeadBytes();
+        _stuckLength = end;
+        return 0;
+    }
+
+    /**
+     * Cuts my data file back to the end of the last row still in use, after
+     * {@link #compact}has moved the rows beyond it. Rows read from before the cut may
+     * still be read at their old places, so this may only be called while nothing is
+     * reading me; {@link org.axiondb.engine.DiskDatabase#compact}only calls it while no
+     * open transaction has read me, as it does when applying committed changes. Returns
+     * the number of bytes reclaimed.
+     */
+    public synchronized long cutDataFile() throws AxionException {
+        if (!hasPendingCut()) {
+            return 0;
+        }
+        try {
+            // drop any mapped view of the data file before the bytes it maps go away
+            invalidateReaders();
+            FileUtil.truncate(getDataFile(), _cutTo);
+            getOutputStream().seek(_cutTo);
+            _deadSpace.truncate(_cutTo, _cutFrom);
+            return _cutFrom - _cutTo;
+        } catch (IOException e) {
+            throw new AxionException("Unable to compact data file " + getDataFile(), e);
+        } finally {
+            _cutTo = -1;
+        }
+    }
+
+    /**
+     * Returns true if {@link #compact}has moved rows that {@link #cutDataFile}has yet to
+     * cut off. Rows written since then may lie beyond the cut, in which case it is given
+     * up.
+     */
+    private boolean hasPendingCut() throws AxionException {
+        if (_cutTo != -1 && getDataFileLength() != _cutFrom) {
+            _cutTo = -1;
+        }
+        return _cutTo != -1;
+    }
+
+    /** Returns the length of my data file. */
+    public synchronized long getDataFileLength() throws AxionException {
+        if (isReadOnly()) {
+            return getDataFile().length();
+        }
+        try {
+            return getOutputStream().getPos();
+        } catch (IOException e) {
+            throw new AxionException(e);
+        }
+    }
+
+    /**
+     * Returns the number of bytes in my data file taken up by rows that have since been
+     * updated or deleted, which {@link #compact}or <code>DEFRAG TABLE</code> can
+     * reclaim. The first call reads the length of every row; from then on the count is
+     * kept as rows are updated and deleted.
+     */
+    public synchronized long getDeadSpace() throws AxionException {
+        return getDeadSpaceMap().getDeadBytes();
+    }
+
+    public int getRowIdLimit() {
+        return getPidxList().size();
+    }
+
     protected File getDataFile() {
         if (null == _dataFile) {
             _dataFile = new File(getRootDir(), getName() + "." + getDefaultDataFileExtension());
@@ -97,12 +217,36 @@ public final class DiskTable extends BaseDiskTable {
     }
 
     protected Row getRowByOffset(int idToAssign, long ptr) throws AxionException {
-        BufferedDataInputStream file = getInputStream();
-        return getRowByOffset(idToAssign, ptr, file);
+        if (isMappedReadMode()) {
+            return readRow(idToAssign, ptr, new MappedDataInput(getMappedDataFile(), ptr));
+        }
+
+        if (isStreamReadMode()) {
+            BufferedDataInputStream file = getInputStream();
+            synchronized (file) {
+                return getRowByOffset(idToAssign, ptr, file);
+            }
+        }
+
+        ChannelReaderPool readers = getReaderPool();
+        for (int attempt = 0;; attempt++) {
+            BufferedDataInputStream data = readers.borrow();
+            try {
+                return getRowByOffset(idToAssign, ptr, data);
+            } catch (AxionException e) {
+                // a reader interrupted on another thread may have closed the shared channel
+                if (attempt > 0 || Thread.currentThread().isInterrupted() || !(e.getCause() instanceof ClosedChannelException)) {
+                    throw e;
+                }
+            } finally {
+                readers.release(data);
+            }
+        }
     }
 
     protected void initFiles(File basedir, boolean datafilesonly) throws AxionException {
         super.initFiles(basedir, datafilesonly);
+        _deadSpace = null;
         _lobDir = new File(getRootDir(), LOBS_DIR_NAME);
         notifyColumnsOfNewLobDir(_lobDir);
     }
@@ -125,6 +269,16 @@ public final class DiskTable extends BaseDiskTable {
         resetLobColumns();
     }
 
+    protected void rowImageReleased(long ptr) {
+        if (null != _deadSpace && ptr != INVALID_OFFSET) {
+            try {
+                _deadSpace.add(ptr, getRecordLength(ptr));
+            } catch (AxionException e) {
+                _deadSpace = null; // count again when next asked for
+            }
+        }
+    }
+
     protected synchronized void renameTableFiles(String oldName, String name) {
         super.renameTableFiles(oldName, name);
         FileUtil.renameFile(getRootDir(), oldName, name, "." + getDefaultDataFileExtension());
@@ -132,31 +286,329 @@ public final class DiskTable extends BaseDiskTable {
 
     protected void writeRow(BufferedDataOutputStream out, Row row) throws AxionException {
         try {
-            for (int i = 0, I = getColumnCount(); i < I; i++) {
-                getColumn(i).getDataType().write(row.get(i), out);
+            if (_legacyRowFormat) {
+                for (int i = 0, I = getColumnCount(); i < I; i++) {
+                    getColumn(i).getDataType().write(row.get(i), out);
+                }
+            } else {
+                getRowFormat().write(row, out);
             }
         } catch (IOException e) {
             throw new AxionException(e);
         }
     }
 
-    private Row getRowByOffset(int idToAssign, long ptr, BufferedDataInputStream data) throws AxionException {
+    protected void parseTableProperties(ObjectInputStream in) throws AxionException {
         try {
-            Row row = new SimpleRow(idToAssign, getColumnCount());
-            synchronized (data) {
+            int format = in.readInt();
+            if (format != ROW_FORMAT_LEGACY && format != ROW_FORMAT_COMPACT) {
+                throw new AxionException("Unrecognized row format " + format + " for table " + getName());
+            }
+            _legacyRowFormat = (format == ROW_FORMAT_LEGACY);
+        } catch (EOFException e) {
+            // Goes here if metadata from an older version is parsed
+            _legacyRowFormat = true;
+        } catch (IOException e) {
+            throw new AxionException(e);
+        }
+    }
+
+    protected void writeTableProperties(ObjectOutputStream out) throws AxionException {
+        try {
+            out.writeInt(_legacyRowFormat ? ROW_FORMAT_LEGACY : ROW_FORMAT_COMPACT);
+        } catch (IOException e) {
+            throw new AxionException(e);
+        }
+    }
+
+    /**
+     * Returns <code>true</code> if my rows are stored in the format that predates
+     * {@link CompactRowFormat}, which they keep until the table is defragmented.
+     */
+    boolean isLegacyRowFormat() {
+        return _legacyRowFormat;
+    }
+
+    private CompactRowFormat getRowFormat() {
+        CompactRowFormat format = _rowFormat;
+        if (null == format || format.getColumnCount() != getColumnCount()) {
+            DataType[] types = new DataType[getColumnCount()];
+            for (int i = 0; i < types.length; i++) {
+                types[i] = getColumn(i).getDataType();
+            }
+            format = _rowFormat = new CompactRowFormat(types);
+        }
+        return format;
+    }
+
+    /**
+     * Moves rows from the <code>tail</code> segment of my data file, which ends at
+     * <code>end</code>, into the gaps of the <code>victim</code> segment (none if -1),
+     * and marks where the file can be cut back to. Returns the number of bytes the cut
+     * will reclaim.
+     */
+    private long compact(long end, int tail, int victim) throws AxionException {
+        DeadSpaceMap deadSpace = _deadSpace;
+        long tailStart = deadSpace.getStart(tail);
+        long victimStart = (victim == -1) ? tailStart : deadSpace.getStart(victim);
+        long victimEnd = (victim == -1) ? tailStart : deadSpace.getStart(victim + 1);
+
+        // find the rows in the tail and victim segments, and the last rows before them
+        ArrayIntList tailIds = new ArrayIntList();
+        ArrayLongList victimRows = new ArrayLongList();
+        long lastBeforeVictim = -1;
+        long lastBeforeTail = -1;
+        int lastBeforeTailId = -1;
+        long secondBeforeTail = -1;
+        AxionFileSystem.PidxList pidx = getPidxList();
+        long[] offsets = new long[PIDX_BATCH_SIZE];
+        for (int from = 0, size = pidx.size(); from < size; from += offsets.length) {
+            if (size - from < offsets.length) {
+                offsets = new long[size - from];
+            }
+            pidx.get(from, offsets);
+            for (int i = 0; i < offsets.length; i++) {
+                long ptr = offsets[i];
+                if (ptr == INVALID_OFFSET) {
+                    continue;
+                } else if (ptr >= tailStart) {
+                    tailIds.add(from + i);
+                } else {
+                    if (ptr > lastBeforeTail) {
+                        secondBeforeTail = lastBeforeTail;
+                        lastBeforeTail = ptr;
+                        lastBeforeTailId = from + i;
+                    } else if (ptr > secondBeforeTail) {
+                        secondBeforeTail = ptr;
+                    }
+                    if (ptr >= victimStart && ptr < victimEnd) {
+                        victimRows.add(ptr);
+                    } else if (ptr < victimStart) {
+                        lastBeforeVictim = Math.max(lastBeforeVictim, ptr);
+                    }
+                }
+            }
+        }
+
+        ChannelReaderPool readers = getReaderPool();
+        BufferedDataInputStream data = readers.borrow();
+        try {
+            // the gaps between the rows of the victim segment, as start and end pairs
+            ArrayLongList gaps = new ArrayLongList();
+            long pos = victimStart;
+            if (lastBeforeVictim != -1) {
+                pos = Math.max(pos, lastBeforeVictim + getRecordLength(lastBeforeVictim, data));
+            }
+            long[] ptrs = victimRows.toArray();
+            Arrays.sort(ptrs);
+            for (int i = 0; i < ptrs.length; i++) {
+                if (ptrs[i] > pos) {
+                    gaps.add(pos);
+                    gaps.add(ptrs[i]);
+                }
+                pos = Math.max(pos, ptrs[i] + getRecordLength(ptrs[i], data));
+            }
+            if (pos < victimEnd) {
+                gaps.add(pos);
+                gaps.add(victimEnd);
+            }
+
+            // the row before the tail may run into it, and so belongs with the tail rows
+            long base = tailStart;
+            long lastBeforeTailEnd = (lastBeforeTail == -1) ? 0 : lastBeforeTail + getRecordLength(lastBeforeTail, data);
+            if (lastBeforeTailEnd > tailStart) {
+                tailIds.add(lastBeforeTailId);
+                base = lastBeforeTail;
+                lastBeforeTail = secondBeforeTail;
+                lastBeforeTailEnd = (lastBeforeTail == -1) ? 0 : lastBeforeTail + getRecordLength(lastBeforeTail, data);
+            }
+
+            // key the tail rows by their position, then by id
+            long[] rows = new long[tailIds.size()];
+            for (int i = 0; i < rows.length; i++) {
+                rows[i] = ((pidx.get(tailIds.get(i)) - base) << 31) | tailIds.get(i);
+            }
+            Arrays.sort(rows);
+
+            // move the tail rows, last first, into the first gap each fits in
+            BufferedDataOutputStream out = getOutputStream();
+            out.flush();
+            ArrayIntList movedIds = new ArrayIntList();
+            ArrayLongList movedFrom = new ArrayLongList();
+            ArrayLongList movedTo = new ArrayLongList();
+            ArrayIntList movedLengths = new ArrayIntList();
+            long newEnd = -1;
+            for (int i = rows.length - 1; i >= 0; i--) {
+                long ptr = base + (rows[i] >>> 31);
+                int length = getRecordLength(ptr, data);
+                int gap = 0;
+                while (gap < gaps.size() && gaps.get(gap + 1) - gaps.get(gap) < length) {
+                    gap += 2;
+                }
+                if (gap == gaps.size()) {
+                    newEnd = ptr + length;
+                    break;
+                }
+
+                byte[] bytes = new byte[length];
                 data.seek(ptr);
-                for (int i = 0, I = getColumnCount(); i < I; i++) {
-                    row.set(i, getColumn(i).getDataType().read(data));
+                data.readFully(bytes);
+                long to = gaps.get(gap);
+                out.seek(to);
+                out.write(bytes);
+                gaps.set(gap, to + length);
+
+                movedIds.add((int) (rows[i] & Integer.MAX_VALUE));
+                movedFrom.add(ptr);
+                movedTo.add(to);
+                movedLengths.add(length);
+            }
+            out.seek(end);
+            if (newEnd == -1) {
+                newEnd = lastBeforeTailEnd;
+                for (int i = 0; i < movedTo.size(); i++) {
+                    newEnd = Math.max(newEnd, movedTo.get(i) + movedLengths.get(i));
                 }
             }
+            if (newEnd >= end) {
+                return 0;
+            }
+
+            // point at the moved rows only once they are on disk, and cut the file back
+            // only once nothing on disk points past the cut, so that a crash at any
+            // point leaves every row reachable; readers must not have the old bytes of
+            // the gaps buffered by the time they find the moved rows there
+            out.flush();
+            FileUtil.sync(getDataFile());
+            invalidateReaders();
+            for (int i = 0; i < movedIds.size(); i++) {
+                pidx.set(movedIds.get(i), movedTo.get(i));
+                deadSpace.add(movedFrom.get(i), movedLengths.get(i));
+                deadSpace.remove(movedTo.get(i), movedLengths.get(i));
+            }
+            pidx.flush();
+            FileUtil.sync(getTableFile(PIDX_FILE_EXT));
+
+            _cutFrom = end;
+            _cutTo = newEnd;
+            return end - newEnd;
+        } catch (IOException e) {
+            throw new AxionException("Unable to compact data file " + getDataFile(), e);
+        } finally {
+            readers.release(data);
+        }
+    }
+
+    /**
+     * Returns the map of the dead space in my data file, counting it from the lengths of
+     * the live rows the first time it is asked for.
+     */
+    private DeadSpaceMap getDeadSpaceMap() throws AxionException {
+        if (null == _deadSpace) {
+            DeadSpaceMap deadSpace = new DeadSpaceMap(SEGMENT_SHIFT);
+            deadSpace.add(0, getDataFileLength());
+
+            ChannelReaderPool readers = getReaderPool();
+            BufferedDataInputStream data = readers.borrow();
+            try {
+                AxionFileSystem.PidxList pidx = getPidxList();
+                long[] offsets = new long[PIDX_BATCH_SIZE];
+                for (int from = 0, size = pidx.size(); from < size; from += offsets.length) {
+                    if (size - from < offsets.length) {
+                        offsets = new long[size - from];
+                    }
+                    pidx.get(from, offsets);
+                    for (int i = 0; i < offsets.length; i++) {
+                        if (offsets[i] != INVALID_OFFSET) {
+                            deadSpace.remove(offsets[i], getRecordLength(offsets[i], data));
+                        }
+                    }
+                }
+            } finally {
+                readers.release(data);
+            }
+            _deadSpace = deadSpace;
+        }
+        return _deadSpace;
+    }
+
+    private int getRecordLength(long ptr) throws AxionException {
+        ChannelReaderPool readers = getReaderPool();
+        BufferedDataInputStream data = readers.borrow();
+        try {
+            return getRecordLength(ptr, data);
+        } finally {
+            readers.release(data);
+        }
+    }
+
+    /** Returns the number of bytes taken up by the row at <code>ptr</code>. */
+    private int getRecordLength(long ptr, BufferedDataInputStream data) throws AxionException {
+        try {
+            data.seek(ptr);
+            if (!_legacyRowFormat) {
+                return CompactRowFormat.readLength(data);
+            }
+            readRow(-1, ptr, data);
+            return (int) (data.getPos() - ptr);
+        } catch (IOException e) {
+            throw newReadException(ptr, e);
+        }
+    }
+
+    private Row getRowByOffset(int idToAssign, long ptr, BufferedDataInputStream data) throws AxionException {
+        try {
+            data.seek(ptr);
+        } catch (IOException e) {
+            throw newReadException(ptr, e);
+        }
+        return readRow(idToAssign, ptr, data);
+    }
+
+    private AxionException newReadException(long ptr, IOException e) {
+        return new AxionException("IOException in getRowByOffset while reading row" + " for table " + getName() + " at position " + ptr
+            + " in data file " + getDataFile(), e);
+    }
+
+    /** Decodes the row that <code>data</code> is positioned at. */
+    private Row readRow(int idToAssign, long ptr, DataInput data) throws AxionException {
+        try {
+            if (!_legacyRowFormat) {
+                return getRowFormat().read(idToAssign, data);
+            }
+            Row row = new SimpleRow(idToAssign, getColumnCount());
+            for (int i = 0, I = getColumnCount(); i < I; i++) {
+                row.set(i, getColumn(i).getDataType().read(data));
+            }
             return row;
         } catch (IOException e) {
-            throw new AxionException("IOException in getRowByOffset while reading row" + " for table " + getName() + " at position " + ptr
-                + " in data file " + getDataFile(), e);
+            throw newReadException(ptr, e);
         }
     }
     
     /** The directory in which my LOB data are stored. */
     private File _lobDir = null;
     private static final String LOBS_DIR_NAME = "LOBS";
+
+    private static final int ROW_FORMAT_LEGACY = 1;
+    private static final int ROW_FORMAT_COMPACT = 2;
+
+    /** Dead space is counted, and reclaimed, in segments of 1 MB. */
+    private static final int SEGMENT_SHIFT = 20;
+    private static final int MAX_SEGMENTS_TRIED = 4;
+    private static final int PIDX_BATCH_SIZE = 4096;
+
+    /** Not counted until first asked for. */
+    private DeadSpaceMap _deadSpace;
+    /** The dead space and file length when {@link #compact} last got nowhere. */
+    private long _stuckDeadBytes;
+    private long _stuckLength;
+    /** Where {@link #cutDataFile} will cut my data file back to (-1 if nowhere), and from. */
+    private long _cutTo = -1;
+    private long _cutFrom;
+
+    // Both are set while the meta file is parsed by the super constructor,
+    // so they must not have initializers
+    private boolean _legacyRowFormat;
+    private CompactRowFormat _rowFormat;
 }
@@ -57,6 +57,7 @@ import java.sql.Time;
 import java.sql.Timestamp;
 import java.sql.Types;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -86,6 +87,7 @@ import org.axiondb.Function;
 import org.axiondb.Index;
 import org.axiondb.IndexLoader;
 import org.axiondb.Literal;
+import org.axiondb.OrderNode;
 import org.axiondb.Row;
 import org.axiondb.RowCollection;
 import org.axiondb.RowDecorator;
@@ -117,6 +119,10 @@ import org.axiondb.event.TableModifiedEvent;
 import org.axiondb.functions.AndFunction;
 import org.axiondb.functions.ComparisonFunction;
 import org.axiondb.functions.EqualFunction;
+import org.axiondb.functions.InFunction;
+import org.axiondb.functions.IsNotNullFunction;
+import org.axiondb.functions.IsNullFunction;
+import org.axiondb.functions.OrFunction;
 import org.axiondb.io.AxionFileSystem;
 import org.axiondb.io.FileUtil;
 import org.axiondb.jdbc.AxionConnection;
@@ -506,6 +512,37 @@ public class ExternalDatabaseTable implements ExternalTable, TransactableTable {
         return _name;
     }
 
+    /**
+     * Returns the rows matching the given conditions, read with a query that lets the
+     * remote database evaluate every condition it can. Conditions sent to the remote
+     * database are removed from <code>conditions</code>, the caller must apply the rest.
+     * The rows read are kept, so resetting the iterator does not query the remote
+     * database again.
+     * 
+     * @param tid identifier of this table in the calling query
+     * @param conditions where nodes that were originally joined by ANDs
+     */
+    public RowIterator getRemoteRows(TableIdentifier tid, Set conditions) throws AxionException {
+        return getRemoteRows(tid, conditions, null, null, -1, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns the rows matching the given conditions as
+     * {@link #getRemoteRows(TableIdentifier, Set)} does, but streams them instead of
+     * keeping them, reads only the given columns and leaves the others <code>null</code>.
+     * If every condition and order node can be sent to the remote database, no more
+     * than <code>maxRows</code> rows are read.
+     * 
+     * @param tid identifier of this table in the calling query
+     * @param conditions where nodes that were originally joined by ANDs
+     * @param columns names of the columns the query refers to, or null for all columns
+     * @param orderBy {@link OrderNode}s the rows will be sorted by, or null
+     * @param maxRows number of rows the query can use, or -1 for all rows
+     */
+    public RowIterator getRemoteRows(TableIdentifier tid, Set conditions, Set columns, List orderBy, int maxRows) throws AxionException {
+        return getRemoteRows(tid, conditions, columns, orderBy, maxRows, MAX_REPLAY_ROWS);
+    }
+
     public int getNextRowId() {
         return 0;
     }
@@ -753,6 +790,10 @@ public class ExternalDatabaseTable implements ExternalTable, TransactableTable {
     public void setDeferAllConstraints(boolean deferAll) {
     }
 
+    public boolean isDeferAllConstraints() {
+        return false;
+    }
+
     public void setSequence(Sequence seq) throws AxionException {
     }
 
@@ -783,6 +824,14 @@ public class ExternalDatabaseTable implements ExternalTable, TransactableTable {
                     }
                 }
             }
+            if (_remoteSelectPSs != null) {
+                synchronized (_remoteSelectPSs) {
+                    for (Iterator itr = _remoteSelectPSs.values().iterator(); itr.hasNext();) {
+                        closeStatement((Statement) itr.next());
+                    }
+                    _remoteSelectPSs.clear();
+                }
+            }
             if (_conn != null)
                 _conn.close();
         } catch (SQLException ignore) {
@@ -1160,6 +1209,8 @@ public class ExternalDatabaseTable implements ExternalTable, TransactableTable {
     }
 
     protected void setUp(DatabaseLink server) throws AxionException {
+        _fetchSize = server.getFetchSize();
+        _batchSize = server.getBatchSize();
         try {
             _conn = server.getConnection();
             assertConnection();
@@ -1196,7 +1247,7 @@ public class ExternalDatabaseTable implements ExternalTable, TransactableTable {
     
     private void setFetchSize(Statement stmt){
         try {
-            stmt.setFetchSize(FETCH_SIZE);
+            stmt.setFetchSize(_fetchSize);
         } catch(SQLException sqlEx){
             // ignore -- not all driver support this
         }
@@ -1204,7 +1255,7 @@ public class ExternalDatabaseTable implements ExternalTable, TransactableTable {
 
     private int addBatch(PreparedStatement pstmt, int stmtModCount) throws SQLException {
         pstmt.addBatch();
-        if (++stmtModCount == BATCH_SIZE) {
+        if (++stmtModCount == _batchSize) {
             pstmt.executeBatch();
             stmtModCount = 0;
         }
@@ -1565,6 +1616,234 @@ public class ExternalDatabaseTable implements ExternalTable, TransactableTable {
         return new IndexRowIterator(rows);
     }
 
+    private RowIterator getRemoteRows(TableIdentifier tid, Set conditions, Set columns, List orderBy, int maxRows, int replayLimit)
+            throws AxionException {
+        assertConnection();
+        StringBuffer where = new StringBuffer(60);
+        List params = new ArrayList(4);
+        if (_where != null && _where.trim().length() != 0) {
+            where.append("(").append(_where.trim()).append(")");
+        }
+
+        for (Iterator iter = conditions.iterator(); iter.hasNext();) {
+            int mark = where.length();
+            int paramCount = params.size();
+            if (mark != 0) {
+                where.append(" AND ");
+            }
+            if (appendRemoteCondition(tid, (Selectable) iter.next(), where, params)) {
+                iter.remove();
+            } else {
+                where.setLength(mark);
+                params.subList(paramCount, params.size()).clear();
+            }
+        }
+
+        // A row limit only holds if the remote database filters and sorts every row
+        String order = null;
+        if (maxRows >= 0 && conditions.isEmpty()) {
+            order = getRemoteOrderBy(tid, orderBy);
+        }
+        if (order == null) {
+            maxRows = -1;
+        }
+
+        boolean[] fetched = new boolean[getColumnCount()];
+        if (columns == null) {
+            Arrays.fill(fetched, true);
+        } else {
+            for (Iterator iter = columns.iterator(); iter.hasNext();) {
+                fetched[getColumnIndex((String) iter.next())] = true;
+            }
+            if (columns.isEmpty() && fetched.length != 0) {
+                fetched[0] = true; // the select list can't be empty
+            }
+        }
+
+        String rTable = getQualifiedTable();
+        StringBuffer sql = new StringBuffer(100);
+        sql.append("SELECT ");
+        for (int i = 0, n = 0, I = getColumnCount(); i < I; i++) {
+            if (fetched[i]) {
+                if (n++ != 0) {
+                    sql.append(", ");
+                }
+                sql.append(rTable).append(".").append(((CaseSensitiveColumn) getColumn(i)).getCaseSensitiveName());
+            }
+        }
+        sql.append(" FROM ").append(rTable);
+        if (where.length() != 0) {
+            sql.append(" WHERE ").append(where);
+        }
+        if (order != null && order.length() != 0) {
+            sql.append(" ORDER BY ").append(order);
+        }
+        return new RemoteRowIterator(sql.toString(), params, fetched, maxRows, replayLimit);
+    }
+
+    // Appends the remote SQL for the given where node, binding literals as parameters.
+    // Returns false if the remote database might not evaluate some part of the node
+    // the way Axion does.
+    private boolean appendRemoteCondition(TableIdentifier tid, Selectable node, StringBuffer buf, List params) {
+        if (node instanceof ComparisonFunction) {
+            ComparisonFunction fn = (ComparisonFunction) node;
+            CaseSensitiveColumn left = getRemoteColumn(tid, fn.getArgument(0));
+            if (left == null || !isRemoteComparable(left)) {
+                return false;
+            }
+            buf.append(left.getCaseSensitiveName()).append(" ").append(fn.getOperatorString()).append(" ");
+
+            CaseSensitiveColumn right = getRemoteColumn(tid, fn.getArgument(1));
+            if (right != null) {
+                if (right.getDataType().getJdbcType() != left.getDataType().getJdbcType()) {
+                    return false;
+                }
+                buf.append(right.getCaseSensitiveName());
+                return true;
+            }
+            return appendRemoteParameter(left, fn.getArgument(1), buf, params);
+        } else if (node instanceof IsNullFunction || node instanceof IsNotNullFunction) {
+            CaseSensitiveColumn col = getRemoteColumn(tid, ((Function) node).getArgument(0));
+            if (col == null) {
+                return false;
+            }
+            buf.append(col.getCaseSensitiveName()).append((node instanceof IsNullFunction) ? " IS NULL" : " IS NOT NULL");
+            return true;
+        } else if (node instanceof InFunction) {
+            Function fn = (Function) node;
+            CaseSensitiveColumn col = getRemoteColumn(tid, fn.getArgument(0));
+            if (col == null || !isRemoteComparable(col) || fn.getArgumentCount() < 2) {
+                return false;
+            }
+            buf.append(col.getCaseSensitiveName()).append(" IN (");
+            for (int i = 1, I = fn.getArgumentCount(); i < I; i++) {
+                if (i != 1) {
+                    buf.append(", ");
+                }
+                if (!appendRemoteParameter(col, fn.getArgument(i), buf, params)) {
+                    return false;
+                }
+            }
+            buf.append(")");
+            return true;
+        } else if (node instanceof AndFunction || node instanceof OrFunction) {
+            Function fn = (Function) node;
+            String operator = (node instanceof AndFunction) ? " AND " : " OR ";
+            buf.append("(");
+            for (int i = 0, I = fn.getArgumentCount(); i < I; i++) {
+                if (i != 0) {
+                    buf.append(operator);
+                }
+                if (!appendRemoteCondition(tid, fn.getArgument(i), buf, params)) {
+                    return false;
+                }
+            }
+            buf.append(")");
+            return true;
+        }
+        return false;
+    }
+
+    private boolean appendRemoteParameter(Column col, Selectable value, StringBuffer buf, List params) {
+        if (!(value instanceof Literal)) {
+            return false;
+        }
+        RemoteParameter param = new RemoteParameter((Literal) value, col.getDataType());
+        try {
+            // Axion doesn't match values that can't be converted to the column type
+            param.getValue();
+        } catch (AxionException e) {
+            return false;
+        }
+        params.add(param);
+        buf.append("?");
+        return true;
+    }
+
+    private CaseSensitiveColumn getRemoteColumn(TableIdentifier tid, Selectable sel) {
+        if (sel instanceof ColumnIdentifier) {
+            ColumnIdentifier cid = (ColumnIdentifier) sel;
+            if (tid.equals(cid.getTableIdentifier())) {
+                return (CaseSensitiveColumn) getColumn(cid.getName());
+            }
+        }
+        return null;
+    }
+
+    private String getRemoteOrderBy(TableIdentifier tid, List orderBy) {
+        StringBuffer buf = new StringBuffer(30);
+        for (int i = 0, I = (orderBy == null) ? 0 : orderBy.size(); i < I; i++) {
+            OrderNode node = (OrderNode) orderBy.get(i);
+            CaseSensitiveColumn col = getRemoteColumn(tid, node.getSelectable());
+            if (col == null || !isRemoteOrderable(col)) {
+                return null;
+            }
+            if (i != 0) {
+                buf.append(", ");
+            }
+            buf.append(col.getCaseSensitiveName()).append(node.isDescending() ? " DESC" : " ASC");
+        }
+        return buf.toString();
+    }
+
+    // Databases disagree on how strings compare (case, trailing spaces, collation), and
+    // a condition evaluated remotely is not checked again, so only numeric and temporal
+    // comparisons are left to the remote database
+    private boolean isRemoteComparable(Column col) {
+        return isRemoteOrderable(col.getDataType().getJdbcType());
+    }
+
+    // Databases disagree on where nulls sort and on how strings collate, so order is
+    // only left to the remote database for not null numeric and temporal columns
+    private boolean isRemoteOrderable(Column col) {
+        if (!_notNullColumns.contains(col.getName()) && !isPrimaryKeyConstraintExists(col.getName())) {
+            return false;
+        }
+        return isRemoteOrderable(col.getDataType().getJdbcType());
+    }
+
+    private boolean isRemoteOrderable(int jdbcType) {
+        switch (jdbcType) {
+            case Types.TINYINT:
+            case Types.SMALLINT:
+            case Types.INTEGER:
+            case Types.BIGINT:
+            case Types.DECIMAL:
+            case Types.NUMERIC:
+            case Types.REAL:
+            case Types.FLOAT:
+            case Types.DOUBLE:
+            case Types.DATE:
+            case Types.TIME:
+            case Types.TIMESTAMP:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private PreparedStatement borrowRemoteStatement(String sql) throws SQLException {
+        PreparedStatement ps = null;
+        synchronized (_remoteSelectPSs) {
+            ps = (PreparedStatement) _remoteSelectPSs.remove(sql);
+        }
+        if (ps == null) {
+            ps = _conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            setFetchSize(ps);
+        }
+        return ps;
+    }
+
+    private void returnRemoteStatement(String sql, PreparedStatement ps) {
+        synchronized (_remoteSelectPSs) {
+            if (!_remoteSelectPSs.containsKey(sql)) {
+                _remoteSelectPSs.put(sql, ps);
+                return;
+            }
+        }
+        closeStatement(ps);
+    }
+
     private List getIndexInfo(String name, String schemaPattern) throws SQLException {
         List indexes = new ArrayList();
         ResultSet rs = null;
@@ -2408,12 +2687,224 @@ public class ExternalDatabaseTable implements ExternalTable, TransactableTable {
         }
     }
 
+    // A literal bound to a parameter of a remote query, converted to the type of the
+    // remote column it is compared with
+    private static class RemoteParameter {
+        public RemoteParameter(Literal value, DataType type) {
+            _value = value;
+            _type = type;
+        }
+
+        public int getJdbcType() {
+            return _type.getJdbcType();
+        }
+
+        public Object getValue() throws AxionException {
+            return _type.convert(_value.evaluate());
+        }
+
+        private DataType _type;
+        private Literal _value;
+    }
+
+    // Streams the rows of a query against the remote table. While there are no more
+    // than replayLimit rows they are also kept, so that a reset after the last row was
+    // read replays them instead of querying again, unless a parameter value changed.
+    private class RemoteRowIterator extends BaseRowIterator {
+        public RemoteRowIterator(String sql, List params, boolean[] fetched, int maxRows, int replayLimit) {
+            _sql = sql;
+            _params = params;
+            _fetched = fetched;
+            _maxRows = maxRows;
+            _replayLimit = replayLimit;
+        }
+
+        public Row current() {
+            if (!hasCurrent()) {
+                throw new NoSuchElementException("No current row.");
+            }
+            return _current;
+        }
+
+        public int currentIndex() {
+            return _currentIndex;
+        }
+
+        public boolean hasCurrent() {
+            return (null != _current);
+        }
+
+        public boolean hasNext() {
+            try {
+                return fetch(_nextIndex) != null;
+            } catch (AxionException e) {
+                throw ExceptionConverter.convertToRuntimeException(e);
+            }
+        }
+
+        public boolean hasPrevious() {
+            return _nextIndex > 0;
+        }
+
+        public Row next() throws AxionException {
+            Row row = fetch(_nextIndex);
+            if (null == row) {
+                throw new NoSuchElementException("No next row");
+            }
+            _current = row;
+            _currentIndex = _nextIndex++;
+            return _current;
+        }
+
+        public int nextIndex() {
+            return _nextIndex;
+        }
+
+        public Row previous() throws AxionException {
+            if (!hasPrevious()) {
+                throw new NoSuchElementException("No previous row");
+            }
+            _current = fetch(_nextIndex - 1);
+            _currentIndex = --_nextIndex;
+            return _current;
+        }
+
+        public int previousIndex() {
+            return _nextIndex - 1;
+        }
+
+        public void reset() throws AxionException {
+            _current = null;
+            _currentIndex = -1;
+            _nextIndex = 0;
+            if (!_exhausted || null == _rows || !Arrays.equals(_values, getParameterValues())) {
+                close();
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "ExternalDatabaseTable(" + getName() + ";" + _sql + ((_maxRows < 0) ? "" : ";maxRows=" + _maxRows) + ")";
+        }
+
+        private Row fetch(int index) throws AxionException {
+            if (null != _rows && index < _rows.size()) {
+                return (Row) _rows.get(index);
+            } else if (index == _readCount - 1) {
+                return _last;
+            } else if (index < _readCount) {
+                close(); // rows were not kept, so read them again
+            }
+
+            while (_readCount <= index) {
+                if (!read()) {
+                    return null;
+                }
+            }
+            return _last;
+        }
+
+        private boolean read() throws AxionException {
+            if (_exhausted) {
+                return false;
+            }
+            try {
+                if (null == _rs) {
+                    open();
+                }
+                if (_maxRows == 0 || !_rs.next()) {
+                    release();
+                    _exhausted = true;
+                    return false;
+                }
+
+                Row row = new SimpleRow(UNKNOWN_ROWID, getColumnCount());
+                for (int i = 0, j = 1; i < _fetched.length; i++) {
+                    if (_fetched[i]) {
+                        row.set(i, readResultSet(_rs, getColumn(i).getDataType(), j++));
+                    }
+                }
+                _last = row;
+                _readCount++;
+                if (null != _rows) {
+                    if (_rows.size() < _replayLimit) {
+                        _rows.add(row);
+                    } else {
+                        _rows = null;
+                    }
+                }
+                return true;
+            } catch (SQLException e) {
+                closeStatement(_ps);
+                _ps = null;
+                close();
+                throw convertException("Could not read remote table " + getName(), e);
+            }
+        }
+
+        private void open() throws AxionException, SQLException {
+            _values = getParameterValues();
+            _ps = borrowRemoteStatement(_sql);
+            for (int i = 0; i < _values.length; i++) {
+                if (null == _values[i]) {
+                    _ps.setNull(i + 1, ((RemoteParameter) _params.get(i)).getJdbcType());
+                } else {
+                    _ps.setObject(i + 1, _values[i]);
+                }
+            }
+            _ps.setMaxRows(Math.max(_maxRows, 0));
+            _rs = _ps.executeQuery();
+        }
+
+        private void release() {
+            closeResultSet(_rs);
+            _rs = null;
+            if (null != _ps) {
+                returnRemoteStatement(_sql, _ps);
+                _ps = null;
+            }
+        }
+
+        private void close() {
+            release();
+            _rows = new ArrayList();
+            _last = null;
+            _readCount = 0;
+            _exhausted = false;
+        }
+
+        private Object[] getParameterValues() throws AxionException {
+            Object[] values = new Object[_params.size()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = ((RemoteParameter) _params.get(i)).getValue();
+            }
+            return values;
+        }
+
+        private String _sql;
+        private List _params;
+        private boolean[] _fetched;
+        private int _maxRows;
+        private int _replayLimit;
+
+        private PreparedStatement _ps;
+        private ResultSet _rs;
+        private Object[] _values;
+        private List _rows = new ArrayList();
+        private Row _last;
+        private int _readCount = 0;
+        private boolean _exhausted = false;
+
+        private Row _current;
+        private int _currentIndex = -1;
+        private int _nextIndex = 0;
+    }
+
     private static Logger _log = Logger.getLogger(ExternalDatabaseTable.class.getName());
     private static final String XTERNAL_DB = "externalDB";;
     private final static int NULL_CHECK = 1;
     private final static int EQUALITY_CHECK = 0;
-    private final static int BATCH_SIZE = 1000;
-    private final static int FETCH_SIZE = 100; // 100 seems to be the best choice
+    private final static int MAX_REPLAY_ROWS = 10000;
     private final static String[] JDBC_TABLE_OBJECT_TYPE = { "TABLE", "VIEW"};
     protected static final String META_FILE_EXT = ".META";
     protected static final String TYPE_FILE_EXT = ".TYPE";
@@ -2462,6 +2953,9 @@ public class ExternalDatabaseTable implements ExternalTable, TransactableTable {
     private int _updateModCount;
     private PreparedStatement _updatePS;
     private Map _indexSelectPSs = new HashMap();
+    private Map _remoteSelectPSs = new HashMap();
+    private int _fetchSize = DatabaseLink.DEFAULT_FETCH_SIZE;
+    private int _batchSize = DatabaseLink.DEFAULT_BATCH_SIZE;
     private String _where;
     private ExternalDatabaseTableOrganizationContext context;
     protected static AxionFileSystem FS = new AxionFileSystem();
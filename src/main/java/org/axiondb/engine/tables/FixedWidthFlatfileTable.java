@@ -167,6 +167,23 @@ public final class FixedWidthFlatfileTable extends BaseFlatfileTable {
         super.initializeTable();
     }
 
+    protected boolean isLazyLoadSupported() {
+        return true;
+    }
+
+    protected long skipRecord(BufferedDataInputStream data, long fileOffset) throws AxionException {
+        try {
+            readLine(data, fileOffset);
+        } catch (AxionException e) {
+            // reported as a fault when the record is read
+        }
+        try {
+            return data.getPos();
+        } catch (IOException e) {
+            throw new AxionException(e);
+        }
+    }
+
     protected boolean isEndOfRecord(int recLength, int nextChar, BufferedDataInputStream data) throws IOException {
         if (isEOF(nextChar)) {
             return true;
@@ -217,6 +234,7 @@ public final class FixedWidthFlatfileTable extends BaseFlatfileTable {
             } catch (EOFException ex) {
             // Goes here if metadata from an older version is parsed - ignore.
             }
+            readLazyLoadState(in);
             
             context = new FixedwidthTableOrganizationContext();
             context.updateProperties();
@@ -285,6 +303,7 @@ public final class FixedWidthFlatfileTable extends BaseFlatfileTable {
                 out.writeInt(_recordLength);
                 out.writeUTF(_fileName);
                 out.writeUTF(Boolean.toString(_isCreateDataFileIfNotExist));
+                writeLazyLoadState(out);
             }
         } catch (IOException e) {
             throw new AxionException("Unable to write meta file for table " + getName(), e);
@@ -53,7 +53,6 @@ import org.axiondb.RowCollection;
 import org.axiondb.RowIterator;
 import org.axiondb.Table;
 import org.axiondb.engine.rowiterators.BaseRowIterator;
-import org.axiondb.event.RowInsertedEvent;
 
 /**
  * A memory-resident {@link Table}.
@@ -79,8 +78,13 @@ public class MemoryTable extends BaseTable {
     }
 
     public void applyInserts(RowCollection rows) throws AxionException {
-        applyInsertsToIndices(rows);
-        applyInsertsToRows(rows.rowIterator());
+        if (isBulkInsert(rows)) {
+            applyInsertsToRows(rows.rowIterator());
+            rebuildIndices();
+        } else {
+            applyInsertsToIndices(rows);
+            applyInsertsToRows(rows.rowIterator());
+        }
     }
 
     public void applyUpdates(RowCollection rows) throws AxionException {
@@ -89,9 +93,10 @@ public class MemoryTable extends BaseTable {
     }
 
     public final void freeRowId(int id) {
+        // only the id handed out last can be taken back; any other stays unused
         if (_freeIdPos >= 0 && id == _freeIds.get(_freeIdPos)) {
             _freeIdPos--;
-        } else if (_nextFreeId > _rows.size() - 1) {
+        } else if (id == _nextFreeId && _nextFreeId > _rows.size() - 1) {
             _nextFreeId--;
         }
     }
@@ -116,12 +121,7 @@ public class MemoryTable extends BaseTable {
     }
 
     public void populateIndex(Index index) throws AxionException {
-        for (int i = 0, I = _rows.size(); i < I; i++) {
-            Row row = (Row) (_rows.get(i));
-            if (row != null) {
-                index.rowInserted(new RowInsertedEvent(this, null, row));
-            }
-        }
+        index.populate(this, getRowIterator());
     }
 
     public void truncate() throws AxionException {
@@ -263,15 +263,30 @@ public class MemoryTable extends BaseTable {
     private void applyInsertsToRows(RowIterator rows) throws AxionException {
         for (Row row; rows.hasNext();) {
             row = rows.next();
-            if (!_freeIds.isEmpty() && _freeIdPos > -1) {
-                _rows.set(_freeIds.removeElementAt(0), row);
-                _freeIdPos--;
+            int rowid = row.getIdentifier();
+            int freeIndex = _freeIds.indexOf(rowid);
+            if (freeIndex != -1) {
+                _freeIds.removeElementAt(freeIndex);
+                if (freeIndex <= _freeIdPos) {
+                    _freeIdPos--;
+                }
+            }
+
+            // ids skipped over belong to rows another transaction has yet to apply, or
+            // to rows that were taken back out before they were applied
+            while (_rows.size() < rowid) {
+                _rows.add(null);
+            }
+            if (rowid < _rows.size()) {
+                _rows.set(rowid, row);
             } else {
                 _rows.add(row);
             }
             _rowCount++;
         }
-        _nextFreeId = -1;
+        if (_nextFreeId < _rows.size()) {
+            _nextFreeId = -1;
+        }
     }
 
     private void applyUpdatesToRows(RowIterator rows) throws AxionException {
@@ -98,6 +98,11 @@ public class WebTable extends DelimitedFlatfileTable {
         throw new AxionException("Operation not supported");
     }
     
+    @Override
+    protected boolean isLazyLoadSupported() {
+        return false;
+    }
+    
     protected void parseTableProperties(ObjectInputStream in) throws AxionException {
         try {
             _lineSep = in.readUTF();
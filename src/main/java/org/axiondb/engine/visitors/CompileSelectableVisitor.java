@@ -0,0 +1,220 @@
+/*
+ * 
+ * =======================================================================
+ * Copyright (c) 2002-2005 Axion Development Team.  All rights reserved.
+ *  
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions 
+ * are met:
+ * 
+ * 1. Redistributions of source code must retain the above 
+ *    copyright notice, this list of conditions and the following 
+ *    disclaimer. 
+ *   
+ * 2. Redistributions in binary form must reproduce the above copyright 
+ *    notice, this list of conditions and the following disclaimer in 
+ *    the documentation and/or other materials provided with the 
+ *    distribution. 
+ *   
+ * 3. The names "Tigris", "Axion", nor the names of its contributors may 
+ *    not be used to endorse or promote products derived from this 
+ *    software without specific prior written permission. 
+ *  
+ * 4. Products derived from this software may not be called "Axion", nor 
+ *    may "Tigris" or "Axion" appear in their names without specific prior
+ *    written permission.
+ *   
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT 
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, 
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT 
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * =======================================================================
+ */
+
+package org.axiondb.engine.visitors;
+
+import org.axiondb.AxionException;
+import org.axiondb.BindVariable;
+import org.axiondb.ColumnIdentifier;
+import org.axiondb.DataType;
+import org.axiondb.FunctionFactory;
+import org.axiondb.Literal;
+import org.axiondb.RowDecorator;
+import org.axiondb.Selectable;
+import org.axiondb.VariableContext;
+import org.axiondb.functions.BaseBooleanBranchFunction;
+import org.axiondb.functions.ComparisonFunction;
+import org.axiondb.functions.ConcreteFunction;
+import org.axiondb.functions.IsNotNullFunction;
+import org.axiondb.functions.IsNullFunction;
+import org.axiondb.functions.NotFunction;
+
+/**
+ * Compiles a resolved {@link Selectable} tree into an equivalent tree that is cheaper to
+ * evaluate against the rows of a given {@link RowDecorator}. Column references are bound
+ * to their field positions, so no per-row field map lookup is needed, and literal
+ * operands of comparisons are converted to the type of the other operand once rather
+ * than for every row. Nodes that are not understood are left as they are, so the
+ * compiled tree always evaluates to the same values as the original.
+ * <p>
+ * Bind variables are never pre-converted, as their values may change between
+ * executions.
+ * 
+ * @version  
+ */
+public class CompileSelectableVisitor {
+
+    public CompileSelectableVisitor(RowDecorator decorator) {
+        _decorator = decorator;
+    }
+
+    public Selectable visit(Selectable sel) throws AxionException {
+        if (sel instanceof ColumnIdentifier) {
+            return visit((ColumnIdentifier) sel);
+        } else if (sel instanceof ComparisonFunction) {
+            return visit((ComparisonFunction) sel);
+        } else if (sel instanceof FunctionFactory
+            && (sel instanceof BaseBooleanBranchFunction || sel instanceof NotFunction || sel instanceof IsNullFunction || sel instanceof IsNotNullFunction)) {
+            return visit((ConcreteFunction) sel);
+        }
+        return sel;
+    }
+
+    private Selectable visit(ColumnIdentifier colid) {
+        int index = _decorator.getFieldIndex(colid);
+        return index == -1 ? (Selectable) colid : new BoundColumn(colid, index);
+    }
+
+    private Selectable visit(ComparisonFunction fn) throws AxionException {
+        if (fn.getArgumentCount() != 2) {
+            return fn;
+        }
+        Selectable left = visit(fn.getArgument(0));
+        Selectable right = fn.getArgument(1);
+        if (isConstant(right)) {
+            Object value = null;
+            try {
+                value = left.getDataType().convert(right.evaluate(null));
+            } catch (AxionException e) {
+                return new BoundComparison(fn, left, null, null, true);
+            }
+            return new BoundComparison(fn, left, null, value, false);
+        }
+        return new BoundComparison(fn, left, visit(right), null, false);
+    }
+
+    private Selectable visit(ConcreteFunction fn) throws AxionException {
+        ConcreteFunction copy = ((FunctionFactory) fn).makeNewInstance();
+        for (int i = 0, I = fn.getArgumentCount(); i < I; i++) {
+            copy.addArgument(visit(fn.getArgument(i)));
+        }
+        return copy;
+    }
+
+    private boolean isConstant(Selectable sel) {
+        return sel instanceof Literal && !(sel instanceof BindVariable);
+    }
+
+    /** Evaluates like the {@link Selectable}it was compiled from. */
+    private static abstract class CompiledSelectable implements Selectable {
+        CompiledSelectable(Selectable original) {
+            _original = original;
+        }
+
+        public String getAlias() {
+            return _original.getAlias();
+        }
+
+        public DataType getDataType() {
+            return _original.getDataType();
+        }
+
+        public String getLabel() {
+            return _original.getLabel();
+        }
+
+        public String getName() {
+            return _original.getName();
+        }
+
+        public void setVariableContext(VariableContext context) {
+            _original.setVariableContext(context);
+        }
+
+        public String toString() {
+            return _original.toString();
+        }
+
+        private Selectable _original;
+
+        private static final long serialVersionUID = -586875641017478423L;
+    }
+
+    /** A column reference bound to its field position. */
+    private static final class BoundColumn extends CompiledSelectable {
+        BoundColumn(ColumnIdentifier colid, int index) {
+            super(colid);
+            _index = index;
+            _type = colid.getDataType();
+        }
+
+        public Object evaluate(RowDecorator row) throws AxionException {
+            return _type.convert(row.getRow().get(_index));
+        }
+
+        private int _index;
+        private DataType _type;
+
+        private static final long serialVersionUID = 7842916817275194209L;
+    }
+
+    /**
+     * A comparison whose right operand is either compiled or a constant already
+     * converted to the type of the left operand.
+     */
+    private static final class BoundComparison extends CompiledSelectable {
+        BoundComparison(ComparisonFunction fn, Selectable left, Selectable right, Object rightValue, boolean alwaysFalse) {
+            super(fn);
+            _fn = fn;
+            _left = left;
+            _leftType = left.getDataType();
+            _right = right;
+            _rightValue = rightValue;
+            _alwaysFalse = alwaysFalse;
+        }
+
+        public Object evaluate(RowDecorator row) throws AxionException {
+            if (_alwaysFalse) {
+                return Boolean.FALSE;
+            }
+            Object valLeft = _left.evaluate(row);
+            Object valRight = _rightValue;
+            if (_right != null) {
+                try {
+                    valRight = _leftType.convert(_right.evaluate(row));
+                } catch (AxionException ex) {
+                    return Boolean.FALSE;
+                }
+            }
+            return _fn.evaluate(valLeft, _leftType, valRight);
+        }
+
+        private boolean _alwaysFalse;
+        private ComparisonFunction _fn;
+        private Selectable _left;
+        private DataType _leftType;
+        private Selectable _right;
+        private Object _rightValue;
+
+        private static final long serialVersionUID = 7208918428306639020L;
+    }
+
+    private RowDecorator _decorator;
+}
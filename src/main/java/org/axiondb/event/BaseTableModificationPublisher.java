@@ -75,6 +75,10 @@ public class BaseTableModificationPublisher {
     public void setDeferAllConstraints(boolean deferAll) {
     }
 
+    public boolean isDeferAllConstraints() {
+        return false;
+    }
+
     private List _tableModificationListeners = new ArrayList();
 }
 
@@ -41,16 +41,37 @@
 package org.axiondb.functions;
 
 import org.axiondb.AxionException;
+import org.axiondb.RowDecorator;
 import org.axiondb.RowDecoratorIterator;
 
 /**
  * An aggregate function, which evalutes a collection of
  * {@link org.axiondb.Row}s.
+ * <p>
+ * Besides evaluating a whole collection at once, an aggregate can be computed
+ * incrementally: {@link #init}creates an empty accumulator for one group,
+ * {@link #accumulate}folds each row into it, {@link #merge}combines two partial
+ * accumulators and {@link #finish}returns the value of the aggregate.
  * 
  * @version  
  * @author Rodney Waldhoff
  */
 public interface AggregateFunction extends ConcreteFunction {
     public Object evaluate(RowDecoratorIterator rows) throws AxionException;
+
+    /** Returns a new, empty accumulator. */
+    public Object init() throws AxionException;
+
+    /** Adds the given row to the given accumulator, and returns the accumulator. */
+    public Object accumulate(Object accumulator, RowDecorator row) throws AxionException;
+
+    /**
+     * Adds everything accumulated in <i>other </i> to <i>accumulator </i>, and returns
+     * the combined accumulator.
+     */
+    public Object merge(Object accumulator, Object other) throws AxionException;
+
+    /** Returns the value of this aggregate for the given accumulator. */
+    public Object finish(Object accumulator) throws AxionException;
 }
 
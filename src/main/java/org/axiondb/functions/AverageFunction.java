@@ -45,8 +45,6 @@ import java.math.BigDecimal;
 import org.axiondb.AxionException;
 import org.axiondb.DataType;
 import org.axiondb.FunctionFactory;
-import org.axiondb.RowDecoratorIterator;
-import org.axiondb.Selectable;
 import org.axiondb.types.BigDecimalType;
 
 /**
@@ -68,27 +66,27 @@ public class AverageFunction extends BaseAggregateFunction implements AggregateF
         return _targetType == null ? BIG_DECIMAL_TYPE : _targetType;
     }
 
-    public final Object evaluate(RowDecoratorIterator rows) throws AxionException {
-        Selectable sel = getArgument(0);
-        _targetType = sel.getDataType();
-        setDistinct();
-
-        double rowCount = 0;
-        BigDecimal sum = null;
-        while (rows.hasNext()) {
-            Object val = _targetType.convert(sel.evaluate(rows.next()));
-            if (null != val && acceptable(val)) {
-                rowCount++;
-                sum = evaluate(sum, _targetType.toBigDecimal(val));
-            }
-        }
+    public final Object init() throws AxionException {
+        _targetType = getArgument(0).getDataType();
+        return super.init();
+    }
 
+    public final Object finish(Object accumulator) throws AxionException {
+        BigDecimal sum = (BigDecimal) super.finish(accumulator);
         if (null != sum) {
-            return sum.divide(new BigDecimal(rowCount), BigDecimal.ROUND_HALF_UP);
+            return sum.divide(new BigDecimal(getCount(accumulator)), BigDecimal.ROUND_HALF_UP);
         }
         return null;
     }
 
+    protected final Object fold(Object src, Object val) throws AxionException {
+        return evaluate((BigDecimal) src, _targetType.toBigDecimal(val));
+    }
+
+    protected final Object combine(Object src, Object val) {
+        return evaluate((BigDecimal) src, (BigDecimal) val);
+    }
+
     protected BigDecimal evaluate(BigDecimal src, BigDecimal val) {
         return null == src ? val : src.add(val);
     }
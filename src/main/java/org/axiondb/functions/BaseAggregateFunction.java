@@ -41,11 +41,13 @@
 package org.axiondb.functions;
 
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Set;
 
 import org.axiondb.AxionException;
 import org.axiondb.ColumnIdentifier;
 import org.axiondb.RowDecorator;
+import org.axiondb.RowDecoratorIterator;
 import org.axiondb.Selectable;
 
 /**
@@ -60,26 +62,81 @@ public abstract class BaseAggregateFunction extends BaseFunction implements Aggr
     public final Object evaluate(RowDecorator row) throws AxionException {
         return row.get(new ColumnIdentifier(getName()));
     }
-    
-    protected boolean acceptable(Object val) throws AxionException {
-        if(!_distinct) {
-            return true;
+
+    public Object evaluate(RowDecoratorIterator rows) throws AxionException {
+        Object accumulator = init();
+        while (rows.hasNext()) {
+            accumulator = accumulate(accumulator, rows.next());
         }
-        
-        if(_distinctValues.contains(val)) {
-            return false;
+        return finish(accumulator);
+    }
+
+    public Object init() throws AxionException {
+        setDistinct();
+        return new Accumulator(isDistinct());
+    }
+
+    public Object accumulate(Object accumulator, RowDecorator row) throws AxionException {
+        Selectable sel = getArgument(0);
+        add((Accumulator) accumulator, sel.getDataType().convert(sel.evaluate(row)));
+        return accumulator;
+    }
+
+    public Object merge(Object accumulator, Object other) throws AxionException {
+        Accumulator acc = (Accumulator) accumulator;
+        Accumulator that = (Accumulator) other;
+        if (acc._distinctValues != null) {
+            for (Iterator iter = that._distinctValues.iterator(); iter.hasNext();) {
+                add(acc, iter.next());
+            }
+        } else if (that._count > 0) {
+            acc._value = (acc._count == 0) ? that._value : combine(acc._value, that._value);
+            acc._count += that._count;
         }
-        _distinctValues.add(val);
-        return true;
+        return acc;
+    }
+
+    public Object finish(Object accumulator) throws AxionException {
+        return ((Accumulator) accumulator)._value;
+    }
+
+    /** Returns the number of values added to the given accumulator. */
+    protected final int getCount(Object accumulator) {
+        return ((Accumulator) accumulator)._count;
+    }
+
+    /** Adds a non-null value (or, if {@link #acceptsNull}, any value) to an accumulator. */
+    protected final void add(Object accumulator, Object val) throws AxionException {
+        Accumulator acc = (Accumulator) accumulator;
+        if ((null != val || acceptsNull()) && (acc._distinctValues == null || acc._distinctValues.add(val))) {
+            acc._value = fold(acc._value, val);
+            acc._count++;
+        }
+    }
+
+    /** Whether null argument values are counted, false by default. */
+    protected boolean acceptsNull() {
+        return false;
+    }
+
+    /**
+     * Returns the running value <i>src </i> (null for the first value) updated with
+     * <i>val </i>.
+     */
+    protected abstract Object fold(Object src, Object val) throws AxionException;
+
+    /** Combines two running values, by default with {@link #fold}. */
+    protected Object combine(Object src, Object val) throws AxionException {
+        return fold(src, val);
     }
     
+
     protected void setDistinct() throws AxionException {
         if (getArgumentCount() == 2) {
             Selectable distinctStr = getArgument(1);
             boolean distinct = ((String)(distinctStr.evaluate(null))).equals("DISTINCT");
             _distinct = distinct;
         }
-        _distinctValues = new HashSet();
     }
     
     protected void setDistinct(boolean distinct) throws AxionException {
@@ -97,7 +154,17 @@ public abstract class BaseAggregateFunction extends BaseFunction implements Aggr
         return true;
     }
     
-    private Set _distinctValues = null;
     private boolean _distinct = false;
+
+    /** The running state of an aggregate over one group of rows. */
+    private static final class Accumulator {
+        Accumulator(boolean distinct) {
+            _distinctValues = distinct ? new HashSet() : null;
+        }
+
+        private int _count = 0;
+        private Set _distinctValues;
+        private Object _value;
+    }
 }
 
@@ -40,6 +40,7 @@
 
 package org.axiondb.functions;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.regex.Pattern;
@@ -55,7 +56,7 @@ import org.axiondb.AxionException;
 public abstract class BaseRegExpFunction extends BaseFunction implements ScalarFunction {
     public BaseRegExpFunction(String name) {
         super(name);
-        _reCache = new HashMap();
+        _reCache = Collections.synchronizedMap(new HashMap());
     }
 
     protected Object getFromCache(Object key) {
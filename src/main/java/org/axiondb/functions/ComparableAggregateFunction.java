@@ -42,8 +42,6 @@ package org.axiondb.functions;
 
 import org.axiondb.AxionException;
 import org.axiondb.DataType;
-import org.axiondb.RowDecoratorIterator;
-import org.axiondb.Selectable;
 import org.axiondb.types.AnyType;
 
 /**
@@ -60,21 +58,13 @@ public abstract class ComparableAggregateFunction extends BaseAggregateFunction
         return _targetType == null ? ANY_TYPE : _targetType;
     }
 
-    public final Object evaluate(RowDecoratorIterator rows) throws AxionException {
-        Comparable result = null;
-        Selectable sel = getArgument(0);
-        _targetType =  sel.getDataType();
-        setDistinct();
-        
-        while (rows.hasNext()) {
-            Object rawVal = sel.evaluate(rows.next());
-            DataType currentType = sel.getDataType();
-            Object val = currentType.convert(rawVal);
-            if (null != val && acceptable(val)) {
-                result = evaluate(result, (Comparable)val);
-            }
-        }
-        return null != result ? result : null;
+    public final Object init() throws AxionException {
+        _targetType = getArgument(0).getDataType();
+        return super.init();
+    }
+
+    protected final Object fold(Object src, Object val) {
+        return evaluate((Comparable) src, (Comparable) val);
     }
     
     protected abstract Comparable evaluate(Comparable src, Comparable val);
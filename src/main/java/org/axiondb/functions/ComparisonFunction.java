@@ -78,7 +78,14 @@ public abstract class ComparisonFunction extends BaseFunction implements ScalarF
         }catch(AxionException ex){
         	return Boolean.FALSE;
         }
+        return evaluate(valLeft, typeLeft, valRight);
+    }
 
+    /**
+     * Compares <i>valLeft </i> with <i>valRight </i>, which must already have been
+     * converted to <i>typeLeft </i>.
+     */
+    public final Boolean evaluate(Object valLeft, DataType typeLeft, Object valRight) {
         if (null == valLeft || null == valRight) {
             return null;
         } else if (compare(typeLeft.compare(valLeft, valRight))) {
@@ -43,8 +43,8 @@ package org.axiondb.functions;
 import org.axiondb.AxionException;
 import org.axiondb.DataType;
 import org.axiondb.FunctionFactory;
+import org.axiondb.RowDecorator;
 import org.axiondb.RowDecoratorIterator;
-import org.axiondb.Selectable;
 import org.axiondb.types.IntegerType;
 
 /**
@@ -69,27 +69,39 @@ public class CountFunction extends BaseAggregateFunction implements AggregateFun
     }
 
     public Object evaluate(RowDecoratorIterator rows) throws AxionException {
-        int count = 0;
         setDistinct();
-        Selectable sel = getArgument(0);
-        
-        if(isDistinct()) {
-            if(sel.getName().equals("*")) {
-                throw new AxionException("Invalid Expression, Use COUNT(DISTINCT <column>)");
-            }
-            
-            while (rows.hasNext()) {
-                Object rawVal = sel.evaluate(rows.next());
-                DataType type = sel.getDataType();
-                Object val = type.convert(rawVal);
-                if (acceptable(val)) {
-                    count++;
-                }
-            }
-        } else {
-            count = rows.size();
+        if (!isDistinct()) {
+            return Integer.valueOf(rows.size());
         }
-        return new Integer(count);
+        return super.evaluate(rows);
+    }
+
+    public Object init() throws AxionException {
+        Object accumulator = super.init();
+        if (isDistinct() && getArgument(0).getName().equals("*")) {
+            throw new AxionException("Invalid Expression, Use COUNT(DISTINCT <column>)");
+        }
+        return accumulator;
+    }
+
+    public Object accumulate(Object accumulator, RowDecorator row) throws AxionException {
+        if (isDistinct()) {
+            return super.accumulate(accumulator, row);
+        }
+        add(accumulator, null);
+        return accumulator;
+    }
+
+    public Object finish(Object accumulator) throws AxionException {
+        return Integer.valueOf(getCount(accumulator));
+    }
+
+    protected boolean acceptsNull() {
+        return true;
+    }
+
+    protected Object fold(Object src, Object val) {
+        return null;
     }
 
     private static final DataType RETURN_TYPE = new IntegerType();
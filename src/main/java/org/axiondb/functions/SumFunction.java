@@ -45,8 +45,6 @@ import java.math.BigDecimal;
 import org.axiondb.AxionException;
 import org.axiondb.DataType;
 import org.axiondb.FunctionFactory;
-import org.axiondb.RowDecoratorIterator;
-import org.axiondb.Selectable;
 import org.axiondb.types.BigDecimalType;
 
 /**
@@ -66,21 +64,17 @@ public class SumFunction extends BaseAggregateFunction implements AggregateFunct
         return _targetType == null ? BIG_DECIMAL_TYPE : _targetType;
     }
 
-    public final Object evaluate(RowDecoratorIterator rows) throws AxionException {
-        Selectable sel = getArgument(0);
-        _targetType = sel.getDataType();
-        setDistinct();
+    public final Object init() throws AxionException {
+        _targetType = getArgument(0).getDataType();
+        return super.init();
+    }
+
+    protected final Object fold(Object src, Object val) throws AxionException {
+        return evaluate((BigDecimal) src, _targetType.toBigDecimal(val));
+    }
 
-        double rowCount = 0;
-        BigDecimal sum = null;
-        while (rows.hasNext()) {
-            Object val = _targetType.convert(sel.evaluate(rows.next()));
-            if (null != val && acceptable(val)) {
-                rowCount++;
-                sum = evaluate(sum, _targetType.toBigDecimal(val));
-            }
-        }
-        return null != sum ? sum : null;
+    protected final Object combine(Object src, Object val) {
+        return evaluate((BigDecimal) src, (BigDecimal) val);
     }
 
     protected BigDecimal evaluate(BigDecimal src, BigDecimal val) {
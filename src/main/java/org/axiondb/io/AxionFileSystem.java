@@ -54,6 +54,8 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.OutputStream;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 import java.util.concurrent.atomic.AtomicBoolean;
 import org.apache.commons.collections.primitives.ArrayLongList;
@@ -214,6 +216,19 @@ public class AxionFileSystem {
         }
     }
 
+    /**
+     * Open a reader over an already open file using positional reads, so any number of
+     * readers can share <code>file</code> without sharing a file pointer. Closing the
+     * returned stream does not close <code>file</code>.
+     */
+    public BufferedDataInputStream openBufferedDIS(FileInputStream file, int bufferSize) throws AxionException {
+        try {
+            return new BufferedDataInputStream(new AxionFileChannelInputStream(file), bufferSize);
+        } catch (IOException e) {
+            throw new AxionException(e);
+        }
+    }
+
     public ObjectInputStream openObjectInputSteam(File file) throws IOException {
         return new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)));
     }
@@ -249,6 +264,14 @@ public class AxionFileSystem {
         return new PidxList(file, readOnly);
     }
 
+    /**
+     * Opens a pidx list; if <code>mapped</code> is true, offsets are read through a
+     * {@link MappedFile}rather than a seekable stream.
+     */
+    public PidxList parseLongPidxList(File file, boolean readOnly, boolean mapped) throws AxionException {
+        return new PidxList(file, readOnly, mapped);
+    }
+
     public PidxList parseLongPidx(File file, boolean readOnly) throws AxionException {
         int count = (int) (file.length() / 4L);
         byte[] rawdata = new byte[count * 4];
@@ -383,15 +406,26 @@ public class AxionFileSystem {
     public class PidxList {
         private BufferedDataOutputStream _out = null;
         private BufferedDataInputStream _in = null;
+        private FileInputStream _inFile = null;
         AtomicBoolean _isDirty = new AtomicBoolean(true);
         File _pidxFile;
         int _size=0;
+        private MappedFile _mapped = null;
+        private volatile boolean _overwritten = false;
+
         public PidxList(File pidxFile, boolean readOnly) throws AxionException {
             openPidxFile(pidxFile, readOnly);
             _pidxFile = pidxFile;
             _size = (int) (_pidxFile.length()/ 8L);
         }
 
+        public PidxList(File pidxFile, boolean readOnly, boolean mapped) throws AxionException {
+            this(pidxFile, readOnly);
+            if (mapped) {
+                _mapped = new MappedFile(pidxFile);
+            }
+        }
+
         public void add(long dataFileOffset) {
             try {
                 writeToLong(_out, this.size() * (8L), (dataFileOffset & MAX_LONG));
@@ -411,33 +445,97 @@ public class AxionFileSystem {
             if(_in != null) {
                 _in.close();
                 _in = null;
+                _inFile = null;
+            }
+
+            if(_mapped != null) {
+                _mapped.close();
             }
         }
 
-        public void flush() throws IOException {
-            _out.flush();
+        public synchronized void flush() throws IOException {
+            if(_out != null) {
+                _out.flush();
+            }
         }
 
-        public synchronized long get(int index) {
-            try {
-                if(_isDirty.get()){
-                    flush();
-                    if(_in != null) {
-                        _in.close();
-                        _in = null;
+        public long get(int index) {
+            if(_mapped != null) {
+                try {
+                    if(_isDirty.get()) {
+                        synchronized (this) {
+                            flush();
+                            if(_overwritten) {
+                                // set() rewrote offsets that may already be mapped
+                                _mapped.invalidate();
+                                _overwritten = false;
+                            }
+                            _isDirty.set(false);
+                        }
                     }
-                    _in = openBufferedDIS(_pidxFile);
-                    _isDirty.set(false);
+                    return _mapped.readLong(index * (8L));
+                } catch (IOException e) {
+                    throw ExceptionConverter.convertToRuntimeException(e);
+                }
+            }
+            return getFromStream(index);
+        }
+
+        /**
+         * Reads <code>offsets.length</code> consecutive offsets, starting with the one at
+         * <i>index</i>, in a single pass over the file.
+         */
+        public void get(int index, long[] offsets) {
+            if(_mapped != null) {
+                for (int i = 0; i < offsets.length; i++) {
+                    offsets[i] = get(index + i);
+                }
+                return;
+            }
+            getFromStream(index, offsets);
+        }
+
+        private synchronized long getFromStream(int index) {
+            try {
+                return readLongFile(getInputStream(), index * (8L));
+            } catch (Exception e) {
+                throw ExceptionConverter.convertToRuntimeException(e);
+            }
+        }
+
+        private synchronized void getFromStream(int index, long[] offsets) {
+            try {
+                BufferedDataInputStream in = getInputStream();
+                in.seek(index * (8L));
+                for (int i = 0; i < offsets.length; i++) {
+                    offsets[i] = in.readLong();
                 }
-                return readLongFile(_in, index * (8L));
             } catch (Exception e) {
                 throw ExceptionConverter.convertToRuntimeException(e);
             }
         }
 
-        public void set(int rowid, long dataFileOffset) {
+        private BufferedDataInputStream getInputStream() throws Exception {
+            // a reader interrupted while seeking closes the file, so reopen it for the next one
+            if(_isDirty.get() || (_inFile != null && !_inFile.getChannel().isOpen())){
+                flush();
+                if(_in != null) {
+                    _in.close();
+                    _in = null;
+                }
+                AxionInputStream in = open(_pidxFile);
+                _inFile = in.getFileStream();
+                _in = new BufferedDataInputStream(in);
+                _isDirty.set(false);
+            }
+            return _in;
+        }
+
+        // synchronized with the flushes of readers, as compaction moves rows while they read
+        public synchronized void set(int rowid, long dataFileOffset) {
             try {
                 writeToLong(_out, rowid * (8L), (dataFileOffset & MAX_LONG));
+                _overwritten = true;
                 _isDirty.set(true);
             } catch (Exception e) {
                 throw ExceptionConverter.convertToRuntimeException(e);
@@ -507,6 +605,69 @@ public class AxionFileSystem {
         }
     }
 
+    /**
+     * Reads a file shared with other readers through {@link FileChannel#read(ByteBuffer, long)},
+     * keeping its own position.
+     */
+    class AxionFileChannelInputStream extends AxionInputStream {
+        private FileChannel _channel;
+        private FileInputStream _fis;
+        private long _pos;
+
+        public AxionFileChannelInputStream(FileInputStream fis) {
+            _fis = fis;
+            _channel = fis.getChannel();
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.max(0, Math.min(Integer.MAX_VALUE, _channel.size() - _pos));
+        }
+
+        @Override
+        public void close() throws IOException {
+            // the channel is shared, leave it open
+        }
+
+        public long getPos() throws IOException {
+            return _pos;
+        }
+
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return (read(b, 0, 1) == 1) ? (b[0] & 0xFF) : -1;
+        }
+
+        @Override
+        public int read(byte[] b) throws IOException {
+            return read(b, 0, b.length);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = _channel.read(ByteBuffer.wrap(b, off, len), _pos);
+            if (n > 0) {
+                _pos += n;
+            }
+            return n;
+        }
+
+        public void seek(long pos) throws IOException {
+            _pos = pos;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = Math.max(0, Math.min(n, _channel.size() - _pos));
+            _pos += skipped;
+            return skipped;
+        }
+
+        public FileInputStream getFileStream() {
+            return _fis;
+        }
+    }
+
     // TODO: Experiment with ByteBuffer, that might improve performance.
     // @see FileChannel.write(ByteBuffer src, long position)
     class AxionFileOutputStream extends AxionOutputStream {
@@ -71,6 +71,27 @@ public class BufferedDataInputStream extends DataInputStream {
             return buf[pos++] & 0xff;
         }
 
+        // optimized version of read(byte[], int, int) for reads smaller than the buffer,
+        // which returns what is buffered rather than asking the stream what is available
+        public int read(byte b[], int off, int len) throws IOException {
+            if (buf == null || len >= buf.length) {
+                return super.read(b, off, len);
+            } else if (len == 0) {
+                return 0;
+            }
+
+            if (pos >= count) {
+                if (super.read() == -1) {
+                    return -1;
+                }
+                pos--; // the buffer was refilled; step back over the byte just read
+            }
+            int n = Math.min(len, count - pos);
+            System.arraycopy(buf, pos, b, off, n);
+            pos += n;
+            return n;
+        }
+
         public synchronized void reset() throws IOException {
             // invalidate buffer
             this.count = 0;
@@ -73,7 +73,9 @@ public class BufferedDataOutputStream extends DataOutputStream {
         public void seek(long desired) throws IOException {
             long start = ((PositionCache) out).getPos();
             long current = start + this.position;
-            if (desired >= start && desired < start + buf.length) {
+            // only within what has been written to the buffer, or the gap would be
+            // flushed over with stale bytes
+            if (desired >= start && desired <= start + count) {
                 this.position += (desired - current); // can position within buffer
             } else {
                 if (count > 0) {
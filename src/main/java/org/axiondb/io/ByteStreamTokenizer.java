@@ -0,0 +1,426 @@
+/*
+ * 
+ * =======================================================================
+ * Copyright (c) 2002-2005 Axion Development Team.  All rights reserved.
+ *  
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions 
+ * are met:
+ * 
+ * 1. Redistributions of source code must retain the above 
+ *    copyright notice, this list of conditions and the following 
+ *    disclaimer. 
+ *   
+ * 2. Redistributions in binary form must reproduce the above copyright 
+ *    notice, this list of conditions and the following disclaimer in 
+ *    the documentation and/or other materials provided with the 
+ *    distribution. 
+ *   
+ * 3. The names "Tigris", "Axion", nor the names of its contributors may 
+ *    not be used to endorse or promote products derived from this 
+ *    software without specific prior written permission. 
+ *  
+ * 4. Products derived from this software may not be called "Axion", nor 
+ *    may "Tigris" or "Axion" appear in their names without specific prior
+ *    written permission.
+ *   
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT 
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, 
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT 
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * =======================================================================
+ */
+
+package org.axiondb.io;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.sql.Types;
+import org.axiondb.AxionException;
+import org.axiondb.DataType;
+import org.axiondb.Row;
+import org.axiondb.engine.rows.SimpleRow;
+import org.axiondb.types.CharacterType;
+
+/**
+ * Splits delimited records into column values working on the bytes of the data file.
+ * Gives the same values as {@link CharStreamTokenizer}, but a record is read into a
+ * reusable buffer in bulk, separators are found by scanning that buffer, numbers are
+ * parsed from the bytes directly and strings are only created for string columns.
+ * <p>
+ * As with {@link CharStreamTokenizer}, each byte stands for the character with the
+ * same value.
+ * 
+ * @version  
+ */
+public class ByteStreamTokenizer {
+
+    private static final String EMPTY_STRING = "";
+    protected static final int EOF = -1;
+
+    /** Number of bytes asked of the stream at a time; kept below its buffer size. */
+    private static final int READ_SIZE = 256;
+
+    /** Most significant digits that always fit in a long. */
+    private static final int MAX_LONG_DIGITS = 18;
+
+    public ByteStreamTokenizer(char[] fieldSepChar, char[][] lineSepsChar, char[] qualifierChar, boolean isQuoted) {
+        _fieldSep = toBytes(fieldSepChar);
+        _lineSeps = new byte[lineSepsChar.length][];
+        for (int k = 0; k < lineSepsChar.length; k++) {
+            _lineSeps[k] = toBytes(lineSepsChar[k]);
+        }
+        _qualifier = toBytes(qualifierChar);
+        _isQuoted = isQuoted && _qualifier.length != 0;
+    }
+
+    // skip line from current position
+    public void skipLine(BufferedDataInputStream data) throws IOException {
+        readLine(data, data.getPos());
+    }
+
+    public boolean isEndOfRecord(int nextChar, BufferedDataInputStream data) throws IOException {
+        if (EOF == nextChar) {
+            return true;
+        }
+        for (int k = 0; k < _lineSeps.length; k++) {
+            byte[] sep = _lineSeps[k];
+            if (sep.length != 0 && (sep[0] & 0xff) == nextChar) {
+                // Look ahead to see whether the following bytes match EOL.
+                long lastDataFileOffset = data.getPos();
+                int i = 1;
+                while (i < sep.length && (sep[i] & 0xff) == data.read()) {
+                    i++;
+                }
+                if (i == sep.length) {
+                    return true;
+                }
+                data.seek(lastDataFileOffset);
+            }
+        }
+        return false;
+    }
+
+    public Row readAndSplitLine(BufferedDataInputStream data, long offset, int colCount, boolean trimWhiteSpace, DataType[] datatypes) throws AxionException, IOException {
+        readLine(data, offset);
+        if (_lineLength == 0) {
+            throw new AxionException("Empty line detected - invalid.");
+        }
+
+        Row row = new SimpleRow(colCount);
+        _position = 0;
+        _maxPosition = _lineLength;
+        for (int i = 0; i < colCount && _position < _maxPosition; i++) {
+            row.set(i, nextToken(datatypes[i], trimWhiteSpace));
+        }
+        return row;
+    }
+
+    public boolean isNumber(int type) {
+        switch (type) {
+            case Types.INTEGER:
+            case Types.NUMERIC:
+            case Types.BIGINT:
+            case Types.DECIMAL:
+            case Types.SMALLINT:
+            case Types.DOUBLE:
+            case Types.FLOAT:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Reads the record at the given offset into my buffer, leaving the stream positioned
+     * at the start of the next record.
+     */
+    private void readLine(BufferedDataInputStream data, long offset) throws IOException {
+        data.seek(offset);
+        int length = 0;
+        int scanFrom = 0;
+        while (true) {
+            if (length == _buf.length) {
+                byte[] newBuf = new byte[_buf.length * 2];
+                System.arraycopy(_buf, 0, newBuf, 0, length);
+                _buf = newBuf;
+            }
+
+            int count = data.read(_buf, length, Math.min(READ_SIZE, _buf.length - length));
+            boolean atEOF = (count <= 0);
+            if (!atEOF) {
+                length += count;
+            }
+
+            for (int pos = scanFrom; pos < length; pos++) {
+                int sepLength = matchLineSeparator(pos, length, atEOF);
+                if (sepLength > 0) {
+                    _lineLength = pos;
+                    data.seek(offset + pos + sepLength);
+                    return;
+                } else if (sepLength < 0) {
+                    // a separator may continue past what has been read so far
+                    break;
+                }
+                scanFrom = pos + 1;
+            }
+
+            if (atEOF) {
+                _lineLength = length;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns the length of the first of my line separators found at <i>pos </i>, 0 if
+     * there is none, or -1 if more bytes must be read to tell.
+     */
+    private int matchLineSeparator(int pos, int length, boolean atEOF) {
+        final byte b = _buf[pos];
+        for (int k = 0; k < _lineSeps.length; k++) {
+            byte[] sep = _lineSeps[k];
+            if (sep.length == 0 || sep[0] != b) {
+                continue;
+            }
+            int i = 1;
+            while (i < sep.length && pos + i < length && sep[i] == _buf[pos + i]) {
+                i++;
+            }
+            if (i == sep.length) {
+                return i;
+            } else if (pos + i == length && !atEOF) {
+                return -1;
+            }
+        }
+        return 0;
+    }
+
+    private Object nextToken(DataType type, boolean trimWhiteSpace) throws AxionException {
+        int start = _position;
+        int end = start;
+        int pos = _position;
+        boolean inQuotedString = false;
+        boolean endQuotedString = false;
+        boolean treatAsUnquoted = false;
+        boolean wasEscaped = false;
+        boolean delimited = false;
+
+        while (pos < _maxPosition) {
+            // if quoted and found qualifier
+            if (_isQuoted && matches(_qualifier, pos)) {
+                if (!inQuotedString) { // not inside the quoted string
+                    pos += _qualifier.length;
+                    start = pos;
+                    inQuotedString = true;
+                    continue;
+                } else if (matches(_qualifier, pos + _qualifier.length)) {
+                    pos += (_qualifier.length * 2);
+                    wasEscaped = true;
+                    continue;
+                }
+                // inside the quoted string
+                end = pos;
+                pos += _qualifier.length;
+                inQuotedString = false;
+                endQuotedString = true;
+                continue;
+            }
+
+            if (_isQuoted && endQuotedString) {
+                // close quote found, skip to the delimiter
+                if (matches(_fieldSep, pos)) {
+                    pos += _fieldSep.length;
+                    delimited = true;
+                    break;
+                }
+                pos++;
+                continue;
+            }
+
+            // if quoted but did not find start qualifer, treat this token as
+            // unquoted
+            if (_isQuoted && !inQuotedString) {
+                treatAsUnquoted = true;
+            }
+
+            // if non-quoted
+            if ((!_isQuoted || treatAsUnquoted) && matches(_fieldSep, pos)) {
+                end = pos;
+                pos += _fieldSep.length;
+                delimited = true;
+                break;
+            }
+
+            pos++;
+        }
+
+        if (!delimited) {
+            // end of record; a value still open runs to the end of it
+            pos = _maxPosition;
+            if (!endQuotedString) {
+                end = _maxPosition;
+            }
+        }
+        _position = pos;
+
+        if (start < end) {
+            if (isNumber(type.getJdbcType())) {
+                return toNumber(start, end);
+            } else if (type instanceof CharacterType || trimWhiteSpace) {
+                String token = toTrimmedString(start, end);
+                if (wasEscaped && token != null) {
+                    return unescape(token);
+                }
+                return token;
+            } else {
+                return toString(start, end);
+            }
+        } else if (endQuotedString) {
+            return EMPTY_STRING;
+        } else {
+            return null;
+        }
+    }
+
+    private boolean matches(byte[] token, int pos) {
+        if (token.length == 0 || pos + token.length > _maxPosition) {
+            return false;
+        }
+        for (int j = 0; j < token.length; j++) {
+            if (token[j] != _buf[pos + j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Parses plain decimal numbers of up to {@link #MAX_LONG_DIGITS}digits straight
+     * from my buffer, leaving anything else to {@link BigDecimal}.
+     */
+    private Object toNumber(int start, int end) throws AxionException {
+        while (start < end && (_buf[start] & 0xff) <= ' ') {
+            start++;
+        }
+        while (start < end && (_buf[end - 1] & 0xff) <= ' ') {
+            end--;
+        }
+        if (start == end) {
+            return null;
+        }
+
+        int pos = start;
+        boolean negative = false;
+        if (_buf[pos] == '-' || _buf[pos] == '+') {
+            negative = (_buf[pos] == '-');
+            pos++;
+        }
+
+        long unscaled = 0;
+        int digits = 0;
+        int scale = -1;
+        for (; pos < end; pos++) {
+            byte b = _buf[pos];
+            if (b >= '0' && b <= '9') {
+                unscaled = unscaled * 10 + (b - '0');
+                digits++;
+                if (scale >= 0) {
+                    scale++;
+                }
+            } else if (b == '.' && scale < 0) {
+                scale = 0;
+            } else {
+                break;
+            }
+        }
+
+        if (pos == end && digits > 0 && digits <= MAX_LONG_DIGITS) {
+            return BigDecimal.valueOf(negative ? -unscaled : unscaled, Math.max(scale, 0));
+        }
+
+        char[] chars = new char[end - start];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = (char) (_buf[start + i] & 0xff);
+        }
+        try {
+            return new BigDecimal(chars);
+        } catch (NumberFormatException e) {
+            throw new AxionException(e);
+        }
+    }
+
+    private String toTrimmedString(int start, int end) {
+        while (start < end && (_buf[start] & 0xff) <= ' ') {
+            start++;
+        }
+        while (start < end && (_buf[end - 1] & 0xff) <= ' ') {
+            end--;
+        }
+        return (start == end) ? null : toString(start, end);
+    }
+
+    private String toString(int start, int end) {
+        // each byte is the low byte of its character, as with ISO-8859-1
+        int length = end - start;
+        if (_chars.length < length) {
+            _chars = new char[Math.max(length, _chars.length * 2)];
+        }
+        for (int i = 0; i < length; i++) {
+            _chars[i] = (char) (_buf[start + i] & 0xff);
+        }
+        return new String(_chars, 0, length);
+    }
+
+    private String unescape(String token) {
+        String qualifier = asString(_qualifier);
+        String escaped = qualifier + qualifier;
+        StringBuffer buf = new StringBuffer(token.length());
+        int from = 0;
+        for (int at; (at = token.indexOf(escaped, from)) != -1; from = at + escaped.length()) {
+            buf.append(token.substring(from, at)).append(qualifier);
+        }
+        return buf.append(token.substring(from)).toString();
+    }
+
+    private static String asString(byte[] bytes) {
+        char[] chars = new char[bytes.length];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i] = (char) (bytes[i] & 0xff);
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Returns the bytes matching the given characters, or none if one of them can't
+     * occur in a byte stream, so that it is never matched.
+     */
+    private static byte[] toBytes(char[] chars) {
+        byte[] bytes = new byte[chars.length];
+        for (int i = 0; i < chars.length; i++) {
+            if (chars[i] > 0xff) {
+                return new byte[0];
+            }
+            bytes[i] = (byte) chars[i];
+        }
+        return bytes;
+    }
+
+    private byte[] _buf = new byte[READ_SIZE];
+    private char[] _chars = new char[READ_SIZE];
+    private int _lineLength;
+    private int _position;
+    private int _maxPosition;
+
+    private byte[] _fieldSep;
+    private byte[][] _lineSeps;
+    private byte[] _qualifier;
+    private boolean _isQuoted;
+}
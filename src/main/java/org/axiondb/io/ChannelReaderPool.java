@@ -0,0 +1,178 @@
+/*
+ * 
+ * =======================================================================
+ * Copyright (c) 2002-2005 Axion Development Team.  All rights reserved.
+ *  
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions 
+ * are met:
+ * 
+ * 1. Redistributions of source code must retain the above 
+ *    copyright notice, this list of conditions and the following 
+ *    disclaimer. 
+ *   
+ * 2. Redistributions in binary form must reproduce the above copyright 
+ *    notice, this list of conditions and the following disclaimer in 
+ *    the documentation and/or other materials provided with the 
+ *    distribution. 
+ *   
+ * 3. The names "Tigris", "Axion", nor the names of its contributors may 
+ *    not be used to endorse or promote products derived from this 
+ *    software without specific prior written permission. 
+ *  
+ * 4. Products derived from this software may not be called "Axion", nor 
+ *    may "Tigris" or "Axion" appear in their names without specific prior
+ *    written permission.
+ *   
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT 
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, 
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT 
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * =======================================================================
+ */
+
+package org.axiondb.io;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.axiondb.AxionException;
+
+/**
+ * Hands out {@link BufferedDataInputStream readers}over a single shared file. Each
+ * reader keeps its own position and buffer and reads through positional
+ * {@link java.nio.channels.FileChannel}calls, so concurrent readers of the same file do
+ * not need to synchronize on a common stream.
+ * <p>
+ * Readers are {@link #borrow borrowed}for the duration of a read and then
+ * {@link #release released}; idle readers are kept for reuse, up to a small limit.
+ * <p>
+ * Interrupting a thread while it reads closes the shared channel, failing the reads of
+ * other threads with a {@link java.nio.channels.ClosedChannelException}. When that happens
+ * the file is reopened for the next reader, so those reads may be retried.
+ * 
+ * @version  
+ */
+public class ChannelReaderPool {
+
+    public ChannelReaderPool(File file) {
+        this(file, DEFAULT_BUFFER_SIZE);
+    }
+
+    public ChannelReaderPool(File file, int bufferSize) {
+        _file = file;
+        _bufferSize = bufferSize;
+    }
+
+    /**
+     * Returns an idle reader, or a new one if none is available. The reader last released
+     * by the calling thread is preferred, so that a thread reading rows in order keeps
+     * reading from its own buffer while other threads read elsewhere in the file.
+     */
+    public BufferedDataInputStream borrow() throws AxionException {
+        BufferedDataInputStream reader = null;
+        reopenIfClosed();
+        synchronized (_idle) {
+            Object last = _lastReleased.get();
+            if (last != null && _idle.remove(last)) {
+                reader = (BufferedDataInputStream) last;
+                _borrowed.put(reader, Integer.valueOf(_generation));
+                return reader;
+            }
+            if (!_idle.isEmpty()) {
+                reader = (BufferedDataInputStream) _idle.remove(_idle.size() - 1);
+                _borrowed.put(reader, Integer.valueOf(_generation));
+                return reader;
+            }
+        }
+        synchronized (this) {
+            reader = FS.openBufferedDIS(getFileInputStream(), _bufferSize);
+            synchronized (_idle) {
+                _borrowed.put(reader, Integer.valueOf(_generation));
+            }
+        }
+        return reader;
+    }
+
+    /**
+     * Closes the shared file and drops any idle readers. Readers borrowed before this
+     * call must not be used afterwards.
+     */
+    public synchronized void close() {
+        invalidate();
+        FS.closeInputStream(_fis);
+        _fis = null;
+    }
+
+    public File getFile() {
+        return _file;
+    }
+
+
+    /**
+     * Drops idle readers so that subsequent reads start with an empty buffer.
+     */
+    public void invalidate() {
+        synchronized (_idle) {
+            _idle.clear();
+            _generation++;
+        }
+    }
+
+    /**
+     * Returns a borrowed reader. Readers borrowed before the last {@link #invalidate}or
+     * {@link #close}are discarded rather than reused.
+     */
+    public void release(BufferedDataInputStream reader) {
+        synchronized (_idle) {
+            Integer generation = (Integer) _borrowed.remove(reader);
+            if (generation != null && generation.intValue() == _generation && _idle.size() < MAX_IDLE_READERS) {
+                _idle.add(reader);
+                _lastReleased.set(reader);
+            }
+        }
+    }
+
+    private synchronized void reopenIfClosed() {
+        if (_fis != null && !_fis.getChannel().isOpen()) {
+            invalidate();
+            FS.closeInputStream(_fis);
+            _fis = null;
+        }
+    }
+
+    private synchronized FileInputStream getFileInputStream() throws AxionException {
+        if (_fis == null) {
+            try {
+                _fis = new FileInputStream(_file);
+            } catch (IOException e) {
+                throw new AxionException(e);
+            }
+        }
+        return _fis;
+    }
+
+    private static final int DEFAULT_BUFFER_SIZE = 4096;
+    private static final AxionFileSystem FS = new AxionFileSystem();
+    private static final int MAX_IDLE_READERS = 64;
+
+    private Map _borrowed = new IdentityHashMap();
+    private int _bufferSize;
+    private File _file;
+    private FileInputStream _fis;
+    private int _generation = 0;
+    private List _idle = new ArrayList();
+    private ThreadLocal _lastReleased = new ThreadLocal();
+}
@@ -45,6 +45,7 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.nio.channels.FileLock;
 
 import org.axiondb.AxionException;
@@ -122,6 +123,20 @@ public class FileUtil {
         renameFile(dir, old + ext, name + ext);
     }
 
+    /**
+     * Moves <code>source</code> over <code>target</code>, so that a crash leaves one
+     * whole file or the other rather than a partly written one.
+     */
+    public static void replace(File source, File target) throws AxionException {
+        if (!source.renameTo(target)) {
+            // not every platform renames over an existing file
+            target.delete();
+            if (!source.renameTo(target)) {
+                throw new AxionException("Unable to rename " + source + " to " + target);
+            }
+        }
+    }
+
     public static void renameToUpperCase(File dir) throws IOException {
         File files[] = dir.listFiles();
         if (files != null) {
@@ -154,6 +169,45 @@ public class FileUtil {
         }
     }
 
+    /**
+     * Forces every file under <code>dir</code> (except <code>exclude</code>, which may
+     * be null) to the storage device, so that data written through any stream survives
+     * a crash.
+     */
+    public static void sync(File dir, File exclude) throws AxionException {
+        File contents[] = dir.listFiles();
+        if (contents != null) {
+            for (int i = 0; i < contents.length; i++) {
+                if (contents[i].isDirectory()) {
+                    sync(contents[i], exclude);
+                } else if (!contents[i].equals(exclude)) {
+                    sync(contents[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Forces <code>file</code> to the storage device, so that data written to it
+     * through any stream survives a crash.
+     */
+    public static void sync(File file) throws AxionException {
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "r");
+            raf.getFD().sync();
+        } catch (IOException e) {
+            throw new AxionException("Unable to sync " + file, e);
+        } finally {
+            if (null != raf) {
+                try {
+                    raf.close();
+                } catch (Exception e) {
+                }
+            }
+        }
+    }
+
     private static boolean fullyDelete(File dir) throws IOException {
         File contents[] = dir.listFiles();
         if (contents != null) {
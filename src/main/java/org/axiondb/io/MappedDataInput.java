@@ -0,0 +1,160 @@
+/*
+ * 
+ * =======================================================================
+ * Copyright (c) 2002-2005 Axion Development Team.  All rights reserved.
+ *  
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions 
+ * are met:
+ * 
+ * 1. Redistributions of source code must retain the above 
+ *    copyright notice, this list of conditions and the following 
+ *    disclaimer. 
+ *   
+ * 2. Redistributions in binary form must reproduce the above copyright 
+ *    notice, this list of conditions and the following disclaimer in 
+ *    the documentation and/or other materials provided with the 
+ *    distribution. 
+ *   
+ * 3. The names "Tigris", "Axion", nor the names of its contributors may 
+ *    not be used to endorse or promote products derived from this 
+ *    software without specific prior written permission. 
+ *  
+ * 4. Products derived from this software may not be called "Axion", nor 
+ *    may "Tigris" or "Axion" appear in their names without specific prior
+ *    written permission.
+ *   
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT 
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, 
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT 
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * =======================================================================
+ */
+
+package org.axiondb.io;
+
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.IOException;
+
+/**
+ * A {@link DataInput}reading directly from a {@link MappedFile}. Each instance keeps
+ * its own position, so readers are cheap to create and are not shared between threads.
+ * 
+ * @version  
+ */
+public class MappedDataInput implements DataInput {
+
+    public MappedDataInput(MappedFile file) {
+        this(file, 0L);
+    }
+
+    public MappedDataInput(MappedFile file, long pos) {
+        _file = file;
+        _pos = pos;
+    }
+
+    public long getPos() {
+        return _pos;
+    }
+
+    public boolean readBoolean() throws IOException {
+        return readByte() != 0;
+    }
+
+    public byte readByte() throws IOException {
+        return _file.readByte(_pos++);
+    }
+
+    public char readChar() throws IOException {
+        return (char) readShort();
+    }
+
+    public double readDouble() throws IOException {
+        return Double.longBitsToDouble(readLong());
+    }
+
+    public float readFloat() throws IOException {
+        return Float.intBitsToFloat(readInt());
+    }
+
+    public void readFully(byte[] b) throws IOException {
+        readFully(b, 0, b.length);
+    }
+
+    public void readFully(byte[] b, int off, int len) throws IOException {
+        _file.readFully(_pos, b, off, len);
+        _pos += len;
+    }
+
+    public int readInt() throws IOException {
+        int value = _file.readInt(_pos);
+        _pos += 4;
+        return value;
+    }
+
+    /**
+     * @deprecated see {@link DataInputStream#readLine}
+     */
+    public String readLine() throws IOException {
+        if (_pos >= _file.getFile().length()) {
+            return null;
+        }
+        StringBuffer buf = new StringBuffer();
+        while (_pos < _file.getFile().length()) {
+            int c = readUnsignedByte();
+            if (c == '\n') {
+                break;
+            } else if (c == '\r') {
+                if (_pos < _file.getFile().length() && _file.readByte(_pos) == '\n') {
+                    _pos++;
+                }
+                break;
+            }
+            buf.append((char) c);
+        }
+        return buf.toString();
+    }
+
+    public long readLong() throws IOException {
+        long value = _file.readLong(_pos);
+        _pos += 8;
+        return value;
+    }
+
+    public short readShort() throws IOException {
+        return (short) readUnsignedShort();
+    }
+
+    public int readUnsignedByte() throws IOException {
+        return readByte() & 0xFF;
+    }
+
+    public int readUnsignedShort() throws IOException {
+        return (readUnsignedByte() << 8) | readUnsignedByte();
+    }
+
+    public String readUTF() throws IOException {
+        return DataInputStream.readUTF(this);
+    }
+
+    public void seek(long pos) {
+        _pos = pos;
+    }
+
+    public int skipBytes(int n) throws IOException {
+        long skipped = Math.max(0, Math.min(n, _file.getFile().length() - _pos));
+        _pos += skipped;
+        return (int) skipped;
+    }
+
+    private MappedFile _file;
+    private long _pos;
+}
@@ -0,0 +1,223 @@
+/*
+ * 
+ * =======================================================================
+ * Copyright (c) 2002-2005 Axion Development Team.  All rights reserved.
+ *  
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions 
+ * are met:
+ * 
+ * 1. Redistributions of source code must retain the above 
+ *    copyright notice, this list of conditions and the following 
+ *    disclaimer. 
+ *   
+ * 2. Redistributions in binary form must reproduce the above copyright 
+ *    notice, this list of conditions and the following disclaimer in 
+ *    the documentation and/or other materials provided with the 
+ *    distribution. 
+ *   
+ * 3. The names "Tigris", "Axion", nor the names of its contributors may 
+ *    not be used to endorse or promote products derived from this 
+ *    software without specific prior written permission. 
+ *  
+ * 4. Products derived from this software may not be called "Axion", nor 
+ *    may "Tigris" or "Axion" appear in their names without specific prior
+ *    written permission.
+ *   
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT 
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, 
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT 
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * =======================================================================
+ */
+
+package org.axiondb.io;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A read-only view of a file through {@link java.nio.MappedByteBuffer}segments. Reads
+ * are positional and do not touch any shared position, so any number of threads may
+ * read concurrently.
+ * <p>
+ * The file may grow while it is mapped (as table data and .pidx files do when rows are
+ * appended); reads past the currently mapped length remap the tail of the file. Bytes
+ * already mapped are treated as immutable: whoever overwrites them in place or cuts the
+ * file back must {@link #invalidate}the mapping (or close it) before the next read. A
+ * file found to be shorter than the mapped length is rejected rather than read.
+ * 
+ * @version  
+ */
+public class MappedFile {
+
+    public MappedFile(File file) {
+        this(file, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * @param segmentSize the size of each mapped region, a power of two
+     */
+    public MappedFile(File file, int segmentSize) {
+        if (segmentSize < 8 || Integer.bitCount(segmentSize) != 1) {
+            throw new IllegalArgumentException("Segment size must be a power of two: " + segmentSize);
+        }
+        _file = file;
+        _segmentShift = Integer.numberOfTrailingZeros(segmentSize);
+        _segmentMask = segmentSize - 1;
+    }
+
+    /**
+     * Unmaps (by dropping all references to) my segments and closes the file.
+     */
+    public synchronized void close() {
+        _mapping = EMPTY;
+        if (_fis != null) {
+            try {
+                _fis.close();
+            } catch (IOException e) {
+                // ignored
+            }
+            _fis = null;
+        }
+    }
+
+    public File getFile() {
+        return _file;
+    }
+
+    /**
+     * Drops every mapped segment, so the next read maps the file as it is now. Call this
+     * after bytes already mapped have been overwritten or the file has been truncated.
+     */
+    public synchronized void invalidate() {
+        _mapping = EMPTY;
+    }
+
+    /**
+     * Returns the number of bytes currently mapped.
+     */
+    public long length() {
+        return _mapping.length;
+    }
+
+    public byte readByte(long pos) throws IOException {
+        Mapping map = ensureMapped(pos + 1);
+        return map.segments[(int) (pos >>> _segmentShift)].get((int) (pos & _segmentMask));
+    }
+
+    public int readInt(long pos) throws IOException {
+        Mapping map = ensureMapped(pos + 4);
+        int offset = (int) (pos & _segmentMask);
+        if (offset + 4 <= _segmentMask + 1) {
+            return map.segments[(int) (pos >>> _segmentShift)].getInt(offset);
+        }
+        return ((readByte(pos) & 0xFF) << 24) | ((readByte(pos + 1) & 0xFF) << 16) | ((readByte(pos + 2) & 0xFF) << 8)
+            | (readByte(pos + 3) & 0xFF);
+    }
+
+    public long readLong(long pos) throws IOException {
+        Mapping map = ensureMapped(pos + 8);
+        int offset = (int) (pos & _segmentMask);
+        if (offset + 8 <= _segmentMask + 1) {
+            return map.segments[(int) (pos >>> _segmentShift)].getLong(offset);
+        }
+        return ((long) readInt(pos) << 32) | (readInt(pos + 4) & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Copies <code>len</code> bytes starting at <code>pos</code> into <code>b</code>.
+     * 
+     * @throws EOFException if the file ends before <code>len</code> bytes are read
+     */
+    public void readFully(long pos, byte[] b, int off, int len) throws IOException {
+        Mapping map = ensureMapped(pos + len);
+        while (len > 0) {
+            int offset = (int) (pos & _segmentMask);
+            int n = Math.min(len, _segmentMask + 1 - offset);
+            ByteBuffer segment = map.segments[(int) (pos >>> _segmentShift)].duplicate();
+            segment.position(offset);
+            segment.get(b, off, n);
+            pos += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Makes sure at least the first <code>end</code> bytes of the file are mapped, mapping
+     * any part of the file that has been appended since the last call.
+     */
+    private Mapping ensureMapped(long end) throws IOException {
+        Mapping map = _mapping;
+        if (end <= map.length) {
+            return map;
+        }
+        return remap(end);
+    }
+
+    private synchronized Mapping remap(long end) throws IOException {
+        Mapping old = _mapping;
+        if (end <= old.length) {
+            return old;
+        }
+        if (_fis == null) {
+            _fis = new FileInputStream(_file);
+        }
+        FileChannel channel = _fis.getChannel();
+        long size = channel.size();
+        if (size < old.length) {
+            throw new IOException(_file + " was cut back to " + size + " bytes while " + old.length
+                + " bytes were mapped");
+        }
+        if (end > size) {
+            throw new EOFException("Attempt to read past end of " + _file + " at " + end + " (length " + size + ")");
+        }
+
+        int segmentSize = _segmentMask + 1;
+        int count = (int) ((size + _segmentMask) >>> _segmentShift);
+        ByteBuffer[] segments = new ByteBuffer[count];
+
+        // full segments never change once mapped; remap only the old tail and beyond
+        int keep = (int) (old.length >>> _segmentShift);
+        System.arraycopy(old.segments, 0, segments, 0, Math.min(keep, count));
+        for (int i = keep; i < count; i++) {
+            long start = ((long) i) << _segmentShift;
+            segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(segmentSize, size - start));
+        }
+        _mapping = new Mapping(segments, size);
+        return _mapping;
+    }
+
+    /** An immutable snapshot of my mapped segments, swapped atomically on remap. */
+    private static class Mapping {
+        Mapping(ByteBuffer[] segments, long length) {
+            this.segments = segments;
+            this.length = length;
+        }
+
+        final ByteBuffer[] segments;
+        final long length;
+    }
+
+    /** Default segment size, 256 MB. */
+    public static final int DEFAULT_SEGMENT_SIZE = 1 << 28;
+    private static final Mapping EMPTY = new Mapping(new ByteBuffer[0], 0);
+
+    private File _file;
+    private FileInputStream _fis;
+    private volatile Mapping _mapping = EMPTY;
+    private int _segmentMask;
+    private int _segmentShift;
+}
@@ -0,0 +1,265 @@
+/*
+ * 
+ * =======================================================================
+ * Copyright (c) 2002-2005 Axion Development Team.  All rights reserved.
+ *  
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions 
+ * are met:
+ * 
+ * 1. Redistributions of source code must retain the above 
+ *    copyright notice, this list of conditions and the following 
+ *    disclaimer. 
+ *   
+ * 2. Redistributions in binary form must reproduce the above copyright 
+ *    notice, this list of conditions and the following disclaimer in 
+ *    the documentation and/or other materials provided with the 
+ *    distribution. 
+ *   
+ * 3. The names "Tigris", "Axion", nor the names of its contributors may 
+ *    not be used to endorse or promote products derived from this 
+ *    software without specific prior written permission. 
+ *  
+ * 4. Products derived from this software may not be called "Axion", nor 
+ *    may "Tigris" or "Axion" appear in their names without specific prior
+ *    written permission.
+ *   
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT 
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, 
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT 
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * =======================================================================
+ */
+
+package org.axiondb.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A file made of fixed-size pages, addressed by page number. Pages are read and written
+ * with positional {@link FileChannel}calls, so no stream position is shared between
+ * callers.
+ * <p>
+ * A paged file may be created before the file it belongs in is known, as indices are
+ * built before the table knows its data directory. Its pages are then written to a
+ * temporary file until {@link #attach}moves them to the right one, so that only the
+ * pages a caller keeps (such as a {@link org.axiondb.util.BufferPool}) stay in memory.
+ * 
+ * @version  
+ */
+public class PagedFile {
+
+    /**
+     * Creates a paged file backed by a temporary file.
+     */
+    public PagedFile(int pageSize) throws IOException {
+        _pageSize = pageSize;
+        File file = File.createTempFile("axion", ".pages");
+        file.deleteOnExit();
+        open(file);
+        _temporary = true;
+    }
+
+    /**
+     * Opens (or creates) the given file. Any partial trailing page is ignored.
+     */
+    public PagedFile(File file, int pageSize) throws IOException {
+        _pageSize = pageSize;
+        open(file);
+    }
+
+    /**
+     * Appends a new zero-filled page and returns its page number.
+     */
+    public synchronized int allocate() throws IOException {
+        int pageId = _pageCount++;
+        write(pageId, new byte[_pageSize]);
+        return pageId;
+    }
+
+    /**
+     * Moves my pages to <code>file</code> and switches to it. Pages in a temporary file
+     * replace whatever <code>file</code> held. Otherwise my pages are copied to
+     * <code>file</code> unless it already exists (for example because the directory
+     * holding it has been renamed), in which case it is simply reopened.
+     */
+    public synchronized void attach(File file) throws IOException {
+        if (file.getAbsoluteFile().equals(_file.getAbsoluteFile())) {
+            return;
+        }
+        if (!_temporary && file.exists()) {
+            close();
+            open(file);
+            return;
+        }
+
+        File old = _file;
+        boolean temporary = _temporary;
+        int count = _pageCount;
+        // keep the temporary file until its pages have been moved
+        _temporary = false;
+        close();
+        if (file.exists()) {
+            file.delete();
+        }
+        File parent = file.getParentFile();
+        if (parent != null) {
+            parent.mkdirs();
+        }
+        if (!temporary || !old.renameTo(file)) {
+            copy(old, file, (long) count * _pageSize);
+            if (temporary) {
+                old.delete();
+            }
+        }
+        open(file);
+    }
+
+    /**
+     * Closes my file, deleting it if it is temporary.
+     */
+    public synchronized void close() throws IOException {
+        if (_channel != null) {
+            _channel.close();
+            _raf.close();
+            _channel = null;
+            _raf = null;
+            if (_temporary) {
+                _file.delete();
+            }
+        }
+    }
+
+    /**
+     * Forces any written pages to the storage device.
+     */
+    public synchronized void force() throws IOException {
+        if (_channel != null) {
+            _channel.force(false);
+        }
+    }
+
+    public File getFile() {
+        return _file;
+    }
+
+    public synchronized int getPageCount() {
+        return _pageCount;
+    }
+
+    public int getPageSize() {
+        return _pageSize;
+    }
+
+    /**
+     * Returns true until I have been {@link #attach attached}to the file my pages belong
+     * in.
+     */
+    public synchronized boolean isTemporary() {
+        return _temporary;
+    }
+
+    /**
+     * Reads page <code>pageId</code> into <code>page</code>, which must be
+     * {@link #getPageSize page size}bytes long.
+     */
+    public void read(int pageId, byte[] page) throws IOException {
+        assertPage(pageId);
+        FileChannel channel = null;
+        synchronized (this) {
+            channel = _channel;
+        }
+        readFully(channel, page, (long) pageId * _pageSize);
+    }
+
+    /**
+     * Drops every page after the first <code>pageCount</code> pages.
+     */
+    public synchronized void truncate(int pageCount) throws IOException {
+        _channel.truncate((long) pageCount * _pageSize);
+        _pageCount = Math.min(_pageCount, pageCount);
+    }
+
+    /**
+     * Writes <code>page</code> as page <code>pageId</code>.
+     */
+    public void write(int pageId, byte[] page) throws IOException {
+        assertPage(pageId);
+        FileChannel channel = null;
+        synchronized (this) {
+            channel = _channel;
+        }
+        ByteBuffer buf = ByteBuffer.wrap(page, 0, _pageSize);
+        long pos = (long) pageId * _pageSize;
+        while (buf.hasRemaining()) {
+            pos += channel.write(buf, pos);
+        }
+    }
+
+    private void assertPage(int pageId) throws IOException {
+        if (pageId < 0 || pageId >= getPageCount()) {
+            throw new IOException("Page " + pageId + " is out of range in " + _file);
+        }
+    }
+
+    private void open(File file) throws IOException {
+        File parent = file.getParentFile();
+        if (parent != null) {
+            parent.mkdirs();
+        }
+        _file = file;
+        _raf = new RandomAccessFile(file, "rw");
+        _channel = _raf.getChannel();
+        _pageCount = (int) (_channel.size() / _pageSize);
+    }
+
+    private static void copy(File from, File to, long length) throws IOException {
+        RandomAccessFile in = new RandomAccessFile(from, "r");
+        try {
+            RandomAccessFile out = new RandomAccessFile(to, "rw");
+            try {
+                FileChannel source = in.getChannel();
+                for (long pos = 0; pos < length;) {
+                    long n = source.transferTo(pos, length - pos, out.getChannel());
+                    if (n <= 0) {
+                        throw new IOException("Unable to copy " + from + " to " + to);
+                    }
+                    pos += n;
+                }
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private void readFully(FileChannel channel, byte[] page, long pos) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(page, 0, _pageSize);
+        while (buf.hasRemaining()) {
+            int n = channel.read(buf, pos);
+            if (n < 0) {
+                throw new IOException("Unexpected end of file reading " + _file + " at " + pos);
+            }
+            pos += n;
+        }
+    }
+
+    private FileChannel _channel;
+    private File _file;
+    private int _pageCount;
+    private final int _pageSize;
+    private RandomAccessFile _raf;
+    private boolean _temporary;
+}
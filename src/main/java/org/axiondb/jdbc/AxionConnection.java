@@ -284,7 +284,13 @@ public class AxionConnection implements Connection {
 
     void commitIfAuto() throws SQLException {
         if (getAutoCommit() && !(_db.getTransactionManager().isShutdown())) {
-            commit(false);
+            try {
+                commit(false);
+            } catch (SQLException e) {
+                // a deferred constraint failed, so don't leave its changes to the next statement
+                rollback(false);
+                throw e;
+            }
         }
     }
     
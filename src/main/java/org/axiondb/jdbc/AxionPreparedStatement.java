@@ -73,6 +73,7 @@ import java.util.Iterator;
 
 import org.axiondb.AxionCommand;
 import org.axiondb.AxionException;
+import org.axiondb.engine.commands.InsertCommand;
 import org.axiondb.types.ByteArrayBlob;
 import org.axiondb.util.ExceptionConverter;
 import org.axiondb.util.ValuePool;
@@ -162,6 +163,9 @@ public class AxionPreparedStatement extends AxionStatement implements Statement,
     }
     
     public int[] executeBatch() throws SQLException {
+        if (_cmd instanceof InsertCommand && getAxionConnection().getAutoCommit()) {
+            return executeBulkInsertBatch();
+        }
         SQLException exception = null;
         int[] results = new int[getBatchCount()];
         int i = 0;
@@ -185,6 +189,49 @@ public class AxionPreparedStatement extends AxionStatement implements Statement,
         return results;
     }
 
+    /**
+     * Bulk loads a batch of inserts: every row is added in one transaction with
+     * constraints deferred, so they are checked together and the table and its indices
+     * are written once, when the batch commits. If the commit fails none of the rows are
+     * inserted.
+     */
+    private int[] executeBulkInsertBatch() throws SQLException {
+        InsertCommand insert = (InsertCommand) _cmd;
+        boolean wasBulkLoad = insert.isBulkLoad();
+        SQLException exception = null;
+        int[] results = new int[getBatchCount()];
+        int i = 0;
+        try {
+            insert.setBulkLoad(true);
+            for (Iterator iter = getBatchContext(); iter.hasNext(); i++) {
+                Parameters params = (Parameters) iter.next();
+                try {
+                    bindVariables(params);
+                    results[i] = executeUpdateInTransaction(insert);
+                    clearParameters();
+                } catch (SQLWarning w) {
+                    addWarning(w);
+                } catch (SQLException e) {
+                    exception = e;
+                    results[i] = EXECUTE_FAILED;
+                }
+            }
+            try {
+                getAxionConnection().commitIfAuto();
+            } catch (SQLException e) {
+                exception = e;
+                Arrays.fill(results, EXECUTE_FAILED);
+            }
+        } finally {
+            insert.setBulkLoad(wasBulkLoad);
+            clearBatchContext();
+        }
+        if (null != exception) {
+            throw new BatchUpdateException(exception.getMessage(), results);
+        }
+        return results;
+    }
+
     public boolean execute() throws SQLException {
         clearCurrentResult();
         bindVariables(_params);
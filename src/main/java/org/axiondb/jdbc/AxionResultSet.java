@@ -79,6 +79,7 @@ import org.axiondb.Transaction;
 import org.axiondb.TransactionManager;
 import org.axiondb.engine.rowiterators.EmptyRowIterator;
 import org.axiondb.engine.rowiterators.RowIteratorRowDecoratorIterator;
+import org.axiondb.engine.visitors.CompileSelectableVisitor;
 import org.axiondb.engine.rows.SimpleRow;
 import org.axiondb.util.ExceptionConverter;
 
@@ -239,6 +240,7 @@ public class AxionResultSet implements ResultSet {
         }
         _closed = true;
         _selected = null;
+        _compiledSelected = null;
         _currentRow = null;
         _insertUpdateRow = null;
         _warning = null;
@@ -1221,6 +1223,20 @@ public class AxionResultSet implements ResultSet {
         return sel.getDataType();
     }
     
+    /**
+     * Returns the selectable for the given 0-based index compiled against the decorator
+     * of my rows, see {@link CompileSelectableVisitor}.
+     */
+    private Selectable getCompiledSelectable(int index) throws AxionException {
+        if (null == _compiledSelected) {
+            _compiledSelected = new Selectable[_selected.length];
+        }
+        if (null == _compiledSelected[index]) {
+            _compiledSelected[index] = new CompileSelectableVisitor(_currentRow).visit(_selected[index]);
+        }
+        return _compiledSelected[index];
+    }
+
     private Row getOrCreateUpdateRow() throws SQLException {
         assertCurrentRow();
         
@@ -1264,9 +1280,8 @@ public class AxionResultSet implements ResultSet {
         } else {
             assertCurrentRow();
             
-            Selectable sel = _selected[num - 1];
             try {
-                val = sel.evaluate(_currentRow);
+                val = getCompiledSelectable(num - 1).evaluate(_currentRow);
             } catch (AxionException e) {
                 throw ExceptionConverter.convert(e);
             }
@@ -1503,6 +1518,7 @@ public class AxionResultSet implements ResultSet {
     protected RowDecoratorIterator _rows = null;
     private boolean _afterLast = false;
     private boolean _closed = false;
+    private Selectable[] _compiledSelected = null;
     private RowDecorator _currentRow = null;
     private int _currentRowIndex = 0;
     private boolean _insertMode = false;
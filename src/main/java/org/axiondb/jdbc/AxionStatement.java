@@ -108,6 +108,7 @@ public class AxionStatement extends BaseAxionStatement implements Statement {
             } 
         }
         clearBatchContext();
+        releaseCachedCommands();
         if (null != exception) {
             throw new BatchUpdateException(exception.getMessage(),results);
         }
@@ -129,20 +130,28 @@ public class AxionStatement extends BaseAxionStatement implements Statement {
     }
 
     public boolean execute(String sql) throws SQLException {
-        clearCurrentResult();
+        clearCurrentResultAndCommands();
         return execute(parseCommand(sql));
     }
 
     public ResultSet executeQuery(String sql) throws SQLException {
-        clearCurrentResult();
+        clearCurrentResultAndCommands();
         return executeQuery(parseCommand(sql));
     }
 
     public int executeUpdate(String sql) throws SQLException {
-        clearCurrentResult();
+        clearCurrentResultAndCommands();
         return executeUpdate(parseCommand(sql));
     }
 
+    private void clearCurrentResultAndCommands() throws SQLException {
+        clearCurrentResult();
+        if (getBatchCount() == 0) {
+            // commands waiting in a batch are released once it has run
+            releaseCachedCommands();
+        }
+    }
+
     public int getFetchDirection() throws SQLException {
         return ResultSet.FETCH_FORWARD;
     }
@@ -310,8 +319,10 @@ public class AxionStatement extends BaseAxionStatement implements Statement {
         try {
             result = cmd.execute(getDatabase());
         } catch(AxionException e) {
+            discardCachedCommand(cmd);
             throw ExceptionConverter.convert(e);
         } catch(RuntimeException e) {
+            discardCachedCommand(cmd);
             throw ExceptionConverter.convert(e);
         }
         setCurrentResult(result,cmd);
@@ -323,8 +334,10 @@ public class AxionStatement extends BaseAxionStatement implements Statement {
         try {
             setCurrentResultSet(cmd.executeQuery(getDatabase(), ResultSet.CONCUR_READ_ONLY == _concurrency));
         } catch(AxionException e) {
+            discardCachedCommand(cmd);
             throw ExceptionConverter.convert(e);
         } catch(RuntimeException e) {
+            discardCachedCommand(cmd);
             throw ExceptionConverter.convert(e);
         }
         
@@ -337,14 +350,25 @@ public class AxionStatement extends BaseAxionStatement implements Statement {
     }
 
     protected final int executeUpdate(AxionCommand cmd) throws SQLException {
+        executeUpdateInTransaction(cmd);
+        getAxionConnection().commitIfAuto();
+        return getCurrentUpdateCount();
+    }
+
+    /**
+     * Executes <i>cmd</i> in the connection's current transaction, leaving it to the
+     * caller to commit, even in auto-commit mode.
+     */
+    protected final int executeUpdateInTransaction(AxionCommand cmd) throws SQLException {
         try {
             setCurrentUpdateCount(cmd.executeUpdate(getDatabase()));
         } catch(AxionException e) {
+            discardCachedCommand(cmd);
             throw ExceptionConverter.convert(e);
         } catch(RuntimeException e) {
+            discardCachedCommand(cmd);
             throw ExceptionConverter.convert(e);
         }
-        getAxionConnection().commitIfAuto();
         return getCurrentUpdateCount();
     }
 
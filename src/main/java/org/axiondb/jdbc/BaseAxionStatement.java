@@ -52,7 +52,13 @@ import java.util.Iterator;
 import org.axiondb.AxionCommand;
 import org.axiondb.AxionException;
 import org.axiondb.Database;
+import org.axiondb.engine.commands.AlterSequenceCommand;
+import org.axiondb.engine.commands.CreateSequenceCommand;
+import org.axiondb.engine.commands.CreateTableCommand;
+import org.axiondb.engine.commands.InsertCommand;
 import org.axiondb.parser.AxionSqlParser;
+import org.axiondb.parser.MaterializedViewParser;
+import org.axiondb.util.CommandCache;
 import org.axiondb.util.ExceptionConverter;
 
 /**
@@ -78,6 +84,7 @@ public abstract class BaseAxionStatement implements Statement {
         // be silently ignored.
         if (!_closed) {
             closeCurrentResultSet();
+            releaseCachedCommands();
             clearConnection();
 
             clearBatchContext();
@@ -158,9 +165,32 @@ public abstract class BaseAxionStatement implements Statement {
         return (null != _rset);
     }
     
+    /**
+     * Returns a command for <i>sql</i>, taken from the database's {@link CommandCache}
+     * when it has one. Commands taken from the cache are held until
+     * {@link #releaseCachedCommands}.
+     */
+    @SuppressWarnings("unchecked")
     public AxionCommand parseCommand(String sql) throws SQLException {
         try {
-            return _parser.parse(sql);
+            CommandCache cache = _conn.getDatabase().getCommandCache();
+            if (null == cache || !CommandCache.isCacheable(sql)) {
+                return parse(sql);
+            }
+
+            int generation = cache.getGeneration();
+            AxionCommand cmd = cache.checkOut(sql);
+            if (null == cmd) {
+                cmd = parse(sql);
+                if (!CommandCache.isCacheable(cmd)) {
+                    return cmd;
+                }
+            }
+            if (null == _cachedCommands) {
+                _cachedCommands = new ArrayList(2);
+            }
+            _cachedCommands.add(new CachedCommand(cache, sql, cmd, generation));
+            return cmd;
         } catch (AxionException e) {
             throw ExceptionConverter.convert(e);
         } catch (RuntimeException e) {
@@ -168,6 +198,69 @@ public abstract class BaseAxionStatement implements Statement {
         }
     }
 
+    /**
+     * Parses <i>sql</i>, marking an <tt>INSERT /*+ APPEND *&#47;</tt> for bulk loading
+     * and applying a sequence <tt>CACHE</tt> option. Materialized view statements are
+     * read by {@link MaterializedViewParser}.
+     */
+    private AxionCommand parse(String sql) throws AxionException {
+        AxionCommand view = MaterializedViewParser.parse(_parser, sql);
+        if (null != view) {
+            return view;
+        }
+        String cacheSize = CreateSequenceCommand.getCacheOption(sql);
+        if (null != cacheSize) {
+            sql = CreateSequenceCommand.removeCacheOption(sql);
+        }
+        AxionCommand cmd = _parser.parse(sql);
+        if (cmd instanceof InsertCommand && InsertCommand.isAppendHinted(sql)) {
+            ((InsertCommand) cmd).setBulkLoad(true);
+        } else if (null != cacheSize) {
+            setCacheSize(cmd, cacheSize);
+        }
+        return cmd;
+    }
+
+    private void setCacheSize(AxionCommand cmd, String cacheSize) throws AxionException {
+        if (cmd instanceof CreateSequenceCommand) {
+            ((CreateSequenceCommand) cmd).setCacheSize(cacheSize);
+        } else if (cmd instanceof AlterSequenceCommand) {
+            ((AlterSequenceCommand) cmd).setCacheSize(cacheSize);
+        } else if (cmd instanceof CreateTableCommand && null != ((CreateTableCommand) cmd).getIdentitySequenceCommand()) {
+            ((CreateTableCommand) cmd).getIdentitySequenceCommand().setCacheSize(cacheSize);
+        } else {
+            throw new AxionException("CACHE is only allowed for sequences and identity columns");
+        }
+    }
+
+    /**
+     * Returns the commands I have taken from the {@link CommandCache} to it. Their result
+     * sets must already be closed.
+     */
+    protected final void releaseCachedCommands() {
+        if (null != _cachedCommands) {
+            for (int i = 0, I = _cachedCommands.size(); i < I; i++) {
+                CachedCommand cached = (CachedCommand) _cachedCommands.get(i);
+                cached._cache.checkIn(cached._sql, cached._cmd, cached._generation);
+            }
+            _cachedCommands.clear();
+        }
+    }
+
+    /**
+     * Keeps <i>cmd</i> from going back to the {@link CommandCache}, as after it failed
+     * it may be left part way through resolution.
+     */
+    protected final void discardCachedCommand(AxionCommand cmd) {
+        if (null != _cachedCommands) {
+            for (Iterator iter = _cachedCommands.iterator(); iter.hasNext();) {
+                if (((CachedCommand) iter.next())._cmd == cmd) {
+                    iter.remove();
+                }
+            }
+        }
+    }
+
     protected void setCurrentResult(boolean isrset, AxionCommand cmd) {
         if (isrset) {
             setCurrentResultSet((AxionResultSet) cmd.getResultSet());
@@ -222,7 +315,22 @@ public abstract class BaseAxionStatement implements Statement {
 
     // ------------------------------------------------------------------------
 
+    private static class CachedCommand {
+        CachedCommand(CommandCache cache, String sql, AxionCommand cmd, int generation) {
+            _cache = cache;
+            _sql = sql;
+            _cmd = cmd;
+            _generation = generation;
+        }
+
+        private CommandCache _cache;
+        private String _sql;
+        private AxionCommand _cmd;
+        private int _generation;
+    }
+
     protected ArrayList _batchContext;
+    private ArrayList _cachedCommands;
     private AxionSqlParser _parser;
 
     protected SQLWarning _warning;
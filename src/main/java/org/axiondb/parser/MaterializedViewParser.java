@@ -0,0 +1,176 @@
+/*
+ * 
+ * =======================================================================
+ * Copyright (c) 2002-2005 Axion Development Team.  All rights reserved.
+ *  
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions 
+ * are met:
+ * 
+ * 1. Redistributions of source code must retain the above 
+ *    copyright notice, this list of conditions and the following 
+ *    disclaimer. 
+ *   
+ * 2. Redistributions in binary form must reproduce the above copyright 
+ *    notice, this list of conditions and the following disclaimer in 
+ *    the documentation and/or other materials provided with the 
+ *    distribution. 
+ *   
+ * 3. The names "Tigris", "Axion", nor the names of its contributors may 
+ *    not be used to endorse or promote products derived from this 
+ *    software without specific prior written permission. 
+ *  
+ * 4. Products derived from this software may not be called "Axion", nor 
+ *    may "Tigris" or "Axion" appear in their names without specific prior
+ *    written permission.
+ *   
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT 
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, 
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT 
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * =======================================================================
+ */
+
+package org.axiondb.parser;
+
+import java.io.StringReader;
+
+import org.axiondb.AxionCommand;
+import org.axiondb.AxionException;
+import org.axiondb.engine.commands.CreateMaterializedViewCommand;
+import org.axiondb.engine.commands.DropMaterializedViewCommand;
+import org.axiondb.engine.commands.RefreshMaterializedViewCommand;
+
+/**
+ * Parses the <code>CREATE</code>, <code>DROP</code> and <code>REFRESH MATERIALIZED
+ * VIEW</code> statements. {@link AxionSqlParser} is generated and does not know them, so
+ * they are read here with its tokens and productions:
+ * 
+ * <pre>
+ *   CREATE MATERIALIZED VIEW [IF NOT EXISTS] name [REFRESH ON {COMMIT | DEMAND}] AS sub-query
+ *   DROP MATERIALIZED VIEW [IF EXISTS] name [CASCADE | RESTRICT]
+ *   REFRESH MATERIALIZED VIEW name
+ * </pre>
+ * 
+ * @version  
+ */
+public class MaterializedViewParser implements AxionSqlParserConstants {
+
+    private MaterializedViewParser() {
+    }
+
+    /**
+     * Parses <i>sql</i> with <i>parser</i> if it is a materialized view statement.
+     * 
+     * @return the command, or null if <i>sql</i> is some other statement
+     */
+    public static AxionCommand parse(AxionSqlParser parser, String sql) throws AxionException {
+        if (!isMaterializedViewStatement(sql)) {
+            return null;
+        }
+        parser.ReInit(new StringReader(sql));
+        try {
+            Token verb = parser.getNextToken();
+            parser.getNextToken();
+            parser.getNextToken();
+            AxionCommand result;
+            if (verb.kind == CREATE) {
+                result = parseCreate(parser);
+            } else if (verb.kind == DROP) {
+                result = parseDrop(parser);
+            } else {
+                RefreshMaterializedViewCommand refresh = new RefreshMaterializedViewCommand();
+                refresh.setObjectName(parser.SqlIdentifier());
+                result = refresh;
+            }
+            parseEnd(parser);
+            return result;
+        } catch (TokenMgrError e) {
+            throw new AxionException(e);
+        } catch (ParseException e) {
+            throw new AxionException(e);
+        }
+    }
+
+    private static boolean isMaterializedViewStatement(String sql) {
+        String[] words = sql.trim().split("\\s+", 4);
+        if (words.length < 3 || !"MATERIALIZED".equalsIgnoreCase(words[1]) || !"VIEW".equalsIgnoreCase(words[2])) {
+            return false;
+        }
+        return "CREATE".equalsIgnoreCase(words[0]) || "DROP".equalsIgnoreCase(words[0])
+            || "REFRESH".equalsIgnoreCase(words[0]);
+    }
+
+    private static AxionCommand parseCreate(AxionSqlParser parser) throws ParseException {
+        CreateMaterializedViewCommand result = new CreateMaterializedViewCommand();
+        parser.SqlIfNotExists(result);
+        if (isWord(parser.getToken(1), "REFRESH")) {
+            parser.getNextToken();
+            consume(parser, ON);
+            Token t = parser.getNextToken();
+            if (isWord(t, "DEMAND")) {
+                result.setIncremental(false);
+            } else if (!isWord(t, "COMMIT")) {
+                throw new ParseException("Expected COMMIT or DEMAND found \"" + t.image + "\".");
+            }
+        }
+        consume(parser, AS);
+
+        StringBuffer buf = new StringBuffer();
+        while (parser.getToken(1).kind != EOF && !isEnd(parser)) {
+            buf.append(parser.getNextToken().image).append(" ");
+        }
+        result.setSubQuery(buf.toString());
+        return result;
+    }
+
+    private static AxionCommand parseDrop(AxionSqlParser parser) throws ParseException {
+        boolean exists = false;
+        boolean cascade = false;
+        if (parser.getToken(1).kind == IF) {
+            parser.getNextToken();
+            consume(parser, EXISTS);
+            exists = true;
+        }
+        // like DROP TABLE, CASCADE or RESTRICT may also come before the name
+        int option = parser.getToken(1).kind;
+        if (option == CASCADE || option == RESTRICT) {
+            cascade = (parser.getNextToken().kind == CASCADE);
+        }
+        String viewName = parser.SqlIdentifier();
+        option = parser.getToken(1).kind;
+        if (option == CASCADE || option == RESTRICT) {
+            cascade = (parser.getNextToken().kind == CASCADE);
+        }
+        return new DropMaterializedViewCommand(viewName, exists, cascade);
+    }
+
+    private static void parseEnd(AxionSqlParser parser) throws ParseException {
+        if (parser.getToken(1).kind == SEMICOLON) {
+            parser.getNextToken();
+        }
+        consume(parser, EOF);
+    }
+
+    private static boolean isEnd(AxionSqlParser parser) {
+        return parser.getToken(1).kind == SEMICOLON && parser.getToken(2).kind == EOF;
+    }
+
+    private static boolean isWord(Token t, String word) {
+        return t.kind == ID && word.equalsIgnoreCase(t.image);
+    }
+
+    private static void consume(AxionSqlParser parser, int kind) throws ParseException {
+        Token t = parser.getNextToken();
+        if (t.kind != kind) {
+            throw new ParseException("Expected " + tokenImage[kind] + " found \"" + t.image + "\".");
+        }
+    }
+}
@@ -0,0 +1,235 @@
+/*
+ * 
+ * =======================================================================
+ * Copyright (c) 2002-2005 Axion Development Team.  All rights reserved.
+ *  
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions 
+ * are met:
+ * 
+ * 1. Redistributions of source code must retain the above 
+ *    copyright notice, this list of conditions and the following 
+ *    disclaimer. 
+ *   
+ * 2. Redistributions in binary form must reproduce the above copyright 
+ *    notice, this list of conditions and the following disclaimer in 
+ *    the documentation and/or other materials provided with the 
+ *    distribution. 
+ *   
+ * 3. The names "Tigris", "Axion", nor the names of its contributors may 
+ *    not be used to endorse or promote products derived from this 
+ *    software without specific prior written permission. 
+ *  
+ * 4. Products derived from this software may not be called "Axion", nor 
+ *    may "Tigris" or "Axion" appear in their names without specific prior
+ *    written permission.
+ *   
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT 
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, 
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT 
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * =======================================================================
+ */
+
+package org.axiondb.util;
+
+import java.io.IOException;
+
+import org.axiondb.engine.rowcollection.IntHashMap;
+
+/**
+ * A fixed-size pool of page frames using the CLOCK replacement policy. Unlike the
+ * {@link java.lang.ref.SoftReference soft-reference}node cache used by
+ * {@link ObjectBTree}, the number of resident pages never exceeds the configured
+ * capacity, and eviction is decided here rather than by the garbage collector.
+ * <p>
+ * Pages are opaque to the pool; a {@link PageStore}decodes them on a miss and encodes
+ * dirty pages when they are evicted or {@link #flush flushed}. A page that is
+ * {@link #pin pinned}is never chosen as a victim until it is {@link #unpin unpinned}.
+ * 
+ * @version  
+ */
+public class BufferPool {
+
+    /**
+     * Reads and writes the pages managed by a {@link BufferPool}.
+     */
+    public interface PageStore {
+        Object readPage(int pageId) throws IOException;
+
+        void writePage(int pageId, Object page) throws IOException;
+    }
+
+    public BufferPool(int capacity, PageStore store) {
+        if (capacity < MIN_CAPACITY) {
+            capacity = MIN_CAPACITY;
+        }
+        _store = store;
+        _pageIds = new int[capacity];
+        _pages = new Object[capacity];
+        _pinCounts = new int[capacity];
+        _referenced = new boolean[capacity];
+        _dirty = new boolean[capacity];
+        _frameByPage = new IntHashMap(capacity);
+    }
+
+    /**
+     * Adds a newly created page to the pool. The page is returned pinned and flagged as
+     * dirty.
+     */
+    public synchronized void add(int pageId, Object page) throws IOException {
+        int frame = findVictim();
+        install(frame, pageId, page);
+        _pinCounts[frame] = 1;
+        _dirty[frame] = true;
+    }
+
+    /**
+     * Discards every resident page without writing it.
+     */
+    public synchronized void clear() {
+        for (int i = 0; i < _pages.length; i++) {
+            _pages[i] = null;
+            _pinCounts[i] = 0;
+            _referenced[i] = false;
+            _dirty[i] = false;
+        }
+        _frameByPage.clear();
+        _hand = 0;
+    }
+
+    /**
+     * Writes every dirty page to the {@link PageStore}. Pages remain resident.
+     */
+    public synchronized void flush() throws IOException {
+        for (int i = 0; i < _pages.length; i++) {
+            if (_dirty[i] && _pages[i] != null) {
+                _store.writePage(_pageIds[i], _pages[i]);
+                _dirty[i] = false;
+            }
+        }
+    }
+
+    public int getCapacity() {
+        return _pages.length;
+    }
+
+    public synchronized int getDirtyPageCount() {
+        int count = 0;
+        for (int i = 0; i < _dirty.length; i++) {
+            if (_dirty[i]) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public synchronized long getHitCount() {
+        return _hits;
+    }
+
+    public synchronized long getMissCount() {
+        return _misses;
+    }
+
+    public synchronized int getResidentPageCount() {
+        return _frameByPage.size();
+    }
+
+    /**
+     * Flags the given resident page as modified.
+     */
+    public synchronized void markDirty(int pageId) {
+        Integer frame = (Integer) _frameByPage.get(pageId);
+        if (frame == null) {
+            throw new IllegalStateException("Page " + pageId + " is not resident");
+        }
+        _dirty[frame.intValue()] = true;
+    }
+
+    /**
+     * Returns the given page, reading it from the {@link PageStore}if it is not resident,
+     * and pins it.
+     */
+    public synchronized Object pin(int pageId) throws IOException {
+        Integer frame = (Integer) _frameByPage.get(pageId);
+        if (frame != null) {
+            int i = frame.intValue();
+            _hits++;
+            _pinCounts[i]++;
+            _referenced[i] = true;
+            return _pages[i];
+        }
+
+        _misses++;
+        int victim = findVictim();
+        Object page = _store.readPage(pageId);
+        install(victim, pageId, page);
+        _pinCounts[victim] = 1;
+        return page;
+    }
+
+    public synchronized void unpin(int pageId) {
+        Integer frame = (Integer) _frameByPage.get(pageId);
+        if (frame != null && _pinCounts[frame.intValue()] > 0) {
+            _pinCounts[frame.intValue()]--;
+        }
+    }
+
+    /**
+     * Sweeps the clock hand until an unpinned, unreferenced frame is found, giving each
+     * referenced frame a second chance. A dirty victim is written before it is reused.
+     */
+    private int findVictim() throws IOException {
+        for (int step = 0, max = 2 * _pages.length + 1; step < max; step++) {
+            int i = _hand;
+            _hand = (_hand + 1) % _pages.length;
+            if (_pages[i] == null) {
+                return i;
+            }
+            if (_pinCounts[i] > 0) {
+                continue;
+            }
+            if (_referenced[i]) {
+                _referenced[i] = false;
+                continue;
+            }
+            if (_dirty[i]) {
+                _store.writePage(_pageIds[i], _pages[i]);
+                _dirty[i] = false;
+            }
+            _frameByPage.remove(_pageIds[i]);
+            _pages[i] = null;
+            return i;
+        }
+        throw new IOException("All " + _pages.length + " buffer pool frames are pinned");
+    }
+
+    private void install(int frame, int pageId, Object page) {
+        _pageIds[frame] = pageId;
+        _pages[frame] = page;
+        _referenced[frame] = true;
+        _dirty[frame] = false;
+        _frameByPage.put(pageId, Integer.valueOf(frame));
+    }
+
+    private static final int MIN_CAPACITY = 16;
+
+    private boolean[] _dirty;
+    private IntHashMap _frameByPage;
+    private int _hand = 0;
+    private long _hits = 0;
+    private long _misses = 0;
+    private int[] _pageIds;
+    private Object[] _pages;
+    private int[] _pinCounts;
+    private boolean[] _referenced;
+    private PageStore _store;
+}
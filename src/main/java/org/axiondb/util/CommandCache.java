@@ -0,0 +1,255 @@
+/*
+ * 
+ * =======================================================================
+ * Copyright (c) 2002-2005 Axion Development Team.  All rights reserved.
+ *  
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions 
+ * are met:
+ * 
+ * 1. Redistributions of source code must retain the above 
+ *    copyright notice, this list of conditions and the following 
+ *    disclaimer. 
+ *   
+ * 2. Redistributions in binary form must reproduce the above copyright 
+ *    notice, this list of conditions and the following disclaimer in 
+ *    the documentation and/or other materials provided with the 
+ *    distribution. 
+ *   
+ * 3. The names "Tigris", "Axion", nor the names of its contributors may 
+ *    not be used to endorse or promote products derived from this 
+ *    software without specific prior written permission. 
+ *  
+ * 4. Products derived from this software may not be called "Axion", nor 
+ *    may "Tigris" or "Axion" appear in their names without specific prior
+ *    written permission.
+ *   
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT 
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, 
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT 
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * =======================================================================
+ */
+
+package org.axiondb.util;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+import org.axiondb.AxionCommand;
+import org.axiondb.AxionException;
+import org.axiondb.Database;
+import org.axiondb.engine.commands.BaseAxionCommand;
+import org.axiondb.engine.commands.DeleteCommand;
+import org.axiondb.engine.commands.InsertCommand;
+import org.axiondb.engine.commands.SelectCommand;
+import org.axiondb.engine.commands.SubSelectCommand;
+import org.axiondb.engine.commands.UpdateCommand;
+import org.axiondb.event.DatabaseLinkEvent;
+import org.axiondb.event.DatabaseModificationListener;
+import org.axiondb.event.DatabaseModifiedEvent;
+import org.axiondb.event.DatabaseSequenceEvent;
+import org.axiondb.event.DatabaseTypeEvent;
+
+/**
+ * A bounded, least recently used pool of parsed and resolved {@link AxionCommand}s keyed
+ * by SQL text, shared by every connection to a {@link Database}.
+ * <p>
+ * A statement {@link #checkOut checks out} an idle command for its SQL, parsing a new one
+ * on a miss, and {@link #checkIn checks it in} once it is done with it, so a command is
+ * never used by two statements at once. A command is released as it is checked in, so
+ * an idle command holds no rows, bound values or transaction. Any change to the
+ * database's tables, indices, types, sequences or links empties the pool, and commands
+ * checked out before that are not taken back.
+ * 
+ * @version  
+ */
+public class CommandCache implements DatabaseModificationListener {
+
+    /**
+     * @param maxSize the most idle commands to keep
+     */
+    public CommandCache(int maxSize) {
+        _maxSize = maxSize;
+    }
+
+    /**
+     * Returns <code>true</code> if <i>cmd</i> may be kept: a plain query or row change.
+     */
+    public static boolean isCacheable(AxionCommand cmd) {
+        if (cmd instanceof SelectCommand) {
+            return !(cmd instanceof SubSelectCommand);
+        }
+        return cmd instanceof InsertCommand || cmd instanceof UpdateCommand || cmd instanceof DeleteCommand;
+    }
+
+    /**
+     * Returns <code>false</code> if the command for <i>sql</i> may not be kept whatever
+     * its {@link #isCacheable(AxionCommand) type}. A nested sub-select or a sequence
+     * reference stays bound to the transaction it was resolved in, so statements with
+     * either are always parsed afresh.
+     */
+    public static boolean isCacheable(String sql) {
+        String upper = sql.trim().toUpperCase();
+        if (upper.indexOf("SELECT", upper.startsWith("SELECT") ? 1 : 0) != -1) {
+            return false;
+        }
+        return upper.indexOf("NEXTVAL") == -1 && upper.indexOf("CURRVAL") == -1;
+    }
+
+    /**
+     * Takes an idle command for <i>sql</i> out of the pool.
+     * 
+     * @return the command, or <code>null</code> if there is none and the caller
+     *         should parse <i>sql</i> itself
+     */
+    public synchronized AxionCommand checkOut(String sql) {
+        LinkedList idle = (LinkedList) _idle.get(sql);
+        if (null == idle) {
+            _missCount++;
+            return null;
+        }
+
+        AxionCommand cmd = (AxionCommand) idle.removeFirst();
+        if (idle.isEmpty()) {
+            _idle.remove(sql);
+        }
+        _size--;
+        _hitCount++;
+        return cmd;
+    }
+
+    /**
+     * Releases <i>cmd</i>, parsed from <i>sql</i>, and returns it to the pool, unless it
+     * is not {@link #isCacheable(AxionCommand) cacheable} or the pool has been emptied
+     * since {@link #getGeneration generation} <i>generation</i>, when the command was
+     * parsed or checked out.
+     */
+    public void checkIn(String sql, AxionCommand cmd, int generation) {
+        if (!isCacheable(cmd) || generation != getGeneration()) {
+            return;
+        }
+        try {
+            ((BaseAxionCommand) cmd).release();
+        } catch (AxionException e) {
+            return;
+        }
+        putIdle(sql, cmd, generation);
+    }
+
+    /**
+     * Empties the pool.
+     */
+    public synchronized void clear() {
+        _idle.clear();
+        _size = 0;
+        _generation++;
+    }
+
+    /**
+     * Returns the number of times the pool has been emptied.
+     */
+    public synchronized int getGeneration() {
+        return _generation;
+    }
+
+    /**
+     * Returns the number of {@link #checkOut check outs} that found an idle command.
+     */
+    public synchronized long getHitCount() {
+        return _hitCount;
+    }
+
+    /**
+     * Returns the number of {@link #checkOut check outs} that found none.
+     */
+    public synchronized long getMissCount() {
+        return _missCount;
+    }
+
+    public int getMaxSize() {
+        return _maxSize;
+    }
+
+    /**
+     * Returns the number of idle commands in the pool.
+     */
+    public synchronized int size() {
+        return _size;
+    }
+
+    public void sequenceAdded(DatabaseSequenceEvent e) {
+        clear();
+    }
+
+    public void sequenceDropped(DatabaseSequenceEvent e) {
+        clear();
+    }
+
+    public void serverAdded(DatabaseLinkEvent e) {
+        clear();
+    }
+
+    public void serverDropped(DatabaseLinkEvent e) {
+        clear();
+    }
+
+    public void tableAdded(DatabaseModifiedEvent e) {
+        clear();
+    }
+
+    public void tableDropped(DatabaseModifiedEvent e) {
+        clear();
+    }
+
+    public void typeAdded(DatabaseTypeEvent e) {
+        clear();
+    }
+
+    public String toString() {
+        return "CommandCache(size=" + size() + ", hits=" + getHitCount() + ", misses=" + getMissCount() + ")";
+    }
+
+    @SuppressWarnings("unchecked")
+    private synchronized void putIdle(String sql, AxionCommand cmd, int generation) {
+        if (generation != _generation || _maxSize <= 0) {
+            return;
+        }
+
+        LinkedList idle = (LinkedList) _idle.get(sql);
+        if (null == idle) {
+            idle = new LinkedList();
+            _idle.put(sql, idle);
+        }
+        idle.addLast(cmd);
+        _size++;
+
+        // evict from the least recently used statements first
+        for (Iterator iter = _idle.values().iterator(); _size > _maxSize && iter.hasNext();) {
+            LinkedList lru = (LinkedList) iter.next();
+            while (_size > _maxSize && !lru.isEmpty()) {
+                lru.removeFirst();
+                _size--;
+            }
+            if (lru.isEmpty()) {
+                iter.remove();
+            }
+        }
+    }
+
+    private Map _idle = new LinkedHashMap(16, 0.75f, true);
+    private final int _maxSize;
+    private int _size = 0;
+    private int _generation = 0;
+    private long _hitCount = 0;
+    private long _missCount = 0;
+}
@@ -45,6 +45,7 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.NoSuchElementException;
 
@@ -106,6 +107,68 @@ public class IntBTree extends BaseBTree {
         read();
     }
 
+    /**
+     * Load the given key/value pairs into this empty tree, building it bottom-up. The
+     * pairs are sorted once and dealt out evenly across as few leaves as will hold them;
+     * the keys between adjacent leaves become the entries of the level above, and so on
+     * until the remaining entries fit in the root. Unlike repeated {@link #insert}s, no
+     * node is ever split or revisited.
+     */
+    public final void bulkLoad(IntList keys, IntList values) throws IOException, ClassNotFoundException {
+        if (size() != 0 || !isLeaf()) {
+            throw new IllegalStateException("Bulk load requires an empty tree");
+        }
+
+        // Each pair is packed into a long whose high bits order the key (null first)
+        // and whose low 31 bits hold the (non-negative) value, so a primitive sort
+        // orders the pairs by key, and equal keys by value.
+        long[] entries = new long[keys.size()];
+        for (int i = 0; i < entries.length; i++) {
+            int key = keys.get(i);
+            long order = (key == NullObject.INSTANCE.intValue()) ? 0L : ((long) key - Integer.MIN_VALUE + 1L);
+            entries[i] = (order << 31) | values.get(i);
+        }
+        Arrays.sort(entries);
+
+        IntList levelKeys = new ArrayIntList(entries.length);
+        IntList levelValues = new ArrayIntList(entries.length);
+        for (int i = 0; i < entries.length; i++) {
+            long order = entries[i] >>> 31;
+            levelKeys.add(order == 0L ? NullObject.INSTANCE.intValue() : (int) (order - 1L + Integer.MIN_VALUE));
+            levelValues.add((int) (entries[i] & Integer.MAX_VALUE));
+        }
+        entries = null;
+
+        IntList levelChildren = new ArrayIntList(0);
+        while (levelKeys.size() > getKeyCapacity()) {
+            int count = levelKeys.size();
+            int nodes = (count + getKeyCapacity() + 1) / (getKeyCapacity() + 1);
+            int perNode = (count - nodes + 1) / nodes;
+            int extra = (count - nodes + 1) % nodes;
+
+            IntList upperKeys = new ArrayIntList(nodes - 1);
+            IntList upperValues = new ArrayIntList(nodes - 1);
+            IntList upperChildren = new ArrayIntList(nodes);
+            for (int i = 0, pos = 0; i < nodes; i++) {
+                int size = (i < extra) ? perNode + 1 : perNode;
+                IntBTree node = allocateNewNode();
+                node.addTuples(levelKeys.subList(pos, pos + size), levelValues.subList(pos, pos + size),
+                    levelChildren.isEmpty() ? levelChildren : levelChildren.subList(pos, pos + size + 1));
+                upperChildren.add(node.getFileId());
+                pos += size;
+                if (i < nodes - 1) {
+                    upperKeys.add(levelKeys.get(pos));
+                    upperValues.add(levelValues.get(pos));
+                    pos++;
+                }
+            }
+            levelKeys = upperKeys;
+            levelValues = upperValues;
+            levelChildren = upperChildren;
+        }
+        addTuples(levelKeys, levelValues, levelChildren);
+    }
+
     /**
      * Clear my keys, values, and file ids. Flags me as dirty.
      */
@@ -819,23 +882,19 @@ public class IntBTree extends BaseBTree {
     }
 
     private final void getAllExcludingNull(IntListIteratorChain chain) throws IOException, ClassNotFoundException {
-        int start = _keys.lastIndexOf(NullObject.INSTANCE.intValue());
+        // nulls sort first, so skip the null keys and the children wholly before them
+        int start = _keys.lastIndexOf(NullObject.INSTANCE.intValue()) + 1;
 
         int size = size();
-        if (isLeaf() && start != -1 && (start + 1) < size) {
-            chain.addIterator(getValues().subList(start + 1, size).listIterator());
-        } else {
-            if (start == -1) {
-                start = 0;
+        if (isLeaf()) {
+            if (start < size) {
+                chain.addIterator(getValues().subList(start, size).listIterator());
             }
+        } else {
             for (int i = start; i < size + 1; i++) {
-                if (getChildIds().size() > 0) {
-                    getChild(i).getAllExcludingNull(chain);
-                }
+                getChild(i).getAllExcludingNull(chain);
                 if (i < size) {
                     chain.addIterator(getValue(i));
-                } else {
-                    break;
                 }
             }
         }
@@ -45,9 +45,11 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.List;
 
+import org.apache.commons.collections.primitives.ArrayIntList;
 import org.apache.commons.collections.primitives.IntList;
 import org.apache.commons.collections.primitives.IntListIterator;
 import org.axiondb.io.AxionFileSystem;
@@ -106,6 +108,67 @@ public class ObjectBTree extends BaseBTree {
         read();
     }
 
+    /**
+     * Load the given key/value pairs into this empty tree, building it bottom-up. The
+     * pairs are sorted once and dealt out evenly across as few leaves as will hold them;
+     * the keys between adjacent leaves become the entries of the level above, and so on
+     * until the remaining entries fit in the root. Unlike repeated {@link #insert}s, no
+     * node is ever split or revisited.
+     */
+    public final void bulkLoad(List keys, IntList values) throws IOException, ClassNotFoundException {
+        if (size() != 0 || !isLeaf()) {
+            throw new IllegalStateException("Bulk load requires an empty tree");
+        }
+
+        Entry[] entries = new Entry[keys.size()];
+        for (int i = 0; i < entries.length; i++) {
+            entries[i] = new Entry(keys.get(i), values.get(i));
+        }
+        // a stable sort, so equal keys keep the order of their values
+        Arrays.sort(entries, new Comparator() {
+            public int compare(Object x, Object y) {
+                return ObjectBTree.this.compare(((Entry) x)._key, ((Entry) y)._key);
+            }
+        });
+
+        List levelKeys = new ArrayList(entries.length);
+        IntList levelValues = new ArrayIntList(entries.length);
+        for (int i = 0; i < entries.length; i++) {
+            levelKeys.add(entries[i]._key);
+            levelValues.add(entries[i]._value);
+        }
+        entries = null;
+
+        IntList levelChildren = new ArrayIntList(0);
+        while (levelKeys.size() > getKeyCapacity()) {
+            int count = levelKeys.size();
+            int nodes = (count + getKeyCapacity() + 1) / (getKeyCapacity() + 1);
+            int perNode = (count - nodes + 1) / nodes;
+            int extra = (count - nodes + 1) % nodes;
+
+            List upperKeys = new ArrayList(nodes - 1);
+            IntList upperValues = new ArrayIntList(nodes - 1);
+            IntList upperChildren = new ArrayIntList(nodes);
+            for (int i = 0, pos = 0; i < nodes; i++) {
+                int size = (i < extra) ? perNode + 1 : perNode;
+                ObjectBTree node = allocateNewNode();
+                node.addTuples(levelKeys.subList(pos, pos + size), levelValues.subList(pos, pos + size),
+                    levelChildren.isEmpty() ? levelChildren : levelChildren.subList(pos, pos + size + 1));
+                upperChildren.add(node.getFileId());
+                pos += size;
+                if (i < nodes - 1) {
+                    upperKeys.add(levelKeys.get(pos));
+                    upperValues.add(levelValues.get(pos));
+                    pos++;
+                }
+            }
+            levelKeys = upperKeys;
+            levelValues = upperValues;
+            levelChildren = upperChildren;
+        }
+        addTuples(levelKeys, levelValues, levelChildren);
+    }
+
     /**
      * Clear my keys, values, and file ids. Flags me as dirty.
      */
@@ -388,22 +451,19 @@ public class ObjectBTree extends BaseBTree {
     }
 
     protected void getAllExcludingNull(IntListIteratorChain chain) throws IOException, ClassNotFoundException {
-        int start = getKeys().lastIndexOf(getNullKey());
+        // nulls sort first, so skip the null keys and the children wholly before them
+        int start = getKeys().lastIndexOf(getNullKey()) + 1;
+        int size = size();
 
-        if (isLeaf() && start != -1 && (start + 1) < size()) {
-            chain.addIterator(getValues().subList(start + 1, size()).listIterator());
-        } else {
-            if (start == -1) {
-                start = 0;
+        if (isLeaf()) {
+            if (start < size) {
+                chain.addIterator(getValues().subList(start, size).listIterator());
             }
-            for (int i = start, size = size(); i < size + 1; i++) {
-                if(getChild(i).size() > 0) {
-                    getChild(i).getAllExcludingNull(chain);
-                }
+        } else {
+            for (int i = start; i < size + 1; i++) {
+                getChild(i).getAllExcludingNull(chain);
                 if (i < size) {
                     chain.addIterator(getValue(i));
-                } else {
-                    break;
                 }
             }
         }
@@ -1136,6 +1196,17 @@ public class ObjectBTree extends BaseBTree {
         }
         return buf.toString();
     }
+
+    /** A key/value pair, as sorted by {@link ObjectBTree#bulkLoad}. */
+    private static final class Entry {
+        Entry(Object key, int value) {
+            _key = key;
+            _value = value;
+        }
+
+        final Object _key;
+        final int _value;
+    }
     
     private final Comparator _comparator;
     private List _keys = null;
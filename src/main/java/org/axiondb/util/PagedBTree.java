@@ -0,0 +1,810 @@
+/*
+ * 
+ * =======================================================================
+ * Copyright (c) 2002-2005 Axion Development Team.  All rights reserved.
+ *  
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions 
+ * are met:
+ * 
+ * 1. Redistributions of source code must retain the above 
+ *    copyright notice, this list of conditions and the following 
+ *    disclaimer. 
+ *   
+ * 2. Redistributions in binary form must reproduce the above copyright 
+ *    notice, this list of conditions and the following disclaimer in 
+ *    the documentation and/or other materials provided with the 
+ *    distribution. 
+ *   
+ * 3. The names "Tigris", "Axion", nor the names of its contributors may 
+ *    not be used to endorse or promote products derived from this 
+ *    software without specific prior written permission. 
+ *  
+ * 4. Products derived from this software may not be called "Axion", nor 
+ *    may "Tigris" or "Axion" appear in their names without specific prior
+ *    written permission.
+ *   
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT 
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, 
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT 
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * =======================================================================
+ */
+
+package org.axiondb.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.commons.collections.primitives.ArrayIntList;
+import org.apache.commons.collections.primitives.IntList;
+import org.apache.commons.collections.primitives.IntListIterator;
+import org.axiondb.DataType;
+import org.axiondb.io.PagedFile;
+
+/**
+ * A B+tree that keeps all of its nodes in a single {@link PagedFile}, one node per
+ * fixed-size page, and caches decoded nodes in a bounded {@link BufferPool}.
+ * <p>
+ * Entries are ordered by (key, row id), so duplicate keys are allowed and every entry
+ * is unique. All entries live in the leaves; leaves are linked to their right sibling so
+ * range scans walk the leaf level without going back through the internal nodes.
+ * Internal nodes hold copies of the first entry of each right-hand child as separators.
+ * <p>
+ * Keys are encoded with {@link DataType#write}, prefixed by a null flag. A node is split
+ * when its encoded form no longer fits in a page. Deletes remove the entry from its
+ * leaf but do not rebalance the tree, so pages emptied by deletes are kept in place (and
+ * skipped by scans) until the tree is {@link #truncate truncated}.
+ * <p>
+ * Page 0 holds the file header (format version, page size, root page and entry count).
+ * 
+ * @version  
+ */
+public class PagedBTree {
+
+    /**
+     * Opens the tree stored in <code>file</code>, or creates an empty one. If
+     * <code>file</code> is <code>null</code> the pages are written to a temporary file
+     * until the tree is {@link #save saved}to a file.
+     * 
+     * @param file the paged file holding my nodes, or <code>null</code>
+     * @param pageSize the size of each page in bytes
+     * @param poolSize the maximum number of pages kept in the buffer pool
+     * @param type the {@link DataType}used to encode and compare keys
+     */
+    public PagedBTree(File file, int pageSize, int poolSize, DataType type) throws IOException {
+        _type = type;
+        _pageSize = pageSize;
+        _pageBuffer = new byte[pageSize];
+        _nodeOut = new PageOutputStream(pageSize);
+        _keyOut = new PageOutputStream(64);
+        _maxKeyLength = (pageSize - NODE_HEADER_SIZE - 4) / 4 - 8;
+        _file = (file == null) ? new PagedFile(pageSize) : new PagedFile(file, pageSize);
+        _pool = new BufferPool(poolSize, new NodeStore());
+        if (_file.getPageCount() == 0) {
+            initialize();
+        } else {
+            readHeader();
+        }
+    }
+
+    /**
+     * Loads the given key/row id pairs into this empty tree, building it bottom-up. The
+     * pairs are sorted once and streamed into leaves filled to the page size; the first
+     * entry of each new leaf is pushed into the open internal node of the level above,
+     * which in turn passes a separator up when it fills. Completed pages are released
+     * as soon as they are filled, so the {@link BufferPool}can write them out while the
+     * load proceeds.
+     */
+    public synchronized void bulkLoad(List keys, IntList rowids) throws IOException {
+        if (_size != 0) {
+            throw new IllegalStateException("Bulk load requires an empty tree");
+        }
+        if (_file.getPageCount() > 2) {
+            // pages emptied by deletes; start again from a single empty leaf
+            truncate();
+        }
+
+        Entry[] entries = new Entry[keys.size()];
+        for (int i = 0; i < entries.length; i++) {
+            entries[i] = new Entry(keys.get(i), rowids.get(i));
+        }
+        Arrays.sort(entries, new Comparator() {
+            public int compare(Object x, Object y) {
+                Entry a = (Entry) x;
+                Entry b = (Entry) y;
+                return PagedBTree.this.compare(a._key, a._rowId, b._key, b._rowId);
+            }
+        });
+
+        try {
+            // the open internal node of each level, parents of the leaves first
+            List levels = new ArrayList();
+            Node leaf = fetch(_root);
+            for (int i = 0; i < entries.length; i++) {
+                Object key = entries[i]._key;
+                int rowid = entries[i]._rowId;
+                int len = keyLength(key);
+                if (len > _maxKeyLength) {
+                    throw new IOException("Key of " + len + " bytes exceeds the maximum of " + _maxKeyLength
+                        + " bytes for a " + _pageSize + " byte page");
+                }
+                if (leaf._bytes + len + 4 > _pageSize && leaf.size() > 0) {
+                    Node right = newNode(true);
+                    leaf._next = right._pageId;
+                    _pool.markDirty(leaf._pageId);
+                    release(leaf._pageId);
+                    addSeparator(levels, 0, leaf._pageId, key, rowid, len, right._pageId);
+                    leaf = right;
+                }
+                leaf._keys.add(key);
+                leaf._rowIds.add(rowid);
+                leaf._bytes += len + 4;
+            }
+            _pool.markDirty(leaf._pageId);
+            for (int i = 0, I = levels.size(); i < I; i++) {
+                _pool.markDirty(((Node) levels.get(i))._pageId);
+            }
+            _root = levels.isEmpty() ? leaf._pageId : ((Node) levels.get(levels.size() - 1))._pageId;
+            _size = entries.length;
+            _headerDirty = true;
+        } finally {
+            releaseAll();
+        }
+    }
+
+    /**
+     * Removes the entry for the given key and row id, if any.
+     * 
+     * @return <code>true</code> if an entry was removed
+     */
+    public synchronized boolean delete(Object key, int rowid) throws IOException {
+        try {
+            Node leaf = findLeaf(key, rowid);
+            int pos = lowerBound(leaf, key, rowid);
+            if (pos < leaf.size() && compareKeys(leaf.getKey(pos), key) == 0 && leaf.getRowId(pos) == rowid) {
+                leaf._keys.remove(pos);
+                leaf._rowIds.removeElementAt(pos);
+                leaf._bytes -= keyLength(key) + 4;
+                _pool.markDirty(leaf._pageId);
+                _size--;
+                _headerDirty = true;
+                return true;
+            }
+            return false;
+        } finally {
+            releaseAll();
+        }
+    }
+
+    /**
+     * Returns the row id of some entry with the given key, or <code>null</code>.
+     */
+    public synchronized Integer get(Object key) throws IOException {
+        ArrayIntList ids = new ArrayIntList(1);
+        scan(key, key, true, false, ids, 1);
+        return ids.isEmpty() ? null : Integer.valueOf(ids.get(0));
+    }
+
+    /**
+     * Returns the row ids of all entries with the given key.
+     */
+    public synchronized IntListIterator getAll(Object key) throws IOException {
+        ArrayIntList ids = new ArrayIntList();
+        scan(key, key, true, false, ids, Integer.MAX_VALUE);
+        return ids.listIterator();
+    }
+
+    /**
+     * Returns the row ids of all entries with a non-null key.
+     */
+    public synchronized IntListIterator getAllExcludingNull() throws IOException {
+        ArrayIntList ids = new ArrayIntList();
+        scan(null, null, false, true, ids, Integer.MAX_VALUE);
+        return ids.listIterator();
+    }
+
+    /**
+     * Returns the row ids of all entries with a key greater than or equal to the given
+     * key.
+     */
+    public synchronized IntListIterator getAllFrom(Object key) throws IOException {
+        ArrayIntList ids = new ArrayIntList();
+        scan(key, null, false, true, ids, Integer.MAX_VALUE);
+        return ids.listIterator();
+    }
+
+    /**
+     * Returns the row ids of all entries with a non-null key strictly less than the given
+     * key.
+     */
+    public synchronized IntListIterator getAllTo(Object key) throws IOException {
+        ArrayIntList ids = new ArrayIntList();
+        scan(null, key, false, true, ids, Integer.MAX_VALUE);
+        return ids.listIterator();
+    }
+
+    public BufferPool getBufferPool() {
+        return _pool;
+    }
+
+    public int getPageCount() {
+        return _file.getPageCount();
+    }
+
+    public int getPageSize() {
+        return _pageSize;
+    }
+
+    /**
+     * Returns the row ids of all entries in key order, null keys first.
+     */
+    public synchronized IntListIterator inorderIterator() throws IOException {
+        ArrayIntList ids = new ArrayIntList(_size);
+        scan(null, null, false, false, ids, Integer.MAX_VALUE);
+        return ids.listIterator();
+    }
+
+    /**
+     * Inserts the given key/row id pair, splitting nodes on the way back up as needed.
+     */
+    public synchronized void insert(Object key, int rowid) throws IOException {
+        int len = keyLength(key);
+        if (len > _maxKeyLength) {
+            throw new IOException("Key of " + len + " bytes exceeds the maximum of " + _maxKeyLength + " bytes for a "
+                + _pageSize + " byte page");
+        }
+        try {
+            Split split = insert(_root, key, rowid, len);
+            if (split != null) {
+                Node root = newNode(false);
+                root._children.add(_root);
+                root._keys.add(split._key);
+                root._rowIds.add(split._rowId);
+                root._children.add(split._right);
+                root._bytes = NODE_HEADER_SIZE + 4 + split._keyLength + 8;
+                _root = root._pageId;
+            }
+            _size++;
+            _headerDirty = true;
+        } finally {
+            releaseAll();
+        }
+    }
+
+    /**
+     * Replaces the row id of the entry for the given key and <code>oldRowId</code> with
+     * <code>newRowId</code>.
+     */
+    public synchronized void replaceId(Object key, int oldRowId, int newRowId) throws IOException {
+        if (delete(key, oldRowId)) {
+            insert(key, newRowId);
+        }
+    }
+
+    /**
+     * Writes every dirty page and the header. If <code>file</code> is not
+     * <code>null</code> and differs from my current file, my pages are moved to it first.
+     */
+    public synchronized void save(File file) throws IOException {
+        _pool.flush();
+        if (file != null) {
+            _file.attach(file);
+        }
+        if (_headerDirty || file != null) {
+            writeHeader();
+        }
+        _file.force();
+    }
+
+    public synchronized int size() {
+        return _size;
+    }
+
+    public synchronized String toString() {
+        return "PagedBTree[size=" + _size + ",pages=" + _file.getPageCount() + ",root=" + _root + "]";
+    }
+
+    /**
+     * Removes every entry and releases all pages but the header and an empty root.
+     */
+    public synchronized void truncate() throws IOException {
+        _pool.clear();
+        _file.truncate(0);
+        initialize();
+    }
+
+    /**
+     * Adds the separator (key, rowid) between the pages <code>left</code> and
+     * <code>right</code> to the open node at the given level of a {@link #bulkLoad}. When
+     * that node is full the separator moves up a level instead, and <code>right</code>
+     * starts a new open node.
+     */
+    private void addSeparator(List levels, int level, int left, Object key, int rowid, int len, int right)
+            throws IOException {
+        if (level == levels.size()) {
+            Node node = newNode(false);
+            node._children.add(left);
+            levels.add(node);
+        }
+        Node node = (Node) levels.get(level);
+        if (node._bytes + len + 8 > _pageSize && node.size() > 0) {
+            Node sibling = newNode(false);
+            sibling._children.add(right);
+            levels.set(level, sibling);
+            release(node._pageId);
+            addSeparator(levels, level + 1, node._pageId, key, rowid, len, sibling._pageId);
+        } else {
+            node._keys.add(key);
+            node._rowIds.add(rowid);
+            node._children.add(right);
+            node._bytes += len + 8;
+        }
+    }
+
+    private int childIndex(Node node, Object key, int rowid) {
+        // number of separators less than or equal to (key, rowid)
+        int pos = lowerBound(node, key, rowid);
+        if (pos < node.size() && node.getRowId(pos) == rowid && compareKeys(node.getKey(pos), key) == 0) {
+            pos++;
+        }
+        return pos;
+    }
+
+    private int compare(Object k1, int r1, Object k2, int r2) {
+        int result = compareKeys(k1, k2);
+        if (result == 0) {
+            result = (r1 < r2) ? -1 : ((r1 == r2) ? 0 : 1);
+        }
+        return result;
+    }
+
+    private int compareKeys(Object x, Object y) {
+        boolean xnull = isNullKey(x);
+        boolean ynull = isNullKey(y);
+        if (xnull || ynull) {
+            return (xnull && ynull) ? 0 : (xnull ? -1 : 1);
+        }
+        return _type.compare(x, y);
+    }
+
+    private Node fetch(int pageId) throws IOException {
+        Node node = (Node) _pool.pin(pageId);
+        _pinned.add(pageId);
+        return node;
+    }
+
+    /**
+     * Descends to the leaf that holds (or would hold) the given entry. Internal nodes are
+     * released as soon as the child has been chosen.
+     */
+    private Node findLeaf(Object key, int rowid) throws IOException {
+        Node node = fetch(_root);
+        while (!node._leaf) {
+            int child = (key == null) ? node._children.get(0) : node._children.get(childIndex(node, key, rowid));
+            release(node._pageId);
+            node = fetch(child);
+        }
+        return node;
+    }
+
+    private void initialize() throws IOException {
+        _file.allocate(); // header page
+        _size = 0;
+        Node root = newNode(true);
+        _root = root._pageId;
+        releaseAll();
+        _pool.flush();
+        writeHeader();
+    }
+
+    private Split insert(int pageId, Object key, int rowid, int len) throws IOException {
+        Node node = fetch(pageId);
+        if (node._leaf) {
+            int pos = lowerBound(node, key, rowid);
+            node._keys.add(pos, key);
+            node._rowIds.add(pos, rowid);
+            node._bytes += len + 4;
+            _pool.markDirty(pageId);
+            return node._bytes > _pageSize ? splitLeaf(node) : null;
+        }
+
+        int child = childIndex(node, key, rowid);
+        Split split = insert(node._children.get(child), key, rowid, len);
+        if (split == null) {
+            return null;
+        }
+        node._keys.add(child, split._key);
+        node._rowIds.add(child, split._rowId);
+        node._children.add(child + 1, split._right);
+        node._bytes += split._keyLength + 8;
+        _pool.markDirty(pageId);
+        return node._bytes > _pageSize ? splitInternal(node) : null;
+    }
+
+    private boolean isNullKey(Object key) {
+        return key == null || key == NullObject.INSTANCE;
+    }
+
+    private int keyLength(Object key) throws IOException {
+        _keyOut.reset();
+        writeKey(_keyOut.getDataOutput(), key);
+        return _keyOut.size();
+    }
+
+    /**
+     * Returns the position of the first entry in <code>node</code> that is greater than or
+     * equal to (key, rowid).
+     */
+    private int lowerBound(Node node, Object key, int rowid) {
+        int low = 0;
+        int high = node.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compare(node.getKey(mid), node.getRowId(mid), key, rowid) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private Node newNode(boolean leaf) throws IOException {
+        Node node = new Node(_file.allocate(), leaf);
+        node._bytes = NODE_HEADER_SIZE + (leaf ? 0 : 4);
+        _pool.add(node._pageId, node);
+        _pinned.add(node._pageId);
+        return node;
+    }
+
+    private Object readKey(DataInputStream in) throws IOException {
+        return in.readBoolean() ? _type.read(in) : NullObject.INSTANCE;
+    }
+
+    private void readHeader() throws IOException {
+        _file.read(0, _pageBuffer);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(_pageBuffer));
+        int magic = in.readInt();
+        int ver = in.readInt();
+        if (magic != MAGIC || ver != VERSION) {
+            throw new IOException("Unrecognized paged b-tree file " + _file.getFile() + " (version " + ver + ")");
+        }
+        int pageSize = in.readInt();
+        if (pageSize != _pageSize) {
+            throw new IOException("Paged b-tree file " + _file.getFile() + " uses " + pageSize + " byte pages, expected "
+                + _pageSize);
+        }
+        _root = in.readInt();
+        _size = in.readInt();
+        _headerDirty = false;
+    }
+
+    private void release(int pageId) {
+        int index = _pinned.lastIndexOf(pageId);
+        if (index != -1) {
+            _pinned.removeElementAt(index);
+            _pool.unpin(pageId);
+        }
+    }
+
+    private void releaseAll() {
+        for (int i = 0, I = _pinned.size(); i < I; i++) {
+            _pool.unpin(_pinned.get(i));
+        }
+        _pinned.clear();
+    }
+
+    /**
+     * Walks the leaf level starting at <code>from</code> (or the first leaf if
+     * <code>from</code> is <code>null</code>) collecting row ids until <code>to</code>
+     * is reached, or <code>limit</code> ids have been collected. Each leaf is released
+     * before moving on to its sibling, so a scan pins at most one page at a time.
+     */
+    private void scan(Object from, Object to, boolean toInclusive, boolean skipNull, IntList ids, int limit)
+            throws IOException {
+        try {
+            Node leaf = findLeaf(from, Integer.MIN_VALUE);
+            int pos = (from == null) ? 0 : lowerBound(leaf, from, Integer.MIN_VALUE);
+            while (true) {
+                for (int size = leaf.size(); pos < size; pos++) {
+                    Object key = leaf.getKey(pos);
+                    if (to != null) {
+                        int cmp = compareKeys(key, to);
+                        if (cmp > 0 || (cmp == 0 && !toInclusive)) {
+                            return;
+                        }
+                    }
+                    if (skipNull && isNullKey(key)) {
+                        continue;
+                    }
+                    ids.add(leaf.getRowId(pos));
+                    if (ids.size() >= limit) {
+                        return;
+                    }
+                }
+                int next = leaf._next;
+                release(leaf._pageId);
+                if (next == NO_PAGE) {
+                    return;
+                }
+                leaf = fetch(next);
+                pos = 0;
+            }
+        } finally {
+            releaseAll();
+        }
+    }
+
+    private int splitPoint(int[] lengths, int extra) {
+        int total = 0;
+        for (int i = 0; i < lengths.length; i++) {
+            total += lengths[i] + extra;
+        }
+        int half = total / 2;
+        int running = 0;
+        int m = 0;
+        while (m < lengths.length - 1 && running < half) {
+            running += lengths[m++] + extra;
+        }
+        return Math.max(1, m);
+    }
+
+    private int[] keyLengths(Node node) throws IOException {
+        int[] lengths = new int[node.size()];
+        for (int i = 0; i < lengths.length; i++) {
+            lengths[i] = keyLength(node.getKey(i));
+        }
+        return lengths;
+    }
+
+    private Split splitInternal(Node node) throws IOException {
+        int[] lengths = keyLengths(node);
+        int m = splitPoint(lengths, 8);
+
+        Node right = newNode(false);
+        Split split = new Split(node.getKey(m), node.getRowId(m), lengths[m], right._pageId);
+        for (int i = m + 1, n = node.size(); i < n; i++) {
+            right._keys.add(node.getKey(i));
+            right._rowIds.add(node.getRowId(i));
+            right._bytes += lengths[i] + 8;
+        }
+        for (int i = m + 1, n = node._children.size(); i < n; i++) {
+            right._children.add(node._children.get(i));
+        }
+
+        truncateNode(node, m);
+        while (node._children.size() > m + 1) {
+            node._children.removeElementAt(node._children.size() - 1);
+        }
+        node._bytes = NODE_HEADER_SIZE + 4;
+        for (int i = 0; i < m; i++) {
+            node._bytes += lengths[i] + 8;
+        }
+        _pool.markDirty(node._pageId);
+        return split;
+    }
+
+    private Split splitLeaf(Node node) throws IOException {
+        int[] lengths = keyLengths(node);
+        int m = splitPoint(lengths, 4);
+
+        Node right = newNode(true);
+        for (int i = m, n = node.size(); i < n; i++) {
+            right._keys.add(node.getKey(i));
+            right._rowIds.add(node.getRowId(i));
+            right._bytes += lengths[i] + 4;
+        }
+        right._next = node._next;
+        node._next = right._pageId;
+
+        truncateNode(node, m);
+        node._bytes = NODE_HEADER_SIZE;
+        for (int i = 0; i < m; i++) {
+            node._bytes += lengths[i] + 4;
+        }
+        _pool.markDirty(node._pageId);
+        return new Split(right.getKey(0), right.getRowId(0), lengths[m], right._pageId);
+    }
+
+    private void truncateNode(Node node, int size) {
+        while (node.size() > size) {
+            int last = node.size() - 1;
+            node._keys.remove(last);
+            node._rowIds.removeElementAt(last);
+        }
+    }
+
+    private void writeHeader() throws IOException {
+        _nodeOut.reset();
+        DataOutputStream out = _nodeOut.getDataOutput();
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(_pageSize);
+        out.writeInt(_root);
+        out.writeInt(_size);
+        _file.write(0, _nodeOut.getPage());
+        _headerDirty = false;
+    }
+
+    private void writeKey(DataOutputStream out, Object key) throws IOException {
+        if (isNullKey(key)) {
+            out.writeBoolean(false);
+        } else {
+            out.writeBoolean(true);
+            _type.write(key, out);
+        }
+    }
+
+    /**
+     * Decodes and encodes {@link Node nodes}for the {@link BufferPool}.
+     */
+    private class NodeStore implements BufferPool.PageStore {
+        public Object readPage(int pageId) throws IOException {
+            _file.read(pageId, _pageBuffer);
+            ByteArrayInputStream bytes = new ByteArrayInputStream(_pageBuffer);
+            DataInputStream in = new DataInputStream(bytes);
+            Node node = new Node(pageId, in.readByte() == LEAF);
+            int count = in.readInt();
+            node._next = in.readInt();
+            if (node._leaf) {
+                for (int i = 0; i < count; i++) {
+                    node._keys.add(readKey(in));
+                    node._rowIds.add(in.readInt());
+                }
+            } else {
+                node._children.add(in.readInt());
+                for (int i = 0; i < count; i++) {
+                    node._keys.add(readKey(in));
+                    node._rowIds.add(in.readInt());
+                    node._children.add(in.readInt());
+                }
+            }
+            node._bytes = _pageSize - bytes.available();
+            return node;
+        }
+
+        public void writePage(int pageId, Object page) throws IOException {
+            Node node = (Node) page;
+            _nodeOut.reset();
+            DataOutputStream out = _nodeOut.getDataOutput();
+            out.writeByte(node._leaf ? LEAF : INTERNAL);
+            out.writeInt(node.size());
+            out.writeInt(node._next);
+            if (node._leaf) {
+                for (int i = 0, I = node.size(); i < I; i++) {
+                    writeKey(out, node.getKey(i));
+                    out.writeInt(node.getRowId(i));
+                }
+            } else {
+                out.writeInt(node._children.get(0));
+                for (int i = 0, I = node.size(); i < I; i++) {
+                    writeKey(out, node.getKey(i));
+                    out.writeInt(node.getRowId(i));
+                    out.writeInt(node._children.get(i + 1));
+                }
+            }
+            out.flush();
+            if (_nodeOut.size() > _pageSize) {
+                throw new IOException("Node " + pageId + " needs " + _nodeOut.size() + " bytes, page size is " + _pageSize);
+            }
+            _file.write(pageId, _nodeOut.getPage());
+        }
+    }
+
+    /** A key/row id pair, as sorted by {@link PagedBTree#bulkLoad}. */
+    private static final class Entry {
+        Entry(Object key, int rowid) {
+            _key = key;
+            _rowId = rowid;
+        }
+
+        final Object _key;
+        final int _rowId;
+    }
+
+    /**
+     * A decoded b-tree node. Leaves hold (key, row id) entries and a link to their right
+     * sibling; internal nodes hold separators and one more child than separators.
+     */
+    private static final class Node {
+        Node(int pageId, boolean leaf) {
+            _pageId = pageId;
+            _leaf = leaf;
+            _keys = new ArrayList();
+            _rowIds = new ArrayIntList();
+            _children = leaf ? null : new ArrayIntList();
+        }
+
+        Object getKey(int index) {
+            return _keys.get(index);
+        }
+
+        int getRowId(int index) {
+            return _rowIds.get(index);
+        }
+
+        int size() {
+            return _keys.size();
+        }
+
+        int _bytes;
+        final ArrayIntList _children;
+        final List _keys;
+        final boolean _leaf;
+        int _next = NO_PAGE;
+        final int _pageId;
+        final ArrayIntList _rowIds;
+    }
+
+    /**
+     * A byte array stream whose buffer can be handed to {@link PagedFile}without copying.
+     */
+    private static final class PageOutputStream extends ByteArrayOutputStream {
+        PageOutputStream(int size) {
+            super(size);
+            _data = new DataOutputStream(this);
+        }
+
+        DataOutputStream getDataOutput() {
+            return _data;
+        }
+
+        byte[] getPage() {
+            return buf;
+        }
+
+        private final DataOutputStream _data;
+    }
+
+    /** The separator and new right-hand page produced by splitting a node. */
+    private static final class Split {
+        Split(Object key, int rowid, int keyLength, int right) {
+            _key = key;
+            _rowId = rowid;
+            _keyLength = keyLength;
+            _right = right;
+        }
+
+        final Object _key;
+        final int _keyLength;
+        final int _right;
+        final int _rowId;
+    }
+
+    private static final byte INTERNAL = 2;
+    private static final byte LEAF = 1;
+    private static final int MAGIC = 0x41585042; // "AXPB"
+    private static final int NO_PAGE = -1;
+    /** type (1 byte), entry count (4 bytes), right sibling (4 bytes) */
+    private static final int NODE_HEADER_SIZE = 9;
+    private static final int VERSION = 1;
+
+    private PagedFile _file;
+    private boolean _headerDirty;
+    private PageOutputStream _keyOut;
+    private int _maxKeyLength;
+    private PageOutputStream _nodeOut;
+    private byte[] _pageBuffer;
+    private int _pageSize;
+    private ArrayIntList _pinned = new ArrayIntList();
+    private BufferPool _pool;
+    private int _root;
+    private int _size;
+    private DataType _type;
+}
@@ -40,9 +40,18 @@
 package org.axiondb.util;
 
 import java.sql.Types;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Iterator;
 
+import org.axiondb.DataType;
+import org.axiondb.types.BigIntType;
+import org.axiondb.types.ByteType;
+import org.axiondb.types.CharacterType;
+import org.axiondb.types.IntegerType;
+import org.axiondb.types.ShortType;
+import org.axiondb.types.StringType;
+
 public class Utils {
 
     /**
@@ -123,6 +132,23 @@ public class Utils {
                 return false;
         }
     }
+
+    /**
+     * Returns <code>true</code> iff values of the given type are equal objects exactly
+     * when they compare equal, so that they can be matched or grouped by hashing.
+     */
+    public static boolean isHashable(DataType type) {
+        return type instanceof IntegerType || type instanceof BigIntType || type instanceof ShortType || type instanceof ByteType
+            || type instanceof StringType || type instanceof CharacterType;
+    }
+
+    /**
+     * Returns a hash key for the given values, which must not be <code>null</code>:
+     * the value itself if there is only one, or else a list of them.
+     */
+    public static Object toHashKey(Object[] values) {
+        return (values.length == 1) ? values[0] : Arrays.asList(values);
+    }
     
 }
 
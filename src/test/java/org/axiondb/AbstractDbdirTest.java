@@ -0,0 +1,137 @@
+/*
+ * 
+ * =======================================================================
+ * Copyright (c) 2002-2005 Axion Development Team.  All rights reserved.
+ *  
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions 
+ * are met:
+ * 
+ * 1. Redistributions of source code must retain the above 
+ *    copyright notice, this list of conditions and the following 
+ *    disclaimer. 
+ *   
+ * 2. Redistributions in binary form must reproduce the above copyright 
+ *    notice, this list of conditions and the following disclaimer in 
+ *    the documentation and/or other materials provided with the 
+ *    distribution. 
+ *   
+ * 3. The names "Tigris", "Axion", nor the names of its contributors may 
+ *    not be used to endorse or promote products derived from this 
+ *    software without specific prior written permission. 
+ *  
+ * 4. Products derived from this software may not be called "Axion", nor 
+ *    may "Tigris" or "Axion" appear in their names without specific prior
+ *    written permission.
+ *   
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT 
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, 
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT 
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * =======================================================================
+ */
+
+package org.axiondb;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import junit.framework.TestCase;
+
+import org.axiondb.parser.AxionSqlParser;
+
+/**
+ * Base class for tests that need an empty database directory, which is removed again
+ * after each test.
+ * 
+ * @version  
+ */
+public abstract class AbstractDbdirTest extends TestCase {
+
+    public AbstractDbdirTest(String testName) {
+        super(testName);
+    }
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteFile(getDbdir());
+        getDbdir().mkdirs();
+    }
+
+    protected void tearDown() throws Exception {
+        deleteFile(getDbdir());
+        super.tearDown();
+    }
+
+    protected File getDbdir() {
+        return new File(new File("target"), "testdb");
+    }
+
+    /**
+     * Copies the database directory <i>from </i> to <i>to </i> as it is on disk, without
+     * the lock file, as a crash would leave it.
+     */
+    protected static void copyDbdir(File from, File to) throws IOException {
+        to.mkdirs();
+        File[] files = from.listFiles();
+        for (int i = 0; i < files.length; i++) {
+            File target = new File(to, files[i].getName());
+            if (files[i].isDirectory()) {
+                copyDbdir(files[i], target);
+            } else if (!files[i].getName().equals("lockfile.txt")) {
+                InputStream in = new FileInputStream(files[i]);
+                OutputStream out = new FileOutputStream(target);
+                try {
+                    byte[] buf = new byte[8192];
+                    for (int n = in.read(buf); n != -1; n = in.read(buf)) {
+                        out.write(buf, 0, n);
+                    }
+                } finally {
+                    in.close();
+                    out.close();
+                }
+            }
+        }
+    }
+
+    protected static boolean deleteFile(File file) {
+        if (file.isDirectory()) {
+            File[] files = file.listFiles();
+            for (int i = 0; i < files.length; i++) {
+                deleteFile(files[i]);
+            }
+        }
+        return file.delete();
+    }
+
+    protected static void execute(Database db, String sql) throws AxionException {
+        new AxionSqlParser().parse(sql).execute(db);
+    }
+
+    /** Executes <i>sql </i> in its own transaction and commits it. */
+    protected static void executeAndCommit(Database db, String sql) throws AxionException {
+        TransactionManager tm = db.getTransactionManager();
+        Transaction t = tm.createTransaction();
+        execute(t, sql);
+        tm.commitTransaction(t);
+    }
+
+    protected static int countRows(Table table) throws AxionException {
+        int count = 0;
+        for (RowIterator iter = table.getRowIterator(true); iter.hasNext(); iter.next()) {
+            count++;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * 
+ * =======================================================================
+ * Copyright (c) 2002-2005 Axion Development Team.  All rights reserved.
+ *  
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions 
+ * are met:
+ * 
+ * 1. Redistributions of source code must retain the above 
+ *    copyright notice, this list of conditions and the following 
+ *    disclaimer. 
+ *   
+ * 2. Redistributions in binary form must reproduce the above copyright 
+ *    notice, this list of conditions and the following disclaimer in 
+ *    the documentation and/or other materials provided with the 
+ *    distribution. 
+ *   
+ * 3. The names "Tigris", "Axion", nor the names of its contributors may 
+ *    not be used to endorse or promote products derived from this 
+ *    software without specific prior written permission. 
+ *  
+ * 4. Products derived from this software may not be called "Axion", nor 
+ *    may "Tigris" or "Axion" appear in their names without specific prior
+ *    written permission.
+ *   
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT 
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, 
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT 
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * =======================================================================
+ */
+
+package org.axiondb.constraints;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.axiondb.Database;
+import org.axiondb.Row;
+import org.axiondb.Table;
+import org.axiondb.engine.MemoryDatabase;
+import org.axiondb.engine.rowiterators.ListRowIterator;
+import org.axiondb.engine.rows.SimpleRow;
+import org.axiondb.jdbc.AxionConnection;
+import org.axiondb.parser.AxionSqlParser;
+
+/**
+ * Tests the checks of many child rows at once, which collect the distinct parent keys
+ * the rows refer to and read the parent table once.
+ * 
+ * @version  
+ */
+public class TestForeignKeyConstraint extends TestCase {
+
+    public TestForeignKeyConstraint(String testName) {
+        super(testName);
+    }
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        _db = new MemoryDatabase("fktest");
+        execute("create table P ( id integer, code varchar(5), primary key ( id ) )");
+        execute("create table Q ( a integer, b varchar(5), primary key ( a, b ) )");
+        for (int i = 0; i < 20; i++) {
+            execute("insert into P values ( " + i + ", 'c" + i + "' )");
+            execute("insert into Q values ( " + i + ", 'b" + (i % 4) + "' )");
+        }
+        execute("create table C ( id integer, pid varchar(10), qa integer, qb varchar(5) )");
+        execute("alter table C add constraint C_P foreign key ( pid ) references P ( id )");
+        execute("alter table C add constraint C_Q foreign key ( qa, qb ) references Q ( a, b )");
+        _child = _db.getTable("C");
+    }
+
+    protected void tearDown() throws Exception {
+        _db.shutdown();
+        super.tearDown();
+    }
+
+    public void testParentKeysAreFound() throws Exception {
+        assertTrue(evaluate("C_P", new Row[] { row("3", 1, "b1"), row("19", 1, "b1"), row("3", 1, "b1")}));
+    }
+
+    public void testMissingParentKey() throws Exception {
+        assertFalse(evaluate("C_P", new Row[] { row("3", 1, "b1"), row("20", 1, "b1")}));
+    }
+
+    public void testChildValuesAreConvertedToTheParentType() throws Exception {
+        assertTrue(evaluate("C_P", new Row[] { row("007", 1, "b1")}));
+        assertFalse("not a number, so no parent", evaluate("C_P", new Row[] { row("x", 1, "b1")}));
+    }
+
+    public void testNullNeedsNoParent() throws Exception {
+        assertTrue(evaluate("C_P", new Row[] { row(null, 1, "b1"), row("4", 1, "b1")}));
+        assertTrue(evaluate("C_Q", new Row[] { row("4", 99, null), row("4", null, "zz")}));
+    }
+
+    public void testCompositeParentKeys() throws Exception {
+        assertTrue(evaluate("C_Q", new Row[] { row("1", 5, "b1"), row("1", 6, "b2"), row("1", 5, "b1")}));
+        assertFalse(evaluate("C_Q", new Row[] { row("1", 5, "b1"), row("1", 5, "b2")}));
+    }
+
+    public void testCascadeLeavesLaterStatementsCheckedAsTheyRun() throws Exception {
+        execute("create table D ( id integer, pid integer )");
+        execute("alter table D add constraint D_P foreign key ( pid ) references P ( id ) on delete cascade");
+        execute("insert into D values ( 1, 1 )");
+        execute("insert into D values ( 2, 2 )");
+
+        Connection conn = new AxionConnection(_db);
+        try {
+            conn.setAutoCommit(false);
+            // a statement with bind variables defers the checks of the child rows it deletes
+            PreparedStatement delete = conn.prepareStatement("delete from P where id = ?");
+            delete.setInt(1, 1);
+            assertEquals(1, delete.executeUpdate());
+            delete.close();
+
+            Statement stmt = conn.createStatement();
+            try {
+                stmt.executeUpdate("insert into D values ( 3, 1 )");
+                fail("Expected SQLException");
+            } catch (SQLException e) {
+                // expected, as the row is inserted rather than when the transaction commits
+            }
+            conn.commit();
+
+            ResultSet rs = stmt.executeQuery("select count(*) from D");
+            assertTrue(rs.next());
+            assertEquals(1, rs.getInt(1));
+            rs.close();
+            stmt.close();
+        } finally {
+            conn.close();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private boolean evaluate(String constraintName, Row[] rows) throws Exception {
+        List list = new ArrayList();
+        for (int i = 0; i < rows.length; i++) {
+            list.add(rows[i]);
+        }
+        return getConstraint(constraintName).evaluate(null, new ListRowIterator(list), _child);
+    }
+
+    private ForeignKeyConstraint getConstraint(String name) {
+        for (Iterator iter = _child.getConstraints(); iter.hasNext();) {
+            Object constraint = iter.next();
+            if (constraint instanceof ForeignKeyConstraint && name.equals(((ForeignKeyConstraint) constraint).getName())) {
+                return (ForeignKeyConstraint) constraint;
+            }
+        }
+        fail("No constraint " + name);
+        return null;
+    }
+
+    private static Row row(String pid, Integer qa, String qb) {
+        return new SimpleRow(new Object[] { new Integer(-1), pid, qa, qb});
+    }
+
+    private static Row row(String pid, int qa, String qb) {
+        return row(pid, new Integer(qa), qb);
+    }
+
+    private void execute(String sql) throws Exception {
+        new AxionSqlParser().parse(sql).execute(_db);
+    }
+
+    private Database _db;
+    private Table _child;
+}
@@ -0,0 +1,156 @@
+/*
+ * 
+ * =======================================================================
+ * Copyright (c) 2002-2005 Axion Development Team.  All rights reserved.
+ *  
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions 
+ * are met:
+ * 
+ * 1. Redistributions of source code must retain the above 
+ *    copyright notice, this list of conditions and the following 
+ *    disclaimer. 
+ *   
+ * 2. Redistributions in binary form must reproduce the above copyright 
+ *    notice, this list of conditions and the following disclaimer in 
+ *    the documentation and/or other materials provided with the 
+ *    distribution. 
+ *   
+ * 3. The names "Tigris", "Axion", nor the names of its contributors may 
+ *    not be used to endorse or promote products derived from this 
+ *    software without specific prior written permission. 
+ *  
+ * 4. Products derived from this software may not be called "Axion", nor 
+ *    may "Tigris" or "Axion" appear in their names without specific prior
+ *    written permission.
+ *   
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT 
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, 
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT 
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * =======================================================================
+ */
+
+package org.axiondb.constraints;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.axiondb.Database;
+import org.axiondb.Row;
+import org.axiondb.Table;
+import org.axiondb.engine.MemoryDatabase;
+import org.axiondb.engine.rowiterators.ListRowIterator;
+import org.axiondb.engine.rows.SimpleRow;
+import org.axiondb.parser.AxionSqlParser;
+
+/**
+ * Tests the checks of many rows at once, which hash the keys of the rows and read the
+ * table once.
+ * 
+ * @version  
+ */
+public class TestUniqueConstraint extends TestCase {
+
+    public TestUniqueConstraint(String testName) {
+        super(testName);
+    }
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        _db = new MemoryDatabase("uniquetest");
+        execute("create table T ( id integer, name varchar(10), grp integer )");
+        for (int i = 0; i < 20; i++) {
+            execute("insert into T values ( " + i + ", 'n" + i + "', " + (i % 3) + " )");
+        }
+        execute("alter table T add constraint T_NAME unique ( name )");
+        execute("alter table T add constraint T_GRP_ID unique ( grp, id )");
+        _table = _db.getTable("T");
+    }
+
+    protected void tearDown() throws Exception {
+        _db.shutdown();
+        super.tearDown();
+    }
+
+    public void testNewKeys() throws Exception {
+        assertTrue(evaluate("T_NAME", new Row[] { row(20, "a", 0), row(21, "b", 0), row(22, "c", 0)}));
+    }
+
+    public void testDuplicateAmongNewRows() throws Exception {
+        assertFalse(evaluate("T_NAME", new Row[] { row(20, "a", 0), row(21, "b", 0), row(22, "a", 0)}));
+    }
+
+    public void testDuplicateOfExistingRow() throws Exception {
+        assertFalse(evaluate("T_NAME", new Row[] { row(20, "a", 0), row(21, "n7", 0)}));
+    }
+
+    public void testRowMayKeepItsOwnKey() throws Exception {
+        // an updated row keeps its id, and so may keep its key
+        assertTrue(evaluate("T_NAME", new Row[] { row(7, "n7", 2), row(8, "x", 2)}));
+        assertFalse(evaluate("T_NAME", new Row[] { row(8, "n7", 2)}));
+    }
+
+    public void testNullKeysNeverClash() throws Exception {
+        assertTrue(evaluate("T_NAME", new Row[] { row(20, null, 0), row(21, null, 0)}));
+    }
+
+    public void testCompositeKeys() throws Exception {
+        assertTrue(evaluate("T_GRP_ID", new Row[] { row(20, "a", 1), row(21, "b", 1)}));
+        assertTrue(evaluate("T_GRP_ID", new Row[] { row(20, 4, "a", 2)}));
+        assertFalse(evaluate("T_GRP_ID", new Row[] { row(20, 30, "a", 1), row(21, 30, "b", 1)}));
+        assertFalse(evaluate("T_GRP_ID", new Row[] { row(20, 4, "a", 1)}));
+    }
+
+    public void testEmptyChange() throws Exception {
+        assertTrue(evaluate("T_NAME", new Row[0]));
+    }
+
+    @SuppressWarnings("unchecked")
+    private boolean evaluate(String constraintName, Row[] rows) throws Exception {
+        List list = new ArrayList();
+        for (int i = 0; i < rows.length; i++) {
+            list.add(rows[i]);
+        }
+        return getConstraint(constraintName).evaluate(null, new ListRowIterator(list), _table);
+    }
+
+    private UniqueConstraint getConstraint(String name) {
+        for (Iterator iter = _table.getConstraints(); iter.hasNext();) {
+            Object constraint = iter.next();
+            if (constraint instanceof UniqueConstraint && name.equals(((UniqueConstraint) constraint).getName())) {
+                return (UniqueConstraint) constraint;
+            }
+        }
+        fail("No constraint " + name);
+        return null;
+    }
+
+    /** Returns a row whose identifier, that of the row it would replace or of a new row, is its id. */
+    private static Row row(int id, String name, int grp) {
+        return row(id, id, name, grp);
+    }
+
+    private static Row row(int identifier, int id, String name, int grp) {
+        Row row = new SimpleRow(new Object[] { new Integer(id), name, new Integer(grp)});
+        row.setIdentifier(identifier);
+        return row;
+    }
+
+    private void execute(String sql) throws Exception {
+        new AxionSqlParser().parse(sql).execute(_db);
+    }
+
+    private Database _db;
+    private Table _table;
+}
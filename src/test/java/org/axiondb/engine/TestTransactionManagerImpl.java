@@ -0,0 +1,473 @@
+/*
+ * 
+ * =======================================================================
+ * Copyright (c) 2002-2005 Axion Development Team.  All rights reserved.
+ *  
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions 
+ * are met:
+ * 
+ * 1. Redistributions of source code must retain the above 
+ *    copyright notice, this list of conditions and the following 
+ *    disclaimer. 
+ *   
+ * 2. Redistributions in binary form must reproduce the above copyright 
+ *    notice, this list of conditions and the following disclaimer in 
+ *    the documentation and/or other materials provided with the 
+ *    distribution. 
+ *   
+ * 3. The names "Tigris", "Axion", nor the names of its contributors may 
+ *    not be used to endorse or promote products derived from this 
+ *    software without specific prior written permission. 
+ *  
+ * 4. Products derived from this software may not be called "Axion", nor 
+ *    may "Tigris" or "Axion" appear in their names without specific prior
+ *    written permission.
+ *   
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT 
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, 
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT 
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * =======================================================================
+ */
+
+package org.axiondb.engine;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.axiondb.AbstractDbdirTest;
+import org.axiondb.AxionException;
+import org.axiondb.Database;
+import org.axiondb.Row;
+import org.axiondb.RowIterator;
+import org.axiondb.Table;
+import org.axiondb.TableIdentifier;
+import org.axiondb.Transaction;
+import org.axiondb.TransactionConflictException;
+import org.axiondb.TransactionManager;
+
+/**
+ * @version  
+ */
+public class TestTransactionManagerImpl extends AbstractDbdirTest {
+
+    public TestTransactionManagerImpl(String testName) {
+        super(testName);
+    }
+
+    public void testCommitsAreAppliedInBackground() throws Exception {
+        DiskDatabase db = new DiskDatabase(getDbdir());
+        try {
+            execute(db, "create table T ( id integer )");
+            for (int i = 0; i < 10; i++) {
+                executeAndCommit(db, "insert into T values ( " + i + " )");
+            }
+            assertTrue(waitForRows(db.getTable("T"), 10));
+        } finally {
+            db.shutdown();
+        }
+    }
+
+    public void testReaderHoldsBackApply() throws Exception {
+        DiskDatabase db = new DiskDatabase(getDbdir());
+        try {
+            execute(db, "create table T ( id integer )");
+            TransactionManager tm = db.getTransactionManager();
+            Transaction reader = tm.createTransaction();
+            execute(reader, "select * from T");
+
+            executeAndCommit(db, "insert into T values ( 1 )");
+            assertFalse(waitForRows(db.getTable("T"), 1, 200));
+
+            tm.abortTransaction(reader);
+            assertTrue(waitForRows(db.getTable("T"), 1));
+        } finally {
+            db.shutdown();
+        }
+    }
+
+    public void testEarlyCommitWaitsForTheCommitsItSees() throws Exception {
+        DiskDatabase db = new DiskDatabase(getDbdir());
+        try {
+            execute(db, "create table T ( id integer )");
+            TransactionManager tm = db.getTransactionManager();
+            for (int i = 1; i <= 5; i++) {
+                executeAndCommit(db, "insert into T values ( " + i + " )");
+            }
+            assertTrue(waitForRows(db.getTable("T"), 5));
+
+            // with the commits it sees applied, a change is applied as it is committed
+            SnapshotIsolationTransaction t = (SnapshotIsolationTransaction) tm.createTransaction();
+            execute(t, "insert into T values ( 6 )");
+            assertEquals(6, countRows(t.commit(new TableIdentifier("T"))));
+            assertEquals(6, countRows(db.getTable("T")));
+            tm.commitTransaction(t);
+
+            // while a reader holds them back, a change made on top of them waits too
+            Transaction reader = tm.createTransaction();
+            execute(reader, "select * from T");
+            executeAndCommit(db, "insert into T values ( 7 )");
+            executeAndCommit(db, "insert into T values ( 8 )");
+            t = (SnapshotIsolationTransaction) tm.createTransaction();
+            execute(t, "insert into T values ( 9 )");
+            assertEquals(9, countRows(t.commit(new TableIdentifier("T"))));
+            assertEquals(6, countRows(db.getTable("T")));
+
+            tm.abortTransaction(reader);
+            tm.commitTransaction(t);
+            assertTrue(waitForRows(db.getTable("T"), 9));
+        } finally {
+            db.shutdown();
+        }
+
+        db = new DiskDatabase(getDbdir());
+        try {
+            assertEquals(9, countRows(db.getTable("T")));
+        } finally {
+            db.shutdown();
+        }
+    }
+
+    public void testShutdownAppliesCommittedTransactions() throws Exception {
+        DiskDatabase db = new DiskDatabase(getDbdir());
+        execute(db, "create table T ( id integer )");
+
+        // an open reader keeps the commits from being applied before the shutdown
+        TransactionManager tm = db.getTransactionManager();
+        Transaction reader = tm.createTransaction();
+        execute(reader, "select * from T");
+        for (int i = 0; i < 10; i++) {
+            executeAndCommit(db, "insert into T values ( " + i + " )");
+        }
+        assertEquals(0, countRows(db.getTable("T")));
+        db.shutdown();
+        assertTrue(tm.isShutdown());
+
+        db = new DiskDatabase(getDbdir());
+        try {
+            assertEquals(10, countRows(db.getTable("T")));
+        } finally {
+            db.shutdown();
+        }
+    }
+
+    public void testApplyDoesNotHoldTheManagerLock() throws Exception {
+        final DiskDatabase db = new DiskDatabase(getDbdir());
+        try {
+            execute(db, "create table T ( id integer )");
+            execute(db, "create table U ( id integer )");
+            TransactionManager tm = db.getTransactionManager();
+            BlockingTransaction blocking = new BlockingTransaction(db);
+            execute(blocking, "insert into T values ( 1 )");
+            tm.commitTransaction(blocking);
+            assertTrue(blocking._entered.await(10, TimeUnit.SECONDS));
+
+            // other tables keep working while T is being applied
+            Thread writer = new Thread() {
+                public void run() {
+                    try {
+                        executeAndCommit(db, "insert into U values ( 1 )");
+                    } catch (Exception e) {
+                        // counted below
+                    }
+                }
+            };
+            writer.start();
+            writer.join(10000);
+            assertFalse("commit blocked by the applier", writer.isAlive());
+
+            // but a transaction starting to read T waits for it
+            final int[] count = { -1 };
+            Thread reader = new Thread() {
+                public void run() {
+                    try {
+                        count[0] = countRows(db.getTransactionManager().createTransaction().getTable("T"));
+                    } catch (Exception e) {
+                        // counted below
+                    }
+                }
+            };
+            reader.start();
+            reader.join(200);
+            assertTrue(reader.isAlive());
+
+            blocking._release.countDown();
+            reader.join(10000);
+            assertEquals(1, count[0]);
+            assertTrue(waitForRows(db.getTable("U"), 1));
+        } finally {
+            db.shutdown();
+        }
+    }
+
+    public void testShutdownKeepsTheLogWhenApplyFails() throws Exception {
+        OutputStream out = new FileOutputStream(new File(getDbdir(), "axiondb.properties"));
+        out.write("database.writeaheadlog=true\ndatabase.walcheckpointinterval=0\n".getBytes());
+        out.close();
+        File log = new File(getDbdir(), getDbdir().getName().toUpperCase() + ".WAL");
+
+        DiskDatabase db = new DiskDatabase(getDbdir());
+        execute(db, "create table T ( id integer )");
+        TransactionManager tm = db.getTransactionManager();
+
+        // an open reader keeps the commit from being applied before the shutdown
+        Transaction reader = tm.createTransaction();
+        execute(reader, "select * from T");
+        Transaction failing = new FailingTransaction(db);
+        execute(failing, "insert into T values ( 1 )");
+        tm.commitTransaction(failing);
+        long length = log.length();
+        assertTrue(length > 0);
+
+        try {
+            db.shutdown();
+            fail("Expected AxionException");
+        } catch (AxionException e) {
+            // expected
+        }
+        assertTrue(tm.isShutdown());
+        assertEquals(length, log.length());
+
+        db = new DiskDatabase(getDbdir());
+        try {
+            assertEquals(1, countRows(db.getTable("T")));
+        } finally {
+            db.shutdown();
+        }
+    }
+
+    public void testUpdatesOfDifferentRowsBothCommit() throws Exception {
+        DiskDatabase db = createIndexedTable();
+        try {
+            TransactionManager tm = db.getTransactionManager();
+            Transaction t1 = tm.createTransaction();
+            Transaction t2 = tm.createTransaction();
+            execute(t1, "update T set val = 100 where id = 1");
+            execute(t2, "update T set val = 200 where id = 2");
+            execute(t2, "delete from T where id = 3");
+            tm.commitTransaction(t1);
+            tm.commitTransaction(t2);
+
+            Transaction t3 = tm.createTransaction();
+            execute(t3, "insert into T values ( 11, 11 )");
+            Transaction t4 = tm.createTransaction();
+            execute(t4, "insert into T values ( 12, 12 )");
+            tm.commitTransaction(t3);
+            tm.commitTransaction(t4);
+
+            assertEquals(100, valueOf(db, 1));
+            assertEquals(200, valueOf(db, 2));
+            assertEquals(-1, valueOf(db, 3));
+            assertEquals(12, valueOf(db, 12));
+        } finally {
+            db.shutdown();
+        }
+    }
+
+    public void testUpdatesOfTheSameRowConflict() throws Exception {
+        DiskDatabase db = createIndexedTable();
+        try {
+            TransactionManager tm = db.getTransactionManager();
+            Transaction t1 = tm.createTransaction();
+            Transaction t2 = tm.createTransaction();
+            execute(t1, "update T set val = 100 where id = 1");
+            execute(t2, "update T set val = 200 where id = 1");
+            tm.commitTransaction(t1);
+            try {
+                tm.commitTransaction(t2);
+                fail("Expected TransactionConflictException");
+            } catch (TransactionConflictException e) {
+                // expected
+            }
+            tm.abortTransaction(t2);
+
+            // a full scan reads every row, so any change to the table conflicts
+            Transaction t3 = tm.createTransaction();
+            Transaction t4 = tm.createTransaction();
+            execute(t3, "update T set val = 300 where val = 5");
+            execute(t4, "update T set val = 400 where id = 9");
+            tm.commitTransaction(t4);
+            assertCommitConflicts(tm, t3);
+            assertEquals(100, valueOf(db, 1));
+            assertEquals(400, valueOf(db, 9));
+        } finally {
+            db.shutdown();
+        }
+    }
+
+    public void testPhantomInsertConflicts() throws Exception {
+        DiskDatabase db = createIndexedTable();
+        try {
+            TransactionManager tm = db.getTransactionManager();
+            Transaction t1 = tm.createTransaction();
+            Transaction t2 = tm.createTransaction();
+
+            // t1 finds no row 50 and acts on that; t2 then inserts one
+            execute(t1, "update T set val = 0 where id = 50");
+            execute(t1, "insert into T values ( 60, 60 )");
+            execute(t2, "insert into T values ( 50, 50 )");
+            tm.commitTransaction(t2);
+            assertCommitConflicts(tm, t1);
+            assertEquals(50, valueOf(db, 50));
+            assertEquals(-1, valueOf(db, 60));
+        } finally {
+            db.shutdown();
+        }
+    }
+
+    public void testPhantomDeleteConflicts() throws Exception {
+        DiskDatabase db = createIndexedTable();
+        try {
+            TransactionManager tm = db.getTransactionManager();
+            Transaction t1 = tm.createTransaction();
+            Transaction t2 = tm.createTransaction();
+
+            // t1 reads row 4 and copies it; t2 deletes row 4 underneath it
+            execute(t1, "update T set val = 44 where id = 4");
+            execute(t1, "insert into T values ( 70, 70 )");
+            execute(t2, "delete from T where id = 4");
+            tm.commitTransaction(t2);
+            assertCommitConflicts(tm, t1);
+            assertEquals(-1, valueOf(db, 4));
+        } finally {
+            db.shutdown();
+        }
+    }
+
+    public void testCompositeLookupTracksItsFirstEquality() throws Exception {
+        DiskDatabase db = new DiskDatabase(getDbdir());
+        try {
+            execute(db, "create table C ( a integer, b integer, val integer )");
+            execute(db, "create index C_AB on C ( a, b )");
+            for (int a = 1; a <= 3; a++) {
+                for (int b = 1; b <= 3; b++) {
+                    execute(db, "insert into C values ( " + a + ", " + b + ", 0 )");
+                }
+            }
+            TransactionManager tm = db.getTransactionManager();
+
+            // a lookup of a = 1 and b = 2 is tracked as a read of a = 1
+            Transaction t1 = tm.createTransaction();
+            Transaction t2 = tm.createTransaction();
+            execute(t1, "update C set val = 1 where a = 1 and b = 2");
+            execute(t2, "update C set val = 2 where a = 2 and b = 2");
+            execute(t2, "insert into C values ( 4, 2, 2 )");
+            tm.commitTransaction(t2);
+            tm.commitTransaction(t1);
+
+            // so a change to another row with a = 1 conflicts with it
+            Transaction t3 = tm.createTransaction();
+            Transaction t4 = tm.createTransaction();
+            execute(t3, "update C set val = 3 where a = 1 and b = 2");
+            execute(t4, "update C set val = 4 where a = 1 and b = 3");
+            tm.commitTransaction(t4);
+            assertCommitConflicts(tm, t3);
+
+            // as does a phantom row with a = 1
+            Transaction t5 = tm.createTransaction();
+            Transaction t6 = tm.createTransaction();
+            execute(t5, "update C set val = 5 where a = 1 and b = 9");
+            execute(t5, "insert into C values ( 5, 5, 5 )");
+            execute(t6, "insert into C values ( 1, 9, 6 )");
+            tm.commitTransaction(t6);
+            assertCommitConflicts(tm, t5);
+        } finally {
+            db.shutdown();
+        }
+    }
+
+    private static void assertCommitConflicts(TransactionManager tm, Transaction t) throws Exception {
+        try {
+            tm.commitTransaction(t);
+            fail("Expected TransactionConflictException");
+        } catch (TransactionConflictException e) {
+            // expected
+        }
+        tm.abortTransaction(t);
+    }
+
+    /** Creates table T, indexed on its id column, holding rows 1 to 10 with val = id. */
+    private DiskDatabase createIndexedTable() throws Exception {
+        DiskDatabase db = new DiskDatabase(getDbdir());
+        execute(db, "create table T ( id integer, val integer )");
+        execute(db, "create index T_ID on T ( id )");
+        for (int i = 1; i <= 10; i++) {
+            execute(db, "insert into T values ( " + i + ", " + i + " )");
+        }
+        return db;
+    }
+
+    /** Returns the val of row <code>id</code> as committed, or -1 if there is none. */
+    private static int valueOf(Database db, int id) throws Exception {
+        TransactionManager tm = db.getTransactionManager();
+        Transaction t = tm.createTransaction();
+        try {
+            for (RowIterator iter = t.getTable("T").getRowIterator(true); iter.hasNext();) {
+                Row row = iter.next();
+                if (((Number) row.get(0)).intValue() == id) {
+                    return ((Number) row.get(1)).intValue();
+                }
+            }
+            return -1;
+        } finally {
+            tm.abortTransaction(t);
+        }
+    }
+
+    /** Blocks in {@link #apply}until released. */
+    private static class BlockingTransaction extends SnapshotIsolationTransaction {
+        BlockingTransaction(Database db) {
+            super(db);
+        }
+
+        public void apply() throws AxionException {
+            _entered.countDown();
+            try {
+                _release.await();
+            } catch (InterruptedException e) {
+                throw new AxionException(e);
+            }
+            super.apply();
+        }
+
+        final CountDownLatch _entered = new CountDownLatch(1);
+        final CountDownLatch _release = new CountDownLatch(1);
+    }
+
+    private static class FailingTransaction extends SnapshotIsolationTransaction {
+        FailingTransaction(Database db) {
+            super(db);
+        }
+
+        public void apply() throws AxionException {
+            throw new AxionException("Unable to apply", new IOException("injected"));
+        }
+    }
+
+    private static boolean waitForRows(Table table, int count) throws Exception {
+        return waitForRows(table, count, 10000);
+    }
+
+    private static boolean waitForRows(Table table, int count, long timeout) throws Exception {
+        long end = System.currentTimeMillis() + timeout;
+        while (countRows(table) != count) {
+            if (System.currentTimeMillis() > end) {
+                return false;
+            }
+            Thread.sleep(10);
+        }
+        return true;
+    }
+}
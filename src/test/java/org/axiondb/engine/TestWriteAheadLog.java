@@ -0,0 +1,233 @@
+/*
+ * 
+ * =======================================================================
+ * Copyright (c) 2002-2005 Axion Development Team.  All rights reserved.
+ *  
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions 
+ * are met:
+ * 
+ * 1. Redistributions of source code must retain the above 
+ *    copyright notice, this list of conditions and the following 
+ *    disclaimer. 
+ *   
+ * 2. Redistributions in binary form must reproduce the above copyright 
+ *    notice, this list of conditions and the following disclaimer in 
+ *    the documentation and/or other materials provided with the 
+ *    distribution. 
+ *   
+ * 3. The names "Tigris", "Axion", nor the names of its contributors may 
+ *    not be used to endorse or promote products derived from this 
+ *    software without specific prior written permission. 
+ *  
+ * 4. Products derived from this software may not be called "Axion", nor 
+ *    may "Tigris" or "Axion" appear in their names without specific prior
+ *    written permission.
+ *   
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT 
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, 
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT 
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * =======================================================================
+ */
+
+package org.axiondb.engine;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.axiondb.AbstractDbdirTest;
+import org.axiondb.AxionException;
+import org.axiondb.RowIterator;
+import org.axiondb.Table;
+import org.axiondb.Transaction;
+import org.axiondb.TransactionManager;
+
+/**
+ * @version  
+ */
+public class TestWriteAheadLog extends AbstractDbdirTest {
+
+    public TestWriteAheadLog(String testName) {
+        super(testName);
+    }
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteFile(getCrashDir());
+        OutputStream out = new FileOutputStream(new File(getDbdir(), "axiondb.properties"));
+        out.write("database.writeaheadlog=true\ndatabase.walcheckpointinterval=0\n".getBytes());
+        out.close();
+    }
+
+    protected void tearDown() throws Exception {
+        deleteFile(getCrashDir());
+        super.tearDown();
+    }
+
+    public void testConcurrentCommitsAreReplayedAfterCrash() throws Exception {
+        final DiskDatabase db = new DiskDatabase(getDbdir());
+        execute(db, "create table T ( id integer, name varchar(20) )");
+
+        // a reader of T keeps the commits from being applied, so only the log has them
+        TransactionManager tm = db.getTransactionManager();
+        Transaction reader = tm.createTransaction();
+        execute(reader, "select * from T");
+
+        final Exception[] failure = new Exception[1];
+        Thread[] writers = new Thread[4];
+        for (int i = 0; i < writers.length; i++) {
+            final int base = i * 100;
+            writers[i] = new Thread() {
+                public void run() {
+                    try {
+                        for (int j = 0; j < 25; j++) {
+                            executeAndCommit(db, "insert into T values ( " + (base + j) + ", 'row' )");
+                        }
+                    } catch (Exception e) {
+                        failure[0] = e;
+                    }
+                }
+            };
+            writers[i].start();
+        }
+        for (int i = 0; i < writers.length; i++) {
+            writers[i].join();
+        }
+        assertNull(failure[0]);
+        assertEquals(0, countRows(db.getTable("T")));
+
+        copyDbdir(getDbdir(), getCrashDir());
+        tm.abortTransaction(reader);
+        tm.shutdown();
+
+        DiskDatabase recovered = new DiskDatabase(getCrashDir());
+        try {
+            assertEquals(100, countRows(recovered.getTable("T")));
+        } finally {
+            recovered.getTransactionManager().shutdown();
+        }
+    }
+
+    public void testCheckpointKeepsUnappliedTransactions() throws Exception {
+        DiskDatabase db = new DiskDatabase(getDbdir());
+        execute(db, "create table T ( id integer )");
+        execute(db, "create table U ( id integer )");
+        TransactionManagerImpl tm = (TransactionManagerImpl) db.getTransactionManager();
+        File log = new File(getDbdir(), getDbdir().getName().toUpperCase() + ".WAL");
+
+        for (int i = 0; i < 20; i++) {
+            executeAndCommit(db, "insert into U values ( " + i + " )");
+        }
+        waitForRows(db.getTable("U"), 20);
+
+        // a reader of T keeps the later commits from being applied
+        Transaction reader = tm.createTransaction();
+        execute(reader, "select * from T");
+        for (int i = 0; i < 5; i++) {
+            executeAndCommit(db, "insert into T values ( " + i + " )");
+        }
+        long before = log.length();
+        assertTrue(tm.checkpointLog());
+        assertTrue(log.length() > 0);
+        assertTrue(log.length() < before);
+        assertFalse("nothing applied since", tm.checkpointLog());
+        assertEquals(0, countRows(db.getTable("T")));
+
+        copyDbdir(getDbdir(), getCrashDir());
+        tm.abortTransaction(reader);
+        tm.shutdown();
+        assertEquals(0, log.length());
+
+        DiskDatabase recovered = new DiskDatabase(getCrashDir());
+        try {
+            assertEquals(20, countRows(recovered.getTable("U")));
+            assertEquals(5, countRows(recovered.getTable("T")));
+        } finally {
+            recovered.getTransactionManager().shutdown();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public void testSequenceValuesSurviveCrash() throws Exception {
+        DiskDatabase db = new DiskDatabase(getDbdir());
+        execute(db, "create table T ( id integer generated always as identity, name varchar(20) )");
+        for (int i = 0; i < 3; i++) {
+            executeAndCommit(db, "insert into T ( name ) values ( 'before' )");
+        }
+        copyDbdir(getDbdir(), getCrashDir());
+        db.getTransactionManager().shutdown();
+
+        DiskDatabase recovered = new DiskDatabase(getCrashDir());
+        try {
+            executeAndCommit(recovered, "insert into T ( name ) values ( 'after' )");
+            Table table = recovered.getTransactionManager().createTransaction().getTable("T");
+            Set ids = new HashSet();
+            for (RowIterator iter = table.getRowIterator(true); iter.hasNext();) {
+                assertTrue("duplicate id", ids.add(iter.next().get(0)));
+            }
+            assertEquals(4, ids.size());
+        } finally {
+            recovered.getTransactionManager().shutdown();
+        }
+    }
+
+    public void testFailedSyncStopsTheDatabase() throws Exception {
+        getDbdir().mkdirs();
+        new File(getDbdir(), "axiondb.properties").delete();
+        DiskDatabase db = new DiskDatabase(getDbdir());
+        execute(db, "create table T ( id integer )");
+        TransactionManagerImpl tm = (TransactionManagerImpl) db.getTransactionManager();
+        tm.setWriteAheadLog(new FailingLog(new File(getDbdir(), "FAILING.WAL")), 0);
+
+        Transaction t = tm.createTransaction();
+        execute(t, "insert into T values ( 1 )");
+        try {
+            tm.commitTransaction(t);
+            fail("Expected AxionException");
+        } catch (AxionException e) {
+            // expected
+        }
+        try {
+            tm.createTransaction();
+            fail("Expected AxionException");
+        } catch (AxionException e) {
+            // expected
+        }
+        assertEquals("commit must not reach the table", 0, countRows(db.getTable("T")));
+        tm.shutdown();
+    }
+
+    private static void waitForRows(Table table, int count) throws Exception {
+        for (int i = 0; i < 500 && countRows(table) < count; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, countRows(table));
+    }
+
+    /** Where a crashed copy of the database goes; its name must match, as files are named after it. */
+    private File getCrashDir() {
+        return new File(new File(new File("target"), "crash"), getDbdir().getName());
+    }
+
+    private static class FailingLog extends WriteAheadLog {
+        FailingLog(File file) throws AxionException {
+            super(file);
+        }
+
+        public void sync(long lsn) throws AxionException {
+            throw new AxionException("Unable to sync log", new IOException("injected"));
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * 
+ * =======================================================================
+ * Copyright (c) 2002-2005 Axion Development Team.  All rights reserved.
+ *  
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions 
+ * are met:
+ * 
+ * 1. Redistributions of source code must retain the above 
+ *    copyright notice, this list of conditions and the following 
+ *    disclaimer. 
+ *   
+ * 2. Redistributions in binary form must reproduce the above copyright 
+ *    notice, this list of conditions and the following disclaimer in 
+ *    the documentation and/or other materials provided with the 
+ *    distribution. 
+ *   
+ * 3. The names "Tigris", "Axion", nor the names of its contributors may 
+ *    not be used to endorse or promote products derived from this 
+ *    software without specific prior written permission. 
+ *  
+ * 4. Products derived from this software may not be called "Axion", nor 
+ *    may "Tigris" or "Axion" appear in their names without specific prior
+ *    written permission.
+ *   
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT 
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, 
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT 
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * =======================================================================
+ */
+
+package org.axiondb.engine.commands;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+import junit.framework.TestCase;
+
+/**
+ * @version  
+ */
+public class TestAxionQueryPlanner extends TestCase {
+
+    public TestAxionQueryPlanner(String testName) {
+        super(testName);
+    }
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        Class.forName("org.axiondb.jdbc.AxionDriver");
+        _conn = DriverManager.getConnection("jdbc:axiondb:planner");
+        Statement stmt = _conn.createStatement();
+        stmt.execute("create table T ( id integer )");
+        for (int i = 0; i < 50; i++) {
+            stmt.execute("insert into T values ( " + i + " )");
+        }
+        stmt.close();
+        // executions within one transaction reuse the plan
+        _conn.setAutoCommit(false);
+    }
+
+    protected void tearDown() throws Exception {
+        _conn.setAutoCommit(true);
+        Statement stmt = _conn.createStatement();
+        stmt.execute("shutdown");
+        stmt.close();
+        _conn.close();
+        super.tearDown();
+    }
+
+    public void testBoundLimitIsReadOnEachExecution() throws Exception {
+        PreparedStatement stmt = _conn.prepareStatement("select id from T order by id desc limit ?");
+        stmt.setInt(1, 5);
+        assertEquals(5, countRows(stmt.executeQuery(), 49));
+        stmt.setInt(1, 20);
+        assertEquals(20, countRows(stmt.executeQuery(), 49));
+        stmt.close();
+    }
+
+    public void testBoundOffsetIsReadOnEachExecution() throws Exception {
+        PreparedStatement stmt = _conn.prepareStatement("select id from T order by id desc limit 5 offset ?");
+        stmt.setInt(1, 0);
+        assertEquals(5, countRows(stmt.executeQuery(), 49));
+        stmt.setInt(1, 30);
+        assertEquals(5, countRows(stmt.executeQuery(), 19));
+        stmt.close();
+    }
+
+    private int countRows(ResultSet rs, int first) throws Exception {
+        int count = 0;
+        while (rs.next()) {
+            assertEquals(first - count, rs.getInt(1));
+            count++;
+        }
+        rs.close();
+        return count;
+    }
+
+    private Connection _conn;
+}
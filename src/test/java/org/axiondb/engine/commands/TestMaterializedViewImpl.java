@@ -0,0 +1,206 @@
+/*
+ * 
+ * =======================================================================
+ * Copyright (c) 2002-2005 Axion Development Team.  All rights reserved.
+ *  
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions 
+ * are met:
+ * 
+ * 1. Redistributions of source code must retain the above 
+ *    copyright notice, this list of conditions and the following 
+ *    disclaimer. 
+ *   
+ * 2. Redistributions in binary form must reproduce the above copyright 
+ *    notice, this list of conditions and the following disclaimer in 
+ *    the documentation and/or other materials provided with the 
+ *    distribution. 
+ *   
+ * 3. The names "Tigris", "Axion", nor the names of its contributors may 
+ *    not be used to endorse or promote products derived from this 
+ *    software without specific prior written permission. 
+ *  
+ * 4. Products derived from this software may not be called "Axion", nor 
+ *    may "Tigris" or "Axion" appear in their names without specific prior
+ *    written permission.
+ *   
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT 
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, 
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT 
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * =======================================================================
+ */
+
+package org.axiondb.engine.commands;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import junit.framework.TestCase;
+
+import org.axiondb.Database;
+import org.axiondb.Table;
+import org.axiondb.jdbc.AxionConnection;
+
+/**
+ * @version  
+ */
+public class TestMaterializedViewImpl extends TestCase {
+
+    public TestMaterializedViewImpl(String testName) {
+        super(testName);
+    }
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        Class.forName("org.axiondb.jdbc.AxionDriver");
+        _conn = DriverManager.getConnection("jdbc:axiondb:mview");
+        Statement stmt = _conn.createStatement();
+        stmt.execute("create table T ( id integer, grp varchar(10), amount integer )");
+        for (int i = 0; i < 100; i++) {
+            stmt.execute("insert into T values ( " + i + ", 'g" + (i % 10) + "', " + i + " )");
+        }
+        stmt.close();
+    }
+
+    protected void tearDown() throws Exception {
+        Statement stmt = _conn.createStatement();
+        stmt.execute("shutdown");
+        stmt.close();
+        _conn.close();
+        super.tearDown();
+    }
+
+    public void testGroupsAreFoundThroughKeyIndex() throws Exception {
+        execute("create materialized view MV as select grp, count(*) as cnt, sum(amount) as total, max(amount) as top "
+            + "from T group by grp");
+        assertKeyIndexed("MV", "GRP");
+
+        String view = "select grp, cnt, total, top from MV order by grp";
+        String query = "select grp, count(*), sum(amount), max(amount) from T group by grp order by grp";
+        assertEquals(queryString(query), queryString(view));
+
+        execute("delete from T where id = 93");
+        execute("update T set amount = 1000 where id = 5");
+        execute("insert into T values ( 100, 'g0', 7 )");
+        execute("insert into T values ( 101, 'g10', 1 )");
+        execute("delete from T where grp = 'g9'");
+        assertEquals(queryString(query), queryString(view));
+    }
+
+    public void testRowsAreFoundThroughKeyIndex() throws Exception {
+        execute("create materialized view P as select id, grp from T where amount > 50");
+        assertKeyIndexed("P", "ID");
+
+        String view = "select id, grp from P order by id";
+        String query = "select id, grp from T where amount > 50 order by id";
+        assertEquals(queryString(query), queryString(view));
+
+        execute("delete from T where id = 60");
+        execute("update T set amount = 0 where id = 70");
+        execute("update T set amount = 99 where id = 10");
+        execute("update T set grp = 'x' where id = 80");
+        assertEquals(queryString(query), queryString(view));
+    }
+
+    public void testRefreshOnDemand() throws Exception {
+        execute("create materialized view D refresh on demand as select id from T where amount > 90;");
+        assertEquals(9, count("select count(*) from D"));
+        execute("insert into T values ( 100, 'g0', 100 )");
+        assertEquals(9, count("select count(*) from D"));
+        execute("refresh materialized view D");
+        assertEquals(10, count("select count(*) from D"));
+    }
+
+    public void testDropCascadeWithoutIfExists() throws Exception {
+        execute("create materialized view P as select id, grp from T where amount > 50");
+        execute("create materialized view if not exists Q as select id from P where id > 90");
+        try {
+            execute("drop materialized view P");
+            fail("Expected SQLException");
+        } catch (SQLException e) {
+            // expected, Q reads P
+        }
+        try {
+            execute("drop materialized view P restrict");
+            fail("Expected SQLException");
+        } catch (SQLException e) {
+            // expected
+        }
+        execute("drop materialized view P cascade");
+        Database db = ((AxionConnection) _conn).getDatabase();
+        assertNull(db.getMaterializedView("P"));
+        assertNull(db.getMaterializedView("Q"));
+        assertFalse(db.hasTable("Q"));
+
+        execute("drop materialized view if exists P");
+        try {
+            execute("drop materialized view P");
+            fail("Expected SQLException");
+        } catch (SQLException e) {
+            // expected
+        }
+    }
+
+    public void testUnknownDropTargetIsRejected() throws Exception {
+        String[] statements = { "drop T", "drop materialized T", "drop something view T", "drop materialized view",
+            "drop materialized view P extra", "refresh materialized T" };
+        for (int i = 0; i < statements.length; i++) {
+            try {
+                execute(statements[i]);
+                fail("Expected SQLException for " + statements[i]);
+            } catch (SQLException e) {
+                // expected
+            }
+        }
+        assertEquals(100, count("select count(*) from T"));
+    }
+
+    private void assertKeyIndexed(String viewName, String columnName) throws Exception {
+        Table table = ((AxionConnection) _conn).getDatabase().getTable(viewName);
+        assertTrue(table.isColumnIndexed(table.getColumn(columnName)));
+    }
+
+    private void execute(String sql) throws Exception {
+        Statement stmt = _conn.createStatement();
+        stmt.execute(sql);
+        stmt.close();
+    }
+
+    private int count(String sql) throws Exception {
+        Statement stmt = _conn.createStatement();
+        ResultSet rs = stmt.executeQuery(sql);
+        assertTrue(rs.next());
+        int count = rs.getInt(1);
+        rs.close();
+        stmt.close();
+        return count;
+    }
+
+    private String queryString(String sql) throws Exception {
+        StringBuffer buf = new StringBuffer();
+        Statement stmt = _conn.createStatement();
+        ResultSet rs = stmt.executeQuery(sql);
+        int count = rs.getMetaData().getColumnCount();
+        while (rs.next()) {
+            for (int i = 1; i <= count; i++) {
+                buf.append(rs.getString(i)).append(i == count ? ';' : ',');
+            }
+        }
+        rs.close();
+        stmt.close();
+        return buf.toString();
+    }
+
+    private Connection _conn;
+}
@@ -0,0 +1,275 @@
+/*
+ * 
+ * =======================================================================
+ * Copyright (c) 2002-2005 Axion Development Team.  All rights reserved.
+ *  
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions 
+ * are met:
+ * 
+ * 1. Redistributions of source code must retain the above 
+ *    copyright notice, this list of conditions and the following 
+ *    disclaimer. 
+ *   
+ * 2. Redistributions in binary form must reproduce the above copyright 
+ *    notice, this list of conditions and the following disclaimer in 
+ *    the documentation and/or other materials provided with the 
+ *    distribution. 
+ *   
+ * 3. The names "Tigris", "Axion", nor the names of its contributors may 
+ *    not be used to endorse or promote products derived from this 
+ *    software without specific prior written permission. 
+ *  
+ * 4. Products derived from this software may not be called "Axion", nor 
+ *    may "Tigris" or "Axion" appear in their names without specific prior
+ *    written permission.
+ *   
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT 
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, 
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT 
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * =======================================================================
+ */
+
+package org.axiondb.engine.commands;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.axiondb.AbstractDbdirTest;
+import org.axiondb.Table;
+import org.axiondb.engine.DiskDatabase;
+import org.axiondb.engine.tables.AbstractBaseTable;
+import org.axiondb.jdbc.AxionConnection;
+
+/**
+ * @version  
+ */
+public class TestUpsertCommand extends AbstractDbdirTest {
+
+    public TestUpsertCommand(String testName) {
+        super(testName);
+    }
+
+    protected void tearDown() throws Exception {
+        close();
+        super.tearDown();
+    }
+
+    public void testMergeSwitchesFromIndexLookupsToTargetKeys() throws Exception {
+        open();
+        createTargetRows(160, true);
+        // the first source rows are new keys, looked up through the index and inserted,
+        // the rest are found through a map of the target's keys, inserted rows included
+        createSourceRows(160, 170);
+        createSourceRows(150, 160);
+        createSourceRows(170, 175);
+
+        // reopen so that the target's row count estimate counts every row
+        reopen();
+        Table target = _db.getTable("T");
+        assertEquals(10, AbstractBaseTable.getIndexLookupLimit(target, target.getColumn("ID")));
+        assertEquals(25, merge());
+        assertMerged(175, 150);
+    }
+
+    public void testMergeCommitsAsItGoes() throws Exception {
+        openWithCommitSize(3);
+        createTargetRows(160, true);
+        createSourceRows(160, 170);
+        createSourceRows(150, 160);
+        createSourceRows(170, 175);
+
+        // the merge's target is swapped for a new one at each commit, while the map of
+        // its keys is kept; reopen so that nothing committed before holds the commits back
+        reopen();
+        assertEquals(25, merge());
+        assertMerged(175, 150);
+    }
+
+    public void testMergeKeepsWhatItCommitted() throws Exception {
+        openWithCommitSize(3);
+        createTargetRows(160, true);
+        createSourceRows(200, 207);
+        createSourceRows(200, 201);
+        reopen();
+        assertMergeFails();
+
+        // the first six rows were committed before the duplicate was found
+        reopen();
+        assertEquals(6, count("select count(*) from T where v = 'S'"));
+    }
+
+    public void testMergeWithoutIndex() throws Exception {
+        open();
+        createTargetRows(20, false);
+        createSourceRows(15, 25);
+        assertEquals(10, merge());
+        assertMerged(25, 15);
+    }
+
+    public void testTargetRowsWithTheSameKeyAreRejected() throws Exception {
+        assertTargetRowsWithTheSameKeyAreRejected(true);
+    }
+
+    public void testTargetRowsWithTheSameKeyAreRejectedWithoutIndex() throws Exception {
+        assertTargetRowsWithTheSameKeyAreRejected(false);
+    }
+
+    public void testDuplicateSourceKeysAreRejected() throws Exception {
+        assertDuplicateSourceKeysAreRejected(true);
+    }
+
+    public void testDuplicateSourceKeysAreRejectedWithoutIndex() throws Exception {
+        assertDuplicateSourceKeysAreRejected(false);
+    }
+
+    public void testNullKeysMatchNothing() throws Exception {
+        open();
+        createTargetRows(32, true);
+        execute("insert into T values ( null, 'old' )");
+        execute("insert into S values ( null, 'new' )");
+        createSourceRows(30, 35);
+        assertEquals(6, merge());
+
+        assertEquals(1, count("select count(*) from T where id is null and v = 'old'"));
+        assertEquals(1, count("select count(*) from T where id is null and v = 'new'"));
+        assertEquals(5, count("select count(*) from T where id >= 30 and v = 'S'"));
+        assertEquals(37, count("select count(*) from T"));
+    }
+
+    private void assertTargetRowsWithTheSameKeyAreRejected(boolean indexed) throws Exception {
+        open();
+        createTargetRows(160, indexed);
+        execute("insert into T values ( 5, 'T' )");
+        createSourceRows(5, 6);
+        assertMergeFails();
+        assertEquals(0, count("select count(*) from T where v = 'S'"));
+    }
+
+    private void assertDuplicateSourceKeysAreRejected(boolean indexed) throws Exception {
+        open();
+        createTargetRows(160, indexed);
+        createSourceRows(5, 6);
+        createSourceRows(200, 201);
+        createSourceRows(5, 6);
+        assertMergeFails();
+
+        // a new key twice fails too, though the first row inserted a match for the second
+        execute("delete from S");
+        createSourceRows(200, 201);
+        createSourceRows(200, 201);
+        assertMergeFails();
+    }
+
+    private void assertMergeFails() throws Exception {
+        try {
+            merge();
+            fail("Expected SQLException");
+        } catch (SQLException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Asserts T has the ids 0 to <i>end </i>, from <i>changed </i> on merged from S.
+     */
+    private void assertMerged(int end, int changed) throws Exception {
+        assertEquals(end, count("select count(*) from T"));
+        assertEquals(end, count("select count(distinct id) from T"));
+        assertEquals(changed, count("select count(*) from T where v = 'T' and id < " + changed));
+        assertEquals(end - changed, count("select count(*) from T where v = 'S' and id >= " + changed));
+    }
+
+    private void createSourceRows(int from, int to) throws Exception {
+        for (int i = from; i < to; i++) {
+            execute("insert into S values ( " + i + ", 'S' )");
+        }
+    }
+
+    private void createTargetRows(int count, boolean indexed) throws Exception {
+        if (indexed) {
+            execute("create index T_ID on T ( id )");
+        }
+        for (int i = 0; i < count; i++) {
+            execute("insert into T values ( " + i + ", 'T' )");
+        }
+    }
+
+    private int count(String sql) throws Exception {
+        Statement stmt = _conn.createStatement();
+        try {
+            ResultSet rs = stmt.executeQuery(sql);
+            assertTrue(rs.next());
+            return rs.getInt(1);
+        } finally {
+            stmt.close();
+        }
+    }
+
+    private void execute(String sql) throws Exception {
+        Statement stmt = _conn.createStatement();
+        try {
+            stmt.execute(sql);
+        } finally {
+            stmt.close();
+        }
+    }
+
+    private int merge() throws Exception {
+        Statement stmt = _conn.createStatement();
+        try {
+            return stmt.executeUpdate("merge into T using S on ( S.id = T.id )"
+                + " when matched then update set T.v = S.v"
+                + " when not matched then insert ( T.id, T.v ) values ( S.id, S.v )");
+        } finally {
+            stmt.close();
+        }
+    }
+
+    private void close() throws Exception {
+        if (null != _conn) {
+            _conn.close();
+            _conn = null;
+        }
+        if (null != _db) {
+            _db.shutdown();
+            _db = null;
+        }
+    }
+
+    private void open() throws Exception {
+        _db = new DiskDatabase(getDbdir());
+        _conn = new AxionConnection(_db);
+        execute("create table T ( id integer, v varchar(10) )");
+        execute("create table S ( id integer, v varchar(10) )");
+    }
+
+    private void openWithCommitSize(int size) throws Exception {
+        OutputStream out = new FileOutputStream(new File(getDbdir(), "axiondb.properties"));
+        out.write(("database.commitsize=" + size + "\n").getBytes());
+        out.close();
+        open();
+    }
+
+    private void reopen() throws Exception {
+        close();
+        _db = new DiskDatabase(getDbdir());
+        _conn = new AxionConnection(_db);
+    }
+
+    private Connection _conn;
+    private DiskDatabase _db;
+}
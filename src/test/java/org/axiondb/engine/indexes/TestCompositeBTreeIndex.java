@@ -0,0 +1,153 @@
+/*
+ * 
+ * =======================================================================
+ * Copyright (c) 2002-2005 Axion Development Team.  All rights reserved.
+ *  
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions 
+ * are met:
+ * 
+ * 1. Redistributions of source code must retain the above 
+ *    copyright notice, this list of conditions and the following 
+ *    disclaimer. 
+ *   
+ * 2. Redistributions in binary form must reproduce the above copyright 
+ *    notice, this list of conditions and the following disclaimer in 
+ *    the documentation and/or other materials provided with the 
+ *    distribution. 
+ *   
+ * 3. The names "Tigris", "Axion", nor the names of its contributors may 
+ *    not be used to endorse or promote products derived from this 
+ *    software without specific prior written permission. 
+ *  
+ * 4. Products derived from this software may not be called "Axion", nor 
+ *    may "Tigris" or "Axion" appear in their names without specific prior
+ *    written permission.
+ *   
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT 
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, 
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT 
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * =======================================================================
+ */
+package org.axiondb.engine.indexes;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+import org.axiondb.AbstractDbdirTest;
+
+/**
+ * @version  
+ */
+public class TestCompositeBTreeIndex extends AbstractDbdirTest {
+
+    public TestCompositeBTreeIndex(String testName) {
+        super(testName);
+    }
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        Class.forName("org.axiondb.jdbc.AxionDriver");
+        connect();
+        _stmt.execute("create table C ( a integer, b integer, val varchar(10) )");
+        _stmt.execute("create index C_AB on C ( a, b )");
+        for (int a = 1; a <= 3; a++) {
+            for (int b = 1; b <= 3; b++) {
+                _stmt.execute("insert into C values ( " + a + ", " + b + ", 'v" + a + b + "' )");
+            }
+        }
+        _stmt.execute("insert into C values ( 1, null, 'n' )");
+    }
+
+    protected void tearDown() throws Exception {
+        disconnect();
+        super.tearDown();
+    }
+
+    public void testLookupOnKeyPrefix() throws Exception {
+        assertIndexed("select val from C where a = 1");
+        assertEquals("n,v11,v12,v13", values("select val from C where a = 1"));
+        assertEquals("", values("select val from C where a = 4"));
+    }
+
+    public void testLookupOnFullKey() throws Exception {
+        assertIndexed("select val from C where a = 2 and b = 3");
+        assertEquals("v23", values("select val from C where a = 2 and b = 3"));
+        assertEquals("v23", values("select val from C where b = 3 and a = 2"));
+        assertEquals("", values("select val from C where a = 2 and b = 4"));
+    }
+
+    public void testLookupOnNullMatchesNothing() throws Exception {
+        assertEquals("", values("select val from C where a = 1 and b = null"));
+        assertEquals("", values("select val from C where a = null"));
+    }
+
+    public void testLookupSeesChangesOfTheTransaction() throws Exception {
+        _conn.setAutoCommit(false);
+        _stmt.execute("insert into C values ( 1, 2, 'new' )");
+        _stmt.execute("update C set val = 'upd' where a = 1 and b = 3");
+        _stmt.execute("delete from C where a = 1 and b = 1");
+        assertEquals("n,new,upd,v12", values("select val from C where a = 1"));
+        assertEquals("new,v12", values("select val from C where a = 1 and b = 2"));
+        assertEquals("upd", values("select val from C where a = 1 and b = 3"));
+        assertEquals("", values("select val from C where a = 1 and b = 1"));
+        _conn.rollback();
+        assertEquals("n,v11,v12,v13", values("select val from C where a = 1"));
+        _conn.setAutoCommit(true);
+    }
+
+    public void testIndexIsReloaded() throws Exception {
+        disconnect();
+        connect();
+        assertIndexed("select val from C where a = 3 and b = 1");
+        assertEquals("v31", values("select val from C where a = 3 and b = 1"));
+        assertEquals("v31,v32,v33", values("select val from C where a = 3"));
+    }
+
+    private void connect() throws Exception {
+        _conn = DriverManager.getConnection("jdbc:axiondb:testdb:" + getDbdir().getPath());
+        _stmt = _conn.createStatement();
+    }
+
+    private void disconnect() throws Exception {
+        _stmt.execute("shutdown");
+        _stmt.close();
+        _conn.close();
+    }
+
+    /** Asserts that the plan of <i>sql </i> has no filtering step, as the index answers it. */
+    private void assertIndexed(String sql) throws Exception {
+        ResultSet rs = _stmt.executeQuery("explain " + sql);
+        while (rs.next()) {
+            assertFalse(rs.getString(1), rs.getString(1).startsWith("Filtering"));
+        }
+        rs.close();
+    }
+
+    /** Returns the values of the first column of <i>sql </i>, sorted and comma separated. */
+    private String values(String sql) throws Exception {
+        ResultSet rs = _stmt.executeQuery(sql + " order by val");
+        StringBuffer buf = new StringBuffer();
+        while (rs.next()) {
+            if (buf.length() > 0) {
+                buf.append(",");
+            }
+            buf.append(rs.getString(1));
+        }
+        rs.close();
+        return buf.toString();
+    }
+
+    private Connection _conn;
+    private Statement _stmt;
+}
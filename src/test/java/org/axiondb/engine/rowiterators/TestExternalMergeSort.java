@@ -0,0 +1,174 @@
+/*
+ * 
+ * =======================================================================
+ * Copyright (c) 2002-2005 Axion Development Team.  All rights reserved.
+ *  
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions 
+ * are met:
+ * 
+ * 1. Redistributions of source code must retain the above 
+ *    copyright notice, this list of conditions and the following 
+ *    disclaimer. 
+ *   
+ * 2. Redistributions in binary form must reproduce the above copyright 
+ *    notice, this list of conditions and the following disclaimer in 
+ *    the documentation and/or other materials provided with the 
+ *    distribution. 
+ *   
+ * 3. The names "Tigris", "Axion", nor the names of its contributors may 
+ *    not be used to endorse or promote products derived from this 
+ *    software without specific prior written permission. 
+ *  
+ * 4. Products derived from this software may not be called "Axion", nor 
+ *    may "Tigris" or "Axion" appear in their names without specific prior
+ *    written permission.
+ *   
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT 
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, 
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT 
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * =======================================================================
+ */
+
+package org.axiondb.engine.rowiterators;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import org.axiondb.AbstractDbdirTest;
+import org.axiondb.AxionException;
+import org.axiondb.DataType;
+import org.axiondb.Row;
+import org.axiondb.RowIterator;
+import org.axiondb.engine.rows.SimpleRow;
+import org.axiondb.types.CharacterVaryingType;
+import org.axiondb.types.IntegerType;
+
+/**
+ * @version  
+ */
+public class TestExternalMergeSort extends AbstractDbdirTest {
+
+    public TestExternalMergeSort(String testName) {
+        super(testName);
+    }
+
+    public void testRunFilesAreDeletedOnceReadToTheEnd() throws Exception {
+        RowIterator sorted = sort(makeRows(1000), 100);
+        assertTrue("expected spilled runs", countRunFiles() > 0);
+        assertSorted(sorted, 1000);
+        assertEquals(0, countRunFiles());
+    }
+
+    public void testResetAfterTheEndSortsAgain() throws Exception {
+        RowIterator sorted = sort(makeRows(1000), 100);
+        assertSorted(sorted, 1000);
+        sorted.reset();
+        assertSorted(sorted, 1000);
+        assertEquals(0, countRunFiles());
+    }
+
+    public void testSpilledRowsCannotBeReadBackwards() throws Exception {
+        RowIterator sorted = sort(makeRows(500), 100);
+        assertSorted(sorted, 500);
+        try {
+            sorted.previous();
+            fail("expected AxionException");
+        } catch (AxionException e) {
+            // expected
+        }
+        sorted.reset();
+        assertSorted(sorted, 500);
+    }
+
+    public void testRowsSortedInMemoryCanBeReadBackwards() throws Exception {
+        RowIterator sorted = sort(makeRows(500), 1000);
+        assertEquals(0, countRunFiles());
+        assertSorted(sorted, 500);
+        assertEquals(new Integer(499), sorted.previous().get(0));
+        assertEquals(new Integer(498), sorted.previous().get(0));
+        assertEquals(new Integer(498), sorted.next().get(0));
+    }
+
+    public void testBufferIsMeasuredInBytes() throws Exception {
+        // as many rows as fit in one run, but with longer values
+        long rowSize = SortedRowIterator.estimateSize(new SimpleRow(new Object[] { "00"}));
+        RowIterator sorted = sort(makeStringRows(100, 2), 100 * rowSize, new CharacterVaryingType(10));
+        assertEquals(0, countRunFiles());
+        assertEquals(100, sorted.size());
+        sorted = sort(makeStringRows(100, 1000), 100 * rowSize, new CharacterVaryingType(1000));
+        assertTrue("expected spilled runs", countRunFiles() > 0);
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, Integer.parseInt(((String) sorted.next().get(0)).trim()));
+        }
+        assertFalse(sorted.hasNext());
+        assertEquals(0, countRunFiles());
+    }
+
+    @SuppressWarnings("unchecked")
+    private List makeStringRows(int count, int length) {
+        List rows = new ArrayList();
+        for (int i = 0; i < count; i++) {
+            StringBuffer buf = new StringBuffer(String.valueOf((i * 7919) % count));
+            while (buf.length() < length) {
+                buf.insert(0, ' ');
+            }
+            rows.add(new SimpleRow(new Object[] { buf.toString()}));
+        }
+        return rows;
+    }
+
+    @SuppressWarnings("unchecked")
+    private List makeRows(int count) {
+        List rows = new ArrayList();
+        for (int i = 0; i < count; i++) {
+            rows.add(new SimpleRow(new Object[] { new Integer((i * 7919) % count)}));
+        }
+        return rows;
+    }
+
+    /** Sorts integer rows, <i>runSize </i> rows at a time. */
+    private RowIterator sort(List rows, int runSize) throws Exception {
+        long rowSize = SortedRowIterator.estimateSize(new SimpleRow(new Object[] { new Integer(0)}));
+        return sort(rows, runSize * rowSize, new IntegerType());
+    }
+
+    private RowIterator sort(List rows, long bufferSize, DataType type) throws Exception {
+        Comparator comparator = new Comparator() {
+            public int compare(Object left, Object right) {
+                return ((Comparable) ((Row) left).get(0)).compareTo(((Row) right).get(0));
+            }
+        };
+        return new SortedRowIterator.ExternalMergeSort(new ListRowIterator(rows), comparator, new DataType[] { type}, bufferSize,
+            getDbdir());
+    }
+
+    private void assertSorted(RowIterator rows, int count) throws Exception {
+        for (int i = 0; i < count; i++) {
+            assertTrue(rows.hasNext());
+            assertEquals(new Integer(i), rows.next().get(0));
+        }
+        assertFalse(rows.hasNext());
+    }
+
+    private int countRunFiles() {
+        File[] files = getDbdir().listFiles();
+        int count = 0;
+        for (int i = 0; i < files.length; i++) {
+            if (files[i].getName().endsWith(".sort")) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
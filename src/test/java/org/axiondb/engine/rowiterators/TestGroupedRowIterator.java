@@ -0,0 +1,96 @@
+/*
+ * 
+ * =======================================================================
+ * Copyright (c) 2002-2005 Axion Development Team.  All rights reserved.
+ *  
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions 
+ * are met:
+ * 
+ * 1. Redistributions of source code must retain the above 
+ *    copyright notice, this list of conditions and the following 
+ *    disclaimer. 
+ *   
+ * 2. Redistributions in binary form must reproduce the above copyright 
+ *    notice, this list of conditions and the following disclaimer in 
+ *    the documentation and/or other materials provided with the 
+ *    distribution. 
+ *   
+ * 3. The names "Tigris", "Axion", nor the names of its contributors may 
+ *    not be used to endorse or promote products derived from this 
+ *    software without specific prior written permission. 
+ *  
+ * 4. Products derived from this software may not be called "Axion", nor 
+ *    may "Tigris" or "Axion" appear in their names without specific prior
+ *    written permission.
+ *   
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT 
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, 
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT 
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * =======================================================================
+ */
+
+package org.axiondb.engine.rowiterators;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.axiondb.ColumnIdentifier;
+import org.axiondb.DataType;
+import org.axiondb.RowIterator;
+import org.axiondb.TableIdentifier;
+import org.axiondb.engine.rows.SimpleRow;
+import org.axiondb.types.DoubleType;
+import org.axiondb.types.IntegerType;
+
+/**
+ * @version  
+ */
+public class TestGroupedRowIterator extends TestCase {
+
+    public TestGroupedRowIterator(String testName) {
+        super(testName);
+    }
+
+    public void testEqualValuesThatAreNotEqualObjectsFormOneGroup() throws Exception {
+        // 0.0 and -0.0 compare equal, but Double.equals tells them apart
+        RowIterator groups = group(new DoubleType(), new Object[] { new Double(0.0), new Double(2.5), new Double(-0.0), new Double(0.0)});
+        assertEquals(2, groups.size());
+        assertEquals(0.0, ((Number) groups.next().get(0)).doubleValue(), 0.0);
+        assertEquals(2.5, ((Number) groups.next().get(0)).doubleValue(), 0.0);
+    }
+
+    public void testHashedGroupsAreSorted() throws Exception {
+        RowIterator groups = group(new IntegerType(), new Object[] { new Integer(3), new Integer(1), null, new Integer(3), new Integer(1)});
+        assertEquals(3, groups.size());
+        assertEquals(new Integer(1), groups.next().get(0));
+        assertEquals(new Integer(3), groups.next().get(0));
+        assertNull(groups.next().get(0));
+    }
+
+    @SuppressWarnings("unchecked")
+    private RowIterator group(DataType type, Object[] values) throws Exception {
+        ColumnIdentifier col = new ColumnIdentifier(new TableIdentifier("T"), "C", null, type);
+        Map fieldMap = new HashMap();
+        fieldMap.put(col, new Integer(0));
+        List rows = new ArrayList();
+        for (int i = 0; i < values.length; i++) {
+            rows.add(new SimpleRow(new Object[] { values[i]}));
+        }
+        List groupBy = Collections.singletonList(col);
+        return new GroupedRowIterator(new ListRowIterator(rows), fieldMap, groupBy, groupBy, null, null);
+    }
+}
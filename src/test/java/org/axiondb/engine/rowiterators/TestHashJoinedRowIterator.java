@@ -0,0 +1,181 @@
+/*
+ * 
+ * =======================================================================
+ * Copyright (c) 2002-2005 Axion Development Team.  All rights reserved.
+ *  
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions 
+ * are met:
+ * 
+ * 1. Redistributions of source code must retain the above 
+ *    copyright notice, this list of conditions and the following 
+ *    disclaimer. 
+ *   
+ * 2. Redistributions in binary form must reproduce the above copyright 
+ *    notice, this list of conditions and the following disclaimer in 
+ *    the documentation and/or other materials provided with the 
+ *    distribution. 
+ *   
+ * 3. The names "Tigris", "Axion", nor the names of its contributors may 
+ *    not be used to endorse or promote products derived from this 
+ *    software without specific prior written permission. 
+ *  
+ * 4. Products derived from this software may not be called "Axion", nor 
+ *    may "Tigris" or "Axion" appear in their names without specific prior
+ *    written permission.
+ *   
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT 
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, 
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT 
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * =======================================================================
+ */
+package org.axiondb.engine.rowiterators;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+import junit.framework.TestCase;
+
+/**
+ * @version  
+ */
+public class TestHashJoinedRowIterator extends TestCase {
+
+    public TestHashJoinedRowIterator(String testName) {
+        super(testName);
+    }
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        Class.forName("org.axiondb.jdbc.AxionDriver");
+        _conn = DriverManager.getConnection("jdbc:axiondb:hashjoin");
+        _stmt = _conn.createStatement();
+        _stmt.execute("create table A ( id integer, n numeric(5,2) )");
+        _stmt.execute("create table B ( id integer, n numeric(5,1) )");
+        insert("A", new String[] { "1", "2", "2", "null", "4"});
+        insert("B", new String[] { "2", "2", "3", "null", "1"});
+    }
+
+    protected void tearDown() throws Exception {
+        _stmt.execute("shutdown");
+        _stmt.close();
+        _conn.close();
+        super.tearDown();
+    }
+
+    public void testInnerJoinMatchesEveryDuplicateKey() throws Exception {
+        assertPlan("select A.id, B.id from A inner join B on A.id = B.id", "HashJoin(type=inner");
+        assertEquals(5, countJoined("select A.id, B.id from A inner join B on A.id = B.id", 0));
+    }
+
+    public void testInnerJoinBuildsEitherSide() throws Exception {
+        // make each side in turn the larger one, so each gets to be probed
+        for (int i = 0; i < 20; i++) {
+            _stmt.execute("insert into A values ( " + (100 + i) + ", null )");
+        }
+        assertEquals(5, countJoined("select A.id, B.id from A inner join B on A.id = B.id", 0));
+        for (int i = 0; i < 40; i++) {
+            _stmt.execute("insert into B values ( " + (200 + i) + ", null )");
+        }
+        assertEquals(5, countJoined("select A.id, B.id from A inner join B on A.id = B.id", 0));
+    }
+
+    public void testNullKeysNeverMatch() throws Exception {
+        assertEquals(0, countRows("select A.id from A inner join B on A.id = B.id where A.id is null"));
+    }
+
+    public void testLeftOuterJoinKeepsUnmatchedRows() throws Exception {
+        assertPlan("select A.id, B.id from A left outer join B on A.id = B.id", "HashJoin(type=left-outer");
+        // A's NULL and 4 find nothing in B
+        assertEquals(7, countJoined("select A.id, B.id from A left outer join B on A.id = B.id", 2));
+    }
+
+    public void testRightOuterJoinKeepsUnmatchedRows() throws Exception {
+        assertPlan("select A.id, B.id from A right outer join B on A.id = B.id", "HashJoin(type=right-outer");
+        // B's 3 and NULL find nothing in A
+        assertEquals(7, countJoined("select A.id, B.id from A right outer join B on A.id = B.id", 2));
+    }
+
+    public void testJoinOnKeysThatAreNotHashableFallsBack() throws Exception {
+        _stmt.execute("update A set n = id");
+        _stmt.execute("update B set n = id");
+        // 2.00 and 2.0 are equal but need not hash alike
+        assertNoPlan("select A.n, B.n from A inner join B on A.n = B.n", "HashJoin");
+        ResultSet rs = _stmt.executeQuery("select A.n, B.n from A inner join B on A.n = B.n");
+        int count = 0;
+        while (rs.next()) {
+            assertEquals(0, rs.getBigDecimal(1).compareTo(rs.getBigDecimal(2)));
+            count++;
+        }
+        rs.close();
+        assertEquals(5, count);
+    }
+
+    private void insert(String table, String[] ids) throws Exception {
+        for (int i = 0; i < ids.length; i++) {
+            _stmt.execute("insert into " + table + " values ( " + ids[i] + ", null )");
+        }
+    }
+
+    private void assertPlan(String sql, String step) throws Exception {
+        assertTrue(explain(sql), explain(sql).indexOf(step) != -1);
+    }
+
+    private void assertNoPlan(String sql, String step) throws Exception {
+        assertTrue(explain(sql), explain(sql).indexOf(step) == -1);
+    }
+
+    private String explain(String sql) throws Exception {
+        StringBuffer buf = new StringBuffer();
+        ResultSet rs = _stmt.executeQuery("explain " + sql);
+        while (rs.next()) {
+            buf.append(rs.getString(1)).append("\n");
+        }
+        rs.close();
+        return buf.toString();
+    }
+
+    /**
+     * Counts the rows of a join on id, checking that matched ids are equal and that
+     * as many rows as expected went unmatched.
+     */
+    private int countJoined(String sql, int unmatched) throws Exception {
+        ResultSet rs = _stmt.executeQuery(sql);
+        int count = 0;
+        int nulls = 0;
+        while (rs.next()) {
+            if (rs.getObject(1) == null || rs.getObject(2) == null) {
+                nulls++;
+            } else {
+                assertEquals(rs.getInt(1), rs.getInt(2));
+            }
+            count++;
+        }
+        rs.close();
+        assertEquals(unmatched, nulls);
+        return count;
+    }
+
+    private int countRows(String sql) throws Exception {
+        ResultSet rs = _stmt.executeQuery(sql);
+        int count = 0;
+        while (rs.next()) {
+            count++;
+        }
+        rs.close();
+        return count;
+    }
+
+    private Connection _conn;
+    private Statement _stmt;
+}
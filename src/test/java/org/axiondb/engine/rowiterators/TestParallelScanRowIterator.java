@@ -0,0 +1,294 @@
+/*
+ * 
+ * =======================================================================
+ * Copyright (c) 2002-2005 Axion Development Team.  All rights reserved.
+ *  
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions 
+ * are met:
+ * 
+ * 1. Redistributions of source code must retain the above 
+ *    copyright notice, this list of conditions and the following 
+ *    disclaimer. 
+ *   
+ * 2. Redistributions in binary form must reproduce the above copyright 
+ *    notice, this list of conditions and the following disclaimer in 
+ *    the documentation and/or other materials provided with the 
+ *    distribution. 
+ *   
+ * 3. The names "Tigris", "Axion", nor the names of its contributors may 
+ *    not be used to endorse or promote products derived from this 
+ *    software without specific prior written permission. 
+ *  
+ * 4. Products derived from this software may not be called "Axion", nor 
+ *    may "Tigris" or "Axion" appear in their names without specific prior
+ *    written permission.
+ *   
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT 
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, 
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT 
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * =======================================================================
+ */
+
+package org.axiondb.engine.rowiterators;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.axiondb.AbstractDbdirTest;
+import org.axiondb.AxionException;
+import org.axiondb.RangeScannableTable;
+import org.axiondb.RowIterator;
+import org.axiondb.Table;
+import org.axiondb.engine.DiskDatabase;
+import org.axiondb.jdbc.AxionConnection;
+
+/**
+ * @version  
+ */
+public class TestParallelScanRowIterator extends AbstractDbdirTest {
+
+    public TestParallelScanRowIterator(String testName) {
+        super(testName);
+    }
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        OutputStream out = new FileOutputStream(new File(getDbdir(), "axiondb.properties"));
+        out.write("database.parallelism=4\n".getBytes());
+        out.close();
+
+        open();
+        Statement stmt = _conn.createStatement();
+        stmt.execute("create table T ( id integer, grp integer, name varchar(10) )");
+        stmt.close();
+        PreparedStatement insert = _conn.prepareStatement("insert into T values ( ?, ?, ? )");
+        for (int i = 0; i < ROWS; i++) {
+            insert.setInt(1, i);
+            insert.setInt(2, i % 7);
+            insert.setString(3, "n" + (i % 100));
+            insert.addBatch();
+        }
+        insert.executeBatch();
+        insert.close();
+
+        // reopen so the table is scanned from disk rather than a transaction
+        close();
+        open();
+    }
+
+    protected void tearDown() throws Exception {
+        close();
+        super.tearDown();
+    }
+
+    @SuppressWarnings("unchecked")
+    public void testFilteredRowsKeepTableOrder() throws Exception {
+        String sql = "select id from T where grp = 3 and name <> 'n5'";
+        assertTrue(explain(sql), explain(sql).indexOf("ParallelScan") != -1);
+
+        List expected = new ArrayList();
+        for (int i = 0; i < ROWS; i++) {
+            if (i % 7 == 3 && i % 100 != 5) {
+                expected.add(Integer.valueOf(i));
+            }
+        }
+        assertEquals(expected, query(sql));
+    }
+
+    public void testStatefulFunctionsAreScannedSerially() throws Exception {
+        String sql = "select id from T where id + 1 = 5";
+        assertTrue(explain(sql), explain(sql).indexOf("ParallelScan") == -1);
+        assertEquals(1, query(sql).size());
+    }
+
+    public void testGroupedAggregates() throws Exception {
+        List rows = query("select grp, count(*), sum(id) from T group by grp");
+        assertEquals(21, rows.size());
+        for (int grp = 0; grp < 7; grp++) {
+            long count = 0;
+            long sum = 0;
+            for (int i = grp; i < ROWS; i += 7) {
+                count++;
+                sum += i;
+            }
+            assertEquals(Integer.valueOf(grp), rows.get(grp * 3));
+            assertEquals(count, ((Number) rows.get(grp * 3 + 1)).longValue());
+            assertEquals(sum, ((Number) rows.get(grp * 3 + 2)).longValue());
+        }
+    }
+
+    public void testScanThreadsAreDaemons() throws Exception {
+        query("select id from T where grp = 1");
+        int found = 0;
+        for (Iterator iter = Thread.getAllStackTraces().keySet().iterator(); iter.hasNext();) {
+            Thread thread = (Thread) iter.next();
+            if (thread.getName().startsWith("Axion parallel scan")) {
+                assertTrue(thread.getName(), thread.isDaemon());
+                found++;
+            }
+        }
+        assertTrue(found > 0);
+    }
+
+    public void testScanThreadsAreBoundedByProcessors() throws Exception {
+        Thread[] readers = new Thread[8];
+        final Exception[] failure = new Exception[1];
+        for (int i = 0; i < readers.length; i++) {
+            readers[i] = new Thread() {
+                public void run() {
+                    try {
+                        query("select id from T where grp = 1");
+                    } catch (Exception e) {
+                        failure[0] = e;
+                    }
+                }
+            };
+            readers[i].start();
+        }
+        for (int i = 0; i < readers.length; i++) {
+            readers[i].join();
+        }
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+
+        int found = 0;
+        for (Iterator iter = Thread.getAllStackTraces().keySet().iterator(); iter.hasNext();) {
+            if (((Thread) iter.next()).getName().startsWith("Axion parallel scan")) {
+                found++;
+            }
+        }
+        assertTrue(String.valueOf(found), found <= Runtime.getRuntime().availableProcessors());
+    }
+
+    public void testFailedMergeInterruptsAndWaitsForRunningRanges() throws Exception {
+        final AtomicInteger started = new AtomicInteger();
+        final AtomicInteger finished = new AtomicInteger();
+        ParallelScanRowIterator rows = new ParallelScanRowIterator((RangeScannableTable) _db.getTable("T"), ROWS, null, null, 4);
+        try {
+            rows.runPartitions(new ParallelScanRowIterator.PartitionTask() {
+                public Object run(RowIterator range) throws AxionException {
+                    started.incrementAndGet();
+                    try {
+                        if (range.next().getIdentifier() == 0) {
+                            return null;
+                        }
+                        // read the other ranges over and over, and on past the interrupt
+                        // as a scan blocked in I/O would, until a read fails
+                        for (int afterInterrupt = 0; afterInterrupt < 100000;) {
+                            if (Thread.currentThread().isInterrupted()) {
+                                afterInterrupt++;
+                            }
+                            if (!range.hasNext()) {
+                                range.reset();
+                            }
+                            range.next();
+                        }
+                        return null;
+                    } finally {
+                        finished.incrementAndGet();
+                    }
+                }
+
+                public void merge(Object partial) throws AxionException {
+                    throw new AxionException("merge failed");
+                }
+            });
+            fail("Expected AxionException");
+        } catch (AxionException e) {
+            // expected
+        }
+        assertTrue(started.get() > 0);
+        assertEquals(started.get(), finished.get());
+
+        // interrupted reads may have closed the table's channel; it is reopened
+        assertEquals(10000, query("select id from T where grp = 3").size());
+    }
+
+    public void testCloseInterruptsAndWaitsForRunningRanges() throws Exception {
+        ParallelScanRowIterator rows = new ParallelScanRowIterator((RangeScannableTable) _db.getTable("T"), ROWS, null, null, 4);
+        assertTrue(rows.hasNext());
+        rows.next();
+        rows.close();
+
+        rows.reset();
+        int count = 0;
+        while (rows.hasNext()) {
+            rows.next();
+            count++;
+        }
+        assertEquals(ROWS, count);
+        rows.close();
+    }
+
+    public void testInterruptedReadLeavesRowOffsetsReadable() throws Exception {
+        Table table = _db.getTable("T");
+        table.getRow(0);
+        Thread.currentThread().interrupt();
+        try {
+            table.getRow(ROWS - 1);
+        } catch (Exception e) {
+            // the interrupt may close the files the read was using
+        } finally {
+            Thread.interrupted();
+        }
+        assertEquals(Integer.valueOf(ROWS / 2), table.getRow(ROWS / 2).get(0));
+    }
+
+    private void open() throws Exception {
+        _db = new DiskDatabase(getDbdir());
+        _conn = new AxionConnection(_db);
+    }
+
+    private void close() throws Exception {
+        _conn.close();
+        _db.shutdown();
+    }
+
+    private String explain(String sql) throws Exception {
+        StringBuffer buf = new StringBuffer();
+        for (Iterator iter = query("explain " + sql).iterator(); iter.hasNext();) {
+            buf.append(iter.next()).append('\n');
+        }
+        return buf.toString();
+    }
+
+    @SuppressWarnings("unchecked")
+    private List query(String sql) throws Exception {
+        List values = new ArrayList();
+        Statement stmt = _conn.createStatement();
+        ResultSet rs = stmt.executeQuery(sql);
+        int columns = rs.getMetaData().getColumnCount();
+        while (rs.next()) {
+            for (int i = 1; i <= columns; i++) {
+                values.add(rs.getObject(i));
+            }
+        }
+        rs.close();
+        stmt.close();
+        return values;
+    }
+
+    private static final int ROWS = 70000;
+
+    private Connection _conn;
+    private DiskDatabase _db;
+}
@@ -0,0 +1,152 @@
+/*
+ * 
+ * =======================================================================
+ * Copyright (c) 2002-2005 Axion Development Team.  All rights reserved.
+ *  
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions 
+ * are met:
+ * 
+ * 1. Redistributions of source code must retain the above 
+ *    copyright notice, this list of conditions and the following 
+ *    disclaimer. 
+ *   
+ * 2. Redistributions in binary form must reproduce the above copyright 
+ *    notice, this list of conditions and the following disclaimer in 
+ *    the documentation and/or other materials provided with the 
+ *    distribution. 
+ *   
+ * 3. The names "Tigris", "Axion", nor the names of its contributors may 
+ *    not be used to endorse or promote products derived from this 
+ *    software without specific prior written permission. 
+ *  
+ * 4. Products derived from this software may not be called "Axion", nor 
+ *    may "Tigris" or "Axion" appear in their names without specific prior
+ *    written permission.
+ *   
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT 
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, 
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT 
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * =======================================================================
+ */
+package org.axiondb.engine.tables;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.math.BigDecimal;
+
+import junit.framework.TestCase;
+
+import org.axiondb.DataType;
+import org.axiondb.Row;
+import org.axiondb.engine.rows.SimpleRow;
+import org.axiondb.types.BigDecimalType;
+import org.axiondb.types.BigIntType;
+import org.axiondb.types.BooleanType;
+import org.axiondb.types.ByteType;
+import org.axiondb.types.CharacterVaryingType;
+import org.axiondb.types.DoubleType;
+import org.axiondb.types.IntegerType;
+import org.axiondb.types.ShortType;
+import org.axiondb.types.StringType;
+
+/**
+ * @version  
+ */
+public class TestCompactRowFormat extends TestCase {
+
+    public TestCompactRowFormat(String testName) {
+        super(testName);
+    }
+
+    public void testRoundTrip() throws Exception {
+        Object[][] rows = new Object[][] {
+                { new Integer(0), new Long(0), new Short((short) 0), new Byte((byte) 0), "", "", Boolean.FALSE, new Double(0),
+                        new BigDecimal("0.00")},
+                { new Integer(Integer.MIN_VALUE), new Long(Long.MIN_VALUE), new Short(Short.MIN_VALUE), new Byte(Byte.MIN_VALUE),
+                        "caf\u00e9 \u4e2d\u6587", "x", Boolean.TRUE, new Double(-1.5), new BigDecimal("-12345.67")},
+                { new Integer(Integer.MAX_VALUE), new Long(Long.MAX_VALUE), new Short(Short.MAX_VALUE), new Byte(Byte.MAX_VALUE),
+                        longString(1000), longString(70000), Boolean.TRUE, new Double(Double.MAX_VALUE), new BigDecimal("99999999.99")},
+                { null, null, null, null, null, null, null, null, null},
+                { new Integer(-1), null, new Short((short) 300), null, "a", null, Boolean.FALSE, null, new BigDecimal("1.50")}};
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        int[] ends = new int[rows.length];
+        for (int i = 0; i < rows.length; i++) {
+            FORMAT.write(new SimpleRow(rows[i]), out);
+            ends[i] = out.size();
+        }
+
+        byte[] data = bytes.toByteArray();
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        for (int i = 0, start = 0; i < rows.length; start = ends[i], i++) {
+            assertEquals(ends[i] - start, CompactRowFormat.readLength(
+                new DataInputStream(new ByteArrayInputStream(data, start, data.length - start))));
+            Row row = FORMAT.read(i, in);
+            assertEquals(i, row.getIdentifier());
+            assertEquals(TYPES.length, row.size());
+            for (int j = 0; j < TYPES.length; j++) {
+                Object expected = (null == rows[i][j]) ? null : TYPES[j].convert(rows[i][j]);
+                assertEquals("row " + i + " column " + j, expected, row.get(j));
+            }
+        }
+        assertEquals(-1, in.read());
+    }
+
+    public void testColumnsAreReadInAnyOrder() throws Exception {
+        Row row = roundTrip(new Object[] { new Integer(7), new Long(8), null, new Byte((byte) 9), "s", longString(300), Boolean.TRUE,
+                new Double(2.5), new BigDecimal("3.25")});
+        assertEquals(new BigDecimal("3.25"), row.get(8));
+        assertEquals(longString(300), row.get(5));
+        assertNull(row.get(2));
+        assertEquals(new Integer(7), row.get(0));
+    }
+
+    public void testSetReplacesOneColumn() throws Exception {
+        Row row = roundTrip(new Object[] { new Integer(7), new Long(8), null, new Byte((byte) 9), "s", "t", Boolean.TRUE,
+                new Double(2.5), new BigDecimal("3.25")});
+        row.set(4, "changed");
+        row.set(2, new Short((short) 4));
+        assertEquals("changed", row.get(4));
+        assertEquals(new Short((short) 4), row.get(2));
+        assertEquals("t", row.get(5));
+        assertEquals(new Long(8), row.get(1));
+    }
+
+    public void testSmallValuesTakeFewBytes() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        CompactRowFormat format = new CompactRowFormat(new DataType[] { new IntegerType(), new IntegerType()});
+        format.write(new SimpleRow(new Object[] { new Integer(-3), null}), new DataOutputStream(bytes));
+        // length, count, width, null bitmap, two one-byte ends and a one-byte value
+        assertEquals(7, bytes.size());
+    }
+
+    private static Row roundTrip(Object[] values) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        FORMAT.write(new SimpleRow(values), new DataOutputStream(bytes));
+        return FORMAT.read(0, new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+    }
+
+    private static String longString(int length) {
+        StringBuffer buf = new StringBuffer(length);
+        for (int i = 0; i < length; i++) {
+            buf.append((char) ('a' + i % 26));
+        }
+        return buf.toString();
+    }
+
+    private static final DataType[] TYPES = new DataType[] { new IntegerType(), new BigIntType(), new ShortType(), new ByteType(),
+            new CharacterVaryingType(2000), new StringType(), new BooleanType(), new DoubleType(), new BigDecimalType(10, 2)};
+    private static final CompactRowFormat FORMAT = new CompactRowFormat(TYPES);
+}
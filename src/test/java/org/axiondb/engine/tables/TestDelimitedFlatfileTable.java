@@ -0,0 +1,194 @@
+/*
+ * 
+ * =======================================================================
+ * Copyright (c) 2002-2005 Axion Development Team.  All rights reserved.
+ *  
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions 
+ * are met:
+ * 
+ * 1. Redistributions of source code must retain the above 
+ *    copyright notice, this list of conditions and the following 
+ *    disclaimer. 
+ *   
+ * 2. Redistributions in binary form must reproduce the above copyright 
+ *    notice, this list of conditions and the following disclaimer in 
+ *    the documentation and/or other materials provided with the 
+ *    distribution. 
+ *   
+ * 3. The names "Tigris", "Axion", nor the names of its contributors may 
+ *    not be used to endorse or promote products derived from this 
+ *    software without specific prior written permission. 
+ *  
+ * 4. Products derived from this software may not be called "Axion", nor 
+ *    may "Tigris" or "Axion" appear in their names without specific prior
+ *    written permission.
+ *   
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT 
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, 
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT 
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * =======================================================================
+ */
+package org.axiondb.engine.tables;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+import org.axiondb.AbstractDbdirTest;
+import org.axiondb.engine.DiskDatabase;
+import org.axiondb.jdbc.AxionConnection;
+
+/**
+ * @version  
+ */
+public class TestDelimitedFlatfileTable extends AbstractDbdirTest {
+
+    public TestDelimitedFlatfileTable(String testName) {
+        super(testName);
+    }
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        _data = new File(getDbdir(), "data.csv");
+        OutputStream out = new FileOutputStream(_data);
+        for (int i = 0; i < ROWS; i++) {
+            out.write((i + ",name " + (i % 1000) + "\n").getBytes("ISO-8859-1"));
+        }
+        out.close();
+        open();
+    }
+
+    protected void tearDown() throws Exception {
+        close();
+        super.tearDown();
+    }
+
+    public void testLazyMountLocatesNoRecords() throws Exception {
+        createTable(true);
+        assertEquals(0, getTable().getPidxList().size());
+    }
+
+    public void testRowCountEstimateLocatesOneBatch() throws Exception {
+        createTable(true);
+        BaseFlatfileTable table = getTable();
+        int estimate = AbstractBaseTable.estimateRowCount(table);
+        assertTrue(String.valueOf(estimate), Math.abs(estimate - ROWS) < ROWS / 10);
+        assertTrue(table.getPidxList().size() < ROWS);
+
+        // asking again doesn't locate more
+        int located = table.getPidxList().size();
+        table.getRowCountEstimate();
+        assertEquals(located, table.getPidxList().size());
+
+        // an exact count locates everything
+        assertEquals(ROWS, table.getRowCount());
+        assertEquals(ROWS, table.getPidxList().size());
+        assertEquals(ROWS, table.getRowCountEstimate());
+    }
+
+    public void testRowCountEstimateOfEagerTableIsExact() throws Exception {
+        createTable(false);
+        assertEquals(ROWS, getTable().getPidxList().size());
+        assertEquals(ROWS, getTable().getRowCountEstimate());
+    }
+
+    public void testRowCountEstimateOfEmptyFile() throws Exception {
+        new FileOutputStream(_data).close();
+        createTable(true);
+        assertEquals(0, getTable().getRowCountEstimate());
+        assertEquals(0, getTable().getRowCount());
+    }
+
+    public void testScanLocatesAsItReads() throws Exception {
+        createTable(true);
+        Statement stmt = _conn.createStatement();
+        ResultSet rs = stmt.executeQuery("select id, name from D");
+        for (int i = 0; i < ROWS; i++) {
+            assertTrue(rs.next());
+            assertEquals(i, rs.getInt(1));
+            assertEquals("name " + (i % 1000), rs.getString(2));
+        }
+        assertFalse(rs.next());
+        rs.close();
+        stmt.close();
+        assertEquals(ROWS, getTable().getPidxList().size());
+    }
+
+    public void testPartlyLocatedTableResumesAfterReopen() throws Exception {
+        createTable(true);
+        assertEquals("10", String.valueOf(getTable().getRow(10).get(0)));
+        int located = getTable().getPidxList().size();
+        assertTrue(located > 10 && located < ROWS);
+        close();
+
+        open();
+        assertEquals(located, getTable().getPidxList().size());
+        Statement stmt = _conn.createStatement();
+        ResultSet rs = stmt.executeQuery("select id from D");
+        for (int i = 0; i < ROWS; i++) {
+            assertTrue(rs.next());
+            assertEquals(i, rs.getInt(1));
+        }
+        assertFalse(rs.next());
+        rs.close();
+        stmt.close();
+        assertEquals(ROWS, getTable().getRowCount());
+    }
+
+    public void testInsertLocatesEveryRecordFirst() throws Exception {
+        createTable(true);
+        Statement stmt = _conn.createStatement();
+        assertEquals(1, stmt.executeUpdate("insert into D values ( " + ROWS + ", 'last' )"));
+        ResultSet rs = stmt.executeQuery("select id from D where name = 'last'");
+        assertTrue(rs.next());
+        assertEquals(ROWS, rs.getInt(1));
+        assertFalse(rs.next());
+        rs.close();
+        stmt.close();
+
+        // committed rows reach the table in the background
+        close();
+        open();
+        assertEquals(ROWS + 1, getTable().getRowCount());
+    }
+
+
+    private void createTable(boolean lazy) throws Exception {
+        Statement stmt = _conn.createStatement();
+        stmt.execute("create external table D ( id integer, name varchar(20) ) organization(loadtype='delimited' filename='"
+            + _data.getAbsolutePath() + "' recorddelimiter='\\n' lazyload='" + lazy + "')");
+        stmt.close();
+    }
+
+    private BaseFlatfileTable getTable() throws Exception {
+        return (BaseFlatfileTable) _db.getTable("D");
+    }
+
+    private void open() throws Exception {
+        _db = new DiskDatabase(getDbdir());
+        _conn = new AxionConnection(_db);
+    }
+
+    private void close() throws Exception {
+        _conn.close();
+        _db.shutdown();
+    }
+
+    private static final int ROWS = 5000;
+
+    private Connection _conn;
+    private File _data;
+    private DiskDatabase _db;
+}
@@ -0,0 +1,384 @@
+/*
+ * 
+ * =======================================================================
+ * Copyright (c) 2002-2005 Axion Development Team.  All rights reserved.
+ *  
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions 
+ * are met:
+ * 
+ * 1. Redistributions of source code must retain the above 
+ *    copyright notice, this list of conditions and the following 
+ *    disclaimer. 
+ *   
+ * 2. Redistributions in binary form must reproduce the above copyright 
+ *    notice, this list of conditions and the following disclaimer in 
+ *    the documentation and/or other materials provided with the 
+ *    distribution. 
+ *   
+ * 3. The names "Tigris", "Axion", nor the names of its contributors may 
+ *    not be used to endorse or promote products derived from this 
+ *    software without specific prior written permission. 
+ *  
+ * 4. Products derived from this software may not be called "Axion", nor 
+ *    may "Tigris" or "Axion" appear in their names without specific prior
+ *    written permission.
+ *   
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT 
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, 
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT 
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * =======================================================================
+ */
+
+package org.axiondb.engine.tables;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+
+import org.axiondb.AbstractDbdirTest;
+import org.axiondb.Row;
+import org.axiondb.RowIterator;
+import org.axiondb.Table;
+import org.axiondb.Transaction;
+import org.axiondb.TransactionManager;
+import org.axiondb.engine.DiskDatabase;
+import org.axiondb.engine.rows.SimpleRow;
+
+/**
+ * @version  
+ */
+public class TestDiskTable extends AbstractDbdirTest {
+
+    public TestDiskTable(String testName) {
+        super(testName);
+    }
+
+    public void testCompactKeepsEveryRow() throws Exception {
+        assertCompactKeepsEveryRow();
+    }
+
+    public void testCompactWithMappedReads() throws Exception {
+        OutputStream out = new FileOutputStream(new File(getDbdir(), "axiondb.properties"));
+        out.write("database.readmode=mmap\n".getBytes());
+        out.close();
+        assertEquals(BaseDiskTable.READ_MODE_MMAP, assertCompactKeepsEveryRow());
+    }
+
+    public void testCompactorMovesRowsWhileTheTableIsRead() throws Exception {
+        OutputStream out = new FileOutputStream(new File(getDbdir(), "axiondb.properties"));
+        out.write("database.compactioninterval=20\n".getBytes());
+        out.close();
+
+        DiskDatabase db = new DiskDatabase(getDbdir());
+        File dataFile;
+        long before;
+        try {
+            execute(db, "create table T ( id integer, pad varchar(200) )");
+            DiskTable table = (DiskTable) db.getTable("T");
+            addPaddedRows(table);
+            dataFile = table.getDataFile();
+            before = dataFile.length();
+            long[] offsets = new long[ROWS];
+            table.getPidxList().get(0, offsets);
+
+            // a reader of T keeps the file from being cut, but not the rows from moving
+            TransactionManager tm = db.getTransactionManager();
+            Transaction reader = tm.createTransaction();
+            execute(reader, "select * from T");
+            Table read = reader.getTable("T");
+            execute(db, "delete from T where id < " + DELETED);
+            long end = System.currentTimeMillis() + 10000;
+            while (!isMoved(table, offsets) && System.currentTimeMillis() < end) {
+                assertRows(read);
+            }
+            assertTrue("no row moved", isMoved(table, offsets));
+            assertRows(read);
+            assertEquals(before, dataFile.length());
+
+            tm.abortTransaction(reader);
+            end = System.currentTimeMillis() + 10000;
+            while (dataFile.length() == before && System.currentTimeMillis() < end) {
+                Thread.sleep(20);
+            }
+            assertTrue(dataFile.length() < before);
+            assertRows(db.getTable("T"));
+        } finally {
+            db.shutdown();
+        }
+
+        db = new DiskDatabase(getDbdir());
+        try {
+            assertTrue(dataFile.length() < before);
+            assertRows(db.getTable("T"));
+        } finally {
+            db.shutdown();
+        }
+    }
+
+    public void testReadModePerTable() throws Exception {
+        OutputStream out = new FileOutputStream(new File(getDbdir(), "axiondb.properties"));
+        out.write("database.readmode=stream\ndatabase.readmode.M=mmap\n".getBytes());
+        out.close();
+
+        DiskDatabase db = new DiskDatabase(getDbdir());
+        try {
+            execute(db, "create table M ( id integer, val integer )");
+            execute(db, "create table S ( id integer, val integer )");
+            assertEquals(BaseDiskTable.READ_MODE_MMAP, ((BaseDiskTable) db.getTable("M")).getReadMode());
+            assertEquals(BaseDiskTable.READ_MODE_STREAM, ((BaseDiskTable) db.getTable("S")).getReadMode());
+
+            for (int i = 0; i < 100; i++) {
+                execute(db, "insert into M values ( " + i + ", " + i + " )");
+            }
+            assertEquals(100, countRows(db.getTable("M")));
+
+            // updates and deletes rewrite offsets the mapped .pidx file has already seen
+            execute(db, "update M set val = 0 - id where id < 50");
+            execute(db, "delete from M where id >= 90");
+            assertUpdated(db.getTable("M"), 90);
+            execute(db, "update M set val = 0 - id - 1000 where id = 10");
+            assertEquals(-1010, ((Number) firstRow(db.getTable("M"), 10).get(1)).intValue());
+        } finally {
+            db.shutdown();
+        }
+
+        db = new DiskDatabase(getDbdir());
+        try {
+            assertEquals(BaseDiskTable.READ_MODE_MMAP, ((BaseDiskTable) db.getTable("M")).getReadMode());
+            assertEquals(90, countRows(db.getTable("M")));
+        } finally {
+            db.shutdown();
+        }
+    }
+
+    public void testNewTablesUseCompactRowsThatSurviveReopen() throws Exception {
+        DiskDatabase db = new DiskDatabase(getDbdir());
+        try {
+            execute(db, "create table T ( id integer, name varchar(100000), amount double )");
+            assertFalse(((DiskTable) db.getTable("T")).isLegacyRowFormat());
+            addRows(db.getTable("T"), 0, 200);
+
+            // strings are not limited to 64KB, as writeUTF is
+            execute(db, "create table L ( id integer, name varchar(100000) )");
+            db.getTable("L").addRow(new SimpleRow(new Object[] { new Integer(1), longName()}));
+        } finally {
+            db.shutdown();
+        }
+
+        db = new DiskDatabase(getDbdir());
+        try {
+            assertFalse(((DiskTable) db.getTable("T")).isLegacyRowFormat());
+            assertNamedRows(db.getTable("T"), 200, -1);
+            assertEquals(longName(), firstRow(db.getTable("L"), 1).get(1));
+        } finally {
+            db.shutdown();
+        }
+    }
+
+    public void testLegacyRowsAreReadUntilDefragMigratesThem() throws Exception {
+        DiskDatabase db = new DiskDatabase(getDbdir());
+        File metaFile;
+        try {
+            execute(db, "create table T ( id integer, name varchar(100000), amount double )");
+            metaFile = ((DiskTable) db.getTable("T")).getTableFile(BaseDiskTable.META_FILE_EXT);
+        } finally {
+            db.shutdown();
+        }
+        stripRowFormat(metaFile);
+
+        db = new DiskDatabase(getDbdir());
+        try {
+            assertTrue(((DiskTable) db.getTable("T")).isLegacyRowFormat());
+            addRows(db.getTable("T"), 0, 200);
+        } finally {
+            db.shutdown();
+        }
+
+        db = new DiskDatabase(getDbdir());
+        try {
+            assertTrue(((DiskTable) db.getTable("T")).isLegacyRowFormat());
+            assertNamedRows(db.getTable("T"), 200, -1);
+            execute(db, "update T set name = 'changed' where id = 5");
+            execute(db, "delete from T where id = 7");
+            execute(db, "defrag table T");
+            assertFalse(((DiskTable) db.getTable("T")).isLegacyRowFormat());
+            assertNamedRows(db.getTable("T"), 200, 7);
+        } finally {
+            db.shutdown();
+        }
+
+        db = new DiskDatabase(getDbdir());
+        try {
+            assertFalse(((DiskTable) db.getTable("T")).isLegacyRowFormat());
+            assertNamedRows(db.getTable("T"), 200, 7);
+        } finally {
+            db.shutdown();
+        }
+    }
+
+    private static void addRows(Table table, int from, int to) throws Exception {
+        for (int i = from; i < to; i++) {
+            table.addRow(new SimpleRow(new Object[] { new Integer(i), (i % 10 == 0) ? null : name(i), new Double(i * 1.5)}));
+        }
+    }
+
+    /** Checks rows 0 until count, where row 5 was renamed and row <i>deleted </i> deleted. */
+    private static void assertNamedRows(Table table, int count, int deleted) throws Exception {
+        boolean[] seen = new boolean[count];
+        int found = 0;
+        for (RowIterator iter = table.getRowIterator(true); iter.hasNext(); found++) {
+            Row row = iter.next();
+            int id = ((Number) row.get(0)).intValue();
+            assertFalse(String.valueOf(id), seen[id] || id == deleted);
+            seen[id] = true;
+            if (deleted >= 0 && id == 5) {
+                assertEquals("changed", row.get(1));
+            } else {
+                assertEquals(String.valueOf(id), (id % 10 == 0) ? null : name(id), row.get(1));
+            }
+            assertEquals(id * 1.5, ((Number) row.get(2)).doubleValue(), 0);
+        }
+        assertEquals(deleted >= 0 ? count - 1 : count, found);
+    }
+
+    private static String name(int id) {
+        return id + " caf\u00e9";
+    }
+
+    private static String longName() {
+        StringBuffer buf = new StringBuffer(70000);
+        while (buf.length() < 70000) {
+            buf.append("caf\u00e9 ");
+        }
+        return buf.toString();
+    }
+
+    /** Drops the row format from the end of a meta file, as a release before it wrote. */
+    private static void stripRowFormat(File metaFile) throws Exception {
+        RandomAccessFile file = new RandomAccessFile(metaFile, "rw");
+        try {
+            // a block data record holding one int: TC_BLOCKDATA, length 4, the int
+            long length = file.length();
+            file.seek(length - 6);
+            assertEquals(0x77, file.read());
+            assertEquals(4, file.read());
+            assertEquals(2, file.readInt());
+            file.setLength(length - 6);
+        } finally {
+            file.close();
+        }
+    }
+
+    private static void assertUpdated(Table table, int count) throws Exception {
+        int seen = 0;
+        for (RowIterator iter = table.getRowIterator(true); iter.hasNext(); seen++) {
+            Row row = iter.next();
+            int id = ((Number) row.get(0)).intValue();
+            assertTrue(id < count);
+            assertEquals(id < 50 ? -id : id, ((Number) row.get(1)).intValue());
+        }
+        assertEquals(count, seen);
+    }
+
+    private static Row firstRow(Table table, int id) throws Exception {
+        for (RowIterator iter = table.getRowIterator(true); iter.hasNext();) {
+            Row row = iter.next();
+            if (((Number) row.get(0)).intValue() == id) {
+                return row;
+            }
+        }
+        fail("No row " + id);
+        return null;
+    }
+
+    /** Returns the read mode of the table compacted. */
+    private String assertCompactKeepsEveryRow() throws Exception {
+        DiskDatabase db = new DiskDatabase(getDbdir());
+        File dataFile;
+        long before;
+        String readMode;
+        try {
+            execute(db, "create table T ( id integer, pad varchar(200) )");
+            for (int i = 0; i < ROWS; i++) {
+                execute(db, "insert into T values ( " + i + ", '" + pad(i) + "' )");
+            }
+            execute(db, "delete from T where id < " + DELETED);
+            DiskTable table = (DiskTable) db.getTable("T");
+            assertRows(table);
+
+            dataFile = table.getDataFile();
+            before = dataFile.length();
+            assertTrue(db.compact() > 0);
+            assertTrue(dataFile.length() < before);
+            assertEquals(dataFile.length(), table.getDataFileLength());
+            assertRows(table);
+
+            // rows written after the cut go where the file now ends
+            execute(db, "insert into T values ( " + ROWS + ", '" + pad(ROWS) + "' )");
+            execute(db, "delete from T where id = " + ROWS);
+            readMode = table.getReadMode();
+        } finally {
+            db.shutdown();
+        }
+
+        db = new DiskDatabase(getDbdir());
+        try {
+            assertTrue(dataFile.length() < before);
+            assertRows(db.getTable("T"));
+        } finally {
+            db.shutdown();
+        }
+        return readMode;
+    }
+
+    private static void addPaddedRows(Table table) throws Exception {
+        for (int i = 0; i < ROWS; i++) {
+            table.addRow(new SimpleRow(new Object[] { new Integer(i), pad(i)}));
+        }
+    }
+
+    private static boolean isMoved(DiskTable table, long[] offsets) {
+        for (int i = DELETED; i < ROWS; i++) {
+            if (table.getPidxList().get(i) != offsets[i]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void assertRows(Table table) throws Exception {
+        boolean[] seen = new boolean[ROWS];
+        int count = 0;
+        for (RowIterator iter = table.getRowIterator(true); iter.hasNext();) {
+            Row row = iter.next();
+            int id = ((Number) row.get(0)).intValue();
+            assertTrue(String.valueOf(id), id >= DELETED && !seen[id]);
+            assertEquals(pad(id), row.get(1));
+            seen[id] = true;
+            count++;
+        }
+        assertEquals(ROWS - DELETED, count);
+    }
+
+    private static String pad(int id) {
+        StringBuffer buf = new StringBuffer(200);
+        buf.append(id);
+        while (buf.length() < 150 + id % 50) {
+            buf.append((char) ('a' + buf.length() % 26));
+        }
+        return buf.toString();
+    }
+
+    private static final int ROWS = 12000;
+    private static final int DELETED = 8000;
+}
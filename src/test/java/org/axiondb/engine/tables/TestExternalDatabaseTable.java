@@ -0,0 +1,123 @@
+/*
+ * 
+ * =======================================================================
+ * Copyright (c) 2002-2005 Axion Development Team.  All rights reserved.
+ *  
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions 
+ * are met:
+ * 
+ * 1. Redistributions of source code must retain the above 
+ *    copyright notice, this list of conditions and the following 
+ *    disclaimer. 
+ *   
+ * 2. Redistributions in binary form must reproduce the above copyright 
+ *    notice, this list of conditions and the following disclaimer in 
+ *    the documentation and/or other materials provided with the 
+ *    distribution. 
+ *   
+ * 3. The names "Tigris", "Axion", nor the names of its contributors may 
+ *    not be used to endorse or promote products derived from this 
+ *    software without specific prior written permission. 
+ *  
+ * 4. Products derived from this software may not be called "Axion", nor 
+ *    may "Tigris" or "Axion" appear in their names without specific prior
+ *    written permission.
+ *   
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT 
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, 
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT 
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * =======================================================================
+ */
+
+package org.axiondb.engine.tables;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+import junit.framework.TestCase;
+
+/**
+ * @version  
+ */
+public class TestExternalDatabaseTable extends TestCase {
+
+    public TestExternalDatabaseTable(String testName) {
+        super(testName);
+    }
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        Class.forName("org.axiondb.jdbc.AxionDriver");
+        _remote = DriverManager.getConnection("jdbc:axiondb:remotesrc");
+        Statement stmt = _remote.createStatement();
+        stmt.execute("create table RT ( id integer not null, name varchar(10), val integer )");
+        for (int i = 0; i < 20; i++) {
+            stmt.execute("insert into RT values ( " + i + ", 'n" + (i % 5) + "', " + (i * 10) + " )");
+        }
+        stmt.close();
+
+        _conn = DriverManager.getConnection("jdbc:axiondb:remotedst");
+        stmt = _conn.createStatement();
+        stmt.execute("create database link RL ( DRIVER='org.axiondb.jdbc.AxionDriver' URL='jdbc:axiondb:remotesrc' "
+            + "USERNAME='u' PASSWORD='p' )");
+        stmt.execute("create external table EXT ( id integer not null, name varchar(10), val integer ) "
+            + "organization ( loadtype='remote' dblink='RL' remotetable='RT' )");
+        stmt.close();
+    }
+
+    protected void tearDown() throws Exception {
+        Statement stmt = _conn.createStatement();
+        stmt.execute("drop table EXT");
+        stmt.close();
+        shutdown(_conn);
+        shutdown(_remote);
+        super.tearDown();
+    }
+
+    public void testStringConditionsAreEvaluatedLocally() throws Exception {
+        String sql = "select id from EXT where name = 'n2' and val > 50";
+        String plan = queryString("explain " + sql);
+        assertTrue(plan, plan.indexOf("VAL > ?") != -1);
+        assertTrue(plan, plan.indexOf("NAME =") == -1);
+        assertEquals("7,12,17,", queryString(sql));
+
+        sql = "select id from EXT where name in ( 'n1', 'n3' ) and val in ( 10, 30, 60 )";
+        plan = queryString("explain " + sql);
+        assertTrue(plan, plan.indexOf("VAL IN (?, ?, ?)") != -1);
+        assertTrue(plan, plan.indexOf("NAME IN") == -1);
+        assertEquals("1,3,6,", queryString(sql));
+    }
+
+    private String queryString(String sql) throws Exception {
+        StringBuffer buf = new StringBuffer();
+        Statement stmt = _conn.createStatement();
+        ResultSet rs = stmt.executeQuery(sql);
+        while (rs.next()) {
+            buf.append(rs.getString(1)).append(',');
+        }
+        rs.close();
+        stmt.close();
+        return buf.toString();
+    }
+
+    private static void shutdown(Connection conn) throws Exception {
+        Statement stmt = conn.createStatement();
+        stmt.execute("shutdown");
+        stmt.close();
+        conn.close();
+    }
+
+    private Connection _conn;
+    private Connection _remote;
+}
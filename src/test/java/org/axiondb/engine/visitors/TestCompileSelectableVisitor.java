@@ -0,0 +1,168 @@
+/*
+ * 
+ * =======================================================================
+ * Copyright (c) 2002-2005 Axion Development Team.  All rights reserved.
+ *  
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions 
+ * are met:
+ * 
+ * 1. Redistributions of source code must retain the above 
+ *    copyright notice, this list of conditions and the following 
+ *    disclaimer. 
+ *   
+ * 2. Redistributions in binary form must reproduce the above copyright 
+ *    notice, this list of conditions and the following disclaimer in 
+ *    the documentation and/or other materials provided with the 
+ *    distribution. 
+ *   
+ * 3. The names "Tigris", "Axion", nor the names of its contributors may 
+ *    not be used to endorse or promote products derived from this 
+ *    software without specific prior written permission. 
+ *  
+ * 4. Products derived from this software may not be called "Axion", nor 
+ *    may "Tigris" or "Axion" appear in their names without specific prior
+ *    written permission.
+ *   
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT 
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, 
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT 
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * =======================================================================
+ */
+package org.axiondb.engine.visitors;
+
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.axiondb.ColumnIdentifier;
+import org.axiondb.DataType;
+import org.axiondb.Literal;
+import org.axiondb.RowDecorator;
+import org.axiondb.Selectable;
+import org.axiondb.TableIdentifier;
+import org.axiondb.engine.rows.SimpleRow;
+import org.axiondb.functions.AndFunction;
+import org.axiondb.functions.ConcreteFunction;
+import org.axiondb.functions.EqualFunction;
+import org.axiondb.functions.GreaterThanFunction;
+import org.axiondb.functions.IsNotNullFunction;
+import org.axiondb.functions.IsNullFunction;
+import org.axiondb.functions.LessThanOrEqualFunction;
+import org.axiondb.functions.NotEqualFunction;
+import org.axiondb.functions.NotFunction;
+import org.axiondb.functions.OrFunction;
+import org.axiondb.types.BigDecimalType;
+import org.axiondb.types.CharacterVaryingType;
+import org.axiondb.types.IntegerType;
+
+/**
+ * @version  
+ */
+public class TestCompileSelectableVisitor extends TestCase {
+
+    public TestCompileSelectableVisitor(String testName) {
+        super(testName);
+    }
+
+    @SuppressWarnings("unchecked")
+    protected void setUp() throws Exception {
+        super.setUp();
+        TableIdentifier table = new TableIdentifier("T");
+        _id = new ColumnIdentifier(table, "ID", null, new IntegerType());
+        _name = new ColumnIdentifier(table, "NAME", null, new CharacterVaryingType(10));
+        _price = new ColumnIdentifier(table, "PRICE", null, new BigDecimalType(5, 2));
+        _other = new ColumnIdentifier(table, "OTHER", null, new IntegerType());
+        Map fieldMap = new HashMap();
+        fieldMap.put(_id, new Integer(0));
+        fieldMap.put(_name, new Integer(1));
+        fieldMap.put(_price, new Integer(2));
+        fieldMap.put(_other, new Integer(3));
+        _decorator = new RowDecorator(fieldMap);
+    }
+
+    public void testColumnsEvaluateAlike() throws Exception {
+        assertSameResults(_id);
+        assertSameResults(_name);
+        assertSameResults(_price);
+    }
+
+    public void testComparisonWithLiteral() throws Exception {
+        assertSameResults(function(new GreaterThanFunction(), _id, new Literal(new Integer(2), new IntegerType())));
+        assertSameResults(function(new EqualFunction(), _name, new Literal("b", new CharacterVaryingType(1))));
+        assertSameResults(function(new NotEqualFunction(), _price, new Literal(new BigDecimal("1.5"), new BigDecimalType(2, 1))));
+    }
+
+    public void testComparisonWithLiteralOfAnotherType() throws Exception {
+        // each literal is converted to the column type
+        assertSameResults(function(new LessThanOrEqualFunction(), _id, new Literal("3", new CharacterVaryingType(1))));
+        assertSameResults(function(new EqualFunction(), _name, new Literal(new Integer(3), new IntegerType())));
+        assertSameResults(function(new GreaterThanFunction(), _price, new Literal(new Integer(1), new IntegerType())));
+        assertSameResults(function(new EqualFunction(), _price, new Literal("2.50", new CharacterVaryingType(4))));
+    }
+
+    public void testComparisonWithLiteralThatCannotBeConverted() throws Exception {
+        assertSameResults(function(new EqualFunction(), _id, new Literal("abc", new CharacterVaryingType(3))));
+    }
+
+    public void testComparisonWithNullLiteral() throws Exception {
+        assertSameResults(function(new EqualFunction(), _id, new Literal(null, new IntegerType())));
+    }
+
+    public void testComparisonOfColumns() throws Exception {
+        assertSameResults(function(new EqualFunction(), _id, _other));
+        assertSameResults(function(new GreaterThanFunction(), _price, _id));
+    }
+
+    public void testBooleanFunctions() throws Exception {
+        Selectable gt = function(new GreaterThanFunction(), _id, new Literal(new Integer(1), new IntegerType()));
+        Selectable eq = function(new EqualFunction(), _name, new Literal("a", new CharacterVaryingType(1)));
+        assertSameResults(function(new AndFunction(), gt, eq));
+        assertSameResults(function(new OrFunction(), gt, eq));
+        assertSameResults(function(new NotFunction(), gt, null));
+        assertSameResults(function(new IsNullFunction(), _name, null));
+        assertSameResults(function(new IsNotNullFunction(), _price, null));
+        assertSameResults(function(new AndFunction(), function(new IsNullFunction(), _other, null), function(new NotFunction(), eq, null)));
+    }
+
+    private ConcreteFunction function(ConcreteFunction fn, Selectable left, Selectable right) {
+        fn.addArgument(left);
+        if (right != null) {
+            fn.addArgument(right);
+        }
+        return fn;
+    }
+
+    /** Evaluates <i>sel </i> and its compiled form against every row, NULLs included. */
+    private void assertSameResults(Selectable sel) throws Exception {
+        Selectable compiled = new CompileSelectableVisitor(_decorator).visit(sel);
+        assertNotSame(sel, compiled);
+        for (int i = 0; i < ROWS.length; i++) {
+            _decorator.setRow(new SimpleRow(ROWS[i]));
+            assertEquals(sel + " on row " + i, sel.evaluate(_decorator), compiled.evaluate(_decorator));
+        }
+    }
+
+    private static final Object[][] ROWS = new Object[][] {
+            { new Integer(1), "a", new BigDecimal("1.50"), new Integer(1)},
+            { new Integer(2), "b", new BigDecimal("2.50"), new Integer(3)},
+            { new Integer(3), "3", new BigDecimal("0.00"), null},
+            { null, null, null, new Integer(4)},
+            { new Integer(4), "", new BigDecimal("9.99"), new Integer(4)}};
+
+    private RowDecorator _decorator;
+    private ColumnIdentifier _id;
+    private ColumnIdentifier _name;
+    private ColumnIdentifier _other;
+    private ColumnIdentifier _price;
+}
@@ -0,0 +1,97 @@
+/*
+ * 
+ * =======================================================================
+ * Copyright (c) 2002-2005 Axion Development Team.  All rights reserved.
+ *  
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions 
+ * are met:
+ * 
+ * 1. Redistributions of source code must retain the above 
+ *    copyright notice, this list of conditions and the following 
+ *    disclaimer. 
+ *   
+ * 2. Redistributions in binary form must reproduce the above copyright 
+ *    notice, this list of conditions and the following disclaimer in 
+ *    the documentation and/or other materials provided with the 
+ *    distribution. 
+ *   
+ * 3. The names "Tigris", "Axion", nor the names of its contributors may 
+ *    not be used to endorse or promote products derived from this 
+ *    software without specific prior written permission. 
+ *  
+ * 4. Products derived from this software may not be called "Axion", nor 
+ *    may "Tigris" or "Axion" appear in their names without specific prior
+ *    written permission.
+ *   
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT 
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, 
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT 
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * =======================================================================
+ */
+
+package org.axiondb.io;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+import org.axiondb.AbstractDbdirTest;
+import org.axiondb.engine.DiskDatabase;
+import org.axiondb.jdbc.AxionConnection;
+
+/**
+ * @version  
+ */
+public class TestByteStreamTokenizer extends AbstractDbdirTest {
+
+    public TestByteStreamTokenizer(String testName) {
+        super(testName);
+    }
+
+    public void testEachByteIsOneCharacter() throws Exception {
+        StringBuffer longName = new StringBuffer();
+        for (int i = 0; i < 600; i++) {
+            longName.append((char) ('a' + i % 26));
+        }
+        String[] names = { "caf\u00e9", "\u00ff x \u0080", longName.toString(), "plain" };
+
+        File data = new File(getDbdir(), "data.csv");
+        OutputStream out = new FileOutputStream(data);
+        for (int i = 0; i < names.length; i++) {
+            out.write((i + ",\"" + names[i] + "\"\n").getBytes("ISO-8859-1"));
+        }
+        out.close();
+
+        DiskDatabase db = new DiskDatabase(getDbdir());
+        Connection conn = new AxionConnection(db);
+        try {
+            Statement stmt = conn.createStatement();
+            stmt.execute("create external table D ( id integer, name varchar(1000) ) organization(loadtype='delimited' filename='"
+                + data.getAbsolutePath() + "' qualifier='\"' recorddelimiter='\\n')");
+            ResultSet rs = stmt.executeQuery("select id, name from D");
+            for (int i = 0; i < names.length; i++) {
+                assertTrue(rs.next());
+                assertEquals(i, rs.getInt(1));
+                assertEquals(names[i], rs.getString(2));
+            }
+            assertFalse(rs.next());
+            rs.close();
+            stmt.close();
+        } finally {
+            conn.close();
+            db.shutdown();
+        }
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * 
+ * =======================================================================
+ * Copyright (c) 2002-2005 Axion Development Team.  All rights reserved.
+ *  
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions 
+ * are met:
+ * 
+ * 1. Redistributions of source code must retain the above 
+ *    copyright notice, this list of conditions and the following 
+ *    disclaimer. 
+ *   
+ * 2. Redistributions in binary form must reproduce the above copyright 
+ *    notice, this list of conditions and the following disclaimer in 
+ *    the documentation and/or other materials provided with the 
+ *    distribution. 
+ *   
+ * 3. The names "Tigris", "Axion", nor the names of its contributors may 
+ *    not be used to endorse or promote products derived from this 
+ *    software without specific prior written permission. 
+ *  
+ * 4. Products derived from this software may not be called "Axion", nor 
+ *    may "Tigris" or "Axion" appear in their names without specific prior
+ *    written permission.
+ *   
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT 
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, 
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT 
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * =======================================================================
+ */
+
+package org.axiondb.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import junit.framework.TestCase;
+
+/**
+ * @version  
+ */
+public class TestMappedFile extends TestCase {
+
+    public TestMappedFile(String testName) {
+        super(testName);
+    }
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        _file = new File(new File("target"), "mappedfile.dat");
+        _file.getParentFile().mkdirs();
+        _file.delete();
+        _raf = new RandomAccessFile(_file, "rw");
+    }
+
+    protected void tearDown() throws Exception {
+        _raf.close();
+        _file.delete();
+        super.tearDown();
+    }
+
+    public void testAppendsAreMapped() throws Exception {
+        appendLongs(0, 10);
+        MappedFile mapped = new MappedFile(_file, SEGMENT_SIZE);
+        try {
+            assertEquals(9L, mapped.readLong(9 * 8L));
+            assertEquals(80L, mapped.length());
+
+            // crosses the boundary of the partly mapped tail segment
+            appendLongs(10, 40);
+            assertEquals(39L, mapped.readLong(39 * 8L));
+            assertEquals(12L, mapped.readLong(12 * 8L));
+            assertEquals(320L, mapped.length());
+
+            try {
+                mapped.readLong(40 * 8L);
+                fail("Expected EOFException");
+            } catch (java.io.EOFException e) {
+                // expected
+            }
+        } finally {
+            mapped.close();
+        }
+    }
+
+    public void testInvalidateAfterOverwrite() throws Exception {
+        appendLongs(0, 40);
+        MappedFile mapped = new MappedFile(_file, SEGMENT_SIZE);
+        try {
+            assertEquals(3L, mapped.readLong(3 * 8L));
+            _raf.seek(3 * 8L);
+            _raf.writeLong(-3L);
+            mapped.invalidate();
+            assertEquals(0L, mapped.length());
+            assertEquals(-3L, mapped.readLong(3 * 8L));
+            assertEquals(39L, mapped.readLong(39 * 8L));
+        } finally {
+            mapped.close();
+        }
+    }
+
+    public void testTruncateRequiresInvalidate() throws Exception {
+        appendLongs(0, 40);
+        MappedFile mapped = new MappedFile(_file, SEGMENT_SIZE);
+        try {
+            assertEquals(39L, mapped.readLong(39 * 8L));
+            mapped.invalidate();
+
+            _raf.setLength(10 * 8L);
+            appendLongs(10, 20);
+            assertEquals(19L, mapped.readLong(19 * 8L));
+
+            // cut back again without dropping the mapping
+            _raf.setLength(8 * 8L);
+            try {
+                mapped.readLong(30 * 8L);
+                fail("Expected IOException");
+            } catch (IOException e) {
+                assertTrue(e.getMessage(), e.getMessage().indexOf("cut back") != -1);
+            }
+            mapped.invalidate();
+            assertEquals(7L, mapped.readLong(7 * 8L));
+        } finally {
+            mapped.close();
+        }
+    }
+
+    public void testReadsAcrossSegments() throws Exception {
+        _raf.write(new byte[] { 0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17, 18, 19 });
+        MappedFile mapped = new MappedFile(_file, 16);
+        try {
+            assertEquals(0x0C0D0E0F10111213L, mapped.readLong(12));
+            assertEquals(0x0E0F1011, mapped.readInt(14));
+            byte[] b = new byte[10];
+            mapped.readFully(10, b, 0, 10);
+            for (int i = 0; i < b.length; i++) {
+                assertEquals(10 + i, b[i]);
+            }
+        } finally {
+            mapped.close();
+        }
+    }
+
+    private void appendLongs(int from, int to) throws IOException {
+        _raf.seek(_raf.length());
+        for (int i = from; i < to; i++) {
+            _raf.writeLong(i);
+        }
+    }
+
+    private static final int SEGMENT_SIZE = 128;
+    private File _file;
+    private RandomAccessFile _raf;
+}
@@ -0,0 +1,183 @@
+/*
+ * 
+ * =======================================================================
+ * Copyright (c) 2002-2005 Axion Development Team.  All rights reserved.
+ *  
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions 
+ * are met:
+ * 
+ * 1. Redistributions of source code must retain the above 
+ *    copyright notice, this list of conditions and the following 
+ *    disclaimer. 
+ *   
+ * 2. Redistributions in binary form must reproduce the above copyright 
+ *    notice, this list of conditions and the following disclaimer in 
+ *    the documentation and/or other materials provided with the 
+ *    distribution. 
+ *   
+ * 3. The names "Tigris", "Axion", nor the names of its contributors may 
+ *    not be used to endorse or promote products derived from this 
+ *    software without specific prior written permission. 
+ *  
+ * 4. Products derived from this software may not be called "Axion", nor 
+ *    may "Tigris" or "Axion" appear in their names without specific prior
+ *    written permission.
+ *   
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT 
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, 
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT 
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * =======================================================================
+ */
+
+package org.axiondb.io;
+
+import java.io.File;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+/**
+ * @version  
+ */
+public class TestPagedFile extends TestCase {
+
+    public TestPagedFile(String testName) {
+        super(testName);
+    }
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        _dir = new File(new File("target"), "pagedfile");
+        deleteDir();
+        _dir.mkdirs();
+    }
+
+    protected void tearDown() throws Exception {
+        deleteDir();
+        super.tearDown();
+    }
+
+    public void testAttachMovesTemporaryPages() throws Exception {
+        PagedFile paged = new PagedFile(PAGE_SIZE);
+        assertTrue(paged.isTemporary());
+        File temp = paged.getFile();
+        assertTrue(temp.exists());
+        for (int i = 0; i < 5; i++) {
+            assertEquals(i, paged.allocate());
+            paged.write(i, page(i));
+        }
+
+        File file = new File(_dir, "T.PAGES");
+        paged.attach(file);
+        assertFalse(paged.isTemporary());
+        assertFalse(temp.exists());
+        assertEquals(file, paged.getFile());
+        assertPages(paged, 5);
+        paged.close();
+        assertTrue(file.exists());
+
+        paged = new PagedFile(file, PAGE_SIZE);
+        assertPages(paged, 5);
+        paged.close();
+    }
+
+    public void testAttachReplacesExistingFile() throws Exception {
+        File file = new File(_dir, "T.PAGES");
+        PagedFile old = new PagedFile(file, PAGE_SIZE);
+        for (int i = 0; i < 9; i++) {
+            old.allocate();
+        }
+        old.close();
+
+        PagedFile paged = new PagedFile(PAGE_SIZE);
+        for (int i = 0; i < 3; i++) {
+            paged.allocate();
+            paged.write(i, page(i));
+        }
+        paged.attach(file);
+        paged.close();
+
+        paged = new PagedFile(file, PAGE_SIZE);
+        assertPages(paged, 3);
+        paged.close();
+    }
+
+    public void testAttachToAnotherFile() throws Exception {
+        File file = new File(_dir, "T.PAGES");
+        PagedFile paged = new PagedFile(file, PAGE_SIZE);
+        for (int i = 0; i < 4; i++) {
+            paged.allocate();
+            paged.write(i, page(i));
+        }
+
+        // copied when the new file doesn't exist, reopened when it does
+        File other = new File(new File(_dir, "U"), "U.PAGES");
+        paged.attach(other);
+        assertTrue(file.exists());
+        assertPages(paged, 4);
+        paged.attach(file);
+        assertEquals(file, paged.getFile());
+        assertPages(paged, 4);
+        paged.close();
+    }
+
+    public void testTruncate() throws Exception {
+        PagedFile paged = new PagedFile(PAGE_SIZE);
+        for (int i = 0; i < 6; i++) {
+            paged.allocate();
+            paged.write(i, page(i));
+        }
+        paged.truncate(2);
+        assertEquals(2, paged.getPageCount());
+        assertPages(paged, 2);
+        try {
+            paged.read(2, new byte[PAGE_SIZE]);
+            fail("Expected IOException");
+        } catch (java.io.IOException e) {
+            // expected
+        }
+        File temp = paged.getFile();
+        paged.close();
+        assertFalse(temp.exists());
+    }
+
+    private void assertPages(PagedFile paged, int count) throws Exception {
+        assertEquals(count, paged.getPageCount());
+        byte[] buf = new byte[PAGE_SIZE];
+        for (int i = 0; i < count; i++) {
+            paged.read(i, buf);
+            assertTrue(Arrays.equals(page(i), buf));
+        }
+    }
+
+    private static byte[] page(int pageId) {
+        byte[] page = new byte[PAGE_SIZE];
+        for (int i = 0; i < page.length; i++) {
+            page[i] = (byte) (pageId * 31 + i);
+        }
+        return page;
+    }
+
+    private void deleteDir() {
+        File[] dirs = { new File(_dir, "U"), _dir };
+        for (int d = 0; d < dirs.length; d++) {
+            File[] files = dirs[d].listFiles();
+            for (int i = 0; files != null && i < files.length; i++) {
+                files[i].delete();
+            }
+            dirs[d].delete();
+        }
+    }
+
+    private static final int PAGE_SIZE = 128;
+    private File _dir;
+}
@@ -0,0 +1,200 @@
+/*
+ * 
+ * =======================================================================
+ * Copyright (c) 2002-2005 Axion Development Team.  All rights reserved.
+ *  
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions 
+ * are met:
+ * 
+ * 1. Redistributions of source code must retain the above 
+ *    copyright notice, this list of conditions and the following 
+ *    disclaimer. 
+ *   
+ * 2. Redistributions in binary form must reproduce the above copyright 
+ *    notice, this list of conditions and the following disclaimer in 
+ *    the documentation and/or other materials provided with the 
+ *    distribution. 
+ *   
+ * 3. The names "Tigris", "Axion", nor the names of its contributors may 
+ *    not be used to endorse or promote products derived from this 
+ *    software without specific prior written permission. 
+ *  
+ * 4. Products derived from this software may not be called "Axion", nor 
+ *    may "Tigris" or "Axion" appear in their names without specific prior
+ *    written permission.
+ *   
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT 
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, 
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT 
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * =======================================================================
+ */
+
+package org.axiondb.jdbc;
+
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.axiondb.AbstractDbdirTest;
+import org.axiondb.engine.DiskDatabase;
+import org.axiondb.engine.commands.InsertCommand;
+
+/**
+ * @version  
+ */
+public class TestBulkInsert extends AbstractDbdirTest {
+
+    public TestBulkInsert(String testName) {
+        super(testName);
+    }
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        open();
+        execute("create table T ( id integer primary key, name varchar(10) )");
+    }
+
+    protected void tearDown() throws Exception {
+        close();
+        super.tearDown();
+    }
+
+    public void testAppendHint() throws Exception {
+        assertTrue(InsertCommand.isAppendHinted("insert /*+ APPEND */ into T values ( 1, 'a' )"));
+        assertTrue(InsertCommand.isAppendHinted(" INSERT/*+ parallel append */ into T values ( 1, 'a' )"));
+        assertFalse(InsertCommand.isAppendHinted("insert /* APPEND */ into T values ( 1, 'a' )"));
+        assertFalse(InsertCommand.isAppendHinted("insert into T values ( 1, '/*+ APPEND */' )"));
+        assertFalse(InsertCommand.isAppendHinted("select /*+ APPEND */ * from T"));
+    }
+
+    public void testAppendHintedInsertIsCheckedAtCommit() throws Exception {
+        execute("insert /*+ APPEND */ into T values ( 1, 'a' )");
+        try {
+            execute("insert /*+ APPEND */ into T values ( 1, 'b' )");
+            fail("Expected SQLException");
+        } catch (SQLException e) {
+            // expected, the duplicate key is found as the statement commits
+        }
+        assertEquals(1, count("select count(*) from T"));
+
+        _conn.setAutoCommit(false);
+        execute("insert /*+ APPEND */ into T values ( 2, 'a' )");
+        execute("insert /*+ APPEND */ into T values ( 2, 'b' )");
+        try {
+            _conn.commit();
+            fail("Expected SQLException");
+        } catch (SQLException e) {
+            // expected
+        }
+        _conn.rollback();
+        _conn.setAutoCommit(true);
+        assertEquals(1, count("select count(*) from T"));
+    }
+
+    public void testLaterStatementsAreCheckedRowByRow() throws Exception {
+        _conn.setAutoCommit(false);
+        execute("insert /*+ APPEND */ into T values ( 3, 'a' )");
+        try {
+            execute("insert into T values ( 3, 'b' )");
+            fail("Expected SQLException");
+        } catch (SQLException e) {
+            // expected, as the row is inserted
+        }
+        _conn.commit();
+        assertEquals(1, count("select count(*) from T where id = 3"));
+
+        // rows appended earlier in the transaction are still checked at commit
+        execute("insert /*+ APPEND */ into T values ( 4, 'a' )");
+        execute("insert /*+ APPEND */ into T values ( 4, 'b' )");
+        execute("insert into T values ( 5, 'c' )");
+        try {
+            _conn.commit();
+            fail("Expected SQLException");
+        } catch (SQLException e) {
+            // expected
+        }
+        _conn.rollback();
+        _conn.setAutoCommit(true);
+        assertEquals(0, count("select count(*) from T where id > 3"));
+    }
+
+    public void testLargeBatchIsCheckedAndIndexed() throws Exception {
+        assertEquals(BATCH_SIZE, insertBatch(0, BATCH_SIZE).length);
+
+        try {
+            insertBatch(BATCH_SIZE - 1, BATCH_SIZE);
+            fail("Expected BatchUpdateException");
+        } catch (BatchUpdateException e) {
+            // expected, one row repeats a key of the first batch
+        }
+        assertEquals(BATCH_SIZE, count("select count(*) from T"));
+
+        // the first batch was applied by rebuilding the primary key index
+        close();
+        open();
+        for (int i = 0; i < BATCH_SIZE; i += 97) {
+            assertEquals(1, count("select count(*) from T where id = " + i));
+        }
+        assertEquals(0, count("select count(*) from T where id = " + BATCH_SIZE));
+    }
+
+    private void open() throws Exception {
+        _db = new DiskDatabase(getDbdir());
+        _conn = new AxionConnection(_db);
+    }
+
+    private void close() throws Exception {
+        _conn.close();
+        _db.shutdown();
+    }
+
+    private int count(String sql) throws Exception {
+        Statement stmt = _conn.createStatement();
+        ResultSet rs = stmt.executeQuery(sql);
+        assertTrue(rs.next());
+        int count = rs.getInt(1);
+        rs.close();
+        stmt.close();
+        return count;
+    }
+
+    private void execute(String sql) throws Exception {
+        Statement stmt = _conn.createStatement();
+        try {
+            stmt.execute(sql);
+        } finally {
+            stmt.close();
+        }
+    }
+
+    private int[] insertBatch(int first, int count) throws Exception {
+        PreparedStatement stmt = _conn.prepareStatement("insert into T values ( ?, ? )");
+        try {
+            for (int i = first; i < first + count; i++) {
+                stmt.setInt(1, i);
+                stmt.setString(2, "n" + i);
+                stmt.addBatch();
+            }
+            return stmt.executeBatch();
+        } finally {
+            stmt.close();
+        }
+    }
+
+    private static final int BATCH_SIZE = 1500;
+
+    private Connection _conn;
+    private DiskDatabase _db;
+}
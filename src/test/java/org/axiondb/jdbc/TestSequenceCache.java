@@ -0,0 +1,201 @@
+/*
+ * 
+ * =======================================================================
+ * Copyright (c) 2002-2005 Axion Development Team.  All rights reserved.
+ *  
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions 
+ * are met:
+ * 
+ * 1. Redistributions of source code must retain the above 
+ *    copyright notice, this list of conditions and the following 
+ *    disclaimer. 
+ *   
+ * 2. Redistributions in binary form must reproduce the above copyright 
+ *    notice, this list of conditions and the following disclaimer in 
+ *    the documentation and/or other materials provided with the 
+ *    distribution. 
+ *   
+ * 3. The names "Tigris", "Axion", nor the names of its contributors may 
+ *    not be used to endorse or promote products derived from this 
+ *    software without specific prior written permission. 
+ *  
+ * 4. Products derived from this software may not be called "Axion", nor 
+ *    may "Tigris" or "Axion" appear in their names without specific prior
+ *    written permission.
+ *   
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT 
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, 
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT 
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * =======================================================================
+ */
+package org.axiondb.jdbc;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.axiondb.AbstractDbdirTest;
+import org.axiondb.engine.DiskDatabase;
+import org.axiondb.engine.commands.CreateSequenceCommand;
+
+/**
+ * @version  
+ */
+public class TestSequenceCache extends AbstractDbdirTest {
+
+    public TestSequenceCache(String testName) {
+        super(testName);
+    }
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        open();
+    }
+
+    protected void tearDown() throws Exception {
+        close();
+        super.tearDown();
+    }
+
+    public void testCacheOption() throws Exception {
+        assertEquals("20", CreateSequenceCommand.getCacheOption("create sequence S start with 1 cache 20"));
+        assertEquals("create sequence S start with 1", CreateSequenceCommand.removeCacheOption(
+            "create sequence S start with 1 cache 20").trim());
+        assertEquals("1", CreateSequenceCommand.getCacheOption(" ALTER SEQUENCE S NOCACHE;"));
+        assertEquals("5", CreateSequenceCommand.getCacheOption(
+            "create table T ( id integer generated always as identity start with 3 cache 5, cache varchar(5) )"));
+        assertEquals("create table T ( id integer generated always as identity , cache varchar(5) )",
+            CreateSequenceCommand.removeCacheOption(
+            "create table T ( id integer generated always as identity cache 5, cache varchar(5) )"));
+
+        assertNull(CreateSequenceCommand.getCacheOption("create sequence NOCACHE"));
+        assertNull(CreateSequenceCommand.getCacheOption("create sequence S start with 1"));
+        assertNull(CreateSequenceCommand.getCacheOption("create table T ( cache integer, nocache integer )"));
+        assertNull(CreateSequenceCommand.getCacheOption("select cache 20 from T"));
+    }
+
+    public void testCacheSizeIsSet() throws Exception {
+        execute("create sequence S start with 1 cache 20");
+        assertEquals(20, _db.getSequence("S").getCacheSize());
+        execute("alter sequence S nocache");
+        assertEquals(1, _db.getSequence("S").getCacheSize());
+        execute("alter sequence S increment by 2 cache 7");
+        assertEquals(7, _db.getSequence("S").getCacheSize());
+        assertEquals(2, _db.getSequence("S").getIncrementBy().intValue());
+
+        execute("create table T ( id integer generated always as identity start with 1 cache 5, name varchar(10) )");
+        assertEquals(5, _db.getTable("T").getSequence().getCacheSize());
+
+        close();
+        open();
+        assertEquals(7, _db.getSequence("S").getCacheSize());
+        assertEquals(5, _db.getTable("T").getSequence().getCacheSize());
+    }
+
+    public void testRestartLosesAtMostOneBlock() throws Exception {
+        execute("create sequence S start with 1 cache 10");
+        int last = 0;
+        for (int i = 0; i < 25; i++) {
+            int value = nextval();
+            assertEquals(last + 1, value);
+            last = value;
+        }
+
+        close();
+        open();
+        int next = nextval();
+        assertTrue("reused " + next, next > last);
+        assertTrue("skipped to " + next, next <= last + 10);
+        assertEquals(next + 1, nextval());
+    }
+
+    public void testConcurrentNextvalIsUnique() throws Exception {
+        execute("create sequence S start with 1 cache 16");
+        final Set values = new HashSet();
+        final Exception[] failure = new Exception[1];
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                @SuppressWarnings("unchecked")
+                public void run() {
+                    try {
+                        Connection conn = new AxionConnection(_db);
+                        try {
+                            for (int j = 0; j < NEXTVALS; j++) {
+                                Integer value = new Integer(nextval(conn));
+                                synchronized (values) {
+                                    assertTrue("duplicate " + value, values.add(value));
+                                }
+                            }
+                        } finally {
+                            conn.close();
+                        }
+                    } catch (Exception e) {
+                        failure[0] = e;
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (int i = 0; i < threads.length; i++) {
+            threads[i].join();
+        }
+        if (null != failure[0]) {
+            throw failure[0];
+        }
+        assertEquals(threads.length * NEXTVALS, values.size());
+        for (int i = 1; i <= values.size(); i++) {
+            assertTrue("missing " + i, values.contains(new Integer(i)));
+        }
+    }
+
+    private void open() throws Exception {
+        _db = new DiskDatabase(getDbdir());
+        _conn = new AxionConnection(_db);
+    }
+
+    private void close() throws Exception {
+        _conn.close();
+        _db.shutdown();
+    }
+
+    private void execute(String sql) throws Exception {
+        Statement stmt = _conn.createStatement();
+        try {
+            stmt.execute(sql);
+        } finally {
+            stmt.close();
+        }
+    }
+
+    private int nextval() throws Exception {
+        return nextval(_conn);
+    }
+
+    private static int nextval(Connection conn) throws Exception {
+        Statement stmt = conn.createStatement();
+        try {
+            ResultSet rs = stmt.executeQuery("select next value for S");
+            assertTrue(rs.next());
+            return rs.getInt(1);
+        } finally {
+            stmt.close();
+        }
+    }
+
+    private static final int NEXTVALS = 200;
+
+    private Connection _conn;
+    private DiskDatabase _db;
+}
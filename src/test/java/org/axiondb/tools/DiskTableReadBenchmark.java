@@ -0,0 +1,159 @@
+/*
+ * 
+ * =======================================================================
+ * Copyright (c) 2002-2005 Axion Development Team.  All rights reserved.
+ *  
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions 
+ * are met:
+ * 
+ * 1. Redistributions of source code must retain the above 
+ *    copyright notice, this list of conditions and the following 
+ *    disclaimer. 
+ *   
+ * 2. Redistributions in binary form must reproduce the above copyright 
+ *    notice, this list of conditions and the following disclaimer in 
+ *    the documentation and/or other materials provided with the 
+ *    distribution. 
+ *   
+ * 3. The names "Tigris", "Axion", nor the names of its contributors may 
+ *    not be used to endorse or promote products derived from this 
+ *    software without specific prior written permission. 
+ *  
+ * 4. Products derived from this software may not be called "Axion", nor 
+ *    may "Tigris" or "Axion" appear in their names without specific prior
+ *    written permission.
+ *   
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT 
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, 
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT 
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * =======================================================================
+ */
+
+package org.axiondb.tools;
+
+import java.io.File;
+import java.util.Random;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.axiondb.AxionException;
+import org.axiondb.Table;
+import org.axiondb.engine.DiskDatabase;
+import org.axiondb.engine.rows.SimpleRow;
+import org.axiondb.engine.tables.BaseDiskTable;
+import org.axiondb.parser.AxionSqlParser;
+
+/**
+ * Measures random row fetch throughput of a disk table for each
+ * {@link BaseDiskTable#getReadMode read mode}, with a growing number of concurrent
+ * readers.
+ * <p>
+ * Use: <pre>DiskTableReadBenchmark &lt;database-directory&gt; [rows] [max-threads] [seconds]</pre>
+ * A table named <code>READ_BENCHMARK</code> is created (and filled) in the given database
+ * if it does not exist yet.
+ * 
+ * @version  
+ */
+public class DiskTableReadBenchmark {
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            System.err.println("Compares disk table read throughput across read modes");
+            System.err.println("Arguments: <database-directory> [rows] [max-threads] [seconds]");
+            return;
+        }
+        int rows = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+        int maxThreads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        int seconds = args.length > 3 ? Integer.parseInt(args[3]) : 5;
+        try {
+            run(new File(args[0]), rows, maxThreads, seconds);
+        } catch (Exception e) {
+            _log.log(Level.SEVERE, "Exception while running benchmark: ", e);
+            System.err.println("Benchmark failed: " + e.getMessage());
+        }
+    }
+
+    public static void run(File dbDir, int rows, int maxThreads, int seconds) throws Exception {
+        DiskDatabase db = new DiskDatabase(dbDir);
+        try {
+            BaseDiskTable table = createTable(db, rows);
+            String[] modes = new String[] { BaseDiskTable.READ_MODE_STREAM, BaseDiskTable.READ_MODE_CHANNEL, BaseDiskTable.READ_MODE_MMAP};
+            StringBuffer header = new StringBuffer("threads");
+            for (int m = 0; m < modes.length; m++) {
+                header.append('\t').append(modes[m]);
+            }
+            System.out.println(header.append("\t(rows/sec)"));
+            for (int threads = 1; threads <= maxThreads; threads *= 2) {
+                StringBuffer line = new StringBuffer().append(threads);
+                for (int m = 0; m < modes.length; m++) {
+                    table.setReadMode(modes[m]);
+                    line.append('\t').append(measure(table, threads, seconds * 1000L));
+                }
+                System.out.println(line);
+            }
+        } finally {
+            db.shutdown();
+        }
+    }
+
+    private static BaseDiskTable createTable(DiskDatabase db, int rows) throws AxionException {
+        if (!db.hasTable(TABLE_NAME)) {
+            new AxionSqlParser().parse("create table " + TABLE_NAME + " ( id integer, name varchar(50), amount double )").execute(db);
+            Table table = db.getTable(TABLE_NAME);
+            for (int i = 0; i < rows; i++) {
+                table.addRow(new SimpleRow(new Object[] { new Integer(i), "name of row " + i, new Double(i * 1.5)}));
+            }
+            db.checkpoint();
+        }
+        return (BaseDiskTable) db.getTable(TABLE_NAME);
+    }
+
+    private static long measure(final BaseDiskTable table, int threads, final long millis) throws Exception {
+        final int rowCount = table.getRowCount();
+        final long[] counts = new long[threads];
+        final Exception[] failure = new Exception[1];
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int slot = t;
+            workers[t] = new Thread() {
+                public void run() {
+                    Random random = new Random(slot);
+                    long end = System.currentTimeMillis() + millis;
+                    try {
+                        while (System.currentTimeMillis() < end) {
+                            for (int i = 0; i < 1000; i++) {
+                                table.getRow(random.nextInt(rowCount));
+                            }
+                            counts[slot] += 1000;
+                        }
+                    } catch (Exception e) {
+                        failure[0] = e;
+                    }
+                }
+            };
+        }
+        for (int t = 0; t < threads; t++) {
+            workers[t].start();
+        }
+        long total = 0;
+        for (int t = 0; t < threads; t++) {
+            workers[t].join();
+            total += counts[t];
+        }
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+        return total * 1000L / millis;
+    }
+
+    private static final String TABLE_NAME = "READ_BENCHMARK";
+    private static Logger _log = Logger.getLogger(DiskTableReadBenchmark.class.getName());
+}
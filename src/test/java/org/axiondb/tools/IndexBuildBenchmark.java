@@ -0,0 +1,140 @@
+/*
+ * 
+ * =======================================================================
+ * Copyright (c) 2002-2005 Axion Development Team.  All rights reserved.
+ *  
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions 
+ * are met:
+ * 
+ * 1. Redistributions of source code must retain the above 
+ *    copyright notice, this list of conditions and the following 
+ *    disclaimer. 
+ *   
+ * 2. Redistributions in binary form must reproduce the above copyright 
+ *    notice, this list of conditions and the following disclaimer in 
+ *    the documentation and/or other materials provided with the 
+ *    distribution. 
+ *   
+ * 3. The names "Tigris", "Axion", nor the names of its contributors may 
+ *    not be used to endorse or promote products derived from this 
+ *    software without specific prior written permission. 
+ *  
+ * 4. Products derived from this software may not be called "Axion", nor 
+ *    may "Tigris" or "Axion" appear in their names without specific prior
+ *    written permission.
+ *   
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT 
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, 
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT 
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * =======================================================================
+ */
+package org.axiondb.tools;
+
+import java.io.File;
+import java.util.Random;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.axiondb.AxionException;
+import org.axiondb.Database;
+import org.axiondb.Index;
+import org.axiondb.Row;
+import org.axiondb.RowIterator;
+import org.axiondb.Table;
+import org.axiondb.engine.DiskDatabase;
+import org.axiondb.engine.MemoryDatabase;
+import org.axiondb.engine.rows.SimpleRow;
+import org.axiondb.event.RowInsertedEvent;
+import org.axiondb.parser.AxionSqlParser;
+
+/**
+ * Measures how long each {@link Index}type takes to index a table of random values,
+ * building it once {@link Index#populate in bulk}and once by {@link Index#rowInserted
+ * inserting}each row in turn.
+ * <p>
+ * Use: <pre>IndexBuildBenchmark &lt;database-directory&gt;|memory [rows]</pre>
+ * A table named <code>INDEX_BENCHMARK</code> is created (and filled) in the given database
+ * if it does not exist yet.
+ * 
+ * @version  
+ */
+public class IndexBuildBenchmark {
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            System.err.println("Compares bulk and row-by-row index build times");
+            System.err.println("Arguments: <database-directory>|memory [rows]");
+            return;
+        }
+        int rows = args.length > 1 ? Integer.parseInt(args[1]) : 300000;
+        try {
+            run("memory".equals(args[0]) ? null : new File(args[0]), rows);
+        } catch (Exception e) {
+            _log.log(Level.SEVERE, "Exception while running benchmark: ", e);
+            System.err.println("Benchmark failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @param dbDir the database directory, or <code>null</code> for a memory database
+     */
+    public static void run(File dbDir, int rows) throws Exception {
+        Database db = (dbDir == null) ? (Database) new MemoryDatabase("INDEX_BENCHMARK") : new DiskDatabase(dbDir);
+        try {
+            Table table = createTable(db, rows);
+            String[] types = new String[] { Index.ARRAY, Index.BTREE, Index.PAGED_BTREE};
+            String[] columns = new String[] { "ID", "NAME"};
+            System.out.println("index\tcolumn\tinsert\tpopulate\t(ms)");
+            for (int t = 0; t < types.length; t++) {
+                for (int c = 0; c < columns.length; c++) {
+                    long inserted = measure(db, table, types[t], columns[c], false);
+                    long populated = measure(db, table, types[t], columns[c], true);
+                    System.out.println(types[t] + "\t" + columns[c] + "\t" + inserted + "\t" + populated);
+                }
+            }
+        } finally {
+            db.shutdown();
+        }
+    }
+
+    private static Table createTable(Database db, int rows) throws AxionException {
+        if (!db.hasTable(TABLE_NAME)) {
+            new AxionSqlParser().parse("create table " + TABLE_NAME + " ( id integer, name varchar(50) )").execute(db);
+            Table table = db.getTable(TABLE_NAME);
+            Random random = new Random(rows);
+            for (int i = 0; i < rows; i++) {
+                int value = random.nextInt(rows);
+                table.addRow(new SimpleRow(new Object[] { new Integer(value), "name of row " + value}));
+            }
+            db.checkpoint();
+        }
+        return db.getTable(TABLE_NAME);
+    }
+
+    private static long measure(Database db, Table table, String type, String column, boolean bulk) throws Exception {
+        Index index = db.getIndexFactory(type).makeNewInstance(type + "_" + column, table.getColumn(column), false,
+            db instanceof MemoryDatabase);
+        RowIterator rows = table.getRowIterator(true);
+        long start = System.currentTimeMillis();
+        if (bulk) {
+            index.populate(table, rows);
+        } else {
+            while (rows.hasNext()) {
+                Row row = rows.next();
+                index.rowInserted(new RowInsertedEvent(table, null, row));
+            }
+        }
+        return System.currentTimeMillis() - start;
+    }
+
+    private static final String TABLE_NAME = "INDEX_BENCHMARK";
+    private static Logger _log = Logger.getLogger(IndexBuildBenchmark.class.getName());
+}
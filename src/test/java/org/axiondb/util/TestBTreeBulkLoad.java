@@ -0,0 +1,243 @@
+/*
+ * 
+ * =======================================================================
+ * Copyright (c) 2002-2005 Axion Development Team.  All rights reserved.
+ *  
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions 
+ * are met:
+ * 
+ * 1. Redistributions of source code must retain the above 
+ *    copyright notice, this list of conditions and the following 
+ *    disclaimer. 
+ *   
+ * 2. Redistributions in binary form must reproduce the above copyright 
+ *    notice, this list of conditions and the following disclaimer in 
+ *    the documentation and/or other materials provided with the 
+ *    distribution. 
+ *   
+ * 3. The names "Tigris", "Axion", nor the names of its contributors may 
+ *    not be used to endorse or promote products derived from this 
+ *    software without specific prior written permission. 
+ *  
+ * 4. Products derived from this software may not be called "Axion", nor 
+ *    may "Tigris" or "Axion" appear in their names without specific prior
+ *    written permission.
+ *   
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT 
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, 
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT 
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * =======================================================================
+ */
+package org.axiondb.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.collections.primitives.ArrayIntList;
+import org.apache.commons.collections.primitives.IntList;
+import org.apache.commons.collections.primitives.IntListIterator;
+import org.axiondb.types.CharacterVaryingType;
+
+/**
+ * Checks that a bulk loaded {@link IntBTree}or {@link ObjectBTree}holds the same
+ * entries, in the same order, as one built by inserting each row in turn.
+ * 
+ * @version  
+ */
+public class TestBTreeBulkLoad extends TestCase {
+
+    public TestBTreeBulkLoad(String testName) {
+        super(testName);
+    }
+
+    public void testIntBTree() throws Exception {
+        IntList keys = new ArrayIntList();
+        IntList rowids = new ArrayIntList();
+        for (int i = 0; i < COUNT; i++) {
+            keys.add(intKeyOf(i));
+            rowids.add(i);
+        }
+        IntBTree inserted = new IntBTree(null, "INSERTED", FACTOR);
+        for (int i = 0; i < COUNT; i++) {
+            inserted.insert(keys.get(i), rowids.get(i));
+        }
+        IntBTree loaded = new IntBTree(null, "LOADED", FACTOR);
+        loaded.bulkLoad(keys, rowids);
+        assertSameEntries(inserted, loaded);
+
+        // later inserts land alike
+        for (int i = COUNT; i < COUNT + 60; i++) {
+            inserted.insert(intKeyOf(i), i);
+            loaded.insert(intKeyOf(i), i);
+        }
+        assertSameEntries(inserted, loaded);
+    }
+
+    @SuppressWarnings("unchecked")
+    public void testObjectBTree() throws Exception {
+        List keys = new ArrayList();
+        IntList rowids = new ArrayIntList();
+        for (int i = 0; i < COUNT; i++) {
+            keys.add(stringKeyOf(i));
+            rowids.add(i);
+        }
+        ObjectBTree inserted = new ObjectBTree(null, "INSERTED", FACTOR, new CharacterVaryingType(10));
+        for (int i = 0; i < COUNT; i++) {
+            inserted.insert(keys.get(i), rowids.get(i));
+        }
+        ObjectBTree loaded = new ObjectBTree(null, "LOADED", FACTOR, new CharacterVaryingType(10));
+        loaded.bulkLoad(keys, rowids);
+        assertSameEntries(inserted, loaded);
+
+        for (int i = COUNT; i < COUNT + 60; i++) {
+            inserted.insert(stringKeyOf(i), i);
+            loaded.insert(stringKeyOf(i), i);
+        }
+        assertSameEntries(inserted, loaded);
+    }
+
+    public void testBulkLoadKeepsDuplicatesInRowOrder() throws Exception {
+        IntList keys = new ArrayIntList();
+        IntList rowids = new ArrayIntList();
+        for (int i = 0; i < COUNT; i++) {
+            keys.add(intKeyOf(i));
+            rowids.add(i);
+        }
+        IntBTree tree = new IntBTree(null, "LOADED", FACTOR);
+        tree.bulkLoad(keys, rowids);
+
+        int lastKey = 0;
+        int lastRowid = -1;
+        for (IntListIterator iter = tree.inorderIterator(); iter.hasNext();) {
+            int rowid = iter.next();
+            int key = intKeyOf(rowid);
+            if (lastRowid >= 0 && key == lastKey) {
+                assertTrue("rowid " + rowid + " after " + lastRowid, rowid > lastRowid);
+            }
+            lastKey = key;
+            lastRowid = rowid;
+        }
+    }
+
+    public void testBulkLoadOfNothing() throws Exception {
+        IntBTree tree = new IntBTree(null, "EMPTY", FACTOR);
+        tree.bulkLoad(new ArrayIntList(), new ArrayIntList());
+        assertEquals(0, tree.size());
+        assertFalse(tree.inorderIterator().hasNext());
+        tree.insert(1, 1);
+        assertEquals(new Integer(1), tree.get(1));
+    }
+
+    public void testBulkLoadRequiresAnEmptyTree() throws Exception {
+        IntBTree tree = new IntBTree(null, "FULL", FACTOR);
+        tree.insert(1, 1);
+        try {
+            tree.bulkLoad(new ArrayIntList(), new ArrayIntList());
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    private void assertSameEntries(IntBTree expected, IntBTree actual) throws Exception {
+        assertSameKeyOrder(expected.inorderIterator(), actual.inorderIterator(), false);
+        assertSameIds("non-null", expected.getAllExcludingNull(), actual.getAllExcludingNull());
+        assertSameIds("null", expected.getAll(NULL), actual.getAll(NULL));
+        for (int key = -1; key <= KEYS; key++) {
+            assertSameIds("key " + key, expected.getAll(key), actual.getAll(key));
+            assertEquals("key " + key, expected.get(key) == null, actual.get(key) == null);
+        }
+        for (int key = 0; key <= KEYS; key += KEYS / 4) {
+            assertSameIds("from " + key, expected.getAllFrom(key), actual.getAllFrom(key));
+            assertSameIds("to " + key, expected.getAllTo(key), actual.getAllTo(key));
+        }
+    }
+
+    private void assertSameEntries(ObjectBTree expected, ObjectBTree actual) throws Exception {
+        assertSameKeyOrder(expected.inorderIterator(), actual.inorderIterator(), true);
+        assertSameIds("non-null", expected.getAllExcludingNull(), actual.getAllExcludingNull());
+        assertSameIds("null", expected.getAll(NullObject.INSTANCE), actual.getAll(NullObject.INSTANCE));
+        for (int key = 0; key <= KEYS; key++) {
+            String value = "k" + key;
+            assertSameIds("key " + value, expected.getAll(value), actual.getAll(value));
+            assertEquals("key " + value, expected.get(value) == null, actual.get(value) == null);
+        }
+        for (int key = 0; key <= KEYS; key += KEYS / 4) {
+            String value = "k" + key;
+            assertSameIds("from " + value, expected.getAllFrom(value), actual.getAllFrom(value));
+            assertSameIds("to " + value, expected.getAllTo(value), actual.getAllTo(value));
+        }
+    }
+
+    /**
+     * Both trees must walk the same keys in the same order; rows sharing a key may
+     * come in any order, since splits leave incrementally inserted duplicates
+     * unordered.
+     */
+    private static void assertSameKeyOrder(IntListIterator expected, IntListIterator actual, boolean stringKeys) {
+        int[] expectedIds = toArray(expected);
+        int[] actualIds = toArray(actual);
+        assertEquals("inorder", expectedIds.length, actualIds.length);
+        for (int i = 0; i < expectedIds.length; i++) {
+            if (stringKeys) {
+                assertEquals("inorder: entry " + i, stringKeyOf(expectedIds[i]), stringKeyOf(actualIds[i]));
+            } else {
+                assertEquals("inorder: entry " + i, intKeyOf(expectedIds[i]), intKeyOf(actualIds[i]));
+            }
+        }
+        assertSameIds("inorder", expectedIds, actualIds);
+    }
+
+    private static void assertSameIds(String what, IntListIterator expected, IntListIterator actual) {
+        assertSameIds(what, toArray(expected), toArray(actual));
+    }
+
+    private static void assertSameIds(String what, int[] expected, int[] actual) {
+        Arrays.sort(expected);
+        Arrays.sort(actual);
+        assertTrue(what + ": expected " + Arrays.toString(expected) + " but was " + Arrays.toString(actual),
+            Arrays.equals(expected, actual));
+    }
+
+    private static int[] toArray(IntListIterator iter) {
+        IntList list = new ArrayIntList();
+        while (iter.hasNext()) {
+            list.add(iter.next());
+        }
+        return list.toArray();
+    }
+
+    private static boolean isNull(int rowid) {
+        return rowid % 17 == 0;
+    }
+
+    private static int intKeyOf(int rowid) {
+        return isNull(rowid) ? NULL : keyOf(rowid);
+    }
+
+    /** Scrambles the keys, giving each about three rows. */
+    private static int keyOf(int rowid) {
+        return (rowid * 7919) % KEYS;
+    }
+
+    private static Object stringKeyOf(int rowid) {
+        return isNull(rowid) ? (Object) NullObject.INSTANCE : "k" + keyOf(rowid);
+    }
+
+    private static final int COUNT = 2000;
+    private static final int FACTOR = 4;
+    private static final int KEYS = COUNT / 3;
+    private static final int NULL = NullObject.INSTANCE.intValue();
+}
@@ -0,0 +1,146 @@
+/*
+ * 
+ * =======================================================================
+ * Copyright (c) 2002-2005 Axion Development Team.  All rights reserved.
+ *  
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions 
+ * are met:
+ * 
+ * 1. Redistributions of source code must retain the above 
+ *    copyright notice, this list of conditions and the following 
+ *    disclaimer. 
+ *   
+ * 2. Redistributions in binary form must reproduce the above copyright 
+ *    notice, this list of conditions and the following disclaimer in 
+ *    the documentation and/or other materials provided with the 
+ *    distribution. 
+ *   
+ * 3. The names "Tigris", "Axion", nor the names of its contributors may 
+ *    not be used to endorse or promote products derived from this 
+ *    software without specific prior written permission. 
+ *  
+ * 4. Products derived from this software may not be called "Axion", nor 
+ *    may "Tigris" or "Axion" appear in their names without specific prior
+ *    written permission.
+ *   
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT 
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, 
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT 
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * =======================================================================
+ */
+
+package org.axiondb.util;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+/**
+ * @version  
+ */
+public class TestBufferPool extends TestCase {
+
+    public TestBufferPool(String testName) {
+        super(testName);
+    }
+
+    public void testDirtyPagesAreWrittenWhenEvicted() throws Exception {
+        Store store = new Store();
+        BufferPool pool = new BufferPool(16, store);
+        for (int i = 0; i < 40; i++) {
+            pool.add(i, "page" + i);
+            pool.unpin(i);
+        }
+        assertEquals(16, pool.getResidentPageCount());
+        assertEquals(24, store._writes);
+
+        // an evicted page comes back from the store as it was written
+        assertEquals("page0", pool.pin(0));
+        pool.unpin(0);
+        assertEquals(1, pool.getMissCount());
+
+        pool.flush();
+        assertEquals(0, pool.getDirtyPageCount());
+        for (int i = 0; i < 40; i++) {
+            assertEquals("page" + i, store._pages.get(Integer.valueOf(i)));
+        }
+    }
+
+    public void testCleanPagesAreNotWritten() throws Exception {
+        Store store = new Store();
+        for (int i = 0; i < 40; i++) {
+            store._pages.put(Integer.valueOf(i), "page" + i);
+        }
+        BufferPool pool = new BufferPool(16, store);
+        for (int i = 0; i < 40; i++) {
+            assertEquals("page" + i, pool.pin(i));
+            pool.unpin(i);
+        }
+        pool.markDirty(39);
+        pool.flush();
+        assertEquals(1, store._writes);
+    }
+
+    public void testPinnedPagesAreNotEvicted() throws Exception {
+        Store store = new Store();
+        BufferPool pool = new BufferPool(16, store);
+        for (int i = 0; i < 15; i++) {
+            pool.add(i, "page" + i);
+        }
+        for (int i = 15; i < 40; i++) {
+            pool.add(i, "page" + i);
+            pool.unpin(i);
+        }
+        for (int i = 0; i < 15; i++) {
+            assertEquals("page" + i, pool.pin(i));
+        }
+        assertEquals(15, pool.getHitCount());
+    }
+
+    public void testAllFramesPinned() throws Exception {
+        BufferPool pool = new BufferPool(16, new Store());
+        for (int i = 0; i < 16; i++) {
+            pool.add(i, "page" + i);
+        }
+        try {
+            pool.add(16, "page16");
+            fail("Expected IOException");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().indexOf("pinned") != -1);
+        }
+
+        pool.unpin(3);
+        pool.add(16, "page16");
+        assertEquals(16, pool.getResidentPageCount());
+    }
+
+    private static class Store implements BufferPool.PageStore {
+        public Object readPage(int pageId) throws IOException {
+            Object page = _pages.get(Integer.valueOf(pageId));
+            if (null == page) {
+                throw new IOException("No page " + pageId);
+            }
+            return page;
+        }
+
+        @SuppressWarnings("unchecked")
+        public void writePage(int pageId, Object page) {
+            _pages.put(Integer.valueOf(pageId), page);
+            _writes++;
+        }
+
+        private Map _pages = new HashMap();
+        private int _writes;
+    }
+}
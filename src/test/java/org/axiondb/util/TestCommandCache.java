@@ -0,0 +1,179 @@
+/*
+ * 
+ * =======================================================================
+ * Copyright (c) 2002-2005 Axion Development Team.  All rights reserved.
+ *  
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions 
+ * are met:
+ * 
+ * 1. Redistributions of source code must retain the above 
+ *    copyright notice, this list of conditions and the following 
+ *    disclaimer. 
+ *   
+ * 2. Redistributions in binary form must reproduce the above copyright 
+ *    notice, this list of conditions and the following disclaimer in 
+ *    the documentation and/or other materials provided with the 
+ *    distribution. 
+ *   
+ * 3. The names "Tigris", "Axion", nor the names of its contributors may 
+ *    not be used to endorse or promote products derived from this 
+ *    software without specific prior written permission. 
+ *  
+ * 4. Products derived from this software may not be called "Axion", nor 
+ *    may "Tigris" or "Axion" appear in their names without specific prior
+ *    written permission.
+ *   
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT 
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, 
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT 
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * =======================================================================
+ */
+
+package org.axiondb.util;
+
+import java.io.InputStream;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+import org.axiondb.AxionCommand;
+import org.axiondb.BindVariable;
+import org.axiondb.Database;
+import org.axiondb.engine.MemoryDatabase;
+import org.axiondb.engine.commands.SelectCommand;
+import org.axiondb.jdbc.AxionConnection;
+
+/**
+ * @version  
+ */
+public class TestCommandCache extends TestCase {
+
+    public TestCommandCache(String testName) {
+        super(testName);
+    }
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        Properties props = new Properties();
+        InputStream in = Database.class.getResourceAsStream("axiondb.properties");
+        try {
+            props.load(in);
+        } finally {
+            in.close();
+        }
+        props.setProperty("database.commandcachesize", "8");
+        _db = new MemoryDatabase("cachetest", props);
+        _conn = new AxionConnection(_db);
+        Statement stmt = _conn.createStatement();
+        stmt.execute("create table T ( id integer, name varchar(10) )");
+        for (int i = 0; i < 10; i++) {
+            stmt.execute("insert into T values ( " + i + ", 'n" + i + "' )");
+        }
+        stmt.close();
+        _cache = _db.getCommandCache();
+        _cache.clear();
+    }
+
+    protected void tearDown() throws Exception {
+        _conn.close();
+        _db.shutdown();
+        super.tearDown();
+    }
+
+    public void testCacheIsOffByDefault() throws Exception {
+        Database db = new MemoryDatabase("nocachetest");
+        try {
+            assertNull(db.getCommandCache());
+        } finally {
+            db.shutdown();
+        }
+    }
+
+    public void testIdleCommandHoldsNoRowsOrBindings() throws Exception {
+        assertEquals(1, selectById(3));
+        assertEquals(1, _cache.size());
+
+        AxionCommand cmd = _cache.checkOut(SELECT_BY_ID);
+        assertTrue(cmd instanceof SelectCommand);
+        assertNull(((SelectCommand) cmd).getQueryContext().getRows());
+        assertNull(cmd.getResultSet());
+        assertFalse(((BindVariable) cmd.getBindVariables().get(0)).isBound());
+        _cache.checkIn(SELECT_BY_ID, cmd, _cache.getGeneration());
+
+        assertEquals(1, selectById(4));
+        assertEquals(2, _cache.getHitCount());
+    }
+
+    public void testIndexChangesEmptyCache() throws Exception {
+        selectById(3);
+        assertEquals(1, _cache.size());
+        execute("create index T_ID on T ( id )");
+        assertEquals(0, _cache.size());
+
+        selectById(3);
+        assertEquals(1, _cache.size());
+        execute("drop index T_ID");
+        assertEquals(0, _cache.size());
+        assertEquals(0, _cache.getHitCount());
+    }
+
+    public void testAlterTableEmptiesCache() throws Exception {
+        selectById(3);
+        assertEquals(1, _cache.size());
+        execute("alter table T add column code integer");
+        assertEquals(0, _cache.size());
+        assertEquals(1, selectById(3));
+    }
+
+    public void testOnlyPlainQueriesAndRowChangesAreKept() throws Exception {
+        execute("create table S ( id integer )");
+        execute("insert into S select id from T");
+        execute("select id from T where id in ( select id from S )");
+        execute("create sequence SEQ");
+        execute("select SEQ.nextval from T");
+        assertEquals(0, _cache.size());
+
+        execute("update T set name = 'x' where id = 1");
+        execute("delete from T where id = 2");
+        assertEquals(2, _cache.size());
+    }
+
+    private void execute(String sql) throws Exception {
+        Statement stmt = _conn.createStatement();
+        stmt.execute(sql);
+        stmt.close();
+    }
+
+    private int selectById(int id) throws Exception {
+        PreparedStatement stmt = _conn.prepareStatement(SELECT_BY_ID);
+        stmt.setInt(1, id);
+        ResultSet rs = stmt.executeQuery();
+        int count = 0;
+        while (rs.next()) {
+            assertEquals(id, rs.getInt(1));
+            count++;
+        }
+        rs.close();
+        stmt.close();
+        return count;
+    }
+
+    private static final String SELECT_BY_ID = "select id from T where id = ?";
+
+    private CommandCache _cache;
+    private Connection _conn;
+    private Database _db;
+}
@@ -0,0 +1,225 @@
+/*
+ * 
+ * =======================================================================
+ * Copyright (c) 2002-2005 Axion Development Team.  All rights reserved.
+ *  
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions 
+ * are met:
+ * 
+ * 1. Redistributions of source code must retain the above 
+ *    copyright notice, this list of conditions and the following 
+ *    disclaimer. 
+ *   
+ * 2. Redistributions in binary form must reproduce the above copyright 
+ *    notice, this list of conditions and the following disclaimer in 
+ *    the documentation and/or other materials provided with the 
+ *    distribution. 
+ *   
+ * 3. The names "Tigris", "Axion", nor the names of its contributors may 
+ *    not be used to endorse or promote products derived from this 
+ *    software without specific prior written permission. 
+ *  
+ * 4. Products derived from this software may not be called "Axion", nor 
+ *    may "Tigris" or "Axion" appear in their names without specific prior
+ *    written permission.
+ *   
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT 
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, 
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT 
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * =======================================================================
+ */
+
+package org.axiondb.util;
+
+import java.io.File;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.collections.primitives.ArrayIntList;
+import org.apache.commons.collections.primitives.IntListIterator;
+import org.axiondb.types.IntegerType;
+
+/**
+ * @version  
+ */
+public class TestPagedBTree extends TestCase {
+
+    public TestPagedBTree(String testName) {
+        super(testName);
+    }
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        _file = new File(new File("target"), "pagedbtree.pages");
+        _file.getParentFile().mkdirs();
+        _file.delete();
+    }
+
+    protected void tearDown() throws Exception {
+        _file.delete();
+        super.tearDown();
+    }
+
+    public void testSplitsKeepKeyOrder() throws Exception {
+        PagedBTree tree = new PagedBTree(null, PAGE_SIZE, 16, new IntegerType());
+        // insert in a scrambled order, with a duplicate of every key and some nulls
+        for (int i = 0; i < COUNT; i++) {
+            int key = (i * 7919) % COUNT;
+            tree.insert(Integer.valueOf(key), key);
+            tree.insert(Integer.valueOf(key), COUNT + key);
+        }
+        tree.insert(NullObject.INSTANCE, -1);
+        tree.insert(null, -2);
+        assertEquals(2 * COUNT + 2, tree.size());
+        assertTrue(tree.getPageCount() > 16);
+
+        assertOrdered(tree);
+        assertIds(new int[] { 5, COUNT + 5 }, tree.getAll(Integer.valueOf(5)));
+        assertIds(new int[] { -2, -1 }, tree.getAll(NullObject.INSTANCE));
+        assertNull(tree.get(Integer.valueOf(COUNT)));
+        assertEquals(2 * COUNT, count(tree.getAllExcludingNull()));
+        assertEquals(2 * 10, count(tree.getAllFrom(Integer.valueOf(COUNT - 10))));
+        assertEquals(2 * 10, count(tree.getAllTo(Integer.valueOf(10))));
+    }
+
+    public void testDeletesThatEmptyLeaves() throws Exception {
+        PagedBTree tree = new PagedBTree(null, PAGE_SIZE, 16, new IntegerType());
+        for (int i = 0; i < COUNT; i++) {
+            tree.insert(Integer.valueOf(i), i);
+        }
+        int pages = tree.getPageCount();
+
+        // empty every leaf below COUNT - 10
+        for (int i = 0; i < COUNT - 10; i++) {
+            assertTrue(tree.delete(Integer.valueOf(i), i));
+        }
+        assertFalse(tree.delete(Integer.valueOf(0), 0));
+        assertEquals(10, tree.size());
+        assertEquals(10, count(tree.inorderIterator()));
+        assertNull(tree.get(Integer.valueOf(0)));
+        assertEquals(Integer.valueOf(COUNT - 1), tree.get(Integer.valueOf(COUNT - 1)));
+
+        // the emptied pages are still linked in and can be filled again
+        for (int i = 0; i < COUNT - 10; i++) {
+            tree.insert(Integer.valueOf(i), i);
+        }
+        assertEquals(COUNT, tree.size());
+        assertOrdered(tree);
+        assertTrue(tree.getPageCount() <= 2 * pages);
+
+        tree.replaceId(Integer.valueOf(3), 3, 33);
+        assertIds(new int[] { 33 }, tree.getAll(Integer.valueOf(3)));
+    }
+
+    public void testSaveAndReopen() throws Exception {
+        PagedBTree tree = new PagedBTree(null, PAGE_SIZE, 16, new IntegerType());
+        for (int i = 0; i < COUNT; i++) {
+            tree.insert(Integer.valueOf(i % 100), i);
+        }
+        tree.insert(null, -1);
+        assertTrue(tree.getBufferPool().getResidentPageCount() <= 16);
+        tree.save(_file);
+
+        tree = new PagedBTree(_file, PAGE_SIZE, 16, new IntegerType());
+        assertEquals(COUNT + 1, tree.size());
+        assertOrdered(tree);
+        assertEquals(COUNT / 100, count(tree.getAll(Integer.valueOf(42))));
+
+        tree.delete(Integer.valueOf(42), 42);
+        tree.insert(Integer.valueOf(1000), 1000);
+        tree.save(null);
+
+        tree = new PagedBTree(_file, PAGE_SIZE, 16, new IntegerType());
+        assertEquals(COUNT + 1, tree.size());
+        assertEquals(COUNT / 100 - 1, count(tree.getAll(Integer.valueOf(42))));
+        assertEquals(Integer.valueOf(1000), tree.get(Integer.valueOf(1000)));
+    }
+
+    public void testBulkLoad() throws Exception {
+        java.util.List keys = new java.util.ArrayList();
+        ArrayIntList ids = new ArrayIntList();
+        for (int i = COUNT - 1; i >= 0; i--) {
+            add(keys, (i % 50 == 0) ? null : Integer.valueOf(i / 2));
+            ids.add(i);
+        }
+        PagedBTree tree = new PagedBTree(null, PAGE_SIZE, 16, new IntegerType());
+        tree.bulkLoad(keys, ids);
+        assertEquals(COUNT, tree.size());
+        assertOrdered(tree);
+        assertEquals(COUNT / 50, count(tree.getAll(NullObject.INSTANCE)));
+        assertEquals(2, count(tree.getAll(Integer.valueOf(7))));
+
+        tree.save(_file);
+        tree = new PagedBTree(_file, PAGE_SIZE, 16, new IntegerType());
+        assertEquals(COUNT, tree.size());
+        assertOrdered(tree);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void add(java.util.List list, Object value) {
+        list.add(value);
+    }
+
+    /**
+     * Asserts that the tree iterates null keys first, then non-decreasing keys.
+     */
+    private static void assertOrdered(PagedBTree tree) throws Exception {
+        int nulls = count(tree.getAll(NullObject.INSTANCE));
+        int seen = 0;
+        int last = Integer.MIN_VALUE;
+        for (IntListIterator iter = tree.getAllExcludingNull(); iter.hasNext(); seen++) {
+            int rowid = iter.next();
+            int key = keyOf(tree, rowid, last);
+            assertTrue("Key " + key + " after " + last, key >= last);
+            last = key;
+        }
+        assertEquals(tree.size(), nulls + seen);
+    }
+
+    /**
+     * Finds the key of the given row id by probing keys from <code>from</code> up.
+     */
+    private static int keyOf(PagedBTree tree, int rowid, int from) throws Exception {
+        for (int key = Math.max(from, 0); key <= 1000; key++) {
+            for (IntListIterator iter = tree.getAll(Integer.valueOf(key)); iter.hasNext();) {
+                if (iter.next() == rowid) {
+                    return key;
+                }
+            }
+        }
+        fail("No key for row " + rowid);
+        return -1;
+    }
+
+    private static void assertIds(int[] expected, IntListIterator iter) {
+        ArrayIntList actual = new ArrayIntList();
+        while (iter.hasNext()) {
+            actual.add(iter.next());
+        }
+        assertEquals(expected.length, actual.size());
+        for (int i = 0; i < expected.length; i++) {
+            assertTrue("Missing " + expected[i] + " in " + actual, actual.contains(expected[i]));
+        }
+    }
+
+    private static int count(IntListIterator iter) {
+        int count = 0;
+        for (; iter.hasNext(); iter.next()) {
+            count++;
+        }
+        return count;
+    }
+
+    private static final int PAGE_SIZE = 256;
+    private static final int COUNT = 600;
+    private File _file;
+}